@@ -14,6 +14,7 @@ import java.io.IOException;
 
 import org.apache.hadoop.io.Text;
 
+import edu.umn.cs.spatialHadoop.io.TextCursor;
 import edu.umn.cs.spatialHadoop.io.TextSerializerHelper;
 
 
@@ -119,7 +120,9 @@ public class CellInfo extends Rectangle {
   
   @Override
   public void fromText(Text text) {
-    this.cellId = TextSerializerHelper.consumeInt(text, ',');
+    TextCursor cursor = new TextCursor(text);
+    this.cellId = cursor.nextInt(',');
+    cursor.commit();
     super.fromText(text);
   }
   
@@ -16,6 +16,7 @@ import java.io.IOException;
 
 import org.apache.hadoop.io.Text;
 
+import edu.umn.cs.spatialHadoop.io.TextCursor;
 import edu.umn.cs.spatialHadoop.io.TextSerializerHelper;
 
 /**
@@ -90,9 +91,11 @@ public class Circle extends Arc2D.Double implements Shape {
 
   @Override
   public void fromText(Text text) {
-    double x = TextSerializerHelper.consumeDouble(text, ',');
-    double y = TextSerializerHelper.consumeDouble(text, ',');
-    double r = TextSerializerHelper.consumeDouble(text, '\0');
+    TextCursor cursor = new TextCursor(text);
+    double x = cursor.nextDouble(',');
+    double y = cursor.nextDouble(',');
+    double r = cursor.nextDouble('\0');
+    cursor.commit();
     set(x, y, r);
   }
   
@@ -20,6 +20,14 @@ import java.util.Map;
 import java.util.Stack;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import edu.umn.cs.spatialHadoop.util.Parallel;
 import org.apache.commons.logging.Log;
@@ -822,27 +830,38 @@ public class SpatialAlgorithms {
   }
 
 
+  /**Number of polygons that are merged together in one batch*/
+  private static final int MaxBatchSize = 500;
+
   /**
-   * Union a group of (overlapping) geometries. It runs as follows.
-   * <ol>
-   *  <li>All polygons are sorted by the x-dimension of their left most point</li>
-   *  <li>We run a plane-sweep algorithm that keeps merging polygons in batches of 500 objects</li>
-   *  <li>As soon as part of the answer is to the left of the sweep-line, it
-   *   is finalized and reported to the output</li>
-   *  <li>As the sweep line reaches the far right, all remaining polygons are
-   *   merged and the answer is reported</li>
-   * </ol>
-   * @param geoms
-   * @return
-   * @throws IOException 
+   * Worker threads shared by all calls of
+   * {@link #multiUnion(Geometry[], Progressable, ResultCollector)}.
+   * Created on first use.
    */
-  public static int unionGroup(final Geometry[] geoms,
-      final Progressable prog, ResultCollector<Geometry> output) throws IOException {
-    if (geoms.length == 1) {
-      output.collect(geoms[0]);
-      return 1;
+  private static ExecutorService sharedUnionWorkers;
+
+  private static synchronized ExecutorService getSharedUnionWorkers() {
+    if (sharedUnionWorkers == null) {
+      sharedUnionWorkers = Executors.newFixedThreadPool(
+          Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "Union");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
     }
-    // Sort objects by x to increase the chance of merging overlapping objects
+    return sharedUnionWorkers;
+  }
+
+  /**
+   * Sorts the given geometries by the x-coordinate of their left most point
+   * which is also stored as the user data of each geometry. This increases
+   * the chance of merging overlapping geometries together.
+   * @param geoms
+   */
+  private static void sortByMinX(Geometry[] geoms) {
     for (Geometry geom : geoms) {
       Coordinate[] coords = geom.getEnvelope().getCoordinates();
       double minx = Math.min(coords[0].x, coords[2].x);
@@ -860,8 +879,30 @@ public class SpatialAlgorithms {
       }
     });
     LOG.debug("Sorted "+geoms.length+" geometries by x");
+  }
+
+  /**
+   * Union a group of (overlapping) geometries. It runs as follows.
+   * <ol>
+   *  <li>All polygons are sorted by the x-dimension of their left most point</li>
+   *  <li>We run a plane-sweep algorithm that keeps merging polygons in batches of 500 objects</li>
+   *  <li>As soon as part of the answer is to the left of the sweep-line, it
+   *   is finalized and reported to the output</li>
+   *  <li>As the sweep line reaches the far right, all remaining polygons are
+   *   merged and the answer is reported</li>
+   * </ol>
+   * @param geoms
+   * @return
+   * @throws IOException 
+   */
+  public static int unionGroup(final Geometry[] geoms,
+      final Progressable prog, ResultCollector<Geometry> output) throws IOException {
+    if (geoms.length == 1) {
+      output.collect(geoms[0]);
+      return 1;
+    }
+    sortByMinX(geoms);
   
-    final int MaxBatchSize = 500;
     // All polygons that are to the right of the sweep line
     List<Geometry> nonFinalPolygons = new ArrayList<Geometry>();
     int resultSize = 0;
@@ -922,6 +963,26 @@ public class SpatialAlgorithms {
     return resultSize;
   }
   
+  /**
+   * Computes the union of multiple groups of polygons using a pool of worker
+   * threads, one per available processor, that is shared by all the calls
+   * of this method in this process.
+   * See {@link #multiUnion(Geometry[], Progressable, ResultCollector, int)}.
+   * Callers that already run in parallel should use that method with a
+   * parallelism of one instead.
+   * @param geoms
+   * @param prog
+   * @param output
+   * @return
+   * @throws IOException
+   */
+  public static int multiUnion(Geometry[] geoms, final Progressable prog,
+      ResultCollector<Geometry> output) throws IOException {
+    if (Runtime.getRuntime().availableProcessors() <= 1)
+      return multiUnion(geoms, prog, output, 1);
+    return multiUnion(geoms, prog, output, getSharedUnionWorkers());
+  }
+
   /**
    * Computes the union of multiple groups of polygons. The algorithm runs in
    * the following steps.
@@ -931,17 +992,56 @@ public class SpatialAlgorithms {
    *  <li>Polygons are grouped into groups of overlapping polygons using
    *  {@link #groupPolygons(Geometry[], Progressable)} so that we
    *   can compute the answer of each group separately</li>
-   *  <li>The union of each group is computed using the {@link #unionGroup(Geometry[], Progressable, ResultCollector)}
-   *   function</li>
+   *  <li>Small groups are unioned concurrently, each one using the
+   *   {@link #unionGroup(Geometry[], Progressable, ResultCollector)} function.
+   *   Large groups are unioned one at a time using a cascaded union where the
+   *   batches of each level are unioned concurrently.</li>
    * </ol>
+   * The output collector is only called by one thread at a time.
    * @param geoms
    * @param prog
    * @param output
+   * @param parallelism - maximum number of threads to use
    * @return
    * @throws IOException
    */
   public static int multiUnion(Geometry[] geoms, final Progressable prog,
-      ResultCollector<Geometry> output) throws IOException {
+      final ResultCollector<Geometry> output, int parallelism) throws IOException {
+    if (parallelism <= 1) {
+      final Geometry[] basicShapes = flattenGeometries(geoms);
+      prog.progress();
+
+      final Geometry[][] groups = groupPolygons(basicShapes, prog);
+      prog.progress();
+
+      int resultSize = 0;
+      for (Geometry[] group : groups) {
+        resultSize += unionGroup(group, prog, output);
+        prog.progress();
+      }
+      return resultSize;
+    }
+    ExecutorService workers = Executors.newFixedThreadPool(parallelism);
+    try {
+      return multiUnion(geoms, prog, output, workers);
+    } finally {
+      workers.shutdownNow();
+    }
+  }
+
+  /**
+   * Computes the union of multiple groups of polygons using the given worker
+   * threads. The workers can be shared with other concurrent calls as the
+   * tasks never wait for each other.
+   * @param geoms
+   * @param prog
+   * @param output
+   * @param workers
+   * @return
+   * @throws IOException
+   */
+  private static int multiUnion(Geometry[] geoms, final Progressable prog,
+      final ResultCollector<Geometry> output, ExecutorService workers) throws IOException {
     final Geometry[] basicShapes = flattenGeometries(geoms);
     prog.progress();
     
@@ -949,13 +1049,150 @@ public class SpatialAlgorithms {
     prog.progress();
     
     int resultSize = 0;
-    for (Geometry[] group : groups) {
-      resultSize += unionGroup(group, prog, output);
-      prog.progress();
+
+    // Worker threads only report that they are alive. The overall progress is
+    // reported by this thread as the tasks finish.
+    final Progressable workerProg = new Progressable.NullProgressable() {
+      @Override
+      public void progress() {
+        synchronized (prog) {
+          prog.progress();
+        }
+      }
+    };
+    final ResultCollector<Geometry> syncOutput = output == null ? null :
+      new ResultCollector<Geometry>() {
+        @Override
+        public synchronized void collect(Geometry r) {
+          output.collect(r);
+        }
+      };
+    // The small groups run in the background while the large groups are
+    // processed. Only this thread waits for tasks, so the tasks can never
+    // block the workers.
+    List<Future<Integer>> smallGroups = new ArrayList<Future<Integer>>();
+    try {
+      for (final Geometry[] group : groups) {
+        if (group.length <= MaxBatchSize) {
+          smallGroups.add(workers.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws IOException {
+              return unionGroup(group, workerProg, syncOutput);
+            }
+          }));
+        }
+      }
+      int numFinishedGroups = 0;
+      for (Geometry[] group : groups) {
+        if (group.length > MaxBatchSize) {
+          resultSize += cascadedUnion(group, workers, workerProg, prog, syncOutput);
+          synchronized (prog) {
+            prog.progress(++numFinishedGroups / (float) groups.length);
+          }
+        }
+      }
+      for (Future<Integer> smallGroup : smallGroups) {
+        resultSize += waitFor(smallGroup, prog);
+        synchronized (prog) {
+          prog.progress(++numFinishedGroups / (float) groups.length);
+        }
+      }
+    } finally {
+      // Stop the remaining tasks of this call if it fails
+      cancelAll(smallGroups);
     }
-    
     return resultSize;
   }
+
+  /**
+   * Computes the union of one large group of overlapping polygons using the
+   * given workers. The polygons are sorted by x and split into batches which
+   * are unioned concurrently. The results of each two consecutive batches are
+   * then unioned together, level by level, in a balanced binary tree until
+   * only one geometry remains.
+   * @param geoms
+   * @param workers - the workers that union the batches concurrently
+   * @param workerProg - the progress reported by the workers
+   * @param prog - the progress of the calling thread
+   * @param output
+   * @return
+   * @throws IOException
+   */
+  private static int cascadedUnion(Geometry[] geoms, ExecutorService workers,
+      final Progressable workerProg, Progressable prog,
+      ResultCollector<Geometry> output) throws IOException {
+    sortByMinX(geoms);
+    List<List<Geometry>> batches = new ArrayList<List<Geometry>>();
+    for (int i = 0; i < geoms.length; i += MaxBatchSize)
+      batches.add(Arrays.asList(geoms).subList(i, Math.min(geoms.length, i + MaxBatchSize)));
+    while (true) {
+      List<Future<Geometry>> unions = new ArrayList<Future<Geometry>>();
+      for (final List<Geometry> batch : batches) {
+        unions.add(workers.submit(new Callable<Geometry>() {
+          @Override
+          public Geometry call() throws IOException {
+            return safeUnion(batch, workerProg);
+          }
+        }));
+      }
+      List<Geometry> level = new ArrayList<Geometry>();
+      try {
+        for (Future<Geometry> union : unions)
+          level.add(waitFor(union, prog));
+      } finally {
+        cancelAll(unions);
+      }
+      if (level.size() == 1) {
+        Geometry union = level.get(0);
+        for (int n = 0; n < union.getNumGeometries(); n++) {
+          if (output != null)
+            output.collect(union.getGeometryN(n));
+        }
+        return union.getNumGeometries();
+      }
+      // Pair each two consecutive results for the next level
+      batches.clear();
+      for (int i = 0; i < level.size(); i += 2)
+        batches.add(level.subList(i, Math.min(level.size(), i + 2)));
+    }
+  }
+
+  /**
+   * Cancels all the given tasks that did not finish yet
+   * @param tasks
+   */
+  private static void cancelAll(List<? extends Future<?>> tasks) {
+    for (Future<?> task : tasks)
+      task.cancel(true);
+  }
+
+  /**
+   * Waits for a task to finish while reporting the progress to avoid being
+   * killed by Hadoop for being idle.
+   * @param task
+   * @param prog
+   * @return
+   * @throws IOException
+   */
+  private static <T> T waitFor(Future<T> task, Progressable prog) throws IOException {
+    while (true) {
+      try {
+        return task.get(10, TimeUnit.SECONDS);
+      } catch (TimeoutException e) {
+        synchronized (prog) {
+          prog.progress();
+        }
+      } catch (InterruptedException e) {
+        throw new IOException("Interrupted while computing the union", e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException)
+          throw (IOException) e.getCause();
+        if (e.getCause() instanceof RuntimeException)
+          throw (RuntimeException) e.getCause();
+        throw new IOException("Error computing the union", e.getCause());
+      }
+    }
+  }
   
   public static long spatialJoinLocal(Path[] inFiles, Path outFile, OperationsParams params) throws IOException, InterruptedException {
       // Read the inputs and store them in memory
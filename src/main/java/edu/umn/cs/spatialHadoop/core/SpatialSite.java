@@ -128,6 +128,39 @@ public class SpatialSite {
   public static final String MaxBytesInOneRead =
       "spatialHadoop.mapred.MaxBytesPerRead";
 
+  /**
+   * Maximum number of global indexes that are kept in memory by
+   * {@link #getGlobalIndex(FileSystem, Path)}. Set to zero to disable caching.
+   * It is read once from the default configuration, e.g., spatial-site.xml,
+   * when this class is loaded.
+   */
+  public static final String GlobalIndexCacheSize =
+      "spatialHadoop.storage.GlobalIndexCacheSize";
+
+  /**A global index parsed from a master file along with the file version*/
+  private static class CachedGlobalIndex {
+    long modificationTime;
+    long length;
+    GlobalIndex<Partition> gindex;
+  }
+
+  /**Maximum number of entries in {@link #globalIndexCache}*/
+  private static final int globalIndexCacheSize;
+
+  /**
+   * A process-wide LRU cache of the global indexes parsed from master files.
+   * The key is the path of the master file. A cached entry is used only if
+   * the master file still has the same modification time and length.
+   */
+  @SuppressWarnings("serial")
+  private static final Map<Path, CachedGlobalIndex> globalIndexCache =
+      new LinkedHashMap<Path, CachedGlobalIndex>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Path, CachedGlobalIndex> eldest) {
+      return size() > globalIndexCacheSize;
+    }
+  };
+
   public static byte[] RTreeFileMarkerB;
 
   public static final Map<String, Class<? extends Shape>> CommonShapes =
@@ -154,6 +187,7 @@ public class SpatialSite {
     // Load configuration from files
     Configuration.addDefaultResource("spatial-default.xml");
     Configuration.addDefaultResource("spatial-site.xml");
+    globalIndexCacheSize = new Configuration().getInt(GlobalIndexCacheSize, 100);
 
     // Load YAML file
     Yaml yaml = new Yaml();
@@ -379,6 +413,49 @@ public class SpatialSite {
     return OperationsParams.getShape(conf, param);
   }
 
+  /**
+   * Returns the global index stored in the given master file. Parsed global
+   * indexes are cached in memory so that repeated calls for the same version
+   * of the master file do not read and parse it again. Each caller gets its
+   * own copy of the cached index which it can modify freely.
+   * @param fs
+   * @param masterFile
+   * @return
+   * @throws IOException
+   */
+  private static GlobalIndex<Partition> getGlobalIndex(FileSystem fs,
+      FileStatus masterFile) throws IOException {
+    Path key = masterFile.getPath();
+    synchronized (globalIndexCache) {
+      CachedGlobalIndex cached = globalIndexCache.get(key);
+      if (cached != null && cached.modificationTime == masterFile.getModificationTime()
+          && cached.length == masterFile.getLen())
+        return cached.gindex.copy();
+    }
+    ShapeIterRecordReader reader = new ShapeIterRecordReader(
+        fs.open(masterFile.getPath()), 0, masterFile.getLen());
+    Rectangle dummy = reader.createKey();
+    reader.setShape(new Partition());
+    ShapeIterator values = reader.createValue();
+    ArrayList<Partition> partitions = new ArrayList<Partition>();
+    while (reader.next(dummy, values)) {
+      for (Shape value : values) {
+        partitions.add((Partition) value.clone());
+      }
+    }
+    reader.close();
+    GlobalIndex<Partition> globalIndex = new GlobalIndex<Partition>();
+    globalIndex.bulkLoad(partitions.toArray(new Partition[partitions.size()]));
+    CachedGlobalIndex cached = new CachedGlobalIndex();
+    cached.modificationTime = masterFile.getModificationTime();
+    cached.length = masterFile.getLen();
+    cached.gindex = globalIndex;
+    synchronized (globalIndexCache) {
+      globalIndexCache.put(key, cached);
+    }
+    return globalIndex.copy();
+  }
+
   /**
    * Returns the global index (partitions) of a file that is indexed using
    * the index command. If the file is not indexed, it returns null.
@@ -410,20 +487,7 @@ public class SpatialSite {
         }
       }
       if (masterFile != null) {
-        ShapeIterRecordReader reader = new ShapeIterRecordReader(
-            fs.open(masterFile.getPath()), 0, masterFile.getLen());
-        Rectangle dummy = reader.createKey();
-        reader.setShape(new Partition());
-        ShapeIterator values = reader.createValue();
-        ArrayList<Partition> partitions = new ArrayList<Partition>();
-        while (reader.next(dummy, values)) {
-          for (Shape value : values) {
-            partitions.add((Partition) value.clone());
-          }
-        }
-        GlobalIndex<Partition> globalIndex = new GlobalIndex<Partition>();
-        globalIndex.bulkLoad(partitions.toArray(new Partition[partitions.size()]));
-        return globalIndex;
+        return getGlobalIndex(fs, masterFile);
       } else if (nasaFiles > allFiles.length / 2) {
         // A folder that contains HDF files
         // Create a global index on the fly for these files based on their names
@@ -179,7 +179,10 @@ public class DelaunayTriangulation {
         triangulations.add(t.clone());
       }
 
-      GSDTAlgorithm algo = GSDTAlgorithm.mergeTriangulations(triangulations, context);
+      int parallelism = context.getConfiguration().getInt("parallel",
+          Runtime.getRuntime().availableProcessors());
+      GSDTAlgorithm algo = GSDTAlgorithm.mergeTriangulations(triangulations,
+          context, parallelism);
       
       Triangulation finalPart = new Triangulation();
       Triangulation nonfinalPart = new Triangulation();
@@ -316,7 +319,8 @@ public class DelaunayTriangulation {
     }
     
     LOG.info("Computing DT for "+allPoints.length+" points");
-    GSDTAlgorithm dtAlgorithm = new GSImprovedAlgorithm(allPoints, null);
+    GSDTAlgorithm dtAlgorithm = new GSImprovedAlgorithm(allPoints, null,
+        params.getInt("parallel", Runtime.getRuntime().availableProcessors()));
     LOG.info("DT computed");
     
     Rectangle mbr = FileMBR.fileMBR(inPaths, params);
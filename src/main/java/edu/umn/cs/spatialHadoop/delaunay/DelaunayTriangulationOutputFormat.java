@@ -161,8 +161,10 @@ public class DelaunayTriangulationOutputFormat extends
           finalAnswer.makeFinal();
         } else {
           System.out.println("Merging "+allTriangulations.size()+" triangulations");
+          int parallelism = context.getConfiguration().getInt("parallel",
+              Runtime.getRuntime().availableProcessors());
           finalAnswer = GSDTAlgorithm.mergeTriangulations(
-              allTriangulations, task).getFinalTriangulation();
+              allTriangulations, task, parallelism).getFinalTriangulation();
         }
         // Write the final answer to the output and delete intermediate files
         System.out.println("Writing final output");
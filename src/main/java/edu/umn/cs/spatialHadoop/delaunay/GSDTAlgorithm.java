@@ -29,6 +29,8 @@ import edu.umn.cs.spatialHadoop.core.Point;
 import edu.umn.cs.spatialHadoop.core.Rectangle;
 import edu.umn.cs.spatialHadoop.util.BitArray;
 import edu.umn.cs.spatialHadoop.util.IntArray;
+import edu.umn.cs.spatialHadoop.util.Parallel;
+import edu.umn.cs.spatialHadoop.util.Parallel.RunnableRange;
 
 /**
  * The divide and conquer Delaunay Triangulation (DT) algorithm as proposed in
@@ -72,8 +74,14 @@ public class GSDTAlgorithm {
    */
   protected Progressable progress;
 
-  /**A temporary array used to compute sums accurately using {@link IFastSum}*/
-  private transient double[] values = new double[17];
+  /**
+   * Minimum number of sites in a merge step to run its independent merges in
+   * parallel. Smaller steps are faster to run in the calling thread.
+   */
+  static final int ParallelThreshold = 10000;
+
+  /**Maximum number of threads used to merge triangulations*/
+  protected int parallelism = 1;
 
 
   /**
@@ -412,7 +420,20 @@ public class GSDTAlgorithm {
    * @param progress
    */
   public <P extends Point> GSDTAlgorithm(P[] inPoints, Progressable progress) {
+    this(inPoints, progress, 1);
+  }
+
+  /**
+   * Computes the triangulation of the given points using up to the given
+   * number of threads. Merges of disjoint ranges of sites run in parallel.
+   * @param inPoints
+   * @param progress
+   * @param parallelism
+   */
+  public <P extends Point> GSDTAlgorithm(P[] inPoints, Progressable progress,
+      int parallelism) {
     this.progress = progress;
+    this.parallelism = Math.max(1, parallelism);
     this.points = new Point[inPoints.length];
     this.xs = new double[points.length];
     this.ys = new double[points.length];
@@ -487,7 +508,20 @@ public class GSDTAlgorithm {
    * @param progress
    */
   public GSDTAlgorithm(Triangulation[] ts, Progressable progress) {
+    this(ts, progress, 1);
+  }
+
+  /**
+   * Compute the DT by merging existing triangulations using up to the given
+   * number of threads.
+   * @param ts
+   * @param progress
+   * @param parallelism
+   */
+  public GSDTAlgorithm(final Triangulation[] ts, Progressable progress,
+      int parallelism) {
     this.progress = progress;
+    this.parallelism = Math.max(1, parallelism);
     // Copy all triangulations
     int totalPointCount = 0;
     for (Triangulation t : ts)
@@ -502,7 +536,8 @@ public class GSDTAlgorithm {
     for (int i = 0; i < this.neighbors.length; i++)
       this.neighbors[i] = new IntArray();
     
-    IntermediateTriangulation[] triangulations = new IntermediateTriangulation[ts.length];
+    final IntermediateTriangulation[] triangulations = new IntermediateTriangulation[ts.length];
+    final int[] pointShifts = new int[ts.length];
     int currentPointsCount = 0;
     for (int it = 0; it < ts.length; it++) {
       Triangulation t = ts[it];
@@ -515,13 +550,25 @@ public class GSDTAlgorithm {
         this.ys[i] = points[i].y;
         this.reportedSites.set(i, t.reportedSites.get(i - currentPointsCount));
       }
-      
-      // Create a corresponding partial answer
-      triangulations[it] = new IntermediateTriangulation(t, currentPointsCount);
-      
+      pointShifts[it] = currentPointsCount;
       currentPointsCount += t.sites.length;
     }
 
+    // Create the corresponding partial answers. Each one touches only the
+    // edges of its own sites so they can be created in parallel
+    RunnableRange<Object> createPartialAnswers = new RunnableRange<Object>() {
+      @Override
+      public Object run(int i1, int i2) {
+        for (int it = i1; it < i2; it++)
+          triangulations[it] = new IntermediateTriangulation(ts[it], pointShifts[it]);
+        return null;
+      }
+    };
+    if (this.parallelism > 1 && totalPointCount >= ParallelThreshold)
+      runInParallel(ts.length, createPartialAnswers);
+    else
+      createPartialAnswers.run(0, ts.length);
+
     if (progress != null)
       progress.progress();
     this.finalAnswer = mergeAllTriangulations(triangulations);
@@ -537,6 +584,21 @@ public class GSDTAlgorithm {
    */
   static GSDTAlgorithm mergeTriangulations(
       List<Triangulation> triangulations, Progressable progress) {
+    return mergeTriangulations(triangulations, progress, 1);
+  }
+
+  /**
+   * Merges a set of triangulations in any sort order using up to the given
+   * number of threads. Columns are merged in parallel and then the final
+   * horizontal merge runs its independent merges in parallel.
+   * @param triangulations
+   * @param progress
+   * @param parallelism
+   * @return
+   */
+  static GSDTAlgorithm mergeTriangulations(
+      List<Triangulation> triangulations, final Progressable progress,
+      final int parallelism) {
     // Arrange triangulations column-by-column
     List<List<Triangulation>> columns = new ArrayList<List<Triangulation>>();
     int numTriangulations = 0;
@@ -565,27 +627,45 @@ public class GSDTAlgorithm {
     
     LOG.debug("Merging "+numTriangulations+" triangulations in "+columns.size()+" columns" );
     
-    List<Triangulation> mergedColumns = new ArrayList<Triangulation>();
-    // Merge all triangulations together column-by-column
-    for (List<Triangulation> column : columns) {
-      // Sort this column by y-axis
-      Collections.sort(column, new Comparator<Triangulation>() {
-        @Override
-        public int compare(Triangulation t1, Triangulation t2) {
-          double dy = t1.mbr.y1 - t2.mbr.y1;
-          if (dy < 0)
-            return -1;
-          if (dy > 0)
-            return 1;
-          return 0;
+    final List<List<Triangulation>> finalColumns = columns;
+    final Triangulation[] mergedColumnsArray = new Triangulation[columns.size()];
+    // Merge all triangulations together column-by-column. Columns are
+    // independent so they are merged in parallel
+    RunnableRange<Object> mergeColumns = new RunnableRange<Object>() {
+      @Override
+      public Object run(int i1, int i2) {
+        for (int iColumn = i1; iColumn < i2; iColumn++) {
+          List<Triangulation> column = finalColumns.get(iColumn);
+          // Sort this column by y-axis
+          Collections.sort(column, new Comparator<Triangulation>() {
+            @Override
+            public int compare(Triangulation t1, Triangulation t2) {
+              double dy = t1.mbr.y1 - t2.mbr.y1;
+              if (dy < 0)
+                return -1;
+              if (dy > 0)
+                return 1;
+              return 0;
+            }
+          });
+
+          LOG.debug("Merging "+column.size()+" triangulations vertically");
+          // Split the threads among the columns
+          int columnParallelism = Math.max(1, parallelism / finalColumns.size());
+          GSDTAlgorithm algo = new GSDTAlgorithm(
+              column.toArray(new Triangulation[column.size()]), progress,
+              columnParallelism);
+          mergedColumnsArray[iColumn] = algo.getFinalTriangulation();
         }
-      });
-  
-      LOG.debug("Merging "+column.size()+" triangulations vertically");
-      GSDTAlgorithm algo =
-          new GSDTAlgorithm(column.toArray(new Triangulation[column.size()]), progress);
-      mergedColumns.add(algo.getFinalTriangulation());
-    }
+        return null;
+      }
+    };
+    if (parallelism > 1 && columns.size() > 1)
+      runInParallel(columns.size(), mergeColumns, parallelism);
+    else
+      mergeColumns.run(0, columns.size());
+    List<Triangulation> mergedColumns = new ArrayList<Triangulation>(
+        Arrays.asList(mergedColumnsArray));
     
     // Merge the result horizontally
     Collections.sort(mergedColumns, new Comparator<Triangulation>() {
@@ -602,10 +682,34 @@ public class GSDTAlgorithm {
     LOG.debug("Merging "+mergedColumns.size()+" triangulations horizontally");
     GSDTAlgorithm algo = new GSDTAlgorithm(
         mergedColumns.toArray(new Triangulation[mergedColumns.size()]),
-        progress);
+        progress, parallelism);
     return algo;
   }
 
+  /**
+   * Runs the given range in parallel using the parallelism of this algorithm.
+   * @param size
+   * @param r
+   */
+  protected void runInParallel(int size, RunnableRange<?> r) {
+    runInParallel(size, r, parallelism);
+  }
+
+  /**
+   * Runs the given range in parallel and rethrows any interruption as a
+   * runtime exception as the algorithm cannot continue with a partial answer.
+   * @param size
+   * @param r
+   * @param parallelism
+   */
+  static <T> List<T> runInParallel(int size, RunnableRange<T> r, int parallelism) {
+    try {
+      return Parallel.forEach(size, r, parallelism);
+    } catch (InterruptedException e) {
+      throw new RuntimeException("Interrupted while computing the triangulation", e);
+    }
+  }
+
   /**
    * Merge two adjacent triangulations into one
    * @param L
@@ -788,19 +892,29 @@ public class GSDTAlgorithm {
         LOG.debug("Merging "+triangulations.length+" triangulations");
         reportTime = currentTime;
       }
-      // Merge every pair of DTs
-      IntermediateTriangulation[] newTriangulations = new IntermediateTriangulation[triangulations.length / 2 + (triangulations.length & 1)];
-      int t2 = 0;
-      int t1;
-      for (t1 = 0; t1 < triangulations.length - 1; t1 += 2) {
-        IntermediateTriangulation dt1 = triangulations[t1];
-        IntermediateTriangulation dt2 = triangulations[t1+1];
-        newTriangulations[t2++] = merge(dt1, dt2);
-        if (progress != null)
-          progress.progress();
-      }
-      if (t1 < triangulations.length)
-        newTriangulations[t2++] = triangulations[t1];
+      // Merge every pair of DTs. Each pair covers a disjoint range of sites
+      // so all pairs can be merged in parallel
+      final IntermediateTriangulation[] ts = triangulations;
+      final IntermediateTriangulation[] newTriangulations = new IntermediateTriangulation[ts.length / 2 + (ts.length & 1)];
+      int numPairs = ts.length / 2;
+      RunnableRange<Object> mergePairs = new RunnableRange<Object>() {
+        @Override
+        public Object run(int i1, int i2) {
+          for (int i = i1; i < i2; i++) {
+            newTriangulations[i] = merge(ts[2 * i], ts[2 * i + 1]);
+            if (progress != null)
+              progress.progress();
+          }
+          return null;
+        }
+      };
+      int numSites = ts[ts.length - 1].site2 - ts[0].site1 + 1;
+      if (parallelism > 1 && numPairs > 1 && numSites >= ParallelThreshold)
+        runInParallel(numPairs, mergePairs);
+      else
+        mergePairs.run(0, numPairs);
+      if ((ts.length & 1) != 0)
+        newTriangulations[numPairs] = ts[ts.length - 1];
       triangulations = newTriangulations;
     }
     return triangulations[0];
@@ -1256,6 +1370,8 @@ public class GSDTAlgorithm {
     // inCircle(p1,p2,p3,p4) = triArea(p2,p3,p4)*norm2(p1) - triArea(p1,p3,p4)*norm2(p2)
     //                        +triArea(p1,p2,p4)*norm2(p3) - triArea(p1,p2,p3)*norm2(p4);
 
+    // A local array to allow concurrent merges
+    double[] values = new double[17];
     double v1 = (xs[p3] - xs[p2]) * (ys[p4] - ys[p2]);
     double v2 = (ys[p3] - ys[p2]) * (xs[p4] - xs[p2]);
     values[1]  = v1 * xs[p1] * xs[p1];
@@ -1286,7 +1402,6 @@ public class GSDTAlgorithm {
     values[15] = -v1 * ys[p4] * ys[p4];
     values[16] =  v2 * ys[p4] * ys[p4];
 
-    IFastSum.r_c = 0;
     return IFastSum.iFastSum(values, 16) > 0;
   }
 
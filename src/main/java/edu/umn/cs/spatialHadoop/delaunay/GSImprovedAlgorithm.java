@@ -1,6 +1,7 @@
 package edu.umn.cs.spatialHadoop.delaunay;
 
 import edu.umn.cs.spatialHadoop.core.Point;
+import edu.umn.cs.spatialHadoop.util.Parallel;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.util.Progressable;
@@ -20,69 +21,175 @@ public class GSImprovedAlgorithm extends GSDTAlgorithm {
 
   static final Log LOG = LogFactory.getLog(GSImprovedAlgorithm.class);
 
+  /**All points sorted by X. This is the same array as the points array*/
+  private Point[] sortedX;
+  /**All points sorted by Y*/
+  private Point[] sortedY;
+  /**A temporary array to partition sorted arrays*/
+  private Point[] newSortedRange;
+
+  /**Sorts points by X and then by Y*/
+  private static final Comparator<Point> comparatorX = new Comparator<Point>() {
+    @Override
+    public int compare(Point p1, Point p2) {
+      int dx = Double.compare(p1.x, p2.x);
+      if (dx != 0)
+        return dx;
+      return Double.compare(p1.y, p2.y);
+    }
+  };
+
+  /**Sorts points by Y and then by X*/
+  private static final Comparator<Point> comparatorY = new Comparator<Point>() {
+    @Override
+    public int compare(Point p1, Point p2) {
+      int dy = Double.compare(p1.y, p2.y);
+      if (dy != 0)
+        return dy;
+      return Double.compare(p1.x, p2.x);
+    }
+  };
+
+  /**A contiguous range of points [pStart, pEnd)*/
+  static class Part {
+    int pStart;
+    int pEnd;
+
+    Part(int start, int end) {
+      this.pStart = start;
+      this.pEnd = end;
+    }
+
+    @Override
+    public String toString() {
+      return "Partition: "+ pStart +","+ pEnd;
+    }
+  }
+
   public <P extends Point> GSImprovedAlgorithm(P[] inPoints, Progressable progress) {
     super(inPoints, progress);
   }
 
+  /**
+   * Computes the triangulation of the given points using up to the given
+   * number of threads.
+   * @param inPoints
+   * @param progress
+   * @param parallelism
+   */
+  public <P extends Point> GSImprovedAlgorithm(P[] inPoints,
+      Progressable progress, int parallelism) {
+    super(inPoints, progress, parallelism);
+  }
+
   public GSImprovedAlgorithm(Triangulation[] ts, Progressable progress) {
     super(ts, progress);
   }
 
   @Override
   protected IntermediateTriangulation computeTriangulation(int rstart, int rend) {
-    final Point[] sortedX = this.points;
-    final Point[] sortedY = this.points.clone();
+    sortedX = this.points;
+    sortedY = this.points.clone();
 
     // Sort all points and record the order of merging
-    class Part {
-      int pStart;
-      int pEnd;
+    Arrays.sort(sortedX, comparatorX);
+    Arrays.sort(sortedY, comparatorY);
+    newSortedRange = new Point[points.length];
 
-      Part(int start, int end) {
-        this.pStart = start;
-        this.pEnd = end;
-      }
+    // The number of levels to split in parallel to use all threads
+    int parallelLevels = 0;
+    while ((1 << parallelLevels) < parallelism)
+      parallelLevels++;
+    IntermediateTriangulation answer = triangulate(new Part(rstart, rend), parallelLevels);
+    newSortedRange = null;
+    sortedY = null;
+    return answer;
+  }
 
+  /**
+   * Computes the triangulation of the given part. The top levels of the
+   * recursion are forked into two threads, one for each half, and the two
+   * halves are merged after both finish. Each half touches only its own range
+   * of sites so the two threads never touch the same data.
+   * @param part
+   * @param parallelLevels number of levels to split in parallel
+   * @return
+   */
+  private IntermediateTriangulation triangulate(final Part part, final int parallelLevels) {
+    if (parallelLevels == 0 || part.pEnd - part.pStart < ParallelThreshold)
+      return triangulateSerial(part);
+    final int middle = partition(part);
+    if (middle == -1)
+      return triangulateSerial(part);
+    List<IntermediateTriangulation> halves = runInParallel(2, new Parallel.RunnableRange<IntermediateTriangulation>() {
       @Override
-      public String toString() {
-        return "Partition: "+ pStart +","+ pEnd;
+      public IntermediateTriangulation run(int i1, int i2) {
+        Part half = i1 == 0 ? new Part(part.pStart, middle) : new Part(middle, part.pEnd);
+        return triangulate(half, parallelLevels - 1);
       }
-    };
+    }, 2);
+    if (progress != null)
+      progress.progress();
+    return merge(halves.get(0), halves.get(1));
+  }
 
-    // Sort the list by X
-    Comparator<Point> comparatorX = new Comparator<Point>() {
-      @Override
-      public int compare(Point p1, Point p2) {
-        int dx = Double.compare(p1.x, p2.x);
-        if (dx != 0)
-          return dx;
-        return Double.compare(p1.y, p2.y);
-      }
-    };
-    Arrays.sort(sortedX, comparatorX);
-    // Sort the list by Y
-    Comparator<Point> comparatorY = new Comparator<Point>() {
-      @Override
-      public int compare(Point p1, Point p2) {
-        int dy = Double.compare(p1.y, p2.y);
-        if (dy != 0)
-          return dy;
-        return Double.compare(p1.x, p2.x);
+  /**
+   * Splits the given part into two halves along its longer dimension around
+   * its middle point. Both sorted lists are kept sorted in each half.
+   * @param part
+   * @return the start of the second half or -1 if the points in this part
+   * form one line and cannot be split.
+   */
+  private int partition(Part part) {
+    double width = sortedX[part.pEnd -1].x - sortedX[part.pStart].x;
+    double height = sortedY[part.pEnd -1].y - sortedY[part.pStart].y;
+    if (width == 0 || height == 0)
+      return -1;
+    int middle = (part.pStart + part.pEnd) / 2;
+    int position1 = part.pStart;
+    int position2 = middle;
+    Point[] arrayToPartition;
+    Comparator<Point> comparator;
+    Point middlePoint;
+    if (width > height) {
+      // Split the sortedY list into two lists, left and right, around
+      // the middle point
+      middlePoint = sortedX[middle];
+      comparator = comparatorX;
+      arrayToPartition = sortedY;
+    } else {
+      // Partition along the Y-axis
+      // Split the sortedX list around the middle point into top and bottom
+      // lists, each of them is separately sorted by X.
+      comparator = comparatorY;
+      middlePoint = sortedY[middle];
+      arrayToPartition = sortedX;
+    }
+    for (int i = part.pStart; i < part.pEnd; i++) {
+      if (comparator.compare(arrayToPartition[i], middlePoint) < 0) {
+        newSortedRange[position1++] = arrayToPartition[i];
+      } else {
+        newSortedRange[position2++] = arrayToPartition[i];
       }
-    };
-    Arrays.sort(sortedY, comparatorY);
+    }
+    // Copy the range [pend, last)
+    System.arraycopy(newSortedRange, part.pStart, arrayToPartition, part.pStart, part.pEnd - part.pStart);
+    return middle;
+  }
 
+  /**
+   * Computes the triangulation of the given part in the calling thread.
+   * @param part
+   * @return
+   */
+  private IntermediateTriangulation triangulateSerial(Part part) {
     // Partitions to be sorted, a null entry indicates that it is time to merge
     // the top two entries in the triangulations to be merged
     Stack<Part> toPartition = new Stack<Part>();
     // Triangulations to merge
     Stack<IntermediateTriangulation> toMerge = new Stack<IntermediateTriangulation>();
 
-    // Compute the MBR of the input
-    toPartition.push(new Part(rstart, rend));
-    long reportedTime = 0;
-    // A temporary array to partition sorted arrays
-    Point[] newSortedRange = new Point[points.length];
+    toPartition.push(part);
 
     while (!toPartition.isEmpty()) {
       if (progress != null)
@@ -125,9 +232,8 @@ public class GSImprovedAlgorithm extends GSDTAlgorithm {
         toMerge.push(new IntermediateTriangulation(currentPart.pStart, currentPart.pStart + 1));
       } else {
         // Further partition into two along the longer dimension
-        double width = sortedX[currentPart.pEnd -1].x - sortedX[currentPart.pStart].x;
-        double height = sortedY[currentPart.pEnd -1].y - sortedY[currentPart.pStart].y;
-        if (width == 0 || height == 0) {
+        int middle = partition(currentPart);
+        if (middle == -1) {
           // All points form one line, use all of them together as an intermediate
           // triangulation
           for (int i = currentPart.pStart; i < currentPart.pEnd; i++) {
@@ -138,35 +244,6 @@ public class GSImprovedAlgorithm extends GSDTAlgorithm {
           // while the range in IntermediateTriangulation is inclusive
           toMerge.push(new IntermediateTriangulation(currentPart.pStart, currentPart.pEnd-1));
         } else {
-          int middle = (currentPart.pStart + currentPart.pEnd) / 2;
-          int position1 = currentPart.pStart;
-          int position2 = middle;
-          Point[] arrayToPartition;
-          Comparator<Point> comparator;
-          Point middlePoint;
-          if (width > height) {
-            // Split the sortedY list into two lists, left and right, around
-            // the middle point
-            middlePoint = sortedX[middle];
-            comparator = comparatorX;
-            arrayToPartition = sortedY;
-          } else {
-            // Partition along the Y-axis
-            // Split the sortedX list around the middle point into top and bottom
-            // lists, each of them is separately sorted by X.
-            comparator = comparatorY;
-            middlePoint = sortedY[middle];
-            arrayToPartition = sortedX;
-          }
-          for (int i = currentPart.pStart; i < currentPart.pEnd; i++) {
-            if (comparator.compare(arrayToPartition[i], middlePoint) < 0) {
-              newSortedRange[position1++] = arrayToPartition[i];
-            } else {
-              newSortedRange[position2++] = arrayToPartition[i];
-            }
-          }
-          // Copy the range [pend, last)
-          System.arraycopy(newSortedRange, currentPart.pStart, arrayToPartition, currentPart.pStart, currentPart.pEnd - currentPart.pStart);
           toPartition.push(null); // An indicator of a merge needed
           // Create upper partition
           toPartition.push(new Part(currentPart.pStart, middle));
@@ -103,7 +103,8 @@ public class DDNumericDataGroup extends DataDescriptor {
     lazyLoad();
     int overallSize = 0;
     int type = 0;
-    byte[] rawData = null;
+    int dataSize = 0;
+    DDScientificData scientificData = null;
     for (int i = 0; i < members.length; i++) {
       if (members[i].tagID == HDFConstants.DFTAG_SDD) {
         // Dimensions of the array
@@ -115,19 +116,22 @@ public class DDNumericDataGroup extends DataDescriptor {
         // Number type
         DDNumberType nt = (DDNumberType)hdfFile.retrieveElementByID(members[i]);
         type = nt.getNumberType();
+        dataSize = nt.getDataSize();
       } else if (members[i].tagID == HDFConstants.DFTAG_SD) {
-        rawData = ((DDScientificData)hdfFile.retrieveElementByID(members[i])).getData();
+        scientificData = (DDScientificData)hdfFile.retrieveElementByID(members[i]);
       }
     }
-    if (rawData == null) {
+    if (scientificData == null) {
       return null;
     }
-    ByteBuffer bbuffer = ByteBuffer.wrap(rawData);
+    // Read all chunks directly into one array without keeping a copy of the
+    // raw data in the scientific data descriptor
+    byte[] rawData = new byte[overallSize * dataSize];
+    scientificData.readData(rawData, 0, rawData.length);
     switch (type) {
     case HDFConstants.DFNT_UINT16:
       short[] values = new short[overallSize];
-      for (int i = 0; i < values.length; i++)
-        values[i] = bbuffer.getShort();
+      ByteBuffer.wrap(rawData).asShortBuffer().get(values);
       return values;
     case HDFConstants.DFNT_UINT8:
       return rawData;
@@ -16,6 +16,14 @@ import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import edu.umn.cs.spatialHadoop.util.Parallel;
+import edu.umn.cs.spatialHadoop.util.Parallel.RunnableRange;
 
 /**
  * An abstract class for any data descriptor
@@ -287,79 +295,123 @@ public abstract class DataDescriptor {
   
   
   /**
-   * Read extended block that is available as compressed data
+   * A part of the data of an element that can be read independently of the
+   * other parts, e.g., one chunk or one block in a list of linked blocks.
+   */
+  static class DataPart {
+    /**Offset of the stored (possibly compressed) data in the file*/
+    long offset;
+    /**Length of the stored data in the file*/
+    int length;
+    /**Whether the stored data is compressed with deflate*/
+    boolean deflated;
+    /**Offset in the output buffer to write the data of this part to*/
+    int destOffset;
+    /**Number of bytes to write to the output buffer*/
+    int destLength;
+  }
+
+  /**Buffers of compressed data that are reused across reads*/
+  private static final ConcurrentLinkedQueue<byte[]> compressedBuffers =
+      new ConcurrentLinkedQueue<byte[]>();
+
+  /**Inflaters that are reused across reads*/
+  private static final ConcurrentLinkedQueue<Inflater> inflaters =
+      new ConcurrentLinkedQueue<Inflater>();
+
+  /**
+   * Reads the header of this data descriptor with a positioned read without
+   * moving the shared input stream.
+   * @return
    * @throws IOException
    */
-  private int readCompressedData(byte[] data, int offset, int length) throws IOException {
-    /*int compressionVersion = */hdfFile.inStream.readUnsignedShort();
-    /*int extendedLength = */hdfFile.inStream.readInt();
-    int linkedRefNo = hdfFile.inStream.readUnsignedShort();
-    /*int modelType = */hdfFile.inStream.readUnsignedShort();
-    int compressionType = hdfFile.inStream.readUnsignedShort();
-    if (compressionType == HDFConstants.COMP_CODE_DEFLATE) {
-      int deflateLevel = hdfFile.inStream.readUnsignedShort();
-      // Retrieve the associated compressed block
-      DDID linkedBlockID = new DDID(HDFConstants.DFTAG_COMPRESSED, linkedRefNo);
-      DDCompressedBlock dataBlock =
-          (DDCompressedBlock) hdfFile.retrieveElementByID(linkedBlockID);
-      InputStream decompressedData = dataBlock.decompressDeflate(deflateLevel);
-      int totalBytesRead = 0;
-      int numBytesRead;
-      do {
-        numBytesRead = decompressedData.read(data, offset, length);
-        offset += numBytesRead;
-        length -= numBytesRead;
-        totalBytesRead += numBytesRead;
-      } while (numBytesRead > 0 && length > 0);
-      return totalBytesRead;
-    } else {
-      throw new RuntimeException("Unsupported compression "+compressionType);
+  private DataInputStream readHeader() throws IOException {
+    byte[] header = new byte[length];
+    hdfFile.inStream.readFully(offset, header);
+    return new DataInputStream(new ByteArrayInputStream(header));
+  }
+
+  /**
+   * Finds all the parts that make up the data of this element without
+   * reading them.
+   * @param parts (output) the parts of the data of this element
+   * @param bufOff the offset in the output buffer of the first byte of data
+   * @param bufLen the maximum number of bytes to read
+   * @return the number of bytes covered by the added parts
+   * @throws IOException
+   */
+  protected int collectParts(List<DataPart> parts, int bufOff, int bufLen) throws IOException {
+    if (!extended) {
+      // Read from the input file directly
+      DataPart part = new DataPart();
+      part.offset = offset;
+      part.length = part.destLength = Math.min(length, bufLen);
+      part.destOffset = bufOff;
+      parts.add(part);
+      return part.destLength;
+    }
+    // Extended block. Need to retrieve extended data first
+    DataInputStream header = readHeader();
+    int extensionType = header.readUnsignedShort();
+    switch (extensionType) {
+    case HDFConstants.SPECIAL_COMP:
+      // Compressed data
+      return collectCompressedParts(header, parts, bufOff, bufLen);
+    case HDFConstants.SPECIAL_CHUNKED:
+      // Chunked data
+      return collectChunkedParts(header, parts, bufOff, bufLen);
+    case HDFConstants.SPECIAL_LINKED:
+      // Linked data
+      return collectLinkedParts(header, parts, bufOff, bufLen);
+    default:
+      // Not supported
+      throw new RuntimeException("Unsupported extension type "+extensionType);
     }
   }
-  
-  
-  private int readChunkedData(byte[] buf, int bufOff, int bufLen) throws IOException {
-    /*int sp_tag_head_len = */hdfFile.inStream.readInt();
-    /*int version = */hdfFile.inStream.readUnsignedByte();
-    /*int flag = */hdfFile.inStream.readInt();
-    // Valid logical length of the entire element. The logical physical length
-    // is this value multiplied by nt_size. The actual physical length used for
-    // storage can be greater than the dataset size due to the presence of ghost
-    // areas in chunks. Partial chunks are not distinguished from regular
-    // chunks.
-    int elem_total_length = hdfFile.inStream.readInt();
+
+  private int collectCompressedParts(DataInputStream header,
+      List<DataPart> parts, int bufOff, int bufLen) throws IOException {
+    /*int compressionVersion = */header.readUnsignedShort();
+    int extendedLength = header.readInt();
+    int linkedRefNo = header.readUnsignedShort();
+    /*int modelType = */header.readUnsignedShort();
+    int compressionType = header.readUnsignedShort();
+    if (compressionType != HDFConstants.COMP_CODE_DEFLATE)
+      throw new RuntimeException("Unsupported compression "+compressionType);
+    // Retrieve the associated compressed block
+    DDID linkedBlockID = new DDID(HDFConstants.DFTAG_COMPRESSED, linkedRefNo);
+    DataDescriptor dataBlock = hdfFile.retrieveElementByID(linkedBlockID);
+    DataPart part = new DataPart();
+    part.offset = dataBlock.offset;
+    part.length = dataBlock.length;
+    part.deflated = true;
+    part.destOffset = bufOff;
+    part.destLength = Math.min(extendedLength, bufLen);
+    parts.add(part);
+    return part.destLength;
+  }
+
+  private int collectChunkedParts(DataInputStream header,
+      List<DataPart> parts, int bufOff, int bufLen) throws IOException {
+    /*int sp_tag_head_len = */header.readInt();
+    /*int version = */header.readUnsignedByte();
+    /*int flag = */header.readInt();
+    /*int elem_total_length = */header.readInt();
     // Logical size of data chunks
-    int chunk_size = hdfFile.inStream.readInt();
+    int chunk_size = header.readInt();
     // Number type size. i.e., the size of the data type
-    int nt_size = hdfFile.inStream.readInt();
+    int nt_size = header.readInt();
     // ID of the chunk table
-    int tag = hdfFile.inStream.readUnsignedShort();
-    int ref = hdfFile.inStream.readUnsignedShort();
+    int tag = header.readUnsignedShort();
+    int ref = header.readUnsignedShort();
     DDID chunkTableID = new DDID(tag, ref);
-    tag = hdfFile.inStream.readUnsignedShort();
-    ref = hdfFile.inStream.readUnsignedShort();
-    // For future use. Special table for 'ghost' chunks.
-    DDID specialTableID = new DDID(tag, ref);
-    // Number of dimensions of the chunked element
-    int nDims = hdfFile.inStream.readUnsignedShort();
-    int[] flags = new int[nDims];
-    int[] dimensionLengths = new int[nDims];
-    int[] chunkLengths = new int[nDims];
-    for (int i = 0; i < nDims; i++) {
-      flags[i] = hdfFile.inStream.readInt();
-      dimensionLengths[i] = hdfFile.inStream.readInt();
-      chunkLengths[i] = hdfFile.inStream.readInt();
-    }
-    
+
     // Retrieve the chunk table to read chunked data
     DDVDataHeader chunkTable = (DDVDataHeader) hdfFile.retrieveElementByID(chunkTableID);
     int numChunks = chunkTable.getEntryCount();
     int totalBytesRead = 0;
     int chunkSizeInBytes = chunk_size * nt_size;
-    // TODO use a more memory-friendly technique that avoids reading all
-    // chunks in memory before parsing
     for (int i_chunk = 0; i_chunk < numChunks && bufLen > 0; i_chunk++) {
-      // Read data in this chunk
       Object[] chunkInformation = (Object[]) chunkTable.getEntryAt(i_chunk);
       DDID chunkedID = new DDID((Integer)chunkInformation[1], (Integer)chunkInformation[2]);
       DDChunkData chunkObject = (DDChunkData) hdfFile.retrieveElementByID(chunkedID);
@@ -367,7 +419,7 @@ public abstract class DataDescriptor {
         // TODO fill in the array with fillValue
         // Skip the corresponding part in the array
       } else {
-        chunkObject.readData(buf, bufOff, chunkSizeInBytes);
+        chunkObject.collectParts(parts, bufOff, Math.min(chunkSizeInBytes, bufLen));
       }
       // Advance to next part in the array
       totalBytesRead += chunkSizeInBytes;
@@ -376,64 +428,109 @@ public abstract class DataDescriptor {
     }
     return totalBytesRead;
   }
-  
-  private int readLinkedData(byte[] buf, int bufOff, int bufLen) throws IOException {
+
+  private int collectLinkedParts(DataInputStream header,
+      List<DataPart> parts, int bufOff, int bufLen) throws IOException {
     // Length of the entire element
-    int length = hdfFile.inStream.readInt();
+    /*int length = */header.readInt();
     // Length of successive data blocks
-    int blk_len = hdfFile.inStream.readInt();
+    /*int blk_len = */header.readInt();
     // Number of blocks per block table
-    int num_blk = hdfFile.inStream.readInt();
+    /*int num_blk = */header.readInt();
     // Reference number of first block table
-    int link_ref = hdfFile.inStream.readUnsignedShort();
-    // Length of the first data block (not correct)
-    int first_len = length - blk_len * (num_blk - 1);
-    
+    int link_ref = header.readUnsignedShort();
+
     DDLinkedBlock linkedBlockTable = (DDLinkedBlock) hdfFile.retrieveElementByID(new DDID(HDFConstants.DFTAG_LINKED, link_ref));
     int[] blockReferences = linkedBlockTable.getBlockReferences();
-    
-    int total_length = 0;
-    for (int i = 0; i < blockReferences.length; i++) {
-      DDID id = new DDID(HDFConstants.DFTAG_LINKED, blockReferences[i]);
-      DataDescriptor dataBlock = hdfFile.retrieveElementByID(id);
-      total_length += dataBlock.getLength();
-    }
-    
+
     int totalBytesRead = 0;
     for (int i = 0; i < blockReferences.length && bufLen > 0; i++) {
       DDID id = new DDID(HDFConstants.DFTAG_LINKED, blockReferences[i]);
-      DDLinkedBlock dataBlock = (DDLinkedBlock) hdfFile.retrieveElementByID(id);
-      int bytesRead = dataBlock.readData(buf, bufOff, bufLen);
+      DataDescriptor dataBlock = hdfFile.retrieveElementByID(id);
+      int bytesRead = dataBlock.collectParts(parts, bufOff, bufLen);
       totalBytesRead += bytesRead;
       bufOff += bytesRead;
       bufLen -= bytesRead;
     }
     return totalBytesRead;
   }
-  
-  protected int readData(byte[] buf, int bufOff, int bufLen) throws IOException {
-    hdfFile.inStream.seek(offset);
-    if (!extended) {
-      // Read from the input file directly
-      hdfFile.inStream.readFully(buf, bufOff, Math.max(this.getLength(), bufLen));
-      return bufLen;
-    } else {
-      // Extended block. Need to retrieve extended data first
-      int extensionType = hdfFile.inStream.readUnsignedShort();
-      switch (extensionType) {
-      case HDFConstants.SPECIAL_COMP:
-        // Compressed data
-        return readCompressedData(buf, bufOff, bufLen);
-      case HDFConstants.SPECIAL_CHUNKED:
-        // Chunked data
-        return readChunkedData(buf, bufOff, bufLen);
-      case HDFConstants.SPECIAL_LINKED:
-        // Linked data
-        return readLinkedData(buf, bufOff, bufLen);
-      default:
-        // Not supported
-        throw new RuntimeException("Unsupported extension type "+extensionType);
+
+  /**
+   * Reads the data of this element into the given buffer. All the parts of
+   * the data, e.g., chunks or linked blocks, are read with positioned reads
+   * and inflated in parallel directly into the given buffer.
+   * @param buf the buffer to read the data into
+   * @param bufOff the offset in the buffer of the first byte of data
+   * @param bufLen the maximum number of bytes to read
+   * @return the number of bytes read
+   * @throws IOException
+   */
+  protected int readData(final byte[] buf, int bufOff, int bufLen) throws IOException {
+    final List<DataPart> parts = new ArrayList<DataPart>();
+    int bytesRead = collectParts(parts, bufOff, bufLen);
+    if (parts.size() == 1) {
+      readParts(parts, 0, 1, buf);
+      return bytesRead;
+    }
+    try {
+      Parallel.forEach(parts.size(), new RunnableRange<Object>() {
+        @Override
+        public Object run(int i1, int i2) {
+          try {
+            readParts(parts, i1, i2, buf);
+          } catch (IOException e) {
+            throw new RuntimeException("Error reading data of "+DataDescriptor.this, e);
+          }
+          return null;
+        }
+      });
+    } catch (InterruptedException e) {
+      throw new IOException("Interrupted while reading "+this, e);
+    }
+    return bytesRead;
+  }
+
+  /**
+   * Reads a range of parts into the given buffer.
+   * @param parts all the parts
+   * @param i1 the index of the first part to read
+   * @param i2 the index after the last part to read
+   * @param buf the output buffer
+   * @throws IOException
+   */
+  private void readParts(List<DataPart> parts, int i1, int i2, byte[] buf) throws IOException {
+    byte[] compressed = compressedBuffers.poll();
+    Inflater inflater = inflaters.poll();
+    if (inflater == null)
+      inflater = new Inflater();
+    try {
+      for (int i = i1; i < i2; i++) {
+        DataPart part = parts.get(i);
+        if (!part.deflated) {
+          hdfFile.inStream.readFully(part.offset, buf, part.destOffset, part.destLength);
+          continue;
+        }
+        if (compressed == null || compressed.length < part.length)
+          compressed = new byte[part.length];
+        hdfFile.inStream.readFully(part.offset, compressed, 0, part.length);
+        inflater.reset();
+        inflater.setInput(compressed, 0, part.length);
+        int destOffset = part.destOffset;
+        int destLength = part.destLength;
+        while (destLength > 0 && !inflater.finished()) {
+          int numBytes = inflater.inflate(buf, destOffset, destLength);
+          if (numBytes == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+            break;
+          destOffset += numBytes;
+          destLength -= numBytes;
+        }
       }
+    } catch (DataFormatException e) {
+      throw new IOException("Error inflating data of "+this, e);
+    } finally {
+      if (compressed != null)
+        compressedBuffers.offer(compressed);
+      inflaters.offer(inflater);
     }
   }
 }
@@ -13,8 +13,7 @@ import java.io.*;
 import edu.umn.cs.spatialHadoop.core.CellInfo;
 import edu.umn.cs.spatialHadoop.core.Point;
 import edu.umn.cs.spatialHadoop.core.Rectangle;
-import edu.umn.cs.spatialHadoop.core.ResultCollector;
-import edu.umn.cs.spatialHadoop.core.Shape;
+import edu.umn.cs.spatialHadoop.util.IntArray;
 import org.apache.hadoop.conf.Configuration;
 
 /**
@@ -46,6 +45,11 @@ public abstract class AbstractRTreeBBPartitioner extends Partitioner {
       xs[i] = points[i].x;
       ys[i] = points[i].y;
     }
+    construct(mbr, xs, ys, capacity);
+  }
+
+  @Override
+  public void construct(Rectangle mbr, double[] xs, double[] ys, int capacity) {
     int M = capacity;
     int m = (int) Math.ceil(M * mMRatio);
     RTreeGuttman rtree = createRTree(m, M);
@@ -113,12 +117,15 @@ public abstract class AbstractRTreeBBPartitioner extends Partitioner {
   /**
    * Tests if a partition overlaps a given rectangle
    * @param partitionID
-   * @param mbr
+   * @param x1
+   * @param y1
+   * @param x2
+   * @param y2
    * @return
    */
-  protected boolean Partition_overlap(int partitionID, Rectangle mbr) {
-    return !(mbr.x2 <= x1s[partitionID] || x2s[partitionID] < mbr.x1 ||
-      mbr.y2 <= y1s[partitionID] || y2s[partitionID] < mbr.y1);
+  protected boolean Partition_overlap(int partitionID, double x1, double y1, double x2, double y2) {
+    return !(x2 <= x1s[partitionID] || x2s[partitionID] < x1 ||
+      y2 <= y1s[partitionID] || y2s[partitionID] < y1);
   }
 
   /**
@@ -138,14 +145,17 @@ public abstract class AbstractRTreeBBPartitioner extends Partitioner {
    * Computes the expansion that will happen on an a partition when it is
    * enlarged to enclose a given rectangle.
    * @param partitionID
-   * @param mbr the MBR of the object to be added to the partition
+   * @param x1 the MBR of the object to be added to the partition
+   * @param y1
+   * @param x2
+   * @param y2
    * @return
    */
-  protected double Partition_expansion(int partitionID, Rectangle mbr) {
+  protected double Partition_expansion(int partitionID, double x1, double y1, double x2, double y2) {
     // If the given rectangle is completely enclosed in the enalrged MBR of the
     // given partition, return 0
-    if (mbr.x1 >= x1s[partitionID] && mbr.x2 <= x2s[partitionID] &&
-        mbr.y1 >= y1s[partitionID] && mbr.y2 <= y2s[partitionID])
+    if (x1 >= x1s[partitionID] && x2 <= x2s[partitionID] &&
+        y1 >= y1s[partitionID] && y2 <= y2s[partitionID])
       return 0;
     // Retrieve partition MBR before expansion
     double px1 = x1s[partitionID];
@@ -154,10 +164,10 @@ public abstract class AbstractRTreeBBPartitioner extends Partitioner {
     double py2 = y2s[partitionID];
     double areaBefore = (px2 - px1) * (py2 - py1);
     // Expand the partition MBR to include the given MBR
-    px1 = Math.min(px1, mbr.x1);
-    py1 = Math.min(py1, mbr.y1);
-    px2 = Math.max(px2, mbr.x2);
-    py2 = Math.max(py2, mbr.y2);
+    px1 = Math.min(px1, x1);
+    py1 = Math.min(py1, y1);
+    px2 = Math.max(px2, x2);
+    py2 = Math.max(py2, y2);
     return (px2-px1) * (py2-py1) - areaBefore;
   }
 
@@ -195,24 +205,23 @@ public abstract class AbstractRTreeBBPartitioner extends Partitioner {
   }
 
   @Override
-  public void overlapPartitions(Shape shape, ResultCollector<Integer> matcher) {
-    Rectangle shapeMBR = shape.getMBR();
+  public void overlapPartitions(double x1, double y1, double x2, double y2, IntArray matches) {
+    matches.clear();
     for (int i = 0; i < x1s.length; i++) {
-      if (Partition_overlap(i, shapeMBR))
-        matcher.collect(i);
+      if (Partition_overlap(i, x1, y1, x2, y2))
+        matches.add(i);
     }
   }
   
   @Override
-  public int overlapPartition(Shape shape) {
+  public int overlapPartition(double x1, double y1, double x2, double y2) {
     // ChooseLeaf. Select a leaf node in which to place a new entry E
     // Select a node N whose rectangle needs least enlargement to include E
     // Resolve ties by choosing the entry with the rectangle of smallest area
-    Rectangle shapeMBR = shape.getMBR();
     double minExpansion = Double.POSITIVE_INFINITY;
     int chosenPartition = -1;
     for (int iPartition = 0; iPartition < x1s.length; iPartition++) {
-      double expansion = Partition_expansion(iPartition, shapeMBR);
+      double expansion = Partition_expansion(iPartition, x1, y1, x2, y2);
       if (expansion < minExpansion) {
         minExpansion = expansion;
         chosenPartition = iPartition;
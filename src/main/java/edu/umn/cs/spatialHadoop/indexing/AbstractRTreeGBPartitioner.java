@@ -15,8 +15,6 @@ import java.io.IOException;
 import edu.umn.cs.spatialHadoop.core.CellInfo;
 import edu.umn.cs.spatialHadoop.core.Point;
 import edu.umn.cs.spatialHadoop.core.Rectangle;
-import edu.umn.cs.spatialHadoop.core.ResultCollector;
-import edu.umn.cs.spatialHadoop.core.Shape;
 import edu.umn.cs.spatialHadoop.util.IntArray;
 import org.apache.hadoop.conf.Configuration;
 
@@ -68,14 +66,17 @@ public abstract class AbstractRTreeGBPartitioner extends Partitioner {
    * Computes the expansion that will happen on an a partition when it is
    * enlarged to enclose a given rectangle.
    * @param partitionID
-   * @param mbr the MBR of the object to be added to the partition
+   * @param x1 the MBR of the object to be added to the partition
+   * @param y1
+   * @param x2
+   * @param y2
    * @return
    */
-  protected double Partition_expansion(int partitionID, Rectangle mbr) {
+  protected double Partition_expansion(int partitionID, double x1, double y1, double x2, double y2) {
     // If the given rectangle is completely enclosed in the enalrged MBR of the
     // given partition, return 0
-    if (mbr.x1 >= x1s[partitionID] && mbr.x2 <= x2s[partitionID] &&
-        mbr.y1 >= y1s[partitionID] && mbr.y2 <= y2s[partitionID])
+    if (x1 >= x1s[partitionID] && x2 <= x2s[partitionID] &&
+        y1 >= y1s[partitionID] && y2 <= y2s[partitionID])
       return 0;
     // Compute the non-infinity MBR of the partition
     double px1 = Math.max(x1s[partitionID], mbrPoints.x1);
@@ -84,22 +85,25 @@ public abstract class AbstractRTreeGBPartitioner extends Partitioner {
     double py2 = Math.min(y2s[partitionID], mbrPoints.y2);
     double areaBefore = (px2 - px1) * (py2 - py1);
     // Expand the non-infinity MBR of the partition to include the given MBR
-    px1 = Math.min(px1, mbr.x1);
-    py1 = Math.min(py1, mbr.y1);
-    px2 = Math.max(px2, mbr.x2);
-    py2 = Math.max(py2, mbr.y2);
+    px1 = Math.min(px1, x1);
+    py1 = Math.min(py1, y1);
+    px2 = Math.max(px2, x2);
+    py2 = Math.max(py2, y2);
     return (px2-px1) * (py2-py1) - areaBefore;
   }
 
   /**
    * Tests if a partition overlaps a given rectangle
    * @param partitionID
-   * @param mbr
+   * @param x1
+   * @param y1
+   * @param x2
+   * @param y2
    * @return
    */
-  protected boolean Partition_overlap(int partitionID, Rectangle mbr) {
-    return !(mbr.x2 <= x1s[partitionID] || x2s[partitionID] < mbr.x1 ||
-      mbr.y2 <= y1s[partitionID] || y2s[partitionID] < mbr.y1);
+  protected boolean Partition_overlap(int partitionID, double x1, double y1, double x2, double y2) {
+    return !(x2 <= x1s[partitionID] || x2s[partitionID] < x1 ||
+      y2 <= y1s[partitionID] || y2s[partitionID] < y1);
   }
 
   /**
@@ -119,12 +123,23 @@ public abstract class AbstractRTreeGBPartitioner extends Partitioner {
   public void construct(Rectangle mbr, Point[] points, int capacity) {
     double[] xs = new double[points.length];
     double[] ys = new double[points.length];
-    mbrPoints = new Rectangle(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
-        Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY);
     for (int i = 0; i < points.length; i++) {
       xs[i] = points[i].x;
       ys[i] = points[i].y;
-      mbrPoints.expand(points[i]);
+    }
+    construct(mbr, xs, ys, capacity);
+  }
+
+  @Override
+  public void construct(Rectangle mbr, double[] xs, double[] ys, int capacity) {
+    mbrPoints = new Rectangle(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+        Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY);
+    for (int i = 0; i < xs.length; i++)
+      mbrPoints.expand(xs[i], ys[i]);
+    if (xs.length > 0) {
+      // Same as expanding to the MBRs of the points which include one ulp
+      mbrPoints.x2 += Math.ulp(mbrPoints.x2);
+      mbrPoints.y2 += Math.ulp(mbrPoints.y2);
     }
     aux = new AuxiliarySearchStructure();
     Rectangle[] partitions = partitionPoints(xs, ys, capacity, aux);
@@ -223,28 +238,24 @@ public abstract class AbstractRTreeGBPartitioner extends Partitioner {
   }
 
   @Override
-  public void overlapPartitions(Shape shape, ResultCollector<Integer> matcher) {
-    Rectangle shapeMBR = shape.getMBR();
-    aux.search(shapeMBR.x1, shapeMBR.y1, shapeMBR.x2, shapeMBR.y2, overlappingPartitions);
-    for (int overlappingPartition : overlappingPartitions)
-      matcher.collect(overlappingPartition);
+  public void overlapPartitions(double x1, double y1, double x2, double y2, IntArray matches) {
+    aux.search(x1, y1, x2, y2, matches);
   }
   
   @Override
-  public int overlapPartition(Shape shape) {
+  public int overlapPartition(double x1, double y1, double x2, double y2) {
     // ChooseLeaf. Select a leaf node in which to place a new entry E
     // Select a node N whose rectangle needs least enlargement to include E
     // Resolve ties by choosing the entry with the rectangle of smallest area
     // For efficiency, we only consider the partitions that overlap the input
     // shape. This is not entirely accurate however.
-    Rectangle shapeMBR = shape.getMBR();
     double minExpansion = Double.POSITIVE_INFINITY;
     int chosenPartition = -1;
-    aux.search(shapeMBR.x1, shapeMBR.y1, shapeMBR.x2, shapeMBR.y2, overlappingPartitions);
+    aux.search(x1, y1, x2, y2, overlappingPartitions);
     if (overlappingPartitions.size() == 1)
       return overlappingPartitions.get(0);
     for (int overlappingPartition : overlappingPartitions) {
-      double expansion = Partition_expansion(overlappingPartition, shapeMBR);
+      double expansion = Partition_expansion(overlappingPartition, x1, y1, x2, y2);
       if (expansion < minExpansion) {
         minExpansion = expansion;
         chosenPartition = overlappingPartition;
@@ -108,14 +108,13 @@ public class CellPartitioner extends Partitioner {
   }
 
   @Override
-  public void overlapPartitions(Shape shape, ResultCollector<Integer> matcher) {
+  public void overlapPartitions(double x1, double y1, double x2, double y2, IntArray matches) {
     throw new RuntimeException("Disjoint partitioning is not supported!");
   }
   
   @Override
-  public int overlapPartition(Shape shape) {
-    Rectangle shapeMBR = shape.getMBR();
-    partitions.search(shapeMBR.x1, shapeMBR.y2, shapeMBR.x2, shapeMBR.y2, overlappingCells);
+  public int overlapPartition(double x1, double y1, double x2, double y2) {
+    partitions.search(x1, y2, x2, y2, overlappingCells);
     int chosenCellIndex;
     if (overlappingCells.size() == 1) {
       // Only one overlapping node, return it
@@ -143,7 +142,7 @@ public class CellPartitioner extends Partitioner {
       }
     } else {
       // No overlapping cells, follow the (fake) insert choice
-      chosenCellIndex = partitions.noInsert(shapeMBR.x1, shapeMBR.y1, shapeMBR.x2, shapeMBR.y2);
+      chosenCellIndex = partitions.noInsert(x1, y1, x2, y2);
     }
     return cells[chosenCellIndex].cellId;
   }
@@ -24,16 +24,24 @@ import edu.umn.cs.spatialHadoop.core.ResultCollector;
 import edu.umn.cs.spatialHadoop.core.ResultCollector2;
 import edu.umn.cs.spatialHadoop.core.Shape;
 import edu.umn.cs.spatialHadoop.core.SpatialAlgorithms;
+import edu.umn.cs.spatialHadoop.util.IntArray;
 
 /**
  * A very simple spatial index that provides some spatial operations based
- * on an array storage.
+ * on an array storage. Search queries over large indexes are answered using
+ * an in-memory R-tree over the MBRs of the shapes which is built on first use.
  * @author Ahmed Eldawy
  *
  * @param <S>
  */
 public class GlobalIndex<S extends Shape> implements Writable, Iterable<S> {
   
+  /**Indexes with fewer shapes than this are searched using a linear scan*/
+  private static final int MinShapesToIndex = 64;
+
+  /**Maximum node capacity of the R-tree built over the MBRs of the shapes*/
+  private static final int RTreeNodeCapacity = 16;
+
   /**A stock instance of S used to deserialize objects from disk*/
   protected S stockShape;
   
@@ -45,6 +53,9 @@ public class GlobalIndex<S extends Shape> implements Writable, Iterable<S> {
   
   /**Whether objects are allowed to replicated in different partitions or not*/
   private boolean replicated;
+
+  /**An R-tree over the MBRs of all shapes. Lazily built on the first search*/
+  private volatile RTreeGuttman mbrIndex;
   
   public GlobalIndex() {
   }
@@ -57,6 +68,27 @@ public class GlobalIndex<S extends Shape> implements Writable, Iterable<S> {
     for (int i = 0; i < this.shapes.length; i++) {
       this.shapes[i] = (S) this.shapes[i].clone();
     }
+    this.mbrIndex = null;
+  }
+
+  /**
+   * Returns a deep copy of this index that can be modified without affecting
+   * this index. The R-tree over the MBRs is never modified after it is built
+   * so it is built once here and shared with the copy.
+   * @return
+   */
+  @SuppressWarnings("unchecked")
+  public GlobalIndex<S> copy() {
+    GlobalIndex<S> copy = new GlobalIndex<S>();
+    copy.stockShape = this.stockShape;
+    copy.shapes = this.shapes.clone();
+    for (int i = 0; i < copy.shapes.length; i++)
+      copy.shapes[i] = (S) this.shapes[i].clone();
+    copy.compact = this.compact;
+    copy.replicated = this.replicated;
+    if (shapes.length >= MinShapesToIndex)
+      copy.mbrIndex = getMBRIndex();
+    return copy;
   }
 
   @Override
@@ -76,15 +108,113 @@ public class GlobalIndex<S extends Shape> implements Writable, Iterable<S> {
       this.shapes[i] = (S) stockShape.clone();
       this.shapes[i].readFields(in);
     }
+    this.mbrIndex = null;
   }
-  
+
+  /**
+   * Returns the R-tree built over the MBRs of all shapes where the ID of each
+   * entry is the position of the shape in {@link #shapes}. The tree is bulk
+   * loaded on the first call. Since a global index can be shared by many
+   * threads, e.g., through the cache in
+   * {@link edu.umn.cs.spatialHadoop.core.SpatialSite#getGlobalIndex(org.apache.hadoop.fs.FileSystem, org.apache.hadoop.fs.Path)},
+   * the tree is built only once and is never modified afterwards.
+   * @return
+   */
+  protected RTreeGuttman getMBRIndex() {
+    RTreeGuttman index = mbrIndex;
+    if (index == null) {
+      synchronized (this) {
+        index = mbrIndex;
+        if (index == null) {
+          double[] x1 = new double[shapes.length];
+          double[] y1 = new double[shapes.length];
+          double[] x2 = new double[shapes.length];
+          double[] y2 = new double[shapes.length];
+          for (int i = 0; i < shapes.length; i++) {
+            Rectangle mbr = shapes[i].getMBR();
+            x1[i] = mbr.x1;
+            y1[i] = mbr.y1;
+            x2[i] = mbr.x2;
+            y2[i] = mbr.y2;
+          }
+          index = new STRPackedRTree(RTreeNodeCapacity / 2, RTreeNodeCapacity);
+          index.initializeFromRects(x1, y1, x2, y2);
+          mbrIndex = index;
+        }
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Returns the positions of all shapes with an MBR that overlaps the given
+   * rectangle in increasing order, i.e., in the order they are stored.
+   * These are only candidates that need to be further tested.
+   * @param x1
+   * @param y1
+   * @param x2
+   * @param y2
+   * @return
+   */
+  protected IntArray searchMBRs(double x1, double y1, double x2, double y2) {
+    IntArray candidates = new IntArray();
+    getMBRIndex().search(x1, y1, x2, y2, candidates);
+    candidates.sort();
+    return candidates;
+  }
+
   public int rangeQuery(Shape queryRange, ResultCollector<S> output) {
     int result_count = 0;
-    for (S shape : shapes) {
-      if (shape.isIntersected(queryRange)) {
-        result_count++;
-        if (output != null) {
-          output.collect(shape);
+    Rectangle queryMBR = queryRange.getMBR();
+    if (shapes.length < MinShapesToIndex || queryMBR == null) {
+      for (S shape : shapes) {
+        if (shape.isIntersected(queryRange)) {
+          result_count++;
+          if (output != null) {
+            output.collect(shape);
+          }
+        }
+      }
+    } else {
+      IntArray candidates = searchMBRs(queryMBR.x1, queryMBR.y1, queryMBR.x2, queryMBR.y2);
+      for (int i = 0; i < candidates.size(); i++) {
+        S shape = shapes[candidates.get(i)];
+        if (shape.isIntersected(queryRange)) {
+          result_count++;
+          if (output != null) {
+            output.collect(shape);
+          }
+        }
+      }
+    }
+    return result_count;
+  }
+
+  /**
+   * Finds all the shapes with an MBR that contains the given point
+   * @param x
+   * @param y
+   * @param output
+   * @return the number of matching shapes
+   */
+  public int pointQuery(double x, double y, ResultCollector<S> output) {
+    int result_count = 0;
+    if (shapes.length < MinShapesToIndex) {
+      for (S shape : shapes) {
+        if (shape.getMBR().contains(x, y)) {
+          result_count++;
+          if (output != null)
+            output.collect(shape);
+        }
+      }
+    } else {
+      IntArray candidates = searchMBRs(x, y, x, y);
+      for (int i = 0; i < candidates.size(); i++) {
+        S shape = shapes[candidates.get(i)];
+        if (shape.getMBR().contains(x, y)) {
+          result_count++;
+          if (output != null)
+            output.collect(shape);
         }
       }
     }
@@ -155,7 +285,8 @@ public class GlobalIndex<S extends Shape> implements Writable, Iterable<S> {
   }
 
   public int knn(final double qx, final double qy, int k, ResultCollector2<S, Double> output) {
-    double query_area = (getMBR().getWidth() * getMBR().getHeight()) * k / size();
+    Rectangle mbr = getMBR();
+    double query_area = (mbr.getWidth() * mbr.getHeight()) * k / size();
     double query_radius = Math.sqrt(query_area / Math.PI);
 
     boolean result_correct;
@@ -20,8 +20,7 @@ import edu.umn.cs.spatialHadoop.core.CellInfo;
 import edu.umn.cs.spatialHadoop.core.GridInfo;
 import edu.umn.cs.spatialHadoop.core.Point;
 import edu.umn.cs.spatialHadoop.core.Rectangle;
-import edu.umn.cs.spatialHadoop.core.ResultCollector;
-import edu.umn.cs.spatialHadoop.core.Shape;
+import edu.umn.cs.spatialHadoop.util.IntArray;
 
 /**
  * A partitioner that partitioner data using a uniform grid.
@@ -66,6 +65,11 @@ public class GridPartitioner extends Partitioner {
     this.numRows = (int) Math.round(mbr.getHeight() / tileHeight);
   }
 
+  @Override
+  public void construct(Rectangle mbr, double[] xs, double[] ys, int numPartitions) {
+    construct(mbr, (Point[]) null, numPartitions);
+  }
+
   public GridPartitioner(Rectangle mbr, int columns, int rows) {
     this.x = mbr.x1;
     this.y = mbr.y1;
@@ -106,23 +110,19 @@ public class GridPartitioner extends Partitioner {
   }
 
   @Override
-  public void overlapPartitions(Shape shape, ResultCollector<Integer> matcher) {
-    if (shape == null)
-      return;
-    Rectangle shapeMBR = shape.getMBR();
-    if (shapeMBR == null)
-      return;
+  public void overlapPartitions(double x1, double y1, double x2, double y2, IntArray matches) {
+    matches.clear();
     int col1, col2, row1, row2;
-    col1 = (int)Math.floor((shapeMBR.x1 - x) / tileWidth);
-    col2 = (int)Math.ceil((shapeMBR.x2 - x) / tileWidth);
-    row1 = (int)Math.floor((shapeMBR.y1 - y) / tileHeight);
-    row2 = (int)Math.ceil((shapeMBR.y2 - y) / tileHeight);
+    col1 = (int)Math.floor((x1 - x) / tileWidth);
+    col2 = (int)Math.ceil((x2 - x) / tileWidth);
+    row1 = (int)Math.floor((y1 - y) / tileHeight);
+    row2 = (int)Math.ceil((y2 - y) / tileHeight);
     
     if (col1 < 0) col1 = 0;
     if (row1 < 0) row1 = 0;
     for (int col = col1; col < col2; col++)
       for (int row = row1; row < row2; row++)
-        matcher.collect(getCellNumber(col, row));
+        matches.add(getCellNumber(col, row));
   }
   
   private int getCellNumber(int col, int row) {
@@ -130,15 +130,9 @@ public class GridPartitioner extends Partitioner {
   }
   
   @Override
-  public int overlapPartition(Shape shape) {
-    if (shape == null)
-      return -1;
-    Rectangle shapeMBR = shape.getMBR();
-    if (shapeMBR == null)
-      return -1;
-    Point centerPoint = shapeMBR.getCenterPoint();
-    int col = (int)Math.floor((centerPoint.x - x) / tileWidth);
-    int row = (int)Math.floor((centerPoint.y - y) / tileHeight);
+  public int overlapPartition(double x1, double y1, double x2, double y2) {
+    int col = (int)Math.floor(((x1 + x2) / 2 - x) / tileWidth);
+    int row = (int)Math.floor(((y1 + y2) / 2 - y) / tileHeight);
     return getCellNumber(col, row);
   }
 
@@ -23,10 +23,9 @@ import edu.umn.cs.spatialHadoop.OperationsParams;
 import edu.umn.cs.spatialHadoop.core.CellInfo;
 import edu.umn.cs.spatialHadoop.core.Point;
 import edu.umn.cs.spatialHadoop.core.Rectangle;
-import edu.umn.cs.spatialHadoop.core.ResultCollector;
-import edu.umn.cs.spatialHadoop.core.Shape;
 import edu.umn.cs.spatialHadoop.mapred.ShapeIterRecordReader;
 import edu.umn.cs.spatialHadoop.mapred.SpatialRecordReader.ShapeIterator;
+import edu.umn.cs.spatialHadoop.util.IntArray;
 
 /**
  * @author Ahmed Eldawy
@@ -52,6 +51,15 @@ public class HilbertCurvePartitioner extends Partitioner {
     createFromHValues(hValues, capacity);
   }
 
+  @Override
+  public void construct(Rectangle mbr, double[] xs, double[] ys, int capacity) {
+    this.mbr.set(mbr);
+    int[] hValues = new int[xs.length];
+    for (int i = 0; i < xs.length; i++)
+      hValues[i] = computeHValue(mbr, xs[i], ys[i]);
+    createFromHValues(hValues, capacity);
+  }
+
   /**
    * Create a HilbertCurvePartitioner from a list of points
    * @param hValues
@@ -90,20 +98,14 @@ public class HilbertCurvePartitioner extends Partitioner {
   }
 
   @Override
-  public void overlapPartitions(Shape shape, ResultCollector<Integer> matcher) {
+  public void overlapPartitions(double x1, double y1, double x2, double y2, IntArray matches) {
     throw new RuntimeException("Non-implemented method");
   }
 
   @Override
-  public int overlapPartition(Shape shape) {
-    if (shape == null)
-      return -1;
-    Rectangle shapeMBR = shape.getMBR();
-    if (shapeMBR == null)
-      return -1;
+  public int overlapPartition(double x1, double y1, double x2, double y2) {
     // Assign to only one partition that contains the center point
-    Point center = shapeMBR.getCenterPoint();
-    int hValue = computeHValue(mbr, center.x, center.y);
+    int hValue = computeHValue(mbr, (x1 + x2) / 2, (y1 + y2) / 2);
     int partition = Arrays.binarySearch(splits, hValue);
     if (partition < 0)
       partition = -partition - 1;
@@ -0,0 +1,102 @@
+package edu.umn.cs.spatialHadoop.indexing;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.util.IndexedSortable;
+import org.apache.hadoop.util.QuickSort;
+
+import edu.umn.cs.spatialHadoop.core.Rectangle;
+import edu.umn.cs.spatialHadoop.util.IntArray;
+
+/**
+ * An R-tree that is bulk loaded by sorting the data entries by the Hilbert
+ * value of their centers as described in the following paper.
+ * Ibrahim Kamel, Christos Faloutsos: On Packing R-trees. CIKM 1993: 490-499
+ *
+ * The sorted entries are packed into full leaf nodes and each upper level
+ * packs consecutive nodes of the level below it. Since the Hilbert curve
+ * preserves locality, consecutive nodes are close to each other. The tree
+ * cannot be modified after it is built.
+ */
+public class HilbertPackedRTree extends RTreeGuttman {
+
+  /**
+   * Construct a new empty R-tree with the given parameters.
+   *
+   * @param minCapacity - Minimum capacity of a node
+   * @param maxCapcity  - Maximum capacity of a node. All nodes are packed to
+   *                    this capacity except for the last node in each level.
+   */
+  public HilbertPackedRTree(int minCapacity, int maxCapcity) {
+    super(minCapacity, maxCapcity);
+  }
+
+  /**
+   * Sorts all data entries by their Hilbert values and packs them bottom-up.
+   */
+  @Override
+  protected void insertAllDataEntries() {
+    if (numEntries == 0) {
+      // An empty tree consists of an empty leaf root
+      root = Node_createNodeWithChildren(true);
+      return;
+    }
+    Rectangle mbr = new Rectangle(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+        Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY);
+    for (int i = 0; i < numEntries; i++) {
+      mbr.expand(x1s[i], y1s[i]);
+      mbr.expand(x2s[i], y2s[i]);
+    }
+    final int[] entries = new int[numEntries];
+    final int[] hValues = new int[numEntries];
+    for (int i = 0; i < numEntries; i++) {
+      entries[i] = i;
+      hValues[i] = HilbertCurvePartitioner.computeHValue(mbr,
+          (x1s[i] + x2s[i]) / 2, (y1s[i] + y2s[i]) / 2);
+    }
+    new QuickSort().sort(new IndexedSortable() {
+      @Override
+      public int compare(int i, int j) {
+        return hValues[i] - hValues[j];
+      }
+
+      @Override
+      public void swap(int i, int j) {
+        int temp = entries[i];
+        entries[i] = entries[j];
+        entries[j] = temp;
+        temp = hValues[i];
+        hValues[i] = hValues[j];
+        hValues[j] = temp;
+      }
+    }, 0, numEntries);
+
+    IntArray level = new IntArray();
+    level.append(entries, 0, numEntries);
+    boolean leaves = true;
+    do {
+      level = packLevel(level, leaves);
+      leaves = false;
+    } while (level.size() > 1);
+    root = level.get(0);
+  }
+
+  /**
+   * Packs consecutive objects (data entries or nodes) into a new level of
+   * full nodes.
+   * @param objects the objects to pack in their packing order
+   * @param leaves whether the created nodes are leaf nodes or not
+   * @return the IDs of the created nodes in the same order
+   */
+  protected IntArray packLevel(IntArray objects, boolean leaves) {
+    int[] objs = objects.underlyingArray();
+    int numObjects = objects.size();
+    IntArray nodes = new IntArray();
+    for (int nodeStart = 0; nodeStart < numObjects; nodeStart += maxCapcity) {
+      int nodeEnd = Math.min(numObjects, nodeStart + maxCapcity);
+      nodes.add(Node_createNodeWithChildren(leaves,
+          Arrays.copyOfRange(objs, nodeStart, nodeEnd)));
+    }
+    return nodes;
+  }
+}
@@ -8,18 +8,22 @@
 *************************************************************************/
 package edu.umn.cs.spatialHadoop.indexing;
 
-import java.io.BufferedOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
-import java.lang.Thread.State;
-import java.lang.Thread.UncaughtExceptionHandler;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -51,7 +55,7 @@ public class IndexOutputFormat<S extends Shape>
   
   private static final Log LOG = LogFactory.getLog(IndexOutputFormat.class);
   
-  /**Maximum number of active closing threads*/
+  /**Maximum number of active closing threads and of partitions waiting for them*/
   private static final int MaxClosingThreads = Runtime.getRuntime().availableProcessors() * 2;
 
   /**New line marker to separate records*/
@@ -79,8 +83,8 @@ public class IndexOutputFormat<S extends Shape>
     
     /**Information of partitions being written*/
     private Map<Integer, Partition> partitionsInfo = new ConcurrentHashMap<Integer, Partition>();
-    /**Temporary files written for each partition before it is locally indexed*/
-    private Map<Integer, File> tempFiles = new ConcurrentHashMap<Integer, File>();
+    /**Records collected for each partition before it is locally indexed*/
+    private Map<Integer, LocalIndexRecords> partitionsRecords = new ConcurrentHashMap<Integer, LocalIndexRecords>();
     /**
      * DataOutputStream for all partitions being written. It needs to be an
      * instance of stream so that it can be closed later.
@@ -88,18 +92,33 @@ public class IndexOutputFormat<S extends Shape>
     private Map<Integer, OutputStream> partitionsOutput = new ConcurrentHashMap<Integer, OutputStream>();
     /**A temporary text to serialize objects to before writing to output file*/
     private Text tempText = new Text2();
-    /**A list of all threads that are closing partitions in the background*/
-    private Vector<Thread> closingThreads = new Vector<Thread>();
+    /**
+     * Closes partitions in the background. When all its threads are busy and
+     * its queue is full, the writing thread closes the partition itself which
+     * stops it from opening more partitions until the background catches up.
+     */
+    private ExecutorService closingExecutor;
+    /**The tasks that are closing partitions in the background*/
+    private Vector<Future<?>> closingTasks = new Vector<Future<?>>();
     /**The master file contains information about all written partitions*/
     private OutputStream masterFile;
-    /**List of errors that happened by a background thread*/
-    private Vector<Throwable> listOfErrors = new Vector<Throwable>();
     /**Whether records are replicated in the index to keep the partitions disjoint*/
     private boolean disjoint;
-    /**Type of shapes written to the output. Needed to build local indexes*/
-    private S shape;
     /**The class of the local indexer*/
     private Class<? extends LocalIndex> localIndexClass;
+    /**
+     * Maximum number of bytes of records to keep in memory for all open
+     * partitions and for closed partitions whose local index is being built
+     */
+    private long memoryBudget;
+    /**
+     * Number of bytes of records currently kept in memory for open partitions
+     * and for closed partitions until their local index is built. Guarded by
+     * {@link #memoryLock} as closing threads release their part of it.
+     */
+    private long memorySize;
+    /**Guards {@link #memorySize} and is notified when a closing task releases memory*/
+    private final Object memoryLock = new Object();
 
     /**The extension of written files*/
     private String localIndexExtension;
@@ -135,11 +154,22 @@ public class IndexOutputFormat<S extends Shape>
       localIndexClass = conf.getClass(LocalIndex.LocalIndexClass, null, LocalIndex.class);
       if (localIndexClass != null)
         localIndexExtension = localIndexClass.getAnnotation(LocalIndex.LocalIndexMetadata.class).extension();
+      this.memoryBudget = conf.getLong(LocalIndex.MemoryBudget, LocalIndexRecords.DefaultMemoryBudget);
       String globalIndexExtension = partitioner.getClass().getAnnotation(Partitioner.GlobalIndexerMetadata.class).extension();
       Path masterFilePath = name == null ?
           new Path(outPath, String.format("_master.%s", globalIndexExtension)) :
           new Path(outPath, String.format("_master_%s.%s", name, globalIndexExtension));
       this.masterFile = outFS.create(masterFilePath);
+      this.closingExecutor = new ThreadPoolExecutor(MaxClosingThreads, MaxClosingThreads,
+          0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(MaxClosingThreads),
+          new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread thread = new Thread(r, "PartitionCloser");
+              thread.setDaemon(true);
+              return thread;
+            }
+          }, new ThreadPoolExecutor.CallerRunsPolicy());
     }
     
     @Override
@@ -151,48 +181,118 @@ public class IndexOutputFormat<S extends Shape>
         this.closePartition(partitionToClose);
       } else {
         // An actual object that we need to write
-        OutputStream output = getOrCreateDataOutput(id);
+        Partition partition = getOrCreatePartition(id);
         tempText.clear();
         value.toText(tempText);
         byte[] bytes = tempText.getBytes();
-        output.write(bytes, 0, tempText.getLength());
-        output.write(NEW_LINE);
-        Partition partition = partitionsInfo.get(id);
+        if (localIndexClass == null) {
+          OutputStream output = partitionsOutput.get(id);
+          output.write(bytes, 0, tempText.getLength());
+          output.write(NEW_LINE);
+        } else {
+          // Keep the MBR with the record so that it is not parsed again
+          LocalIndexRecords records = partitionsRecords.get(id);
+          long sizeBefore = records.getMemorySize();
+          records.append(bytes, 0, tempText.getLength(), value.getMBR());
+          if (addMemorySize(records.getMemorySize() - sizeBefore) > memoryBudget)
+            releaseMemory();
+        }
         partition.recordCount++;
         partition.size += tempText.getLength() + NEW_LINE.length;
         partition.expand(value);
-        if (shape == null)
-          shape = (S) value.clone();
       }
     }
 
     /**
-     * Close a file that is currently open for a specific partition. Returns a
-     * background thread that will continue all close-related logic.
+     * Adds the given number of bytes to the memory used by the records
+     * @param delta the number of bytes to add, negative to release memory
+     * @return the total memory used by the records after the update
+     */
+    private long addMemorySize(long delta) {
+      synchronized (memoryLock) {
+        memorySize += delta;
+        if (delta < 0)
+          memoryLock.notifyAll();
+        return memorySize;
+      }
+    }
+
+    /**
+     * Number of bytes of records currently kept in memory by open partitions
+     * and by closed partitions that are still being indexed
+     * @return
+     */
+    long getMemorySize() {
+      synchronized (memoryLock) {
+        return memorySize;
+      }
+    }
+
+    /**
+     * Brings the memory used by the records back within the budget. The open
+     * partition that keeps the most data in memory is spilled to disk first.
+     * If all open partitions are already spilled, the memory is held by closed
+     * partitions that are being indexed and this method blocks until they
+     * finish.
+     * @throws IOException
+     */
+    private void releaseMemory() throws IOException {
+      while (getMemorySize() > memoryBudget) {
+        LocalIndexRecords largest = null;
+        for (LocalIndexRecords records : partitionsRecords.values()) {
+          if (records.getMemorySize() > 0 && (largest == null ||
+              records.getMemorySize() > largest.getMemorySize()))
+            largest = records;
+        }
+        if (largest != null) {
+          long size = largest.getMemorySize();
+          largest.spill();
+          addMemorySize(-size);
+        } else {
+          synchronized (memoryLock) {
+            try {
+              // Closing tasks notify the lock when they release their memory
+              while (memorySize > memoryBudget)
+                memoryLock.wait();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              throw new InterruptedIOException("Interrupted while waiting for local indexes to be built");
+            }
+          }
+        }
+      }
+    }
+
+    /**
+     * Close a file that is currently open for a specific partition. The rest
+     * of the close-related logic runs in the background if a closing thread
+     * is available or in the current thread otherwise.
      * @param id the partition ID to close
      *
      */
     private void closePartition(final int id) {
       final Partition partitionInfo = partitionsInfo.get(id);
       final OutputStream outStream = partitionsOutput.get(id);
-      final File tempFile = tempFiles.get(id);
-      Thread closeThread = new Thread() {
+      final LocalIndexRecords records = partitionsRecords.get(id);
+      // The memory of the records stays in use until the local index is built
+      final long recordsMemory = records == null ? 0 : records.getMemorySize();
+      Runnable closeTask = new Runnable() {
         @Override
         public void run() {
           try {
-            outStream.close();
+            if (outStream != null)
+              outStream.close();
             
-            if (localIndexClass != null) {
-              // Build a local index for that file
+            if (records != null) {
+              // Build a local index for that partition
               try {
+                records.finish();
                 LocalIndex<S> localIndex = localIndexClass.newInstance();
                 localIndex.setup(conf);
 
                 Path indexedFilePath = getPartitionFile(id);
                 partitionInfo.filename = indexedFilePath.getName();
-                localIndex.buildLocalIndex(tempFile, indexedFilePath, shape);
-                // Temporary file no longer needed
-                tempFile.delete();
+                localIndex.buildLocalIndex(records, indexedFilePath);
               } catch (InstantiationException e) {
                 e.printStackTrace();
               } catch (IllegalAccessException e) {
@@ -201,6 +301,10 @@ public class IndexOutputFormat<S extends Shape>
                 e.printStackTrace();
 
                 throw new RuntimeException("Error building local index", e);
+              } finally {
+                // Records are no longer needed
+                records.delete();
+                addMemorySize(-recordsMemory);
               }
             }
             
@@ -218,94 +322,40 @@ public class IndexOutputFormat<S extends Shape>
           } catch (IOException e) {
             e.printStackTrace();
             throw new RuntimeException("Error closing partition: "+partitionInfo, e);
-          } finally {
-            if (!closingThreads.remove(Thread.currentThread())) {
-              throw new RuntimeException("Could not remove closing thread");
-            }
-            // Start more background threads if needed
-            int numRunningThreads = 0;
-            try {
-              for (int i_thread = 0; i_thread < closingThreads.size() &&
-                  numRunningThreads < MaxClosingThreads; i_thread++) {
-                Thread thread = closingThreads.elementAt(i_thread);
-                synchronized(thread) {
-                  switch (thread.getState()) {
-                    case NEW:
-                      // Start the thread and fall through to increment the counter
-                      thread.start();
-                    case RUNNABLE:
-                    case BLOCKED:
-                    case WAITING:
-                    case TIMED_WAITING:
-                      // No need to start. Just increment number of threads
-                      numRunningThreads++;
-                      break;
-                    case TERMINATED: // Do nothing.
-                      // Should never happen as each thread removes itself from
-                      // the list before completion
-                  }
-                }
-              }
-            } catch (ArrayIndexOutOfBoundsException e) {
-              // No problem. The array of threads might have gone empty
-            }
           }
         }
       };
       
-      closeThread.setUncaughtExceptionHandler(new UncaughtExceptionHandler() {
-        @Override
-        public void uncaughtException(Thread t, Throwable e) {
-          listOfErrors.add(e);
-        }
-      });
-      
       // Clear partition information to indicate we can no longer write to it
       partitionsInfo.remove(id);
       partitionsOutput.remove(id);
-      tempFiles.remove(id);
+      partitionsRecords.remove(id);
 
-      if (closingThreads.size() < MaxClosingThreads) {
-        // Start the thread in the background and make sure it started before
-        // adding it to the list of threads to avoid an exception when other
-        // thread tries to start it after it is in the queue
-        closeThread.start();
-        try {
-          while (closeThread.getState() == State.NEW) {
-            Thread.sleep(1000);
-            LOG.info("Waiting for thread #"+closeThread.getId()+" to start");
-          }
-        } catch (InterruptedException e) {}
-      }
-      closingThreads.add(closeThread);
+      closingTasks.add(closingExecutor.submit(closeTask));
     }
 
     /**
-     * Returns a DataOutput for the given partition. If a file is already open
-     * for that partition, the corresponding DataOutput is returned. Otherwise,
-     * a new file is created for that partition and the corresponding DataOutput
-     * is returned.
+     * Returns the information of the given partition. If the partition is not
+     * open, a new file or a new set of records is created for it.
      * 
      * @param id - the ID of the partition
      * @return
      * @throws IOException 
      */
-    private OutputStream getOrCreateDataOutput(int id) throws IOException {
-      OutputStream out = partitionsOutput.get(id);
-      if (out == null) {
+    private Partition getOrCreatePartition(int id) throws IOException {
+      Partition partition = partitionsInfo.get(id);
+      if (partition == null) {
         // First time to write in this partition. Store its information
-        Partition partition = new Partition();
+        partition = new Partition();
 
         if (localIndexClass == null) {
           // No local index needed. Write to the final file directly
           Path path = getPartitionFile(id);
-          out = outFS.create(path);
+          partitionsOutput.put(id, outFS.create(path));
           partition.filename = path.getName();
         } else {
-          // Write to a temporary file that will later get indexed
-          File tempFile = File.createTempFile(String.format("part-%05d", id), "lindex");
-          out = new BufferedOutputStream(new FileOutputStream(tempFile));
-          tempFiles.put(id, tempFile);
+          // Collect the records in memory until the partition is closed
+          partitionsRecords.put(id, new LocalIndexRecords(memoryBudget));
         }
         partition.cellId = id;
         // Set the rectangle to the opposite universe so that we can keep
@@ -313,10 +363,9 @@ public class IndexOutputFormat<S extends Shape>
         partition.set(Double.MAX_VALUE, Double.MAX_VALUE,
             -Double.MAX_VALUE, -Double.MAX_VALUE);
         // Store in the hashtables for further user
-        partitionsOutput.put(id,  out);
         partitionsInfo.put(id, partition);
       }
-      return out;
+      return partition;
     }
 
     /**
@@ -351,36 +400,39 @@ public class IndexOutputFormat<S extends Shape>
           if (task != null)
             task.progress();
         }
-        if (task != null)
-          task.setStatus("Closing! "+closingThreads.size()+" remaining");
-        // Wait until all background threads are closed
-        try {
-          while (!closingThreads.isEmpty()) {
-            Thread thread = closingThreads.firstElement();
-            while (thread.isAlive()) {
-              try {
-                thread.join(10000);
-                if (task != null)
-                  task.progress();
-              } catch (InterruptedException e) {
-                e.printStackTrace();
-              }
+        // Wait until all background tasks are done
+        Vector<Throwable> listOfErrors = new Vector<Throwable>();
+        for (int i = 0; i < closingTasks.size(); i++) {
+          if (task != null)
+            task.setStatus("Closing! "+(closingTasks.size() - i)+" remaining");
+          Future<?> closingTask = closingTasks.get(i);
+          boolean done = false;
+          while (!done) {
+            try {
+              closingTask.get(10, TimeUnit.SECONDS);
+              done = true;
+            } catch (TimeoutException e) {
+              if (task != null)
+                task.progress();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              throw new InterruptedIOException("Interrupted while closing partitions");
+            } catch (ExecutionException e) {
+              listOfErrors.add(e.getCause());
+              done = true;
             }
-            if (task != null)
-              task.setStatus("Closing! "+closingThreads.size()+" remaining");
           }
-        } catch (ArrayIndexOutOfBoundsException NoSuchElementException) {
-          // The array of threads has gone empty. Nothing to do
         }
         if (task != null)
           task.setStatus("All closed");
-        // All threads are now closed. Check if errors happened
+        // All tasks are now done. Check if errors happened
         if (!listOfErrors.isEmpty()) {
           for (Throwable t : listOfErrors)
             LOG.error("Error in thread", t);
           throw new RuntimeException("Encountered "+listOfErrors.size()+" errors in background thread");
         }
       } finally {
+        closingExecutor.shutdown();
         // Close the master file to ensure there are no open files
         masterFile.close();
       }
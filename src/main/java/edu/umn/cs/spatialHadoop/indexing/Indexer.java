@@ -23,7 +23,6 @@ import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
-import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.ClusterStatus;
 import org.apache.hadoop.mapred.JobClient;
 import org.apache.hadoop.mapred.JobConf;
@@ -44,6 +43,7 @@ import edu.umn.cs.spatialHadoop.nasa.HDFRecordReader;
 import edu.umn.cs.spatialHadoop.operations.FileMBR;
 import edu.umn.cs.spatialHadoop.operations.Sampler;
 import edu.umn.cs.spatialHadoop.util.FileUtil;
+import edu.umn.cs.spatialHadoop.util.IntArray;
 
 /**
  * @author Ahmed Eldawy
@@ -71,6 +71,12 @@ public class Indexer {
      * partitions to keep them disjoint
      */
     private boolean disjoint;
+
+    /**The key of the output records, reused across all records*/
+    private final IntWritable partitionID = new IntWritable();
+
+    /**The partitions that overlap the current record, reused across records*/
+    private final IntArray matches = new IntArray();
     
     @Override
     protected void setup(Context context)
@@ -84,27 +90,20 @@ public class Indexer {
     protected void map(Rectangle key, Iterable<? extends Shape> shapes,
         final Context context) throws IOException,
         InterruptedException {
-      final IntWritable partitionID = new IntWritable();
       for (final Shape shape : shapes) {
         Rectangle shapeMBR = shape.getMBR();
         if (shapeMBR == null)
           continue;
         if (disjoint) {
-          partitioner.overlapPartitions(shape, new ResultCollector<Integer>() {
-            @Override
-            public void collect(Integer r) {
-              partitionID.set(r);
-              try {
-                context.write(partitionID, shape);
-              } catch (IOException e) {
-                LOG.warn("Error checking overlapping partitions", e);
-              } catch (InterruptedException e) {
-                LOG.warn("Error checking overlapping partitions", e);
-              }
-            }
-          });
+          partitioner.overlapPartitions(shapeMBR.x1, shapeMBR.y1,
+              shapeMBR.x2, shapeMBR.y2, matches);
+          for (int i = 0; i < matches.size(); i++) {
+            partitionID.set(matches.get(i));
+            context.write(partitionID, shape);
+          }
         } else {
-          partitionID.set(partitioner.overlapPartition(shape));
+          partitionID.set(partitioner.overlapPartition(shapeMBR.x1,
+              shapeMBR.y1, shapeMBR.x2, shapeMBR.y2));
           if (partitionID.get() >= 0)
             context.write(partitionID, shape);
         }
@@ -223,6 +222,7 @@ public class Indexer {
       }
 
       final IntWritable partitionID = new IntWritable();
+      final IntArray matches = new IntArray();
 
       while (reader.nextKeyValue()) {
         Iterable<Shape> shapes = reader.getCurrentValue();
@@ -233,17 +233,11 @@ public class Indexer {
             Rectangle mbr = s.getMBR();
             if (mbr == null)
               continue;
-            p.overlapPartitions(mbr, new ResultCollector<Integer>() {
-              @Override
-              public void collect(Integer id) {
-                partitionID.set(id);
-                try {
-                  recordWriter.write(partitionID, s);
-                } catch (IOException e) {
-                  throw new RuntimeException(e);
-                }
-              }
-            });
+            p.overlapPartitions(mbr.x1, mbr.y1, mbr.x2, mbr.y2, matches);
+            for (int i = 0; i < matches.size(); i++) {
+              partitionID.set(matches.get(i));
+              recordWriter.write(partitionID, s);
+            }
           }
         } else {
           for (final Shape s : shapes) {
@@ -252,7 +246,7 @@ public class Indexer {
             Rectangle mbr = s.getMBR();
             if (mbr == null)
               continue;
-            int pid = p.overlapPartition(mbr);
+            int pid = p.overlapPartition(mbr.x1, mbr.y1, mbr.x2, mbr.y2);
             if (pid != -1) {
               partitionID.set(pid);
               recordWriter.write(partitionID, s);
@@ -349,26 +343,22 @@ public class Indexer {
       if (partitionerMetadata.requireMBR())
         mbr = SpatialSite.getMBR(job, ins);
 
-      Point[] sample = null;
+      double[] sampleXs = null, sampleYs = null;
       if (partitionerMetadata.requireSample()) {
         OperationsParams sampleParams = new OperationsParams(job);
-        sampleParams.setClass("outshape", Point.class, Shape.class);
         sampleParams.set("ratio", sampleParams.get(SpatialSite.SAMPLE_RATIO));
-        final String[] sampleStr = Sampler.takeSample(ins, sampleParams);
-        sample = new Point[sampleStr.length];
-        for (int i = 0; i < sample.length; i++) {
-          sample[i] = new Point();
-          sample[i].fromText(new Text(sampleStr[i]));
-        }
-        capacity = (int) Math.max(1, Math.floor((double)sample.length * outBlockSize / estimatedOutSize));
-        LOG.info(String.format("Partitioning %d sample points with capacity = %d", sample.length, capacity));
+        double[][] sample = Sampler.takeSamplePoints(ins, sampleParams);
+        sampleXs = sample[0];
+        sampleYs = sample[1];
+        capacity = (int) Math.max(1, Math.floor((double)sampleXs.length * outBlockSize / estimatedOutSize));
+        LOG.info(String.format("Partitioning %d sample points with capacity = %d", sampleXs.length, capacity));
       } else {
         // We call it capacity but it's really number of partitions
         capacity = (int) Math.ceil((double)estimatedOutSize / outBlockSize);
       }
 
       long t1 = System.nanoTime();
-      partitioner.construct(mbr, sample, capacity);
+      partitioner.construct(mbr, sampleXs, sampleYs, capacity);
       long t2 = System.nanoTime();
       System.out.printf("Total subdivision time %f seconds\n",(t2-t1)*1E-9);
       return partitioner;
@@ -470,7 +460,7 @@ public class Indexer {
     System.out.println("shape:<point|rectangle|polygon> - (*) Type of shapes stored in input file");
     System.out.println("sindex:<index> - Type of spatial index (grid|str|str+|rtree|r+tree|quadtree|zcurve|hilbert|kdtree)");
     System.out.println("gindex:<index> - Type of the global index (grid|str|rstree|kdtree|zcurve|hilbert|quadtree)");
-    System.out.println("lindex:<index> - Type of the local index (rrstree)");
+    System.out.println("lindex:<index> - Type of the local index (rrstar|strtree|hrtree)");
     System.out.println("-overwrite - Overwrite output file without notice");
     System.out.println("Available global indexes: " + SpatialSite.getGlobalIndexes());
     GenericOptionsParser.printGenericCommandUsage(System.out);
@@ -26,10 +26,9 @@ import edu.umn.cs.spatialHadoop.OperationsParams;
 import edu.umn.cs.spatialHadoop.core.CellInfo;
 import edu.umn.cs.spatialHadoop.core.Point;
 import edu.umn.cs.spatialHadoop.core.Rectangle;
-import edu.umn.cs.spatialHadoop.core.ResultCollector;
-import edu.umn.cs.spatialHadoop.core.Shape;
 import edu.umn.cs.spatialHadoop.mapred.ShapeIterRecordReader;
 import edu.umn.cs.spatialHadoop.mapred.SpatialRecordReader.ShapeIterator;
+import edu.umn.cs.spatialHadoop.util.IntArray;
 
 /**
  * A partitioner that partitioner data using a K-d tree-based partitioner.
@@ -183,48 +182,41 @@ public class KdTreePartitioner extends Partitioner {
   }
 
   @Override
-  public void overlapPartitions(Shape shape, ResultCollector<Integer> matcher) {
-    if (shape == null || shape.getMBR() == null)
-      return;
-    Rectangle shapeMBR = shape.getMBR();
-    /**Information about a split to test*/
-    class SplitToTest {
-      /**The ID of the split in the array of splits in the KDTreePartitioner*/
-      int splitID;
-      /**Direction of the split. 0 is vertical (|) and 1 is horizontal (-)*/
-      int direction;
-      
-      public SplitToTest(int splitID, int direction) {
-        this.splitID = splitID;
-        this.direction = direction;
-      }
-    }
-    // A queue of all splits to test
-    Queue<SplitToTest> splitsToTest = new ArrayDeque<SplitToTest>();
+  public void overlapPartitions(double x1, double y1, double x2, double y2, IntArray matches) {
+    matches.clear();
     // Start from the first (root) split
-    splitsToTest.add(new SplitToTest(1, 0));
-    
-    while (!splitsToTest.isEmpty()) {
-      SplitToTest splitToTest = splitsToTest.remove();
-      if (splitToTest.splitID >= splits.length) {
-        // Matched a partition. return it
-        matcher.collect(splitToTest.splitID);
-      } else {
-        // Need to test that split
-        if (splitToTest.direction == 0) {
-          // The corresponding split is vertical (along the x-axis). Like |
-          if (shapeMBR.x1 < splits[splitToTest.splitID])
-            splitsToTest.add(new SplitToTest(splitToTest.splitID * 2, 1 ^ splitToTest.direction)); // Go left
-          if (shapeMBR.x2 > splits[splitToTest.splitID])
-            splitsToTest.add(new SplitToTest(splitToTest.splitID * 2 + 1, 1 ^ splitToTest.direction)); // Go right
-        } else {
-          // The corresponding split is horizontal (along the y-axis). Like -
-          if (shapeMBR.y1 < splits[splitToTest.splitID])
-            splitsToTest.add(new SplitToTest(splitToTest.splitID * 2, 1 ^ splitToTest.direction));
-          if (shapeMBR.y2 > splits[splitToTest.splitID])
-            splitsToTest.add(new SplitToTest(splitToTest.splitID * 2 + 1, 1 ^ splitToTest.direction));
-        }
-      }
+    overlapPartitions(1, 0, x1, y1, x2, y2, matches);
+  }
+
+  /**
+   * Recursively finds all partitions under the given split that overlap the
+   * given rectangle.
+   * @param splitID the ID of the split in the array of splits
+   * @param direction the direction of the split. 0 is vertical (|) and 1 is
+   *                  horizontal (-)
+   * @param x1
+   * @param y1
+   * @param x2
+   * @param y2
+   * @param matches
+   */
+  private void overlapPartitions(int splitID, int direction,
+      double x1, double y1, double x2, double y2, IntArray matches) {
+    if (splitID >= splits.length) {
+      // Matched a partition. return it
+      matches.add(splitID);
+    } else if (direction == 0) {
+      // The corresponding split is vertical (along the x-axis). Like |
+      if (x1 < splits[splitID])
+        overlapPartitions(splitID * 2, 1, x1, y1, x2, y2, matches); // Go left
+      if (x2 > splits[splitID])
+        overlapPartitions(splitID * 2 + 1, 1, x1, y1, x2, y2, matches); // Go right
+    } else {
+      // The corresponding split is horizontal (along the y-axis). Like -
+      if (y1 < splits[splitID])
+        overlapPartitions(splitID * 2, 0, x1, y1, x2, y2, matches);
+      if (y2 > splits[splitID])
+        overlapPartitions(splitID * 2 + 1, 0, x1, y1, x2, y2, matches);
     }
   }
 
@@ -232,22 +224,22 @@ public class KdTreePartitioner extends Partitioner {
    * @param shape
    * @return
    */
-  public int overlapPartition(Shape shape) {
-    if (shape == null || shape.getMBR() == null)
-      return -1;
-    Point pt = shape.getMBR().getCenterPoint();
+  @Override
+  public int overlapPartition(double x1, double y1, double x2, double y2) {
+    double centerx = (x1 + x2) / 2;
+    double centery = (y1 + y2) / 2;
     int splitID = 1; // Start from the root
     int direction = 0;
     while (splitID < splits.length) {
       if (direction == 0) {
         // The corresponding split is vertical (along the x-axis). Like |
-        if (pt.x < splits[splitID])
+        if (centerx < splits[splitID])
           splitID = splitID * 2; // Go left
         else
           splitID = splitID * 2 + 1; // Go right
       } else {
         // The corresponding split is horizontal (along the y-axis). Like -
-        if (pt.y < splits[splitID])
+        if (centery < splits[splitID])
           splitID = splitID * 2;
         else
           splitID = splitID * 2 + 1;
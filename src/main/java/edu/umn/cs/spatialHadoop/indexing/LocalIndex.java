@@ -3,6 +3,7 @@ package edu.umn.cs.spatialHadoop.indexing;
 import edu.umn.cs.spatialHadoop.core.Shape;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
 
 import java.io.Closeable;
@@ -21,6 +22,9 @@ public interface LocalIndex<S extends Shape> extends Closeable {
   /**The name of the configuration line that stores the local index class name*/
   String LocalIndexClass = "LocalIndex.LocalIndexClass";
 
+  /**Number of bytes of record data kept in memory while building local indexes*/
+  String MemoryBudget = "LocalIndex.MemoryBudget";
+
   @Target(ElementType.TYPE)
   @Retention(RetentionPolicy.RUNTIME)
   @interface LocalIndexMetadata {
@@ -48,6 +52,18 @@ public interface LocalIndex<S extends Shape> extends Closeable {
   void buildLocalIndex(File nonIndexedFile, Path outputIndexedFile, S shape)
       throws IOException, InterruptedException;
 
+  /**
+   * Build a local index for records that were collected along with their MBRs.
+   * @param records - the records to index. {@link LocalIndexRecords#finish()}
+   *   must have been called on them.
+   * @param outputIndexedFile - path to the file that will contain the indexed
+   *   file. The output file might be in HDFS.
+   * @throws IOException
+   * @throws InterruptedException
+   */
+  void buildLocalIndex(LocalIndexRecords records, Path outputIndexedFile)
+      throws IOException, InterruptedException;
+
   /**
    * Get the starting offset of the data part
    * @return
@@ -69,6 +85,17 @@ public interface LocalIndex<S extends Shape> extends Closeable {
    */
   void read(FSDataInputStream in, long start, long end, S shape) throws IOException;
 
+  /**
+   * Points the local index to an input stream of the given file. Unlike
+   * {@link #read(FSDataInputStream, long, long, Shape)}, indexes of the same
+   * file that are opened by different readers can share cached data.
+   * @param in
+   * @param file
+   * @param start
+   * @param end
+   */
+  void read(FSDataInputStream in, FileStatus file, long start, long end, S shape) throws IOException;
+
   /**
    * Searches for all records that overlap the given query range.
    * @param x1
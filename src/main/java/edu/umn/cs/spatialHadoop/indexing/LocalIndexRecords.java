@@ -0,0 +1,289 @@
+/***********************************************************************
+* Copyright (c) 2015 by Regents of the University of Minnesota.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Apache License, Version 2.0 which
+* accompanies this distribution and is available at
+* http://www.opensource.org/licenses/apache2.0.php.
+*
+*************************************************************************/
+package edu.umn.cs.spatialHadoop.indexing;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.LineReader;
+
+import edu.umn.cs.spatialHadoop.core.Rectangle;
+import edu.umn.cs.spatialHadoop.core.Shape;
+import edu.umn.cs.spatialHadoop.io.Text2;
+
+/**
+ * The records of one partition that are waiting to be locally indexed. The
+ * MBR of each record is kept in primitive arrays as the record is appended
+ * so that the local index can be built without parsing the records again.
+ * The text of the records is kept in memory up to a memory budget and is
+ * spilled to a local temporary file beyond that.
+ * @author Ahmed Eldawy
+ *
+ */
+public class LocalIndexRecords {
+
+  /**Default number of bytes of record data to keep in memory before spilling*/
+  public static final long DefaultMemoryBudget = 64 * 1024 * 1024;
+
+  /**Maximum number of bytes of the spill file mapped by one buffer*/
+  static int SpillMapSize = 1024 * 1024 * 1024;
+
+  /**Number of records appended so far*/
+  private int numRecords;
+
+  /**The MBRs of the records*/
+  private double[] x1s, y1s, x2s, y2s;
+
+  /**
+   * The offset of each record in the data. Has one additional entry at the
+   * end with the total size of the data.
+   */
+  private long[] offsets;
+
+  /**The data of the records as long as they fit in memory*/
+  private byte[] memData;
+
+  /**The maximum size of the data that can be kept in memory*/
+  private final long memoryBudget;
+
+  /**The local file where the data is spilled or null if not spilled*/
+  private File spillFile;
+
+  /**The stream that writes to the spill file while appending records*/
+  private OutputStream spillOut;
+
+  /**
+   * Read-only memory maps of consecutive ranges of the spill file. Records
+   * are read back in the order of the index rather than the order they were
+   * written in so they are served from the page cache instead of a seek and
+   * a read call per record.
+   */
+  private MappedByteBuffer[] spillMaps;
+
+  /**A temporary buffer used to copy records from the spill file*/
+  private byte[] copyBuffer;
+
+  public LocalIndexRecords(long memoryBudget) {
+    // In-memory data is addressed by a single array
+    this.memoryBudget = Math.min(memoryBudget, Integer.MAX_VALUE - 8);
+    this.x1s = new double[16];
+    this.y1s = new double[16];
+    this.x2s = new double[16];
+    this.y2s = new double[16];
+    this.offsets = new long[17];
+    this.memData = new byte[1024];
+  }
+
+  /**
+   * Appends a record given its text representation and its MBR. A new line
+   * is added after the record.
+   * @param data
+   * @param offset
+   * @param length
+   * @param mbr
+   * @throws IOException
+   */
+  public void append(byte[] data, int offset, int length, Rectangle mbr) throws IOException {
+    if (numRecords == x1s.length) {
+      int newCapacity = x1s.length * 2;
+      x1s = Arrays.copyOf(x1s, newCapacity);
+      y1s = Arrays.copyOf(y1s, newCapacity);
+      x2s = Arrays.copyOf(x2s, newCapacity);
+      y2s = Arrays.copyOf(y2s, newCapacity);
+      offsets = Arrays.copyOf(offsets, newCapacity + 1);
+    }
+    x1s[numRecords] = mbr.x1;
+    y1s[numRecords] = mbr.y1;
+    x2s[numRecords] = mbr.x2;
+    y2s[numRecords] = mbr.y2;
+    long start = offsets[numRecords];
+    int recordLength = length + IndexOutputFormat.NEW_LINE.length;
+    if (spillOut == null && start + recordLength > memoryBudget)
+      spill();
+    if (spillOut != null) {
+      spillOut.write(data, offset, length);
+      spillOut.write(IndexOutputFormat.NEW_LINE);
+    } else {
+      if (start + recordLength > memData.length)
+        memData = Arrays.copyOf(memData,
+            (int) Math.min(Math.max(memData.length * 2, start + recordLength), memoryBudget));
+      System.arraycopy(data, offset, memData, (int) start, length);
+      System.arraycopy(IndexOutputFormat.NEW_LINE, 0, memData,
+          (int) start + length, IndexOutputFormat.NEW_LINE.length);
+    }
+    offsets[++numRecords] = start + recordLength;
+  }
+
+  /**
+   * Moves the data written so far to a local temporary file and writes all
+   * subsequent records to that file. Used to release the memory of this
+   * partition when the writer exceeds its overall memory budget.
+   * @throws IOException
+   */
+  public void spill() throws IOException {
+    if (spillOut != null)
+      return;
+    spillFile = File.createTempFile("part", "lindex");
+    spillOut = new BufferedOutputStream(new FileOutputStream(spillFile));
+    spillOut.write(memData, 0, (int) offsets[numRecords]);
+    memData = null;
+  }
+
+  /**
+   * Marks the end of the records. Must be called before the records are
+   * used to build an index.
+   * @throws IOException
+   */
+  public void finish() throws IOException {
+    x1s = Arrays.copyOf(x1s, numRecords);
+    y1s = Arrays.copyOf(y1s, numRecords);
+    x2s = Arrays.copyOf(x2s, numRecords);
+    y2s = Arrays.copyOf(y2s, numRecords);
+    if (spillOut != null) {
+      spillOut.close();
+      RandomAccessFile spillIn = new RandomAccessFile(spillFile, "r");
+      try {
+        // The maps remain valid after the file is closed
+        FileChannel channel = spillIn.getChannel();
+        long size = channel.size();
+        spillMaps = new MappedByteBuffer[(int) ((size + SpillMapSize - 1) / SpillMapSize)];
+        for (int i = 0; i < spillMaps.length; i++) {
+          long mapStart = (long) i * SpillMapSize;
+          spillMaps[i] = channel.map(FileChannel.MapMode.READ_ONLY, mapStart,
+              Math.min(SpillMapSize, size - mapStart));
+        }
+      } finally {
+        spillIn.close();
+      }
+    }
+  }
+
+  /**
+   * Releases all the resources and deletes the spill file if any
+   * @throws IOException
+   */
+  public void delete() throws IOException {
+    if (spillOut != null)
+      spillOut.close();
+    spillMaps = null;
+    if (spillFile != null)
+      spillFile.delete();
+    memData = null;
+  }
+
+  public int getNumRecords() {
+    return numRecords;
+  }
+
+  /**
+   * Number of bytes of record data currently kept in memory
+   * @return
+   */
+  public long getMemorySize() {
+    return spillOut == null ? offsets[numRecords] : 0;
+  }
+
+  /**
+   * Total number of bytes of record data whether in memory or spilled
+   * @return
+   */
+  public long getDataSize() {
+    return offsets[numRecords];
+  }
+
+  public double[] getX1s() {
+    return x1s;
+  }
+
+  public double[] getY1s() {
+    return y1s;
+  }
+
+  public double[] getX2s() {
+    return x2s;
+  }
+
+  public double[] getY2s() {
+    return y2s;
+  }
+
+  /**
+   * Writes the text of the given record to the output including its new line
+   * @param out
+   * @param iRecord
+   * @return the number of bytes written
+   * @throws IOException
+   */
+  public int writeRecord(DataOutput out, int iRecord) throws IOException {
+    long start = offsets[iRecord];
+    int length = (int) (offsets[iRecord + 1] - start);
+    if (spillMaps == null) {
+      out.write(memData, (int) start, length);
+    } else {
+      if (copyBuffer == null || copyBuffer.length < length)
+        copyBuffer = new byte[Math.max(length, 4096)];
+      // A record might span two consecutive maps
+      int copied = 0;
+      while (copied < length) {
+        long pos = start + copied;
+        MappedByteBuffer map = spillMaps[(int) (pos / SpillMapSize)];
+        map.position((int) (pos % SpillMapSize));
+        int n = Math.min(length - copied, map.remaining());
+        map.get(copyBuffer, copied, n);
+        copied += n;
+      }
+      out.write(copyBuffer, 0, length);
+    }
+    return length;
+  }
+
+  /**
+   * Reads the records of a text file with one record per line and computes
+   * their MBRs using the given shape.
+   * @param file
+   * @param shape
+   * @param memoryBudget
+   * @return
+   * @throws IOException
+   */
+  public static LocalIndexRecords readFrom(File file, Shape shape,
+      long memoryBudget) throws IOException {
+    LocalIndexRecords records = new LocalIndexRecords(memoryBudget);
+    LineReader in = new LineReader(new FileInputStream(file));
+    try {
+      Text line = new Text2();
+      Text copy = new Text2();
+      while (in.readLine(line) > 0) {
+        if (line.getLength() == 0)
+          continue;
+        // Parse a copy as some shapes modify the text while parsing it
+        copy.set(line.getBytes(), 0, line.getLength());
+        shape.fromText(copy);
+        records.append(line.getBytes(), 0, line.getLength(), shape.getMBR());
+      }
+    } catch (IOException e) {
+      records.delete();
+      throw e;
+    } finally {
+      in.close();
+    }
+    records.finish();
+    return records;
+  }
+}
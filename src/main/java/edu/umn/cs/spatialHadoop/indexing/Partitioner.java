@@ -17,6 +17,7 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
 import edu.umn.cs.spatialHadoop.io.Text2;
+import edu.umn.cs.spatialHadoop.util.IntArray;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.filecache.DistributedCache;
 import org.apache.hadoop.fs.FSDataInputStream;
@@ -75,13 +76,59 @@ public abstract class Partitioner implements Writable {
    */
   public abstract void construct(Rectangle mbr, Point[] points, int capacity);
 
+  /**
+   * Construct the partitioner from the input MBR and/or a sample given as
+   * two arrays of coordinates. Partitioners that work on primitive coordinates
+   * should override this method to avoid creating a {@link Point} for each
+   * sample point. The default implementation converts the sample to points
+   * and calls {@link #construct(Rectangle, Point[], int)}.
+   * @param mbr the minimum bounding rectangle of the input
+   * @param xs the x coordinates of a sample of points from the input
+   * @param ys the y coordinates of a sample of points from the input
+   * @param capacity the maximum number of records per partition
+   */
+  public void construct(Rectangle mbr, double[] xs, double[] ys, int capacity) {
+    Point[] points = null;
+    if (xs != null) {
+      points = new Point[xs.length];
+      for (int i = 0; i < xs.length; i++)
+        points[i] = new Point(xs[i], ys[i]);
+    }
+    construct(mbr, points, capacity);
+  }
+
   /**
    * Overlap a shape with partitions and calls a matcher for each overlapping
    * partition.
    * @param shape
    * @param matcher
    */
-  public abstract void overlapPartitions(Shape shape, ResultCollector<Integer> matcher);
+  public void overlapPartitions(Shape shape, ResultCollector<Integer> matcher) {
+    if (shape == null)
+      return;
+    Rectangle mbr = shape.getMBR();
+    if (mbr == null)
+      return;
+    IntArray matches = new IntArray();
+    overlapPartitions(mbr.x1, mbr.y1, mbr.x2, mbr.y2, matches);
+    for (int i = 0; i < matches.size(); i++)
+      matcher.collect(matches.get(i));
+  }
+
+  /**
+   * Finds all the partitions that overlap the given MBR of a shape. This is
+   * the allocation-free version of
+   * {@link #overlapPartitions(Shape, ResultCollector)} to be used in tight
+   * loops, e.g., in the map function of the indexer.
+   * @param x1
+   * @param y1
+   * @param x2
+   * @param y2
+   * @param matches (output) the IDs of the overlapping partitions. Cleared
+   *                before adding the results.
+   */
+  public abstract void overlapPartitions(double x1, double y1, double x2, double y2,
+                                         IntArray matches);
   
   /**
    * Returns only one overlapping partition. If the given shape overlaps more
@@ -92,7 +139,25 @@ public abstract class Partitioner implements Writable {
    * @param shape
    * @return
    */
-  public abstract int overlapPartition(Shape shape);
+  public int overlapPartition(Shape shape) {
+    if (shape == null)
+      return -1;
+    Rectangle mbr = shape.getMBR();
+    if (mbr == null)
+      return -1;
+    return overlapPartition(mbr.x1, mbr.y1, mbr.x2, mbr.y2);
+  }
+
+  /**
+   * Returns only one partition for the given MBR of a shape. This is the
+   * allocation-free version of {@link #overlapPartition(Shape)}.
+   * @param x1
+   * @param y1
+   * @param x2
+   * @param y2
+   * @return the ID of the chosen partition or -1 if no partition matches
+   */
+  public abstract int overlapPartition(double x1, double y1, double x2, double y2);
   
   /**
    * Returns the details of a specific partition given its ID.
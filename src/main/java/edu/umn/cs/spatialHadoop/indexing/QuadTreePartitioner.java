@@ -24,8 +24,6 @@ import edu.umn.cs.spatialHadoop.OperationsParams;
 import edu.umn.cs.spatialHadoop.core.CellInfo;
 import edu.umn.cs.spatialHadoop.core.Point;
 import edu.umn.cs.spatialHadoop.core.Rectangle;
-import edu.umn.cs.spatialHadoop.core.ResultCollector;
-import edu.umn.cs.spatialHadoop.core.Shape;
 import edu.umn.cs.spatialHadoop.mapred.ShapeIterRecordReader;
 import edu.umn.cs.spatialHadoop.mapred.SpatialRecordReader.ShapeIterator;
 import edu.umn.cs.spatialHadoop.util.BitArray;
@@ -61,6 +59,15 @@ public class QuadTreePartitioner extends Partitioner {
     createFromZValues(zValues, capacity);
   }
 
+  @Override
+  public void construct(Rectangle mbr, double[] xs, double[] ys, int capacity) {
+    this.mbr.set(mbr);
+    long[] zValues = new long[xs.length];
+    for (int i = 0; i < xs.length; i++)
+      zValues[i] = ZCurvePartitioner.computeZ(mbr, xs[i], ys[i]);
+    createFromZValues(zValues, capacity);
+  }
+
   /**
    * Create a ZCurvePartitioner from a list of points
    * @param zValues
@@ -153,32 +160,31 @@ public class QuadTreePartitioner extends Partitioner {
   }
 
   @Override
-  public int overlapPartition(Shape shape) {
-    if (shape == null || shape.getMBR() == null)
-      return -1;
-
-    Point queryPoint = shape.getMBR().getCenterPoint();
+  public int overlapPartition(double x1, double y1, double x2, double y2) {
+    double queryx = (x1 + x2) / 2;
+    double queryy = (y1 + y2) / 2;
     int nodeToSearch = 1; // Start from the root
-    Rectangle nodeMBR = mbr.clone();
+    double nodex1 = mbr.x1, nodey1 = mbr.y1, nodex2 = mbr.x2, nodey2 = mbr.y2;
     // Keep going deeper in the Quad tree until reaching a leaf node
     while (nodeToSearch < leafNodes.size() && !leafNodes.get(nodeToSearch)) {
-      Point nodeCenter = nodeMBR.getCenterPoint();
-      if (queryPoint.x < nodeCenter.x && queryPoint.y < nodeCenter.y) {
+      double centerx = (nodex1 + nodex2) / 2;
+      double centery = (nodey1 + nodey2) / 2;
+      if (queryx < centerx && queryy < centery) {
         nodeToSearch = nodeToSearch * 4;
-        nodeMBR.x2 = nodeCenter.x;
-        nodeMBR.y2 = nodeCenter.y;
-      } else if (queryPoint.x < nodeCenter.x && queryPoint.y >= nodeCenter.y) {
+        nodex2 = centerx;
+        nodey2 = centery;
+      } else if (queryx < centerx && queryy >= centery) {
         nodeToSearch = nodeToSearch * 4 + 1;
-        nodeMBR.x2 = nodeCenter.x;
-        nodeMBR.y1 = nodeCenter.y;
-      } else if (queryPoint.x >= nodeCenter.x && queryPoint.y < nodeCenter.y) {
+        nodex2 = centerx;
+        nodey1 = centery;
+      } else if (queryx >= centerx && queryy < centery) {
         nodeToSearch = nodeToSearch * 4 + 2;
-        nodeMBR.x1 = nodeCenter.x;
-        nodeMBR.y2 = nodeCenter.y;
+        nodex1 = centerx;
+        nodey2 = centery;
       } else {
         nodeToSearch = nodeToSearch * 4 + 3;
-        nodeMBR.x1 = nodeCenter.x;
-        nodeMBR.y1 = nodeCenter.y;
+        nodex1 = centerx;
+        nodey1 = centery;
       }
     }
     // Reached a node deeper than the deepest leaf node in the Quad tree
@@ -188,33 +194,45 @@ public class QuadTreePartitioner extends Partitioner {
   }
   
   @Override
-  public void overlapPartitions(Shape shape, ResultCollector<Integer> matcher) {
-    if (shape == null || shape.getMBR() == null)
+  public void overlapPartitions(double x1, double y1, double x2, double y2, IntArray matches) {
+    matches.clear();
+    overlapPartitions(1, mbr.x1, mbr.y1, mbr.x2, mbr.y2, x1, y1, x2, y2, matches);
+  }
+
+  /**
+   * Recursively finds all leaf nodes under the given node that overlap the
+   * given rectangle.
+   * @param nodeID the ID of the node to search
+   * @param nodex1 the MBR of the node
+   * @param nodey1
+   * @param nodex2
+   * @param nodey2
+   * @param x1 the rectangle to search
+   * @param y1
+   * @param x2
+   * @param y2
+   * @param matches
+   */
+  private void overlapPartitions(int nodeID,
+      double nodex1, double nodey1, double nodex2, double nodey2,
+      double x1, double y1, double x2, double y2, IntArray matches) {
+    if (!(x2 > nodex1 && nodex2 > x1 && y2 > nodey1 && nodey2 > y1))
       return;
-    Rectangle shapeMBR = shape.getMBR();
-    Queue<CellInfo> nodesToSearch = new ArrayDeque<CellInfo>();
-    nodesToSearch.add(new CellInfo(1, mbr));
-    
-    while (!nodesToSearch.isEmpty()) {
-      // Go down as necessary
-      CellInfo nodeToSearch = nodesToSearch.remove();
-      if (shapeMBR.isIntersected(nodeToSearch)) {
-        if (leafNodes.get(nodeToSearch.cellId)) {
-          // Reached a leaf node that overlaps the given shape
-          matcher.collect(nodeToSearch.cellId);
-        } else {
-          // Overlapping with a non-leaf node, go deeper to four children
-          Point centerPoint = nodeToSearch.getCenterPoint();
-          nodesToSearch.add(new CellInfo(nodeToSearch.cellId * 4,
-              nodeToSearch.x1, nodeToSearch.y1, centerPoint.x, centerPoint.y));
-          nodesToSearch.add(new CellInfo(nodeToSearch.cellId * 4 + 1,
-              nodeToSearch.x1, centerPoint.y, centerPoint.x, nodeToSearch.y2));
-          nodesToSearch.add(new CellInfo(nodeToSearch.cellId * 4 + 2,
-              centerPoint.x, nodeToSearch.y1, nodeToSearch.x2, centerPoint.y));
-          nodesToSearch.add(new CellInfo(nodeToSearch.cellId * 4 + 3,
-              centerPoint.x, centerPoint.y, nodeToSearch.x2, nodeToSearch.y2));
-        }
-      }
+    if (leafNodes.get(nodeID)) {
+      // Reached a leaf node that overlaps the given shape
+      matches.add(nodeID);
+    } else {
+      // Overlapping with a non-leaf node, go deeper to four children
+      double centerx = (nodex1 + nodex2) / 2;
+      double centery = (nodey1 + nodey2) / 2;
+      overlapPartitions(nodeID * 4, nodex1, nodey1, centerx, centery,
+          x1, y1, x2, y2, matches);
+      overlapPartitions(nodeID * 4 + 1, nodex1, centery, centerx, nodey2,
+          x1, y1, x2, y2, matches);
+      overlapPartitions(nodeID * 4 + 2, centerx, nodey1, nodex2, centery,
+          x1, y1, x2, y2, matches);
+      overlapPartitions(nodeID * 4 + 3, centerx, centery, nodex2, nodey2,
+          x1, y1, x2, y2, matches);
     }
   }
 
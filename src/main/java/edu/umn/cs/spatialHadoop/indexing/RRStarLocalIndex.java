@@ -1,22 +1,20 @@
 package edu.umn.cs.spatialHadoop.indexing;
 
-import edu.umn.cs.spatialHadoop.core.Rectangle;
 import edu.umn.cs.spatialHadoop.core.Shape;
 import edu.umn.cs.spatialHadoop.io.Text2;
-import edu.umn.cs.spatialHadoop.util.IntArray;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
 
 import java.io.*;
-import java.util.Iterator;
 
 /**
  * A local index that uses {@link RRStarTree} for building the index and
- * {@link RTreeGuttman} for reading it.
+ * {@link RTreeReader} for reading it.
  * @param <S>
  */
 @LocalIndex.LocalIndexMetadata(extension = "rrstar")
@@ -31,12 +29,10 @@ public class RRStarLocalIndex<S extends Shape> implements LocalIndex<S> {
    * 32 bytes (four double coordinates for the MBR), and
    * four bytes for the offset of each child in the file.
    */
-  private static final int MaxCapacity = 4096 / (4 + 8 * 4 + 4);
+  protected static final int MaxCapacity = 4096 / (4 + 8 * 4 + 4);
 
   /**The underlying R-tree used when reading the index from disk*/
-  protected RTreeGuttman underlyingRTree;
-
-  protected DataIterator<S> iter;
+  protected RTreeReader<S> underlyingRTree;
 
   /**The start and end offsets of the data chunk*/
   protected long dataStart, dataEnd;
@@ -44,75 +40,74 @@ public class RRStarLocalIndex<S extends Shape> implements LocalIndex<S> {
   @Override
   public void setup(Configuration conf) {
     this.conf = conf;
-    this.iter = new DataIterator<S>();
+    if (conf.get(RTreeReader.PageCacheSize) != null)
+      RTreeReader.setPageCacheSize(conf.getLong(RTreeReader.PageCacheSize,
+          RTreeReader.DefaultPageCacheSize));
   }
 
   @Override
   public void buildLocalIndex(File nonIndexedFile, Path outputIndexedFile, S shape) throws IOException, InterruptedException {
-    // Read all data of the written file in memory as one byte array
-    final byte[] cellData = new byte[(int) nonIndexedFile.length()];
-    InputStream cellIn = new BufferedInputStream(new FileInputStream(nonIndexedFile));
-    cellIn.read(cellData);
-    cellIn.close();
-
-    // Count number of lines in the file, i.e., number of records, and the
-    // start of each record
-    final IntArray recordOffsets = new IntArray();
-    int i1 = 0;
-    while (i1 < cellData.length) {
-      // i1 should point to the first character in a record
-      recordOffsets.add(i1);
-      // i2 should point the first character in the next record
-      int i2 = i1 + 1;
-      // Skip until the first EOL character
-      while (i2 < cellData.length && cellData[i2] != '\n' && cellData[i2] != '\r')
-        i2++;
-      // Skip any additional EOL characters
-      while (i2 < cellData.length && (cellData[i2] == '\n' || cellData[i2] == '\r'))
-        i2++;
-      i1 = i2;
-    }
-    // To simplify the calculations, always append the end offset of the array
-    recordOffsets.add(i1);
-
-    // Scan the array again but this time compute the MBRs of objects
-    int numRecords = recordOffsets.size() - 1;
-    double[] x1s = new double[numRecords];
-    double[] y1s = new double[numRecords];
-    double[] x2s = new double[numRecords];
-    double[] y2s = new double[numRecords];
-
-    Text line = new Text2();
-    for (int i = 0; i < numRecords; i++) {
-      line.set(cellData, recordOffsets.get(i), recordOffsets.get(i+1)-recordOffsets.get(i));
-      shape.fromText(line);
-      Rectangle mbr = shape.getMBR();
-      x1s[i] = mbr.x1;
-      y1s[i] = mbr.y1;
-      x2s[i] = mbr.x2;
-      y2s[i] = mbr.y2;
+    // Parse the records of the file once to compute their MBRs
+    LocalIndexRecords records = LocalIndexRecords.readFrom(nonIndexedFile, shape,
+        conf.getLong(MemoryBudget, LocalIndexRecords.DefaultMemoryBudget));
+    try {
+      buildLocalIndex(records, outputIndexedFile);
+    } finally {
+      records.delete();
     }
+  }
 
-    // Now, it is time to build the tree
-    RRStarTree rtree = new RRStarTree(MaxCapacity * 2 / 10, MaxCapacity);
-    rtree.initializeFromRects(x1s, y1s, x2s, y2s);
+  @Override
+  public void buildLocalIndex(final LocalIndexRecords records, Path outputIndexedFile) throws IOException, InterruptedException {
+    // The index format uses 32-bit offsets. Fail before building the tree if
+    // the data alone cannot fit in it rather than writing a corrupt index.
+    if (records.getDataSize() > Integer.MAX_VALUE)
+      throw new IOException(String.format("Cannot build a local index for "
+          + "'%s' with %d bytes of data. The index format supports at most %d "
+          + "bytes per partition", outputIndexedFile, records.getDataSize(),
+          Integer.MAX_VALUE));
+    // Build the tree directly from the MBRs collected with the records
+    RTreeGuttman rtree = buildRTree(records.getX1s(), records.getY1s(),
+        records.getX2s(), records.getY2s());
 
     // The tree is built, write it to the output
     FileSystem outFS = outputIndexedFile.getFileSystem(conf);
     FSDataOutputStream out = outFS.create(outputIndexedFile);
-    rtree.write(out, new RTreeGuttman.Serializer() {
-      @Override
-      public int serialize(DataOutput out, int iObject) throws IOException {
-        out.write(cellData, recordOffsets.get(iObject),
-            recordOffsets.get(iObject+1) - recordOffsets.get(iObject));
-        return recordOffsets.get(iObject+1) - recordOffsets.get(iObject);
-      }
-    });
+    try {
+      rtree.write(out, new RTreeGuttman.Serializer() {
+        @Override
+        public int serialize(DataOutput out, int iObject) throws IOException {
+          return records.writeRecord(out, iObject);
+        }
+      });
+    } catch (IOException e) {
+      // The tree structure did not fit in the index format, drop the output
+      out.close();
+      outFS.delete(outputIndexedFile, false);
+      throw e;
+    }
+    // RTreeGuttman#write ensures that the tree size fits in an integer
     int indexSize = (int) out.getPos();
     out.writeInt(indexSize);
     out.close();
   }
 
+  /**
+   * Builds the in-memory R-tree of the given MBRs which is then written to
+   * disk. Subclasses override this method to use a different construction
+   * algorithm while keeping the same disk layout.
+   * @param x1s
+   * @param y1s
+   * @param x2s
+   * @param y2s
+   * @return
+   */
+  protected RTreeGuttman buildRTree(double[] x1s, double[] y1s, double[] x2s, double[] y2s) {
+    RRStarTree rtree = new RRStarTree(MaxCapacity * 2 / 10, MaxCapacity);
+    rtree.initializeFromRects(x1s, y1s, x2s, y2s);
+    return rtree;
+  }
+
   @Override
   public long getDataStart() {
     return dataStart;
@@ -125,9 +120,13 @@ public class RRStarLocalIndex<S extends Shape> implements LocalIndex<S> {
 
   @Override
   public void read(FSDataInputStream in, long start, long end, final S mutableShape) throws IOException {
-    if (underlyingRTree == null)
-      underlyingRTree = new RTreeGuttman(1, 2);
-    underlyingRTree.readFields(in, end - start - 4, new RTreeGuttman.Deserializer<S>() {
+    read(in, null, start, end, mutableShape);
+  }
+
+  @Override
+  public void read(FSDataInputStream in, FileStatus file, long start, long end,
+      final S mutableShape) throws IOException {
+    underlyingRTree = new RTreeReader<S>(in, file, start, end - start - 4, new RTreeGuttman.Deserializer<S>() {
       private Text line = new Text2();
       @Override
       public S deserialize(DataInput in, int length) throws IOException {
@@ -144,57 +143,24 @@ public class RRStarLocalIndex<S extends Shape> implements LocalIndex<S> {
 
   @Override
   public Iterable<? extends S> search(double x1, double y1, double x2, double y2) {
-    Iterable<RTreeGuttman.Entry> treeResults = underlyingRTree.search(x1, y1, x2, y2);
-    iter.wrap(treeResults);
-    return iter;
+    try {
+      return underlyingRTree.search(x1, y1, x2, y2);
+    } catch (IOException e) {
+      throw new RuntimeException("Error searching the local index", e);
+    }
   }
 
   @Override
   public Iterable<? extends S> scanAll() {
-    Iterable<RTreeGuttman.Entry> allElements = underlyingRTree.entrySet();
-    iter.wrap(allElements);
-    return iter;
+    try {
+      return underlyingRTree.scanAll();
+    } catch (IOException e) {
+      throw new RuntimeException("Error scanning the local index", e);
+    }
   }
 
   @Override
   public void close() throws IOException {
     underlyingRTree.close();
   }
-
-  static class DataIterator<S> implements Iterable<S>, Iterator<S> {
-
-    private Iterable<RTreeGuttman.Entry> underlyingIterable;
-    private Iterator<RTreeGuttman.Entry> underlyingIterator;
-
-    public void wrap(Iterable<RTreeGuttman.Entry> i) {
-      this.underlyingIterable = i;
-    }
-
-    @Override
-    public Iterator<S> iterator() {
-      this.underlyingIterator = this.underlyingIterable.iterator();
-      return this;
-    }
-
-    @Override
-    public boolean hasNext() {
-      return underlyingIterator.hasNext();
-    }
-
-    @Override
-    public S next() {
-      RTreeGuttman.Entry e = underlyingIterator.next();
-      try {
-        return (S) e.getObject();
-      } catch (IOException e1) {
-        e1.printStackTrace();
-        return null;
-      }
-    }
-
-    public void remove() {
-      throw new RuntimeException("Not implemented");
-    }
-  }
-
 }
@@ -72,16 +72,17 @@ public class RTreeGuttman implements Closeable {
   protected void makeRoomForOneMoreObject() {
     if (x1s.length <= numEntries + numNodes) {
       // Expand the coordinate arrays in big chunks to avoid memory copy
-      double[] newCoords = new double[x1s.length * 2];
+      int newLength = Math.max(16, x1s.length * 2);
+      double[] newCoords = new double[newLength];
       System.arraycopy(x1s, 0, newCoords, 0, x1s.length);
       x1s = newCoords;
-      newCoords = new double[x2s.length * 2];
+      newCoords = new double[newLength];
       System.arraycopy(x2s, 0, newCoords, 0, x2s.length);
       x2s = newCoords;
-      newCoords = new double[y1s.length * 2];
+      newCoords = new double[newLength];
       System.arraycopy(y1s, 0, newCoords, 0, y1s.length);
       y1s = newCoords;
-      newCoords = new double[y2s.length * 2];
+      newCoords = new double[newLength];
       System.arraycopy(y2s, 0, newCoords, 0, y2s.length);
       y2s = newCoords;
 
@@ -955,8 +956,11 @@ public class RTreeGuttman implements Closeable {
    *   </li>
    *
    * </ul>
+   * Since all offsets are 32-bit integers, the entire tree cannot exceed
+   * {@link Integer#MAX_VALUE} bytes. An {@link IOException} is thrown if it
+   * does, so the output written so far must be discarded.
    * @param out
-   * @throws IOException
+   * @throws IOException if the tree is larger than {@link Integer#MAX_VALUE}
    */
   public void write(DataOutput out, Serializer ser) throws IOException {
     // Tree data: write the data entries in the tree order
@@ -968,21 +972,25 @@ public class RTreeGuttman implements Closeable {
     int[] objectOffsets = new int[numOfDataEntries() + numOfNodes()];
     // Keep track of the offset of each data object from the beginning of the
     // data section
-    int dataOffset = 0;
+    long dataOffset = 0;
     // Keep track of the offset of each node from the beginning of the tree
     // structure section
-    int nodeOffset = 0;
+    long nodeOffset = 0;
     while (!nodesToVisit.isEmpty()) {
       int node = nodesToVisit.removeFirst();
       // The node is supposed to be written in this order.
       // Measure its offset and accumulate its size
-      objectOffsets[node] = nodeOffset;
+      objectOffsets[node] = (int) nodeOffset;
       nodeOffset += 4 + (4 + 8 * 4) * Node_size(node);
 
       if (isLeaf.get(node)) {
         // Leaf node, write the data entries in order
         for (int child : children.get(node)) {
-          objectOffsets[child] = dataOffset;
+          if (dataOffset > Integer.MAX_VALUE)
+            throw new IOException(String.format("Data of the R-tree exceeds "
+                + "the maximum of %d bytes supported by the index format",
+                Integer.MAX_VALUE));
+          objectOffsets[child] = (int) dataOffset;
           if (ser != null)
             dataOffset += ser.serialize(out, child);
         }
@@ -992,6 +1000,11 @@ public class RTreeGuttman implements Closeable {
           nodesToVisit.addLast(child);
       }
     }
+    int footerSize = 4 * 8 + 6 * 4;
+    if (dataOffset + nodeOffset + footerSize > Integer.MAX_VALUE)
+      throw new IOException(String.format("R-tree of %d bytes exceeds the "
+          + "maximum of %d bytes supported by the index format",
+          dataOffset + nodeOffset + footerSize, Integer.MAX_VALUE));
     // Update node offsets as they are written after the data entries
     for (int i = 0; i < numNodes; i++)
       objectOffsets[i + numEntries] += dataOffset;
@@ -1019,7 +1032,7 @@ public class RTreeGuttman implements Closeable {
     }
 
     // Tree footer
-    int footerOffset = dataOffset + nodeOffset;
+    int footerOffset = (int) (dataOffset + nodeOffset);
     // (1) MBR of the root
     out.writeDouble(x1s[root]);
     out.writeDouble(y1s[root]);
@@ -1032,16 +1045,17 @@ public class RTreeGuttman implements Closeable {
     // (4) Number of leaf nodes
     out.writeInt((int) isLeaf.countOnes());
     // (5) Offset of the tree structure section
-    out.writeInt(dataOffset);
+    out.writeInt((int) dataOffset);
     // (6) Offset of the footer
     out.writeInt(footerOffset);
     // (7) Size of the entire tree
-    int footerSize = 4 * 8 + 6 * 4;
     out.writeInt(footerOffset + footerSize);
   }
 
   /**
    * Read an R-tree stored using the method {@link #write(DataOutput, Serializer)}
+   * The entire tree structure is loaded in memory. To search a large tree
+   * without loading it, use {@link RTreeReader} instead.
    * @param in
    * @param length
    * @throws IOException
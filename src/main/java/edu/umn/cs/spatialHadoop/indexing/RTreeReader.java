@@ -0,0 +1,433 @@
+package edu.umn.cs.spatialHadoop.indexing;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.io.DataInputBuffer;
+
+import edu.umn.cs.spatialHadoop.util.IntArray;
+
+/**
+ * Reads an R-tree stored using
+ * {@link RTreeGuttman#write(java.io.DataOutput, RTreeGuttman.Serializer)}
+ * without loading its structure in memory. Unlike
+ * {@link RTreeGuttman#readFields(FSDataInputStream, long, RTreeGuttman.Deserializer)},
+ * opening the tree only reads its footer. Nodes are decoded on demand, during
+ * a search, from fixed-size pages of the tree structure which are kept in a
+ * bounded cache shared by all open trees. The data entries that match a search
+ * are returned in the order they are stored in the file so that nearby entries
+ * are read together in one large sequential read.
+ * @param <O> the type of the data entries as returned by the deserializer
+ */
+public class RTreeReader<O> implements Closeable {
+
+  /**Size of the pages in which the tree structure is read and cached*/
+  public static final int PageSize = 8192;
+
+  /**Configuration key for the maximum total size in bytes of cached pages*/
+  public static final String PageCacheSize = "spatialHadoop.rtree.PageCacheSize";
+
+  /**Default maximum total size in bytes of cached pages*/
+  public static final long DefaultPageCacheSize = 64L * 1024 * 1024;
+
+  /**Data entries that are at most this number of bytes apart are read together*/
+  private static final int MaxGap = 8192;
+
+  /**Maximum number of bytes of data entries to read at once*/
+  private static final int MaxChunkSize = 1024 * 1024;
+
+  /**Size of each child in a node: offset (int) + MBR (four doubles)*/
+  private static final int ChildSize = 4 + 8 * 4;
+
+  /**Size of the footer: MBR (four doubles) + six integers*/
+  private static final int FooterSize = 8 * 4 + 4 * 6;
+
+  /**The pages of the tree structures of all open trees*/
+  private static final PageCache pageCache = new PageCache(DefaultPageCacheSize / PageSize);
+
+  /**The input stream that points to the underlying file*/
+  private final FSDataInputStream in;
+
+  /**
+   * Identifies the underlying file in the page cache. Either the qualified
+   * path of the file or a token private to this reader if the file is unknown.
+   */
+  private final Object file;
+
+  /**Modification time of the underlying file to skip pages of older versions*/
+  private final long modificationTime;
+
+  /**The offset of the beginning of the tree in the file*/
+  private final long treeStart;
+
+  /**Total size of the tree in bytes*/
+  private final long treeLength;
+
+  /**A deserializer that reads data entries*/
+  private final RTreeGuttman.Deserializer<O> deser;
+
+  /**The MBR of the root*/
+  private final double rootx1, rooty1, rootx2, rooty2;
+
+  /**Total number of data entries*/
+  private final int numEntries;
+
+  /**The offset of the tree structure which is also the size of the data*/
+  private final int treeStructureOffset;
+
+  /**The offset of the footer which marks the end of the tree structure*/
+  private final int footerOffset;
+
+  /**
+   * Opens an R-tree by reading its footer only. The pages of this tree are
+   * not shared with other readers because the file is unknown.
+   * @param in - the input stream of the file that contains the tree
+   * @param treeStart - the offset of the beginning of the tree in the file
+   * @param treeLength - the total size of the tree in bytes
+   * @param deser - the deserializer of the data entries
+   * @throws IOException
+   */
+  public RTreeReader(FSDataInputStream in, long treeStart, long treeLength,
+      RTreeGuttman.Deserializer<O> deser) throws IOException {
+    this(in, null, treeStart, treeLength, deser);
+  }
+
+  /**
+   * Opens an R-tree by reading its footer only. Readers of the same tree in
+   * the same version of a file share the cached pages of the tree structure.
+   * @param in - the input stream of the file that contains the tree
+   * @param file - the status of the file that contains the tree
+   * @param treeStart - the offset of the beginning of the tree in the file
+   * @param treeLength - the total size of the tree in bytes
+   * @param deser - the deserializer of the data entries
+   * @throws IOException
+   */
+  public RTreeReader(FSDataInputStream in, FileStatus file, long treeStart,
+      long treeLength, RTreeGuttman.Deserializer<O> deser) throws IOException {
+    this.in = in;
+    this.file = file == null ? new Object() : file.getPath().toString();
+    this.modificationTime = file == null ? 0 : file.getModificationTime();
+    this.treeStart = treeStart;
+    this.treeLength = treeLength;
+    this.deser = deser;
+    byte[] footerBytes = new byte[FooterSize];
+    in.readFully(treeStart + treeLength - FooterSize, footerBytes, 0, FooterSize);
+    ByteBuffer footer = ByteBuffer.wrap(footerBytes);
+    this.rootx1 = footer.getDouble();
+    this.rooty1 = footer.getDouble();
+    this.rootx2 = footer.getDouble();
+    this.rooty2 = footer.getDouble();
+    this.numEntries = footer.getInt();
+    footer.getInt(); // Number of non-leaf nodes
+    footer.getInt(); // Number of leaf nodes
+    this.treeStructureOffset = footer.getInt();
+    this.footerOffset = footer.getInt();
+  }
+
+  /**
+   * Sets the maximum total size of the pages cached for all open trees
+   * @param bytes
+   */
+  public static void setPageCacheSize(long bytes) {
+    pageCache.setCapacity(Math.max(1, bytes / PageSize));
+  }
+
+  /**
+   * Total number of data entries in the tree
+   * @return
+   */
+  public int numOfDataEntries() {
+    return numEntries;
+  }
+
+  /**
+   * The total size of the data chunk in bytes
+   * @return
+   */
+  public int getTotalDataSize() {
+    return treeStructureOffset;
+  }
+
+  /**
+   * Returns the MBR of the root as [x1, y1, x2, y2]
+   * @return
+   */
+  public double[] getMBR() {
+    return new double[] {rootx1, rooty1, rootx2, rooty2};
+  }
+
+  /**
+   * Searches for all the data entries that overlap the given rectangle. The
+   * tree structure is searched immediately while the data entries are read
+   * as the results are iterated.
+   * @param x1
+   * @param y1
+   * @param x2
+   * @param y2
+   * @return the matching data entries in the order they are stored in the file
+   * @throws IOException
+   */
+  public Iterable<O> search(double x1, double y1, double x2, double y2) throws IOException {
+    // Each matching entry is encoded as (start offset << 32 | end offset)
+    long[] results = new long[16];
+    int numResults = 0;
+    IntArray nodesToSearch = new IntArray();
+    if (numEntries > 0)
+      nodesToSearch.add(treeStructureOffset); // The root is always the first node
+    byte[] intBytes = new byte[4];
+    while (!nodesToSearch.isEmpty()) {
+      int nodeOffset = nodesToSearch.pop();
+      readBytes(nodeOffset, intBytes, 0, 4);
+      int nodeSize = ByteBuffer.wrap(intBytes).getInt();
+      byte[] nodeBytes = new byte[nodeSize * ChildSize];
+      readBytes(nodeOffset + 4, nodeBytes, 0, nodeBytes.length);
+      ByteBuffer node = ByteBuffer.wrap(nodeBytes);
+      // The children of a leaf node point to data entries which are all
+      // stored before the tree structure
+      boolean leaf = nodeSize > 0 && node.getInt(0) <= treeStructureOffset;
+      for (int iChild = 0; iChild < nodeSize; iChild++) {
+        int childOffset = node.getInt();
+        double cx1 = node.getDouble();
+        double cy1 = node.getDouble();
+        double cx2 = node.getDouble();
+        double cy2 = node.getDouble();
+        if (x2 < cx1 || cx2 < x1 || y2 < cy1 || cy2 < y1)
+          continue;
+        if (!leaf) {
+          nodesToSearch.add(childOffset);
+        } else {
+          int childEnd = iChild < nodeSize - 1 ?
+              node.getInt((iChild + 1) * ChildSize) :
+              getDataEndOfLeaf(nodeOffset + 4 + nodeSize * ChildSize);
+          if (numResults == results.length)
+            results = Arrays.copyOf(results, numResults * 2);
+          results[numResults++] = ((long) childOffset << 32) | childEnd;
+        }
+      }
+    }
+    // Sort the results by their offsets to read them in file order
+    Arrays.sort(results, 0, numResults);
+    return new ResultIterator(results, numResults);
+  }
+
+  /**
+   * Returns all the data entries in the tree
+   * @return
+   * @throws IOException
+   */
+  public Iterable<O> scanAll() throws IOException {
+    return search(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+        Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+  }
+
+  /**
+   * Returns the end offset of the data entries of the leaf node that precedes
+   * the given node offset. Since leaf nodes are stored in the same order as
+   * their data entries, it is the offset of the first entry in the next
+   * leaf node or the end of data if this is the last leaf node.
+   * @param nextNodeOffset
+   * @return
+   * @throws IOException
+   */
+  private int getDataEndOfLeaf(int nextNodeOffset) throws IOException {
+    if (nextNodeOffset >= footerOffset)
+      return treeStructureOffset;
+    byte[] firstChildOffset = new byte[4];
+    readBytes(nextNodeOffset + 4, firstChildOffset, 0, 4);
+    return ByteBuffer.wrap(firstChildOffset).getInt();
+  }
+
+  /**
+   * Reads bytes of the tree structure through the page cache
+   * @param offset - the offset to read relative to the beginning of the tree
+   * @param buffer
+   * @param bufferOffset
+   * @param length
+   * @throws IOException
+   */
+  private void readBytes(long offset, byte[] buffer, int bufferOffset, int length) throws IOException {
+    while (length > 0) {
+      long pageNumber = offset / PageSize;
+      byte[] page = getPage(pageNumber);
+      int offsetInPage = (int) (offset - pageNumber * PageSize);
+      int bytesToCopy = Math.min(length, page.length - offsetInPage);
+      System.arraycopy(page, offsetInPage, buffer, bufferOffset, bytesToCopy);
+      offset += bytesToCopy;
+      bufferOffset += bytesToCopy;
+      length -= bytesToCopy;
+    }
+  }
+
+  private byte[] getPage(long pageNumber) throws IOException {
+    PageKey key = new PageKey(file, modificationTime, treeStart, pageNumber);
+    byte[] page = pageCache.get(key);
+    if (page == null) {
+      long pageStart = pageNumber * PageSize;
+      page = new byte[(int) Math.min(PageSize, treeLength - pageStart)];
+      in.readFully(treeStart + pageStart, page, 0, page.length);
+      pageCache.put(key, page);
+    }
+    return page;
+  }
+
+  @Override
+  public void close() throws IOException {
+    // Cached pages stay for other readers of the same tree until evicted
+    in.close();
+  }
+
+  /**
+   * Iterates over the data entries of a search result. Entries are read in
+   * chunks where each chunk covers consecutive entries that are close to
+   * each other in the file.
+   */
+  protected class ResultIterator implements Iterable<O>, Iterator<O> {
+    /**The sorted (start, end) offsets of all matching entries*/
+    private final long[] entries;
+
+    /**Number of matching entries*/
+    private final int numEntries;
+
+    /**The index of the next entry to return*/
+    private int iNextEntry;
+
+    /**The bytes of the current chunk*/
+    private byte[] chunk;
+
+    /**The range of offsets covered by the current chunk*/
+    private int chunkStart, chunkEnd;
+
+    /**Used to deserialize entries from the current chunk*/
+    private final DataInputBuffer entryIn = new DataInputBuffer();
+
+    protected ResultIterator(long[] entries, int numEntries) {
+      this.entries = entries;
+      this.numEntries = numEntries;
+    }
+
+    @Override
+    public Iterator<O> iterator() {
+      return this;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return iNextEntry < numEntries;
+    }
+
+    @Override
+    public O next() {
+      int start = (int) (entries[iNextEntry] >>> 32);
+      int end = (int) entries[iNextEntry];
+      try {
+        if (chunk == null || start < chunkStart || end > chunkEnd)
+          readChunk(iNextEntry);
+        iNextEntry++;
+        entryIn.reset(chunk, start - chunkStart, end - start);
+        return deser.deserialize(entryIn, end - start);
+      } catch (IOException e) {
+        throw new RuntimeException("Error reading R-tree entry at "+(treeStart + start), e);
+      }
+    }
+
+    /**
+     * Reads a chunk of data that starts with the given entry
+     * @param iFirstEntry
+     * @throws IOException
+     */
+    private void readChunk(int iFirstEntry) throws IOException {
+      chunkStart = (int) (entries[iFirstEntry] >>> 32);
+      chunkEnd = (int) entries[iFirstEntry];
+      for (int i = iFirstEntry + 1; i < numEntries; i++) {
+        int start = (int) (entries[i] >>> 32);
+        int end = (int) entries[i];
+        if (start - chunkEnd > MaxGap || end - chunkStart > MaxChunkSize)
+          break;
+        chunkEnd = Math.max(chunkEnd, end);
+      }
+      if (chunk == null || chunk.length < chunkEnd - chunkStart)
+        chunk = new byte[Math.max(chunkEnd - chunkStart, chunk == null ? 0 : chunk.length * 2)];
+      in.readFully(treeStart + chunkStart, chunk, 0, chunkEnd - chunkStart);
+    }
+
+    public void remove() {
+      throw new RuntimeException("Not supported");
+    }
+  }
+
+  /**
+   * Identifies a page of the tree structure of a tree in a file
+   */
+  private static class PageKey {
+    final Object file;
+    final long modificationTime;
+    final long treeStart;
+    final long pageNumber;
+
+    PageKey(Object file, long modificationTime, long treeStart, long pageNumber) {
+      this.file = file;
+      this.modificationTime = modificationTime;
+      this.treeStart = treeStart;
+      this.pageNumber = pageNumber;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      PageKey other = (PageKey) obj;
+      return this.file.equals(other.file) &&
+          this.modificationTime == other.modificationTime &&
+          this.treeStart == other.treeStart && this.pageNumber == other.pageNumber;
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = file.hashCode();
+      hash = hash * 31 + (int) (modificationTime ^ (modificationTime >>> 32));
+      hash = hash * 31 + (int) (treeStart ^ (treeStart >>> 32));
+      return hash * 31 + (int) (pageNumber ^ (pageNumber >>> 32));
+    }
+  }
+
+  /**
+   * An LRU cache of pages bounded by the number of pages
+   */
+  private static class PageCache {
+    private final LinkedHashMap<PageKey, byte[]> pages =
+        new LinkedHashMap<PageKey, byte[]>(16, 0.75f, true);
+
+    private long capacity;
+
+    PageCache(long capacity) {
+      this.capacity = capacity;
+    }
+
+    synchronized void setCapacity(long capacity) {
+      this.capacity = capacity;
+      evict();
+    }
+
+    synchronized byte[] get(PageKey key) {
+      return pages.get(key);
+    }
+
+    synchronized void put(PageKey key, byte[] page) {
+      pages.put(key, page);
+      evict();
+    }
+
+    private void evict() {
+      Iterator<Map.Entry<PageKey, byte[]>> lruPages = pages.entrySet().iterator();
+      while (pages.size() > capacity && lruPages.hasNext()) {
+        lruPages.next();
+        lruPages.remove();
+      }
+    }
+  }
+}
@@ -0,0 +1,20 @@
+package edu.umn.cs.spatialHadoop.indexing;
+
+import edu.umn.cs.spatialHadoop.core.Shape;
+
+/**
+ * A local index that bulk loads an {@link STRPackedRTree} instead of
+ * inserting the records one-by-one. The index is written in the same format
+ * as {@link RRStarLocalIndex} and is read the same way.
+ * @param <S>
+ */
+@LocalIndex.LocalIndexMetadata(extension = "strtree")
+public class STRLocalIndex<S extends Shape> extends RRStarLocalIndex<S> {
+
+  @Override
+  protected RTreeGuttman buildRTree(double[] x1s, double[] y1s, double[] x2s, double[] y2s) {
+    STRPackedRTree rtree = new STRPackedRTree(MaxCapacity / 2, MaxCapacity);
+    rtree.initializeFromRects(x1s, y1s, x2s, y2s);
+    return rtree;
+  }
+}
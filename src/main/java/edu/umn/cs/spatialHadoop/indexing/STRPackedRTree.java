@@ -0,0 +1,108 @@
+package edu.umn.cs.spatialHadoop.indexing;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.util.IndexedSortable;
+import org.apache.hadoop.util.QuickSort;
+
+import edu.umn.cs.spatialHadoop.util.IntArray;
+
+/**
+ * An R-tree that is bulk loaded using the Sort-Tile-Recursive (STR) algorithm
+ * as described in the following paper.
+ * Scott T. Leutenegger, Mario A. Lopez, Jeffrey M. Edgington:
+ * STR: A Simple and Efficient Algorithm for R-Tree Packing. ICDE 1997: 497-506
+ *
+ * Instead of inserting the entries one-by-one, all the entries are sorted and
+ * packed into full leaf nodes which are then packed, level by level, until
+ * only the root remains. The tree cannot be modified after it is built.
+ */
+public class STRPackedRTree extends RTreeGuttman {
+
+  /**
+   * Construct a new empty R-tree with the given parameters.
+   *
+   * @param minCapacity - Minimum capacity of a node
+   * @param maxCapcity  - Maximum capacity of a node. All nodes are packed to
+   *                    this capacity except for the last node in each slice.
+   */
+  public STRPackedRTree(int minCapacity, int maxCapcity) {
+    super(minCapacity, maxCapcity);
+  }
+
+  /**
+   * Packs all data entries bottom-up instead of inserting them one-by-one.
+   */
+  @Override
+  protected void insertAllDataEntries() {
+    if (numEntries == 0) {
+      // An empty tree consists of an empty leaf root
+      root = Node_createNodeWithChildren(true);
+      return;
+    }
+    IntArray level = new IntArray();
+    for (int i = 0; i < numEntries; i++)
+      level.add(i);
+    boolean leaves = true;
+    do {
+      level = packLevel(level, leaves);
+      leaves = false;
+    } while (level.size() > 1);
+    root = level.get(0);
+  }
+
+  /**
+   * Packs the given objects (data entries or nodes) into a new level of nodes.
+   * @param objects the objects to pack. The order of this array is modified.
+   * @param leaves whether the created nodes are leaf nodes or not
+   * @return the IDs of the created nodes
+   */
+  protected IntArray packLevel(IntArray objects, boolean leaves) {
+    final int[] objs = objects.underlyingArray();
+    int numObjects = objects.size();
+    int numGroups = (numObjects + maxCapcity - 1) / maxCapcity;
+    int numSlices = (int) Math.ceil(Math.sqrt(numGroups));
+    int sliceSize = (numGroups + numSlices - 1) / numSlices * maxCapcity;
+
+    IndexedSortable xSorter = new IndexedSortable() {
+      @Override
+      public int compare(int i, int j) {
+        return Double.compare(x1s[objs[i]] + x2s[objs[i]], x1s[objs[j]] + x2s[objs[j]]);
+      }
+
+      @Override
+      public void swap(int i, int j) {
+        int temp = objs[i];
+        objs[i] = objs[j];
+        objs[j] = temp;
+      }
+    };
+    IndexedSortable ySorter = new IndexedSortable() {
+      @Override
+      public int compare(int i, int j) {
+        return Double.compare(y1s[objs[i]] + y2s[objs[i]], y1s[objs[j]] + y2s[objs[j]]);
+      }
+
+      @Override
+      public void swap(int i, int j) {
+        int temp = objs[i];
+        objs[i] = objs[j];
+        objs[j] = temp;
+      }
+    };
+
+    QuickSort sorter = new QuickSort();
+    sorter.sort(xSorter, 0, numObjects);
+    IntArray nodes = new IntArray();
+    for (int sliceStart = 0; sliceStart < numObjects; sliceStart += sliceSize) {
+      int sliceEnd = Math.min(numObjects, sliceStart + sliceSize);
+      sorter.sort(ySorter, sliceStart, sliceEnd);
+      for (int nodeStart = sliceStart; nodeStart < sliceEnd; nodeStart += maxCapcity) {
+        int nodeEnd = Math.min(sliceEnd, nodeStart + maxCapcity);
+        nodes.add(Node_createNodeWithChildren(leaves,
+            Arrays.copyOfRange(objs, nodeStart, nodeEnd)));
+      }
+    }
+    return nodes;
+  }
+}
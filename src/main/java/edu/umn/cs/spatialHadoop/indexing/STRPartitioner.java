@@ -19,8 +19,7 @@ import edu.umn.cs.spatialHadoop.core.CellInfo;
 import edu.umn.cs.spatialHadoop.core.GridInfo;
 import edu.umn.cs.spatialHadoop.core.Point;
 import edu.umn.cs.spatialHadoop.core.Rectangle;
-import edu.umn.cs.spatialHadoop.core.ResultCollector;
-import edu.umn.cs.spatialHadoop.core.Shape;
+import edu.umn.cs.spatialHadoop.util.IntArray;
 
 /**
  * A partitioner that partitioner data using the STR bulk loading algorithm.
@@ -121,41 +120,42 @@ public class STRPartitioner extends Partitioner {
   }
 
   @Override
-  public void overlapPartitions(Shape shape, ResultCollector<Integer> matcher) {
-    Rectangle shapeMBR = shape.getMBR();
+  public void overlapPartitions(double x1, double y1, double x2, double y2, IntArray matches) {
+    matches.clear();
     // Replicate to all overlapping partitions
     // Find first and last matching columns
-    int col1 = Arrays.binarySearch(xSplits, shapeMBR.x1);
+    int col1 = Arrays.binarySearch(xSplits, x1);
     if (col1 < 0)
       col1 = -col1 - 1; // Adjust the position if value not found
-    int col2 = Arrays.binarySearch(xSplits, shapeMBR.x2);
+    int col2 = Arrays.binarySearch(xSplits, x2);
     if (col2 < 0)
       col2 = -col2 - 1; // Adjust the position if value not found
 
     for (int col = col1; col <= col2; col++) {
       // For each column, find all matching rows
-      int cell1 = Arrays.binarySearch(ySplits, col * rows, (col+1) * rows, shapeMBR.y1);
+      int cell1 = Arrays.binarySearch(ySplits, col * rows, (col+1) * rows, y1);
       if (cell1 < 0)
         cell1 = -cell1 - 1;
-      int cell2 = Arrays.binarySearch(ySplits, col * rows, (col+1) * rows, shapeMBR.y2);
+      int cell2 = Arrays.binarySearch(ySplits, col * rows, (col+1) * rows, y2);
       if (cell2 < 0)
         cell2 = -cell2 - 1;
 
       for (int cell = cell1; cell <= cell2; cell++)
-        matcher.collect(cell);
+        matches.add(cell);
     }
   }
   
   @Override
-  public int overlapPartition(Shape shape) {
+  public int overlapPartition(double x1, double y1, double x2, double y2) {
     if (xSplits.length == 0)
       return 0;
     // Assign to only one partition
-    Point center = shape.getMBR().getCenterPoint();
-    int col = Arrays.binarySearch(xSplits, center.x);
+    double centerx = (x1 + x2) / 2;
+    double centery = (y1 + y2) / 2;
+    int col = Arrays.binarySearch(xSplits, centerx);
     if (col < 0)
       col = -col - 1;
-    int cell = Arrays.binarySearch(ySplits, col * rows, (col+1)*rows, center.y);
+    int cell = Arrays.binarySearch(ySplits, col * rows, (col+1)*rows, centery);
     if (cell < 0)
       cell = -cell - 1;
     return cell;
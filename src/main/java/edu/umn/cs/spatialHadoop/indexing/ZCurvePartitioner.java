@@ -20,8 +20,7 @@ import org.apache.commons.logging.LogFactory;
 import edu.umn.cs.spatialHadoop.core.CellInfo;
 import edu.umn.cs.spatialHadoop.core.Point;
 import edu.umn.cs.spatialHadoop.core.Rectangle;
-import edu.umn.cs.spatialHadoop.core.ResultCollector;
-import edu.umn.cs.spatialHadoop.core.Shape;
+import edu.umn.cs.spatialHadoop.util.IntArray;
 
 /**
  * Partition the space based on Z-curve.
@@ -50,6 +49,15 @@ public class ZCurvePartitioner extends Partitioner {
     createFromZValues(zValues, capacity);
   }
 
+  @Override
+  public void construct(Rectangle mbr, double[] xs, double[] ys, int capacity) {
+    this.mbr.set(mbr);
+    long[] zValues = new long[xs.length];
+    for (int i = 0; i < xs.length; i++)
+      zValues[i] = computeZ(mbr, xs[i], ys[i]);
+    createFromZValues(zValues, capacity);
+  }
+
   /**
    * Create a ZCurvePartitioner from a list of points
    * @param zValues
@@ -198,23 +206,18 @@ public class ZCurvePartitioner extends Partitioner {
   }
 
   @Override
-  public void overlapPartitions(Shape shape, ResultCollector<Integer> matcher) {
+  public void overlapPartitions(double x1, double y1, double x2, double y2, IntArray matches) {
     // TODO match with all overlapping partitions instead of only one
-    int partition = overlapPartition(shape);
+    matches.clear();
+    int partition = overlapPartition(x1, y1, x2, y2);
     if (partition >= 0)
-      matcher.collect(partition);
+      matches.add(partition);
   }
   
   @Override
-  public int overlapPartition(Shape shape) {
-    if (shape == null)
-      return -1;
-    Rectangle shapeMBR = shape.getMBR();
-    if (shapeMBR == null)
-      return -1;
+  public int overlapPartition(double x1, double y1, double x2, double y2) {
     // Assign to only one partition that contains the center point
-    Point center = shapeMBR.getCenterPoint();
-    long zValue = computeZ(mbr, center.x, center.y);
+    long zValue = computeZ(mbr, (x1 + x2) / 2, (y1 + y2) / 2);
     int partition = Arrays.binarySearch(zSplits, zValue);
     if (partition < 0)
       partition = -partition - 1;
@@ -0,0 +1,108 @@
+/***********************************************************************
+* Copyright (c) 2015 by Regents of the University of Minnesota.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Apache License, Version 2.0 which
+* accompanies this distribution and is available at
+* http://www.opensource.org/licenses/apache2.0.php.
+*
+*************************************************************************/
+package edu.umn.cs.spatialHadoop.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.fs.PositionedReadable;
+import org.apache.hadoop.fs.Seekable;
+
+/**
+ * A seekable input stream over a byte buffer, e.g., a memory-mapped file or
+ * a file that was read into memory. Each stream has its own position so
+ * many streams can share the same buffer.
+ * @author Ahmed Eldawy
+ *
+ */
+public class ByteBufferInputStream extends InputStream
+    implements Seekable, PositionedReadable {
+
+  /**A view of the underlying buffer with a position private to this stream*/
+  private final ByteBuffer buffer;
+
+  public ByteBufferInputStream(ByteBuffer buffer) {
+    this.buffer = buffer.duplicate();
+    this.buffer.rewind();
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!buffer.hasRemaining())
+      return -1;
+    return buffer.get() & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0)
+      return 0;
+    if (!buffer.hasRemaining())
+      return -1;
+    len = Math.min(len, buffer.remaining());
+    buffer.get(b, off, len);
+    return len;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    int canSkip = (int) Math.max(0, Math.min(n, buffer.remaining()));
+    buffer.position(buffer.position() + canSkip);
+    return canSkip;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return buffer.remaining();
+  }
+
+  @Override
+  public long getPos() throws IOException {
+    return buffer.position();
+  }
+
+  @Override
+  public void seek(long pos) throws IOException {
+    if (pos < 0 || pos > buffer.limit())
+      throw new EOFException("Cannot seek to "+pos+" in a buffer of size "+buffer.limit());
+    buffer.position((int) pos);
+  }
+
+  @Override
+  public boolean seekToNewSource(long targetPos) throws IOException {
+    return false;
+  }
+
+  @Override
+  public int read(long position, byte[] b, int offset, int length)
+      throws IOException {
+    if (position >= buffer.limit())
+      return -1;
+    length = (int) Math.min(length, buffer.limit() - position);
+    ByteBuffer view = buffer.duplicate();
+    view.position((int) position);
+    view.get(b, offset, length);
+    return length;
+  }
+
+  @Override
+  public void readFully(long position, byte[] b, int offset, int length)
+      throws IOException {
+    if (position + length > buffer.limit())
+      throw new EOFException("Cannot read "+length+" bytes at "+position);
+    read(position, b, offset, length);
+  }
+
+  @Override
+  public void readFully(long position, byte[] b) throws IOException {
+    readFully(position, b, 0, b.length);
+  }
+}
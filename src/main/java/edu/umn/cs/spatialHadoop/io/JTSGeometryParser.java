@@ -0,0 +1,339 @@
+/***********************************************************************
+* Copyright (c) 2015 by Regents of the University of Minnesota.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Apache License, Version 2.0 which
+* accompanies this distribution and is available at
+* http://www.opensource.org/licenses/apache2.0.php.
+*
+*************************************************************************/
+package edu.umn.cs.spatialHadoop.io;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.PrecisionModel;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
+import com.vividsolutions.jts.io.WKTReader;
+
+/**
+ * Parses JTS geometries from Well-Known Text (WKT) or hex-encoded Well-Known
+ * Binary (WKB) directly from a byte array without creating intermediate
+ * strings. An instance of this class is not thread-safe and is meant to be
+ * confined to one thread, e.g., one per record reader or one per thread
+ * through {@link TextSerializerHelper#consumeGeometryJTS(org.apache.hadoop.io.Text, char)}.
+ * Rare WKT syntax that is not supported by the fast parser, e.g., dimension
+ * qualifiers such as 'POINT Z', is delegated to the standard JTS
+ * {@link WKTReader}.
+ * @author Ahmed Eldawy
+ *
+ */
+public class JTSGeometryParser {
+  /**The factory used to create all geometries*/
+  private final GeometryFactory factory;
+
+  /**Precision model of the factory applied to all parsed coordinates*/
+  private final PrecisionModel precisionModel;
+
+  /**Parser for the binary representation*/
+  private final WKBReader wkbReader;
+
+  /**A fall back parser for WKT syntax not supported by the fast parser*/
+  private WKTReader wktReader;
+
+  /**A reusable buffer for the binary representation of hex-encoded WKB*/
+  private byte[] binary = new byte[1024];
+
+  /**A reusable list of coordinates used while parsing one coordinate list*/
+  private final List<Coordinate> coordinates = new ArrayList<Coordinate>();
+
+  /**The bytes of the WKT being parsed*/
+  private byte[] bytes;
+
+  /**Position of the next byte to parse*/
+  private int pos;
+
+  /**The end of the WKT being parsed (exclusive)*/
+  private int end;
+
+  public JTSGeometryParser() {
+    this(new GeometryFactory());
+  }
+
+  public JTSGeometryParser(GeometryFactory factory) {
+    this.factory = factory;
+    this.precisionModel = factory.getPrecisionModel();
+    this.wkbReader = new WKBReader(factory);
+  }
+
+  /**
+   * Parses a geometry from its hex-encoded WKB representation.
+   * @param buf
+   * @param offset
+   * @param len
+   * @return
+   * @throws ParseException
+   */
+  public Geometry parseHexWKB(byte[] buf, int offset, int len) throws ParseException {
+    int binaryLength = len / 2;
+    if (binary.length < binaryLength)
+      binary = new byte[Math.max(binaryLength, binary.length * 2)];
+    for (int i = 0; i < binaryLength; i++) {
+      binary[i] = (byte) ((hexValue(buf[offset + 2 * i]) << 4)
+          | hexValue(buf[offset + 2 * i + 1]));
+    }
+    // The WKB reader stops at the end of the geometry so any stale data after
+    // it in the reusable buffer is never read
+    return wkbReader.read(binary);
+  }
+
+  private static int hexValue(byte b) throws ParseException {
+    if (b >= '0' && b <= '9')
+      return b - '0';
+    if (b >= 'a' && b <= 'f')
+      return b - 'a' + 0xa;
+    if (b >= 'A' && b <= 'F')
+      return b - 'A' + 0xA;
+    throw new ParseException("Invalid hex char "+(char)b);
+  }
+
+  /**
+   * Parses a geometry from its WKT representation.
+   * @param buf
+   * @param offset
+   * @param len
+   * @return
+   * @throws ParseException
+   */
+  public Geometry parseWKT(byte[] buf, int offset, int len) throws ParseException {
+    this.bytes = buf;
+    this.pos = offset;
+    this.end = offset + len;
+    try {
+      Geometry geom = readGeometryTaggedText();
+      skipWhitespaces();
+      if (pos != end)
+        throw new ParseException("Unexpected characters at the end of WKT");
+      return geom;
+    } catch (ParseException e) {
+      // Fall back to the standard JTS parser which either supports this
+      // syntax or reports the error
+      if (wktReader == null)
+        wktReader = new WKTReader(factory);
+      return wktReader.read(new String(buf, offset, len));
+    } finally {
+      this.bytes = null;
+    }
+  }
+
+  private Geometry readGeometryTaggedText() throws ParseException {
+    skipWhitespaces();
+    int wordStart = pos;
+    while (pos < end && isLetter(bytes[pos]))
+      pos++;
+    int wordLength = pos - wordStart;
+    if (matchesKeyword(wordStart, wordLength, "POINT"))
+      return readPointText();
+    if (matchesKeyword(wordStart, wordLength, "LINESTRING"))
+      return factory.createLineString(readCoordinates());
+    if (matchesKeyword(wordStart, wordLength, "LINEARRING"))
+      return factory.createLinearRing(readCoordinates());
+    if (matchesKeyword(wordStart, wordLength, "POLYGON"))
+      return readPolygonText();
+    if (matchesKeyword(wordStart, wordLength, "MULTIPOINT"))
+      return readMultiPointText();
+    if (matchesKeyword(wordStart, wordLength, "MULTILINESTRING"))
+      return readMultiLineStringText();
+    if (matchesKeyword(wordStart, wordLength, "MULTIPOLYGON"))
+      return readMultiPolygonText();
+    if (matchesKeyword(wordStart, wordLength, "GEOMETRYCOLLECTION"))
+      return readGeometryCollectionText();
+    throw new ParseException("Unknown geometry type");
+  }
+
+  private Point readPointText() throws ParseException {
+    if (readEmptyOrOpener())
+      return factory.createPoint(factory.getCoordinateSequenceFactory()
+          .create(new Coordinate[0]));
+    Point point = factory.createPoint(readCoordinate());
+    readCloser();
+    return point;
+  }
+
+  private Polygon readPolygonText() throws ParseException {
+    if (readEmptyOrOpener())
+      return factory.createPolygon(factory.createLinearRing(new Coordinate[0]),
+          new LinearRing[0]);
+    LinearRing shell = factory.createLinearRing(readCoordinates());
+    List<LinearRing> holes = new ArrayList<LinearRing>();
+    while (readCloserOrComma())
+      holes.add(factory.createLinearRing(readCoordinates()));
+    return factory.createPolygon(shell, holes.toArray(new LinearRing[holes.size()]));
+  }
+
+  private Geometry readMultiPointText() throws ParseException {
+    if (readEmptyOrOpener())
+      return factory.createMultiPoint(new Point[0]);
+    List<Point> points = new ArrayList<Point>();
+    do {
+      skipWhitespaces();
+      if (pos < end && bytes[pos] == '(') {
+        // Each point is enclosed in parentheses, e.g., MULTIPOINT((1 2),(3 4))
+        pos++;
+        points.add(factory.createPoint(readCoordinate()));
+        readCloser();
+      } else {
+        points.add(factory.createPoint(readCoordinate()));
+      }
+    } while (readCloserOrComma());
+    return factory.createMultiPoint(points.toArray(new Point[points.size()]));
+  }
+
+  private Geometry readMultiLineStringText() throws ParseException {
+    if (readEmptyOrOpener())
+      return factory.createMultiLineString(new LineString[0]);
+    List<LineString> lineStrings = new ArrayList<LineString>();
+    do {
+      lineStrings.add(factory.createLineString(readCoordinates()));
+    } while (readCloserOrComma());
+    return factory.createMultiLineString(
+        lineStrings.toArray(new LineString[lineStrings.size()]));
+  }
+
+  private Geometry readMultiPolygonText() throws ParseException {
+    if (readEmptyOrOpener())
+      return factory.createMultiPolygon(new Polygon[0]);
+    List<Polygon> polygons = new ArrayList<Polygon>();
+    do {
+      polygons.add(readPolygonText());
+    } while (readCloserOrComma());
+    return factory.createMultiPolygon(polygons.toArray(new Polygon[polygons.size()]));
+  }
+
+  private Geometry readGeometryCollectionText() throws ParseException {
+    if (readEmptyOrOpener())
+      return factory.createGeometryCollection(new Geometry[0]);
+    List<Geometry> geometries = new ArrayList<Geometry>();
+    do {
+      geometries.add(readGeometryTaggedText());
+    } while (readCloserOrComma());
+    return factory.createGeometryCollection(
+        geometries.toArray(new Geometry[geometries.size()]));
+  }
+
+  /**
+   * Reads a list of coordinates enclosed in parentheses or the keyword EMPTY
+   * @return
+   * @throws ParseException
+   */
+  private Coordinate[] readCoordinates() throws ParseException {
+    if (readEmptyOrOpener())
+      return new Coordinate[0];
+    coordinates.clear();
+    do {
+      coordinates.add(readCoordinate());
+    } while (readCloserOrComma());
+    return coordinates.toArray(new Coordinate[coordinates.size()]);
+  }
+
+  private Coordinate readCoordinate() throws ParseException {
+    Coordinate coord = new Coordinate();
+    coord.x = readNumber();
+    coord.y = readNumber();
+    skipWhitespaces();
+    if (pos < end && isNumberChar(bytes[pos]))
+      coord.z = readNumber();
+    precisionModel.makePrecise(coord);
+    return coord;
+  }
+
+  private double readNumber() throws ParseException {
+    skipWhitespaces();
+    int numberStart = pos;
+    while (pos < end && isNumberChar(bytes[pos]))
+      pos++;
+    if (pos == numberStart)
+      throw new ParseException("Expected a number");
+    try {
+      return TextSerializerHelper.deserializeDouble(bytes, numberStart, pos - numberStart);
+    } catch (NumberFormatException e) {
+      throw new ParseException(e);
+    }
+  }
+
+  /**
+   * Reads either the keyword EMPTY or an open parenthesis
+   * @return <code>true</code> if EMPTY was read
+   * @throws ParseException
+   */
+  private boolean readEmptyOrOpener() throws ParseException {
+    skipWhitespaces();
+    if (pos < end && bytes[pos] == '(') {
+      pos++;
+      return false;
+    }
+    int wordStart = pos;
+    while (pos < end && isLetter(bytes[pos]))
+      pos++;
+    if (matchesKeyword(wordStart, pos - wordStart, "EMPTY"))
+      return true;
+    throw new ParseException("Expected EMPTY or (");
+  }
+
+  /**
+   * Reads either a comma or a close parenthesis.
+   * @return <code>true</code> if a comma was read
+   * @throws ParseException
+   */
+  private boolean readCloserOrComma() throws ParseException {
+    skipWhitespaces();
+    if (pos < end) {
+      byte b = bytes[pos++];
+      if (b == ',')
+        return true;
+      if (b == ')')
+        return false;
+    }
+    throw new ParseException("Expected ) or ,");
+  }
+
+  private void readCloser() throws ParseException {
+    skipWhitespaces();
+    if (pos >= end || bytes[pos] != ')')
+      throw new ParseException("Expected )");
+    pos++;
+  }
+
+  private void skipWhitespaces() {
+    while (pos < end && (bytes[pos] == ' ' || bytes[pos] == '\t'
+        || bytes[pos] == '\n' || bytes[pos] == '\r'))
+      pos++;
+  }
+
+  private boolean matchesKeyword(int start, int length, String keyword) {
+    if (length != keyword.length())
+      return false;
+    for (int i = 0; i < length; i++) {
+      // Keywords are case insensitive
+      if (Character.toUpperCase((char) bytes[start + i]) != keyword.charAt(i))
+        return false;
+    }
+    return true;
+  }
+
+  private static boolean isLetter(byte b) {
+    return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+  }
+
+  private static boolean isNumberChar(byte b) {
+    return (b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.'
+        || b == 'e' || b == 'E';
+  }
+}
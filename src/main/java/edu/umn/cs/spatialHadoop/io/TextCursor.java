@@ -0,0 +1,280 @@
+/***********************************************************************
+* Copyright (c) 2015 by Regents of the University of Minnesota.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Apache License, Version 2.0 which
+* accompanies this distribution and is available at
+* http://www.opensource.org/licenses/apache2.0.php.
+*
+*************************************************************************/
+package edu.umn.cs.spatialHadoop.io;
+
+import java.util.Map;
+
+import org.apache.hadoop.io.Text;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ParseException;
+
+/**
+ * Reads consecutive fields from a {@link Text} by moving an offset over its
+ * bytes. Unlike the consume methods in {@link TextSerializerHelper}, reading a
+ * field does not shift the rest of the line, which makes parsing a record
+ * linear in its length. Once done, {@link #commit()} removes all the bytes
+ * read from the text in one step so that the remaining fields can be passed
+ * to other methods that consume the text, e.g., the fromText method of a
+ * subclass. A cursor can be reused for many lines through
+ * {@link #reset(Text)}.
+ * @author Ahmed Eldawy
+ *
+ */
+public class TextCursor {
+  /**The text being parsed*/
+  private Text text;
+
+  /**The underlying bytes of the text*/
+  private byte[] bytes;
+
+  /**The position of the next byte to read*/
+  private int pos;
+
+  /**The end of the text (exclusive)*/
+  private int end;
+
+  public TextCursor() {
+  }
+
+  public TextCursor(Text text) {
+    reset(text);
+  }
+
+  /**
+   * Starts reading the given text from its beginning
+   * @param text
+   * @return this cursor
+   */
+  public TextCursor reset(Text text) {
+    this.text = text;
+    this.bytes = text.getBytes();
+    this.pos = 0;
+    this.end = text.getLength();
+    return this;
+  }
+
+  /**
+   * Whether there are more bytes to read
+   * @return
+   */
+  public boolean hasMore() {
+    return pos < end;
+  }
+
+  /**
+   * Number of bytes that are not read yet
+   * @return
+   */
+  public int remaining() {
+    return end - pos;
+  }
+
+  /**
+   * Skips the given number of bytes
+   * @param n
+   */
+  public void skip(int n) {
+    pos = Math.min(end, pos + n);
+  }
+
+  /**
+   * Removes all the bytes read by this cursor from the underlying text. The
+   * cursor then continues from the beginning of the modified text.
+   */
+  public void commit() {
+    if (pos > 0) {
+      text.set(bytes, pos, end - pos);
+      this.bytes = text.getBytes();
+      this.end -= pos;
+      this.pos = 0;
+    }
+  }
+
+  /**
+   * Skips the given separator if it is the next byte
+   * @param separator
+   */
+  private void skipSeparator(char separator) {
+    if (pos < end && bytes[pos] == separator)
+      pos++;
+  }
+
+  /**
+   * Reads a double up to the given separator which is also skipped.
+   * @param separator
+   * @return
+   */
+  public double nextDouble(char separator) {
+    int start = pos;
+    while (pos < end && ((bytes[pos] >= '0' && bytes[pos] <= '9') ||
+        bytes[pos] == 'e' || bytes[pos] == 'E' || bytes[pos] == '-' ||
+        bytes[pos] == '+' || bytes[pos] == '.'))
+      pos++;
+    double d;
+    try {
+      d = TextSerializerHelper.deserializeDouble(bytes, start, pos - start);
+    } catch (NumberFormatException e) {
+      throw new RuntimeException("Error parsing '" +
+          new String(bytes, start, end - start) +"'", e);
+    }
+    skipSeparator(separator);
+    return d;
+  }
+
+  /**
+   * Reads a decimal long up to the given separator which is also skipped.
+   * @param separator
+   * @return
+   */
+  public long nextLong(char separator) {
+    int start = pos;
+    while (pos < end && ((bytes[pos] >= '0' && bytes[pos] <= '9') || bytes[pos] == '-'))
+      pos++;
+    long l = TextSerializerHelper.deserializeLong(bytes, start, pos - start);
+    skipSeparator(separator);
+    return l;
+  }
+
+  /**
+   * Reads a decimal int up to the given separator which is also skipped.
+   * @param separator
+   * @return
+   */
+  public int nextInt(char separator) {
+    int start = pos;
+    while (pos < end && ((bytes[pos] >= '0' && bytes[pos] <= '9') || bytes[pos] == '-'))
+      pos++;
+    int i = TextSerializerHelper.deserializeInt(bytes, start, pos - start);
+    skipSeparator(separator);
+    return i;
+  }
+
+  /**
+   * Reads a hexadecimal long up to the given separator which is also skipped.
+   * @param separator
+   * @return
+   */
+  public long nextHexLong(char separator) {
+    int start = pos;
+    while (pos < end && bytes[pos] >= 0 && TextSerializerHelper.HexadecimalChars[bytes[pos]])
+      pos++;
+    long l = TextSerializerHelper.deserializeHexLong(bytes, start, pos - start);
+    skipSeparator(separator);
+    return l;
+  }
+
+  /**
+   * Reads a map of key-value pairs in the format [k1#v1,k2#v2]. If the next
+   * field is not a map, nothing is read and the map is left empty.
+   * @param tags
+   */
+  public void nextMap(Map<String, String> tags) {
+    tags.clear();
+    if (pos >= end || bytes[pos] != '[')
+      return;
+    pos++;
+    while (pos < end && bytes[pos] != ']') {
+      int keyStart = pos;
+      while (pos < end && bytes[pos] != '#')
+        pos++;
+      String key = new String(bytes, keyStart, pos - keyStart);
+      pos++; // Skip the key-value separator
+      int valueStart = pos;
+      while (pos < end && bytes[pos] != ',' && bytes[pos] != ']')
+        pos++;
+      String value = new String(bytes, valueStart, Math.max(0, pos - valueStart));
+      tags.put(key, value);
+      skipSeparator(',');
+    }
+    skipSeparator(']');
+  }
+
+  /**
+   * Reads a JTS geometry using a parser confined to the current thread.
+   * @param separator
+   * @return
+   * @see #nextGeometryJTS(char, JTSGeometryParser)
+   */
+  public Geometry nextGeometryJTS(char separator) {
+    return nextGeometryJTS(separator, TextSerializerHelper.getGeometryParser());
+  }
+
+  /**
+   * Reads a JTS geometry represented as either a Well-Known Text (WKT),
+   * optionally quoted, or a hex-encoded Well-Known Binary (WKB). The given
+   * separator is skipped if it follows the geometry.
+   * @param separator
+   * @param parser
+   * @return the parsed geometry or <code>null</code> if the next field is
+   * neither a WKT nor a WKB.
+   */
+  public Geometry nextGeometryJTS(char separator, JTSGeometryParser parser) {
+    int i1, i2; // Start and end offset of the geometry being parsed
+    int i_next; // Beginning of the next field
+    boolean isWKT = false;
+    boolean isHex = false;
+    if (bytes[pos] == '\'' || bytes[pos] == '\"') {
+      // A quoted string. Find terminating quote and trim the quotes
+      i1 = pos + 1;
+      i2 = pos + 2;
+      while (i2 < end && bytes[i2] != bytes[pos])
+        i2++;
+      if (i2 == end)
+        throw new RuntimeException("Unterminated quoted string");
+      i_next = i2 + 1; // i2 is the terminating quote which is excluded
+      isWKT = true; // Assume any quoted string to be WKT
+    } else if (TextSerializerHelper.startsWithShapeName(bytes, pos, end)) {
+      isWKT = true;
+      // Look for the terminator of the shape text
+      i1 = pos;
+      i2 = pos + 1;
+      // Search for the first open parenthesis
+      while (i2 < end && bytes[i2] != '(')
+        i2++;
+      if (i2 < end)
+        i2++; // Skip the open parenthesis itself
+      int nesting = 1;
+      while (i2 < end && nesting > 0) {
+        if (bytes[i2] == '(')
+          nesting++;
+        else if (bytes[i2] == ')')
+          nesting--;
+        i2++;
+      }
+      i_next = i2 + 1;
+    } else {
+      // Check if the type is hex-encoded WKB
+      i1 = pos;
+      i2 = pos;
+      while (i2 < end && bytes[i2] >= 0 && TextSerializerHelper.IsHex[bytes[i2]])
+        i2++;
+      isHex = i2 - i1 > 1;
+      i_next = i2;
+    }
+
+    Geometry geom;
+    try {
+      if (isWKT) {
+        geom = parser.parseWKT(bytes, i1, i2 - i1);
+      } else if (isHex) {
+        geom = parser.parseHexWKB(bytes, i1, i2 - i1);
+      } else {
+        geom = null;
+      }
+    } catch (ParseException e) {
+      throw new RuntimeException(String.format("Error parsing '%s'",
+          new String(bytes, i1, i2 - i1)), e);
+    }
+
+    pos = Math.min(i_next, end);
+    skipSeparator(separator);
+    return geom;
+  }
+}
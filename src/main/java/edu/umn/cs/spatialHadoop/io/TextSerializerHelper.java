@@ -16,10 +16,7 @@ import org.apache.hadoop.io.Text;
 
 import com.esri.core.geometry.ogc.OGCGeometry;
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.io.ParseException;
-import com.vividsolutions.jts.io.WKBReader;
-import com.vividsolutions.jts.io.WKTReader;
 
 public final class TextSerializerHelper {
   /**
@@ -124,7 +121,7 @@ public final class TextSerializerHelper {
    */
   public static long deserializeHexLong(byte[] buf, int offset, int len) {
     boolean negative = false;
-    if (buf[offset] == '-') {
+    if (len > 0 && buf[offset] == '-') {
       negative = true;
       offset++;
       len--;
@@ -150,18 +147,9 @@ public final class TextSerializerHelper {
    * @return
    */
   public static long consumeHexLong(Text text, char separator) {
-    int i = 0;
-    byte[] bytes = text.getBytes();
-    // Skip until the separator or end of text
-    while (i < text.getLength() && HexadecimalChars[bytes[i]])
-      i++;
-    long l = deserializeHexLong(bytes, 0, i);
-    // If the first char after the long is the separator, skip it
-    if (i < text.getLength() && bytes[i] == separator)
-      i++;
-    // Shift bytes after the long
-    System.arraycopy(bytes, i, bytes, 0, text.getLength() - i);
-    text.set(bytes, 0, text.getLength() - i);
+    TextCursor cursor = new TextCursor(text);
+    long l = cursor.nextHexLong(separator);
+    cursor.commit();
     return l;
   }
   
@@ -176,25 +164,89 @@ public final class TextSerializerHelper {
    * @return
    */
   public static double consumeDouble(Text text, char separator) {
-    try {
-      int i = 0;
-      byte[] bytes = text.getBytes();
-      // Skip until the separator or end of text
-      while (i < text.getLength()
-          && ((bytes[i] >= '0' && bytes[i] <= '9') || bytes[i] == 'e'
-          || bytes[i] == 'E' || bytes[i] == '-' || bytes[i] == '+' || bytes[i] == '.'))
-        i++;
-      double d = Double.parseDouble(new String(bytes, 0, i));
-      if (i < text.getLength() && bytes[i] == separator)
-        i++;
-      System.arraycopy(bytes, i, bytes, 0, text.getLength() - i);
-      text.set(bytes, 0, text.getLength() - i);
-      return d;
-    } catch (NumberFormatException e) {
-      throw new RuntimeException("Error parsing '" + text +"'", e);
-    }
+    TextCursor cursor = new TextCursor(text);
+    double d = cursor.nextDouble(separator);
+    cursor.commit();
+    return d;
   }
   
+  /**The largest integer such that it and all smaller ones are exact doubles*/
+  private static final long MaxExactMantissa = 1L << 53;
+
+  /**Exact powers of ten that can be represented as doubles*/
+  private static final double[] PowersOfTen = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  /**
+   * Parses a double from the given byte array (string) without creating an
+   * intermediate String. The double starts at offset and is len characters
+   * long. Numbers whose digits and exponent can be converted exactly, which
+   * covers most coordinates, are parsed directly. All other numbers are
+   * passed to {@link Double#parseDouble(String)} so the result is always the
+   * same.
+   * @param buf
+   * @param offset
+   * @param len
+   * @return
+   */
+  public static double deserializeDouble(byte[] buf, int offset, int len) {
+    int i = offset;
+    int end = offset + len;
+    boolean negative = false;
+    if (i < end && (buf[i] == '-' || buf[i] == '+'))
+      negative = buf[i++] == '-';
+    long mantissa = 0;
+    int exponent = 0;
+    int numSignificantDigits = 0;
+    boolean digitsFound = false;
+    while (i < end && buf[i] >= '0' && buf[i] <= '9') {
+      mantissa = mantissa * 10 + (buf[i++] - '0');
+      if (mantissa != 0)
+        numSignificantDigits++;
+      digitsFound = true;
+    }
+    if (i < end && buf[i] == '.') {
+      i++;
+      while (i < end && buf[i] >= '0' && buf[i] <= '9') {
+        mantissa = mantissa * 10 + (buf[i++] - '0');
+        if (mantissa != 0)
+          numSignificantDigits++;
+        exponent--;
+        digitsFound = true;
+      }
+    }
+    if (digitsFound && i < end && (buf[i] == 'e' || buf[i] == 'E')) {
+      i++;
+      boolean negativeExponent = false;
+      if (i < end && (buf[i] == '-' || buf[i] == '+'))
+        negativeExponent = buf[i++] == '-';
+      int explicitExponent = 0;
+      int exponentStart = i;
+      while (i < end && buf[i] >= '0' && buf[i] <= '9' && explicitExponent < 10000)
+        explicitExponent = explicitExponent * 10 + (buf[i++] - '0');
+      if (i == exponentStart)
+        digitsFound = false; // Malformed exponent
+      exponent += negativeExponent ? -explicitExponent : explicitExponent;
+    }
+    // Up to 18 digits cannot overflow the mantissa
+    if (digitsFound && i == end && numSignificantDigits <= 18 &&
+        mantissa <= MaxExactMantissa) {
+      // Both the mantissa and the power of ten are exact doubles which makes
+      // the result of one multiplication or division correctly rounded
+      double d = mantissa;
+      if (mantissa == 0)
+        return negative ? -0.0 : 0.0;
+      if (exponent >= 0 && exponent < PowersOfTen.length)
+        return negative ? -(d * PowersOfTen[exponent]) : d * PowersOfTen[exponent];
+      if (exponent < 0 && -exponent < PowersOfTen.length)
+        return negative ? -(d / PowersOfTen[-exponent]) : d / PowersOfTen[-exponent];
+    }
+    // Fall back to the standard parser for all other cases
+    return Double.parseDouble(new String(buf, offset, len));
+  }
+
   /**
    * Appends hex representation of the given number to the given string.
    * If append is set to true, a comma is also appended to the text.
@@ -255,7 +307,7 @@ public final class TextSerializerHelper {
   
   public static long deserializeLong(byte[] buf, int offset, int len) {
     boolean negative = false;
-    if (buf[offset] == '-') {
+    if (len > 0 && buf[offset] == '-') {
       negative = true;
       offset++;
       len--;
@@ -269,18 +321,9 @@ public final class TextSerializerHelper {
   }
   
   public static long consumeLong(Text text, char separator) {
-    int i = 0;
-    byte[] bytes = text.getBytes();
-    // Skip until the separator or end of text
-    while (i < text.getLength() && DecimalChars[bytes[i]])
-      i++;
-    long l = deserializeLong(bytes, 0, i);
-    // If the first char after the long is the separator, skip it
-    if (i < text.getLength() && bytes[i] == separator)
-      i++;
-    // Shift bytes after the long
-    System.arraycopy(bytes, i, bytes, 0, text.getLength() - i);
-    text.set(bytes, 0, text.getLength() - i);
+    TextCursor cursor = new TextCursor(text);
+    long l = cursor.nextLong(separator);
+    cursor.commit();
     return l;
   }
   
@@ -329,7 +372,7 @@ public final class TextSerializerHelper {
   
   public static int deserializeInt(byte[] buf, int offset, int len) {
     boolean negative = false;
-    if (buf[offset] == '-') {
+    if (len > 0 && buf[offset] == '-') {
       negative = true;
       offset++;
       len--;
@@ -343,19 +386,10 @@ public final class TextSerializerHelper {
   }
   
   public static int consumeInt(Text text, char separator) {
-    int i = 0;
-    byte[] bytes = text.getBytes();
-    // Skip until the separator or end of text
-    while (i < text.getLength() && DecimalChars[bytes[i]])
-      i++;
-    int l = deserializeInt(bytes, 0, i);
-    // If the first char after the long is the separator, skip it
-    if (i < text.getLength() && bytes[i] == separator)
-      i++;
-    // Shift bytes after the long
-    System.arraycopy(bytes, i, bytes, 0, text.getLength() - i);
-    text.set(bytes, 0, text.getLength() - i);
-    return l;
+    TextCursor cursor = new TextCursor(text);
+    int i = cursor.nextInt(separator);
+    cursor.commit();
+    return i;
   }
  
   private static final byte[] Separators = {'[', '#', ',', ']'};
@@ -363,31 +397,9 @@ public final class TextSerializerHelper {
       FieldSeparator = 2, MapEnd = 3;
   
   public static void consumeMap(Text text, Map<String, String> tags) {
-    tags.clear();
-    if (text.getLength() > 0) {
-      byte[] tagsBytes = text.getBytes();
-      if (tagsBytes[0] != Separators[MapStart])
-        return;
-      int i1 = 1;
-      while (i1 < text.getLength() && tagsBytes[i1] != Separators[MapEnd]) {
-        int i2 = i1 + 1;
-        while (i2 < text.getLength() && tagsBytes[i2] != Separators[KeyValueSeparator])
-          i2++;
-        String key = new String(tagsBytes, i1, i2 - i1);
-        i1 = i2 + 1;
-        
-        i2 = i1 + 1;
-        while (i2 < text.getLength() && tagsBytes[i2] != Separators[FieldSeparator] && tagsBytes[i2] != Separators[MapEnd])
-          i2++;
-        String value = new String(tagsBytes, i1, i2 - i1);
-        tags.put(key, value);
-        i1 = i2;
-        if (i1 < text.getLength() && tagsBytes[i1] == Separators[FieldSeparator])
-          i1++;
-      }
-      if (i1 < text.getLength())
-        text.set(tagsBytes, i1, text.getLength() - i1);
-    }
+    TextCursor cursor = new TextCursor(text);
+    cursor.nextMap(tags);
+    cursor.commit();
   }
   
 
@@ -506,8 +518,18 @@ public final class TextSerializerHelper {
       text.append(new byte[] {(byte) toAppend}, 0, 1);
   }
   
-  private static final WKTReader wktReader = new WKTReader(new GeometryFactory());
-  private static final WKBReader wkbReader = new WKBReader(new GeometryFactory());
+  /**
+   * A geometry parser for each thread. This allows threads that parse
+   * geometries concurrently, e.g., in local operations, to proceed without
+   * contention.
+   */
+  private static final ThreadLocal<JTSGeometryParser> GeometryParser =
+      new ThreadLocal<JTSGeometryParser>() {
+    @Override
+    protected JTSGeometryParser initialValue() {
+      return new JTSGeometryParser();
+    }
+  };
   
   public static void serializeGeometry(Text text, Geometry geom, char toAppend) {
     String wkt = geom == null? "" : geom.toText();
@@ -517,102 +539,56 @@ public final class TextSerializerHelper {
       text.append(new byte[] {(byte) toAppend}, 0, 1);
   }
   
-  public static synchronized Geometry consumeGeometryJTS(Text text, char separator) {
-    // Check whether this text is a Well Known Text (WKT) or a hexed string
-    boolean wkt = false;
-    byte[] bytes = text.getBytes();
-    int length = text.getLength();
-    Geometry geom;
-    int i1, i2; // Start and end offset of the geometry being parsed
-    int i_next; // Beginning of the next field
-    boolean isWKT = false;
-    boolean isHex = false;
-    if (bytes[0] == '\'' || bytes[0] == '\"') {
-      // A quoted string. Find terminating quote and trim the quotes
-      i1 = 1;
-      i2 = 2;
-      while (i2 < length && bytes[i2] != bytes[0])
-        i2++;
-      if (i2 == length)
-        throw new RuntimeException("Unterminated quoted string");
-      i_next = i2 + 1;
-      i2--; // Back one step to remove the terminating quote
-      isWKT = true; // Assume any quoted string to be WKT
-    } else {
-      // Not a quoted string, check if the type is WKT
-      int i_shape = 0;
-      while (!wkt && i_shape < ShapeNames.length) {
-        byte[] shapeName = ShapeNames[i_shape];
-        if (length > shapeName.length) {
-          int i = 0;
-          while (i < shapeName.length && shapeName[i] == bytes[i])
-            i++;
-          if (i == shapeName.length) {
-            wkt = true;
-            break;
-          }
-        }
-        i_shape++;
-      }
+  public static Geometry consumeGeometryJTS(Text text, char separator) {
+    return consumeGeometryJTS(text, separator, GeometryParser.get());
+  }
 
-      if (i_shape < ShapeNames.length) {
-        isWKT = true;
-        // Look for the terminator of the shape text
-        i1 = 0;
-        i2 = 1;
-        // Search for the first open parenthesis
-        while (i2 < length && bytes[i2] != '(')
-          i2++;
-        if (i2 < length)
-          i2++; // Skip the open parenthesis itself
-        int nesting = 1;
-        while (i2 < length && nesting > 0) {
-          if (bytes[i2] == '(')
-            nesting++;
-          else if (bytes[i2] == ')')
-            nesting--;
-          i2++;
-        }
-        i_next = i2 + 1;
-      } else {
-        // Check if the type is hex-encoded WKB
-        i1 = 0;
-        i2 = 0;
-        while (i2 < length && IsHex[bytes[i2]])
-          i2++;
-        isHex = i2 > 1;
-        i_next = i2;
-      }
-    }
+  /**
+   * Returns the geometry parser of the current thread
+   * @return
+   */
+  public static JTSGeometryParser getGeometryParser() {
+    return GeometryParser.get();
+  }
 
-    String geom_text = new String(bytes, i1, i2);
-    
-    try {
-      if (isWKT) {
-        geom = wktReader.read(geom_text);
-      } else if (isHex) {
-        byte[] binary = hexToBytes(geom_text);
-        geom = wkbReader.read(binary);
-      } else {
-        geom = null;
+  /**
+   * Tests whether the given bytes start with the name of a WKT geometry type
+   * @param bytes
+   * @param offset
+   * @param end
+   * @return
+   */
+  static boolean startsWithShapeName(byte[] bytes, int offset, int end) {
+    for (byte[] shapeName : ShapeNames) {
+      if (end - offset > shapeName.length) {
+        int i = 0;
+        while (i < shapeName.length && shapeName[i] == bytes[offset + i])
+          i++;
+        if (i == shapeName.length)
+          return true;
       }
-    } catch (ParseException e) {
-      throw new RuntimeException(String.format("Error parsing '%s'",geom_text), e);
-    }
-
-    // Remove consumed bytes from the text
-    if (i_next >= text.getLength())
-      text.clear();
-    else {
-      if (bytes[i_next] == separator)
-        i_next++;
-      text.set(bytes, i_next, length - i_next);
     }
+    return false;
+  }
 
+  /**
+   * Deserializes and consumes a JTS geometry from the given text using the
+   * given parser. The geometry can be either a WKT, optionally quoted, or a
+   * hex-encoded WKB. The parser should not be shared by concurrent threads.
+   * @param text
+   * @param separator
+   * @param parser
+   * @return
+   */
+  public static Geometry consumeGeometryJTS(Text text, char separator,
+      JTSGeometryParser parser) {
+    TextCursor cursor = new TextCursor(text);
+    Geometry geom = cursor.nextGeometryJTS(separator, parser);
+    cursor.commit();
     return geom;
   }
   
-  private static final boolean[] IsHex = new boolean[256];
+  static final boolean[] IsHex = new boolean[256];
   
   private static final byte[] HexLookupTable = {
     '0', '1', '2', '3', '4', '5', '6', '7', '8', '9',
@@ -19,6 +19,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapreduce.InputSplit;
@@ -78,6 +79,9 @@ public class LocalIndexRecordReader<V extends Shape> extends
   /**The underlying configuration*/
   private Configuration conf;
 
+  /**Status of the input file. Identifies the file in shared caches*/
+  private FileStatus fileStatus;
+
   public LocalIndexRecordReader(Class<? extends LocalIndex> localIndexClass) {
     this.localIndexClass = localIndexClass;
   }
@@ -99,6 +103,7 @@ public class LocalIndexRecordReader<V extends Shape> extends
     this.end = this.start + split.getLength();
     this.fs = this.path.getFileSystem(conf);
     this.in = fs.open(this.path);
+    this.fileStatus = fs.getFileStatus(this.path);
 
     // Non-compressed file, seek to the desired position and use this stream
     // to get the progress and position
@@ -142,7 +147,7 @@ public class LocalIndexRecordReader<V extends Shape> extends
       LocalIndex<V> localIndex = localIndexClass.newInstance();
       localIndex.setup(conf);
       in.seek(indexStart);
-      localIndex.read(in, indexStart, indexEnd, stockShape);
+      localIndex.read(in, fileStatus, indexStart, indexEnd, stockShape);
       this.indexEnd = indexStart; // Prepare to read the next local index
 
       if (inputQueryRange != null) {
@@ -188,14 +193,15 @@ public class LocalIndexRecordReader<V extends Shape> extends
     LocalIndex lindex = localIndexClass.newInstance();
     List<FileSplit> splits = new ArrayList<FileSplit>();
     FSDataInputStream in = fs.open(file);
-    long indexEnd = fs.getFileStatus(file).getLen();
+    FileStatus fileStatus = fs.getFileStatus(file);
+    long indexEnd = fileStatus.getLen();
     while (indexEnd > 0) {
       // Seek to the next local index
       in.seek(indexEnd - 4);
       int indexSize = in.readInt();
       long indexStart = indexEnd - indexSize - 4;
       in.seek(indexStart);
-      lindex.read(in, indexStart, indexEnd, null);
+      lindex.read(in, fileStatus, indexStart, indexEnd, null);
       FileSplit fsplit = new FileSplit(file, lindex.getDataStart(),
           lindex.getDataEnd(), null);
       splits.add(fsplit);
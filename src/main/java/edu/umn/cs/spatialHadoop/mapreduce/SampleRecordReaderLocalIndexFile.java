@@ -4,6 +4,7 @@ import edu.umn.cs.spatialHadoop.indexing.LocalIndex;
 import edu.umn.cs.spatialHadoop.util.SampleIterable;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
@@ -48,6 +49,9 @@ public class SampleRecordReaderLocalIndexFile extends RecordReader<NullWritable,
   /**The input stream to the underlying file*/
   private FSDataInputStream in;
 
+  /**Status of the underlying file. Identifies the file in shared caches*/
+  private FileStatus fileStatus;
+
   public SampleRecordReaderLocalIndexFile(LocalIndex lindex) {
     this.lindex = lindex;
   }
@@ -64,6 +68,7 @@ public class SampleRecordReaderLocalIndexFile extends RecordReader<NullWritable,
 
     FileSystem fs = fsplit.getPath().getFileSystem(conf);
     this.in = fs.open(fsplit.getPath());
+    this.fileStatus = fs.getFileStatus(fsplit.getPath());
 
     this.lindexEnd = fsplit.getStart() + fsplit.getLength();
     moveToNextLocalIndex();
@@ -77,7 +82,7 @@ public class SampleRecordReaderLocalIndexFile extends RecordReader<NullWritable,
     in.seek(lindexEnd - 4);
     lindexStart = lindexEnd - in.readInt() - 4;
     in.seek(lindexStart);
-    lindex.read(in, lindexStart, lindexEnd, null);
+    lindex.read(in, fileStatus, lindexStart, lindexEnd, null);
     long dataStart = lindex.getDataStart();
     long dataEnd = lindex.getDataEnd();
     in.seek(dataStart);
@@ -10,7 +10,14 @@ package edu.umn.cs.spatialHadoop.mapreduce;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayDeque;
 import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -37,11 +44,14 @@ import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 import org.apache.hadoop.util.LineReader;
 
 import edu.umn.cs.spatialHadoop.OperationsParams;
+import edu.umn.cs.spatialHadoop.core.Point;
 import edu.umn.cs.spatialHadoop.core.Rectangle;
 import edu.umn.cs.spatialHadoop.core.Shape;
 import edu.umn.cs.spatialHadoop.core.SpatialSite;
 import edu.umn.cs.spatialHadoop.indexing.GlobalIndex;
 import edu.umn.cs.spatialHadoop.indexing.Partition;
+import edu.umn.cs.spatialHadoop.io.TextCursor;
+import edu.umn.cs.spatialHadoop.util.IntArray;
 
 /**
  * @author Ahmed Eldawy
@@ -52,6 +62,19 @@ public class SpatialRecordReader3<V extends Shape> extends
   
   private static final Log LOG = LogFactory.getLog(SpatialRecordReader3.class);
 
+  /**
+   * Whether to scan points and rectangles in batches when a query range is
+   * set. Each batch of lines is parsed into coordinate columns and filtered
+   * by a background thread while the next batch is being read.
+   */
+  public static final String BatchScan = "SpatialRecordReader3.BatchScan";
+
+  /**Number of lines in each batch of a batch scan*/
+  public static final String BatchSize = "SpatialRecordReader3.BatchSize";
+
+  /**Number of threads that parse and filter batches in a batch scan*/
+  public static final String ScanThreads = "SpatialRecordReader3.ScanThreads";
+
   /**The codec used with the input file*/
   private CompressionCodec codec;
   /**The decompressor (instance) used to decompress the input file*/
@@ -111,6 +134,27 @@ public class SpatialRecordReader3<V extends Shape> extends
    */
   private Counter inputRecordsCounter;
 
+  /**The threads that parse and filter batches or null if not in batch scan*/
+  private ExecutorService scanPool;
+
+  /**Maximum number of batches being parsed and filtered at the same time*/
+  private int maxPendingBatches;
+
+  /**Number of lines in each batch*/
+  private int batchSize;
+
+  /**Batches that were read and submitted for filtering in the read order*/
+  private ArrayDeque<Future<Batch>> pendingBatches;
+
+  /**Batches that were consumed and can be reused*/
+  private ArrayDeque<Batch> freeBatches;
+
+  /**The batch whose survivors are currently returned*/
+  private Batch currentBatch;
+
+  /**Set when all the lines in the split have been read into batches*/
+  private boolean allLinesRead;
+
   @Override
   public void initialize(InputSplit split, TaskAttemptContext context)
       throws IOException, InterruptedException {
@@ -177,6 +221,27 @@ public class SpatialRecordReader3<V extends Shape> extends
       this.inputQueryRange = OperationsParams.getShape(conf,
           SpatialInputFormat3.InputQueryRange);
       this.inputQueryMBR = this.inputQueryRange.getMBR();
+      // Points and rectangles are simple enough to be filtered in batches
+      Class<?> shapeClass = stockShape.getClass();
+      if (conf.getBoolean(BatchScan, true) &&
+          (shapeClass == Point.class || shapeClass == Rectangle.class)) {
+        int numThreads = conf.getInt(ScanThreads,
+            Math.min(4, Runtime.getRuntime().availableProcessors()));
+        this.batchSize = conf.getInt(BatchSize, 4096);
+        this.maxPendingBatches = numThreads + 1;
+        this.pendingBatches = new ArrayDeque<Future<Batch>>();
+        this.freeBatches = new ArrayDeque<Batch>();
+        this.allLinesRead = false;
+        this.currentBatch = null;
+        this.scanPool = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "BatchScan");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+      }
     }
     
     // Check if there is an associated global index to read cell boundaries
@@ -264,6 +329,8 @@ public class SpatialRecordReader3<V extends Shape> extends
    * @throws IOException If an error happens while reading from disk
    */
   protected boolean nextShape(V s) throws IOException {
+    if (scanPool != null)
+      return nextBatchedShape(s);
     do {
       if (!nextLine(tempLine))
         return false;
@@ -272,6 +339,128 @@ public class SpatialRecordReader3<V extends Shape> extends
     return true;
   }
 
+  /**
+   * A batch of lines that are parsed into coordinate columns and filtered by
+   * the MBR of the query range. Points are stored as rectangles with zero
+   * width and height. The filter is conservative, i.e., a line that cannot
+   * be parsed is kept so that it fails in the same way as the record-at-a-time
+   * scan.
+   */
+  class Batch implements Callable<Batch> {
+    /**The lines in this batch*/
+    final Text[] lines;
+    /**Number of valid lines*/
+    int numLines;
+    /**Coordinates of the MBRs of all lines*/
+    final double[] x1s, y1s, x2s, y2s;
+    /**Indexes of the lines that might match the query*/
+    final IntArray survivors = new IntArray();
+    /**Index of the next survivor to return*/
+    int nextSurvivor;
+    /**Used to parse lines without modifying them*/
+    private final TextCursor cursor = new TextCursor();
+
+    Batch(int size) {
+      lines = new Text[size];
+      for (int i = 0; i < size; i++)
+        lines[i] = new Text();
+      x1s = new double[size];
+      y1s = new double[size];
+      x2s = new double[size];
+      y2s = new double[size];
+    }
+
+    @Override
+    public Batch call() {
+      boolean isPoint = stockShape.getClass() == Point.class;
+      // Parse the coordinates into columns
+      for (int i = 0; i < numLines; i++) {
+        try {
+          cursor.reset(lines[i]);
+          x1s[i] = cursor.nextDouble(',');
+          y1s[i] = cursor.nextDouble(',');
+          if (isPoint) {
+            x2s[i] = x1s[i];
+            y2s[i] = y1s[i];
+          } else {
+            x2s[i] = cursor.nextDouble(',');
+            y2s[i] = cursor.nextDouble(',');
+          }
+        } catch (RuntimeException e) {
+          // Keep it to report the error when the shape is parsed
+          x1s[i] = y1s[i] = Double.NEGATIVE_INFINITY;
+          x2s[i] = y2s[i] = Double.POSITIVE_INFINITY;
+        }
+      }
+      // Filter all the records in one tight loop
+      final double qx1 = inputQueryMBR.x1, qy1 = inputQueryMBR.y1;
+      final double qx2 = inputQueryMBR.x2, qy2 = inputQueryMBR.y2;
+      survivors.clear();
+      for (int i = 0; i < numLines; i++) {
+        if (x2s[i] >= qx1 && x1s[i] <= qx2 && y2s[i] >= qy1 && y1s[i] <= qy2)
+          survivors.add(i);
+      }
+      nextSurvivor = 0;
+      return this;
+    }
+  }
+
+  /**
+   * Reads lines into batches and submits them for filtering until the
+   * pipeline is full or all lines are read.
+   * @throws IOException
+   */
+  private void fillPipeline() throws IOException {
+    while (!allLinesRead && pendingBatches.size() < maxPendingBatches) {
+      Batch batch = freeBatches.poll();
+      if (batch == null)
+        batch = new Batch(batchSize);
+      batch.numLines = 0;
+      while (batch.numLines < batchSize && nextLine(batch.lines[batch.numLines]))
+        batch.numLines++;
+      if (batch.numLines < batchSize)
+        allLinesRead = true;
+      if (batch.numLines == 0) {
+        freeBatches.add(batch);
+      } else {
+        pendingBatches.add(scanPool.submit(batch));
+      }
+    }
+  }
+
+  /**
+   * Returns the next matching shape in a batch scan. Only the lines that pass
+   * the batch filter are parsed into shapes and tested with
+   * {@link #isMatched(Shape)}.
+   * @param s
+   * @return
+   * @throws IOException
+   */
+  private boolean nextBatchedShape(V s) throws IOException {
+    while (true) {
+      if (currentBatch != null) {
+        while (currentBatch.nextSurvivor < currentBatch.survivors.size()) {
+          int i = currentBatch.survivors.get(currentBatch.nextSurvivor++);
+          s.fromText(currentBatch.lines[i]);
+          if (isMatched(s))
+            return true;
+        }
+        freeBatches.add(currentBatch);
+        currentBatch = null;
+      }
+      fillPipeline();
+      if (pendingBatches.isEmpty())
+        return false;
+      try {
+        currentBatch = pendingBatches.poll().get();
+      } catch (InterruptedException e) {
+        throw new IOException("Interrupted while scanning "+path, e);
+      } catch (ExecutionException e) {
+        throw new IOException("Error scanning "+path, e.getCause());
+      }
+    }
+  }
+
   @Override
   public boolean nextKeyValue() throws IOException, InterruptedException {
     value.setSpatialRecordReader(this);
@@ -310,6 +499,10 @@ public class SpatialRecordReader3<V extends Shape> extends
     lineReader = null;
     in = null;
     } finally {
+      if (scanPool != null) {
+        scanPool.shutdownNow();
+        scanPool = null;
+      }
       if (decompressor != null) {
         CodecPool.returnDecompressor(decompressor);
       }
@@ -54,6 +54,7 @@ import edu.umn.cs.spatialHadoop.hdf.HDFFile;
 import edu.umn.cs.spatialHadoop.io.RandomCompressedInputStream;
 import edu.umn.cs.spatialHadoop.io.RandomCompressedOutputStream;
 import edu.umn.cs.spatialHadoop.util.FileUtil;
+import edu.umn.cs.spatialHadoop.util.IntArray;
 import edu.umn.cs.spatialHadoop.util.Parallel;
 import edu.umn.cs.spatialHadoop.util.Parallel.RunnableRange;
 
@@ -348,7 +349,7 @@ public class AggregateQuadTree {
   /**Value size = short*/
   private static final int ValueSize = 2;
   /**Node size = min + max + sum + count*/
-  private static final int NodeSize = 2 + 2 + 8 + 8;
+  static final int NodeSize = 2 + 2 + 8 + 8;
   
   /**
    * Constructs an aggregate quad tree for an input HDF file on a selected
@@ -362,14 +363,15 @@ public class AggregateQuadTree {
   public static void build(Configuration conf, Path inFile, String datasetName,
       Path outFile) throws IOException {
     FileSystem inFs = inFile.getFileSystem(conf);
-    if (inFs instanceof HTTPFileSystem) {
+    if (inFs instanceof HTTPFileSystem
+        && !conf.getBoolean(HDFRecordReader.STREAM_REMOTE_FILES, true)) {
       // HDF files are really bad to read over HTTP due to seeks
       inFile = new Path(FileUtil.copyFile(conf, inFile));
       inFs = FileSystem.getLocal(conf);
     }
     HDFFile hdfFile = null;
     try {
-      hdfFile = new HDFFile(inFs.open(inFile));
+      hdfFile = HDFRecordReader.openHDFFile(inFs, inFile);
       DDVGroup dataGroup = hdfFile.findGroupByName(datasetName);
 
       if (dataGroup == null) 
@@ -491,7 +493,7 @@ public class AggregateQuadTree {
    * @param resolution
    * @return
    */
-  private static long getValuesStartOffset(int cardinality) {
+  static long getValuesStartOffset(int cardinality) {
     // Skip tree header and timestamps
     return TreeHeaderSize + cardinality * 8;
   }
@@ -507,7 +509,7 @@ public class AggregateQuadTree {
    * @param node_pos
    * @return
    */
-  private static long getNodesStartOffset(int resolution, int cardinality) {
+  static long getNodesStartOffset(int resolution, int cardinality) {
     return TreeHeaderSize + cardinality * 8 + resolution * resolution * cardinality * ValueSize;
   }
 
@@ -568,9 +570,10 @@ public class AggregateQuadTree {
       cardinality += (cardinalities[iTree] = inTrees[iTree].readInt());
     outTree.writeInt(cardinality);
     
-    // Write timestamps of all trees
+    // Write timestamps of all trees. A merged tree has many timestamps
     for (int iTree = 0; iTree < inTrees.length; iTree++) {
-      outTree.writeLong(inTrees[iTree].readLong());
+      for (int iTimestamp = 0; iTimestamp < cardinalities[iTree]; iTimestamp++)
+        outTree.writeLong(inTrees[iTree].readLong());
     }
     
     // Merge sorted values in all input trees
@@ -652,94 +655,21 @@ public class AggregateQuadTree {
   public static int selectionQuery(FSDataInputStream in, Rectangle query_mbr,
       ResultCollector<PointValue> output) throws IOException {
     long treeStartPosition = in.getPos();
-    int numOfResults = 0;
     int resolution = in.readInt();
     short fillValue = in.readShort();
     int cardinality = in.readInt();
     long[] timestamps = new long[cardinality];
     for (int i = 0; i < cardinality; i++)
       timestamps[i] = in.readLong();
-    Vector<Integer> selectedStarts = new Vector<Integer>();
-    Vector<Integer> selectedEnds = new Vector<Integer>();
+    IntArray selectedStarts = new IntArray();
+    IntArray selectedEnds = new IntArray();
     StockQuadTree stockQuadTree = getOrCreateStockQuadTree(resolution);
-    // Nodes to be searched. Contains node positions in the array of nodes
-    Stack<Integer> nodes_2b_searched = new Stack<Integer>();
-    nodes_2b_searched.add(0); // Root node (ID=1)
-    Rectangle node_mbr = new Rectangle();
-    while (!nodes_2b_searched.isEmpty()) {
-      int node_pos = nodes_2b_searched.pop();
-      stockQuadTree.getNodeMBR(node_pos, node_mbr);
-      if (query_mbr.contains(node_mbr)) {
-        // Add this node to the selection list and stop this branch
-        if (!selectedEnds.isEmpty()
-            && selectedEnds.lastElement() == stockQuadTree.nodesStartPosition[node_pos]) {
-          // Merge with an adjacent range
-          selectedEnds.set(selectedEnds.size() - 1, stockQuadTree.nodesEndPosition[node_pos]);
-        } else {
-          // add a new range
-          selectedStarts.add(stockQuadTree.nodesStartPosition[node_pos]);
-          selectedEnds.add(stockQuadTree.nodesEndPosition[node_pos]);
-        }
-        numOfResults += stockQuadTree.nodesEndPosition[node_pos]
-            - stockQuadTree.nodesStartPosition[node_pos];
-      } else if (query_mbr.intersects(node_mbr)) {
-        int first_child_id = stockQuadTree.nodesID[node_pos] * 4 + 0;
-        int first_child_pos = Arrays.binarySearch(stockQuadTree.nodesID, first_child_id);
-        if (first_child_pos < 0) {
-          // No children. Hit a leaf node
-          // Scan and add matching points only
-          java.awt.Point record_coords = new Point();
-          for (int record_pos = stockQuadTree.nodesStartPosition[node_pos];
-              record_pos < stockQuadTree.nodesEndPosition[node_pos]; record_pos++) {
-            stockQuadTree.getRecordCoords(record_pos, record_coords);
-            if (query_mbr.contains(record_coords)) {
-              // matched a record.
-              if (!selectedEnds.isEmpty()
-                  && selectedEnds.lastElement() == record_pos) {
-                // Merge with an adjacent range
-                selectedEnds.set(selectedEnds.size() - 1, record_pos + 1);
-              } else {
-                // Add a new range of unit width
-                selectedStarts.add(record_pos);
-                selectedEnds.add(record_pos+1);
-              }
-              numOfResults++;
-            }
-          }
-        } else {
-          // Non-leaf node. Add all children to the list of nodes to search
-          // Add in reverse order to the stack so that results come in sorted order
-          nodes_2b_searched.add(first_child_pos+3);
-          nodes_2b_searched.add(first_child_pos+2);
-          nodes_2b_searched.add(first_child_pos+1);
-          nodes_2b_searched.add(first_child_pos+0);
-        }
-      }
-    }
+    int numOfResults = selectNodes(stockQuadTree, query_mbr, null,
+        selectedStarts, selectedEnds);
     if (output != null) {
-      PointValue returnValue = new PointValue();
       long dataStartPosition = treeStartPosition + getValuesStartOffset(cardinality);
-      // Return all values in the selected ranges
-      for (int iRange = 0; iRange < selectedStarts.size(); iRange++) {
-        int treeStart = selectedStarts.get(iRange);
-        int treeEnd = selectedEnds.get(iRange);
-        long startPosition = dataStartPosition
-            + selectedStarts.get(iRange) * cardinality * 2;
-        in.seek(startPosition);
-        for (int treePos = treeStart; treePos < treeEnd; treePos++) {
-          // Retrieve the coords for the point at treePos
-          stockQuadTree.getRecordCoords(treePos, returnValue);
-          // Read all entries at current position
-          for (int iValue = 0; iValue < cardinality; iValue++) {
-            short value = in.readShort();
-            if (value != fillValue) {
-              returnValue.value = value;
-              returnValue.timestamp = timestamps[iValue];
-              output.collect(returnValue);
-            }
-          }
-        }
-      }
+      collectValues(in, dataStartPosition, stockQuadTree, fillValue,
+          timestamps, selectedStarts, selectedEnds, output);
     }
     return numOfResults;
   }
@@ -768,45 +698,71 @@ public class AggregateQuadTree {
   public static Node aggregateQuery(FSDataInputStream in, Rectangle query_mbr) throws IOException {
     long treeStartPosition = in.getPos();
     Node result = new Node();
-    int numOfSelectedRecords = 0;
     int resolution = in.readInt();
     short fillValue = in.readShort();
     int cardinality = in.readInt();
-    final Vector<Integer> selectedNodesPos = new Vector<Integer>();
-    final Vector<Integer> selectedStarts = new Vector<Integer>();
-    final Vector<Integer> selectedEnds = new Vector<Integer>();
+    IntArray selectedNodesPos = new IntArray();
+    IntArray selectedStarts = new IntArray();
+    IntArray selectedEnds = new IntArray();
     StockQuadTree stockQuadTree = getOrCreateStockQuadTree(resolution);
+    int numOfSelectedRecords = selectNodes(stockQuadTree, query_mbr,
+        selectedNodesPos, selectedStarts, selectedEnds);
+    LOG.debug("Aggregate query selected "+selectedNodesPos.size()
+        +" nodes and "+numOfSelectedRecords+" records");
+    // Result 1: Accumulate all values
+    accumulateValues(in, treeStartPosition + getValuesStartOffset(cardinality),
+        cardinality, fillValue, selectedStarts, selectedEnds, result);
+    // Result 2: Accumulate all nodes
+    accumulateNodes(in, treeStartPosition + getNodesStartOffset(resolution, cardinality),
+        selectedNodesPos, 0, result);
+    return result;
+  }
+
+  /**
+   * Searches the stock quad tree for the values in the given range. A node
+   * that is completely contained in the range is added to the selected nodes
+   * if selectedNodes is not null. Otherwise, all its values are added to the
+   * selected ranges. Values of leaf nodes that partially overlap the range
+   * are added one-by-one to the selected ranges. The selected ranges come in
+   * increasing order and adjacent ranges are merged.
+   * @param stockQuadTree the stock quad tree of the queried tree
+   * @param query_mbr the query range in the two-dimensional array positions
+   * @param selectedNodes (output) positions of the selected nodes or null
+   * @param selectedStarts (output) start positions of the selected values
+   * @param selectedEnds (output) end positions of the selected values
+   * @return the total number of selected values
+   */
+  static int selectNodes(StockQuadTree stockQuadTree, Rectangle query_mbr,
+      IntArray selectedNodes, IntArray selectedStarts, IntArray selectedEnds) {
+    int numOfSelectedRecords = 0;
     // Nodes to be searched. Contains node positions in the array of nodes
-    Stack<Integer> nodes_2b_searched = new Stack<Integer>();
+    IntArray nodes_2b_searched = new IntArray();
     nodes_2b_searched.add(0); // Root node (ID=1)
     Rectangle node_mbr = new Rectangle();
+    Point record_coords = new Point();
     while (!nodes_2b_searched.isEmpty()) {
       int node_pos = nodes_2b_searched.pop();
       stockQuadTree.getNodeMBR(node_pos, node_mbr);
       if (query_mbr.contains(node_mbr)) {
-        // Add this node to the selection list and stop this branch
-        selectedNodesPos.add(node_pos);
+        // Select this node as a whole and stop this branch
+        int start = stockQuadTree.nodesStartPosition[node_pos];
+        int end = stockQuadTree.nodesEndPosition[node_pos];
+        if (selectedNodes != null)
+          selectedNodes.add(node_pos);
+        else
+          addRange(selectedStarts, selectedEnds, start, end);
+        numOfSelectedRecords += end - start;
       } else if (query_mbr.intersects(node_mbr)) {
         int first_child_id = stockQuadTree.nodesID[node_pos] * 4 + 0;
         int first_child_pos = Arrays.binarySearch(stockQuadTree.nodesID, first_child_id);
         if (first_child_pos < 0) {
           // No children. Hit a leaf node
           // Scan and add matching points only
-          java.awt.Point record_coords = new Point();
           for (int record_pos = stockQuadTree.nodesStartPosition[node_pos];
               record_pos < stockQuadTree.nodesEndPosition[node_pos]; record_pos++) {
             stockQuadTree.getRecordCoords(record_pos, record_coords);
             if (query_mbr.contains(record_coords)) {
-              // matched a record.
-              if (!selectedEnds.isEmpty()
-                  && selectedEnds.lastElement() == record_pos) {
-                // Merge with an adjacent range
-                selectedEnds.set(selectedEnds.size() - 1, record_pos + 1);
-              } else {
-                // Add a new range of unit width
-                selectedStarts.add(record_pos);
-                selectedEnds.add(record_pos+1);
-              }
+              addRange(selectedStarts, selectedEnds, record_pos, record_pos + 1);
               numOfSelectedRecords++;
             }
           }
@@ -820,82 +776,122 @@ public class AggregateQuadTree {
         }
       }
     }
-    // Result 1: Accumulate all values
-    // Sort disk offsets to eliminate backward seeks
-    if (!selectedStarts.isEmpty()) {
-      LOG.debug("Aggregate query selected "+selectedNodesPos.size()
-          +" nodes and "+numOfSelectedRecords+" records");
-      
-      final IndexedSortable sortable = new IndexedSortable() {
-        @Override
-        public int compare(int i, int j) {
-          return selectedStarts.get(i) - selectedStarts.get(j);
-        }
-        
-        @Override
-        public void swap(int i, int j) {
-          int temp = selectedStarts.get(i);
-          selectedStarts.set(i, selectedStarts.get(j));
-          selectedStarts.set(j, temp);
-          
-          temp = selectedEnds.get(i);
-          selectedEnds.set(i, selectedEnds.get(j));
-          selectedEnds.set(j, temp);
-        }
-      };
-      new QuickSort().sort(sortable, 0, selectedStarts.size());
-      
-      long dataStartPosition = getValuesStartOffset(cardinality);
-      Point resultCoords = new Point();
-      // Return all values in the selected ranges
-      for (int iRange = 0; iRange < selectedStarts.size(); iRange++) {
-        int treeStart = selectedStarts.get(iRange);
-        int treeEnd = selectedEnds.get(iRange);
-        long startPosition = dataStartPosition
-            + selectedStarts.get(iRange) * cardinality * 2;
-        in.seek(startPosition);
-        for (int treePos = treeStart; treePos < treeEnd; treePos++) {
-          // Retrieve the coords for the point at treePos
-          stockQuadTree.getRecordCoords(treePos, resultCoords);
-          // Read all entries at current position
-          for (int iValue = 0; iValue < cardinality; iValue++) {
-            short value = in.readShort();
-            if (value != fillValue)
-              result.accumulate(value);
-          }
-        }
+    return numOfSelectedRecords;
+  }
+
+  /**
+   * Adds a range of values to the selected ranges and merges it with the last
+   * range if they are adjacent.
+   */
+  private static void addRange(IntArray selectedStarts, IntArray selectedEnds,
+      int start, int end) {
+    if (!selectedEnds.isEmpty() && selectedEnds.peek() == start) {
+      // Merge with an adjacent range
+      selectedEnds.set(selectedEnds.size() - 1, end);
+    } else {
+      // Add a new range
+      selectedStarts.add(start);
+      selectedEnds.add(end);
+    }
+  }
+
+  /**
+   * Accumulates all the values in the selected ranges. The ranges are
+   * expected in increasing order as returned by {@link #selectNodes} so that
+   * the input is never read backwards.
+   * @param in the input stream of the tree
+   * @param dataStartPosition the absolute position of the values section
+   * @param cardinality number of values at each position
+   * @param fillValue values to skip
+   * @param selectedStarts start positions of the ranges
+   * @param selectedEnds end positions of the ranges
+   * @param result the node to accumulate the values into
+   * @throws IOException
+   */
+  static void accumulateValues(FSDataInputStream in, long dataStartPosition,
+      int cardinality, short fillValue, IntArray selectedStarts,
+      IntArray selectedEnds, Node result) throws IOException {
+    for (int iRange = 0; iRange < selectedStarts.size(); iRange++) {
+      int treeStart = selectedStarts.get(iRange);
+      int treeEnd = selectedEnds.get(iRange);
+      in.seek(dataStartPosition + (long) treeStart * cardinality * ValueSize);
+      // Read all entries at all positions in the range
+      for (int iValue = (treeEnd - treeStart) * cardinality; iValue > 0; iValue--) {
+        short value = in.readShort();
+        if (value != fillValue)
+          result.accumulate(value);
       }
-      
     }
-    
-    // Result 2: Accumulate all nodes
-    if (!selectedNodesPos.isEmpty()) {
-      long nodesStartPosition = treeStartPosition + getNodesStartOffset(resolution, cardinality);
-      // Sort node positions to eliminate backward seeks
-      IndexedSortable nodeSortable = new IndexedSortable() {
-        @Override
-        public int compare(int i, int j) {
-          return selectedNodesPos.get(i) - selectedNodesPos.get(j);
-        }
-        
-        @Override
-        public void swap(int i, int j) {
-          int temp = selectedNodesPos.get(i);
-          selectedNodesPos.set(i, selectedNodesPos.get(j));
-          selectedNodesPos.set(j, temp);
+  }
+
+  /**
+   * Reports all the values in the selected ranges along with their
+   * coordinates and timestamps.
+   * @param in the input stream of the tree
+   * @param dataStartPosition the absolute position of the values section
+   * @param stockQuadTree the stock quad tree of the queried tree
+   * @param fillValue values to skip
+   * @param timestamps the timestamp of each of the values at one position
+   * @param selectedStarts start positions of the ranges
+   * @param selectedEnds end positions of the ranges
+   * @param output
+   * @throws IOException
+   */
+  static void collectValues(FSDataInputStream in, long dataStartPosition,
+      StockQuadTree stockQuadTree, short fillValue, long[] timestamps,
+      IntArray selectedStarts, IntArray selectedEnds,
+      ResultCollector<PointValue> output) throws IOException {
+    int cardinality = timestamps.length;
+    PointValue returnValue = new PointValue();
+    for (int iRange = 0; iRange < selectedStarts.size(); iRange++) {
+      int treeStart = selectedStarts.get(iRange);
+      int treeEnd = selectedEnds.get(iRange);
+      in.seek(dataStartPosition + (long) treeStart * cardinality * ValueSize);
+      for (int treePos = treeStart; treePos < treeEnd; treePos++) {
+        // Retrieve the coords for the point at treePos
+        stockQuadTree.getRecordCoords(treePos, returnValue);
+        // Read all entries at current position
+        for (int iValue = 0; iValue < cardinality; iValue++) {
+          short value = in.readShort();
+          if (value != fillValue) {
+            returnValue.value = value;
+            returnValue.timestamp = timestamps[iValue];
+            output.collect(returnValue);
+          }
         }
-      };
-      new QuickSort().sort(nodeSortable, 0, selectedNodesPos.size());
-      
-      Node selectedNode = new Node();
-      for (int node_pos : selectedNodesPos) {
-        long nodePosition = nodesStartPosition + node_pos * NodeSize;
-        in.seek(nodePosition);
-        selectedNode.readFields(in);
-        result.accumulate(selectedNode);
       }
     }
-    return result;
+  }
+
+  /**
+   * Accumulates the aggregate values of the selected nodes. Nodes are read
+   * in increasing order of their positions and a seek is done only when the
+   * next node does not immediately follow the previous one.
+   * @param in the input stream of the tree
+   * @param nodesStartPosition the absolute position of the nodes section
+   * @param selectedNodesPos positions of the nodes to accumulate. This array
+   *   is sorted by this method.
+   * @param firstNodeToRead nodes at lower positions are not read and are
+   *   expected to have been accumulated by the caller
+   * @param result the node to accumulate the aggregate values into
+   * @throws IOException
+   */
+  static void accumulateNodes(FSDataInputStream in, long nodesStartPosition,
+      IntArray selectedNodesPos, int firstNodeToRead, Node result) throws IOException {
+    // Sort node positions to eliminate backward seeks
+    selectedNodesPos.sort();
+    Node selectedNode = new Node();
+    int nextNodePos = -1;
+    for (int i = 0; i < selectedNodesPos.size(); i++) {
+      int node_pos = selectedNodesPos.get(i);
+      if (node_pos < firstNodeToRead)
+        continue;
+      if (node_pos != nextNodePos)
+        in.seek(nodesStartPosition + (long) node_pos * NodeSize);
+      selectedNode.readFields(in);
+      result.accumulate(selectedNode);
+      nextNodePos = node_pos + 1;
+    }
   }
   
   /**
@@ -1031,104 +1027,117 @@ public class AggregateQuadTree {
         i2++;
 
       // Merge all source indexes in the range [i1, i2) into one dest index
-      
-      // Copy i1, i2 to other variables as final to be accessible from threads
-      final int firstIndex = i1;
-      final int lastIndex = i2;
-      
-      final Path destIndex = new Path(dstIndexDir, indexToCreate);
-      
-      // For each tile, merge all values in all source indexes
-      /*A regular expression to catch the tile identifier of a MODIS grid cell*/
-      final Pattern MODISTileID = Pattern.compile("^.*(h\\d\\dv\\d\\d).*$"); 
-      final FileStatus[] tilesInFirstDay = fs.listStatus(sourceIndexes[i1].getPath());
-      // Shuffle the array for better load balancing across threads
-      Random rand = new Random();
-      for (int i = 0; i < tilesInFirstDay.length - 1; i++) {
-        // Swap the entry at i with any following entry
-        int j = i + rand.nextInt(tilesInFirstDay.length - i - 1);
-        FileStatus temp = tilesInFirstDay[i];
-        tilesInFirstDay[i] = tilesInFirstDay[j];
-        tilesInFirstDay[j] = temp;
-      }
-      Parallel.forEach(tilesInFirstDay.length, new RunnableRange<Object>() {
-        @Override
-        public Object run(int i_file1, int i_file2) {
-          for (int i_file = i_file1; i_file < i_file2; i_file++) {
-            try {
-              FileStatus tileInFirstDay = tilesInFirstDay[i_file];
-              
-              // Extract tile ID
-              Matcher matcher = MODISTileID.matcher(tileInFirstDay.getPath().getName());
-              if (!matcher.matches()) {
-                LOG.warn("Cannot extract tile id from file "+tileInFirstDay.getPath());
-                continue;
-              }
+      Path[] indexesToMerge = new Path[i2 - i1];
+      for (int i = i1; i < i2; i++)
+        indexesToMerge[i - i1] = sourceIndexes[i].getPath();
+      mergeTiles(fs, indexesToMerge, new Path(dstIndexDir, indexToCreate), params);
+      i1 = i2;
+    }
+  }
 
-              final String tileID = matcher.group(1);
-              Path destIndexFile = new Path(destIndex, tileID);
-              
-              PathFilter tileFilter = new PathFilter() {
-                @Override
-                public boolean accept(Path path) {
-                  return path.getName().contains(tileID);
-                }
-              };
+  /**
+   * Merges each tile in a list of indexes into one tile in a destination
+   * index. The merged tile is rebuilt only if it does not exist or is older
+   * than any of its source tiles.
+   * @param fs the file system of all indexes
+   * @param sourceIndexes the directories of the indexes to merge sorted by time
+   * @param destIndex the directory of the merged index
+   * @param params
+   * @throws IOException
+   * @throws InterruptedException
+   */
+  static void mergeTiles(final FileSystem fs, final Path[] sourceIndexes,
+      final Path destIndex, final OperationsParams params)
+      throws IOException, InterruptedException {
+    // For each tile, merge all values in all source indexes
+    /*A regular expression to catch the tile identifier of a MODIS grid cell*/
+    final Pattern MODISTileID = Pattern.compile("^.*(h\\d\\dv\\d\\d).*$"); 
+    final FileStatus[] tilesInFirstDay = fs.listStatus(sourceIndexes[0]);
+    // Shuffle the array for better load balancing across threads
+    Random rand = new Random();
+    for (int i = 0; i < tilesInFirstDay.length - 1; i++) {
+      // Swap the entry at i with any following entry
+      int j = i + rand.nextInt(tilesInFirstDay.length - i - 1);
+      FileStatus temp = tilesInFirstDay[i];
+      tilesInFirstDay[i] = tilesInFirstDay[j];
+      tilesInFirstDay[j] = temp;
+    }
+    Parallel.forEach(tilesInFirstDay.length, new RunnableRange<Object>() {
+      @Override
+      public Object run(int i_file1, int i_file2) {
+        for (int i_file = i_file1; i_file < i_file2; i_file++) {
+          try {
+            FileStatus tileInFirstDay = tilesInFirstDay[i_file];
+            
+            // Extract tile ID
+            Matcher matcher = MODISTileID.matcher(tileInFirstDay.getPath().getName());
+            if (!matcher.matches()) {
+              LOG.warn("Cannot extract tile id from file "+tileInFirstDay.getPath());
+              continue;
+            }
 
-              // Find matching tiles in all source indexes to merge
-              Vector<Path> filesToMerge = new Vector<Path>(lastIndex - firstIndex);
-              filesToMerge.add(tileInFirstDay.getPath());
-              for (int iDailyIndex = firstIndex + 1; iDailyIndex < lastIndex; iDailyIndex++) {
-                FileStatus[] matchedTileFile = fs.listStatus(sourceIndexes[iDailyIndex].getPath(), tileFilter);
-                if (matchedTileFile.length == 0)
-                  LOG.warn("Could not find tile "+tileID+" in dir "+sourceIndexes[iDailyIndex].getPath());
-                else if (matchedTileFile.length == 1)
-                  filesToMerge.add(matchedTileFile[0].getPath());
+            final String tileID = matcher.group(1);
+            Path destIndexFile = new Path(destIndex, tileID);
+            
+            PathFilter tileFilter = new PathFilter() {
+              @Override
+              public boolean accept(Path path) {
+                return path.getName().contains(tileID);
               }
-              
-              if (fs.exists(destIndexFile)) {
-                // Destination file already exists
-                // Check the date of the destination and source files to see
-                // whether it needs to be updated or not
-                long destTimestamp = fs.getFileStatus(destIndexFile).getModificationTime();
-                boolean needsUpdate = false;
-                for (Path fileToMerge : filesToMerge) {
-                  long sourceTimestamp = fs.getFileStatus(fileToMerge).getModificationTime();
-                  if (sourceTimestamp > destTimestamp) {
-                    needsUpdate = true;
-                    break;
-                  }
+            };
+
+            // Find matching tiles in all source indexes to merge
+            Vector<Path> filesToMerge = new Vector<Path>(sourceIndexes.length);
+            filesToMerge.add(tileInFirstDay.getPath());
+            for (int iDailyIndex = 1; iDailyIndex < sourceIndexes.length; iDailyIndex++) {
+              FileStatus[] matchedTileFile = fs.listStatus(sourceIndexes[iDailyIndex], tileFilter);
+              if (matchedTileFile.length == 0)
+                LOG.warn("Could not find tile "+tileID+" in dir "+sourceIndexes[iDailyIndex]);
+              else if (matchedTileFile.length == 1)
+                filesToMerge.add(matchedTileFile[0].getPath());
+            }
+            
+            if (fs.exists(destIndexFile)) {
+              // Destination file already exists
+              // Check the date of the destination and source files to see
+              // whether it needs to be updated or not
+              long destTimestamp = fs.getFileStatus(destIndexFile).getModificationTime();
+              boolean needsUpdate = false;
+              for (Path fileToMerge : filesToMerge) {
+                long sourceTimestamp = fs.getFileStatus(fileToMerge).getModificationTime();
+                if (sourceTimestamp > destTimestamp) {
+                  needsUpdate = true;
+                  break;
                 }
-                if (!needsUpdate)
-                  continue;
-                else
-                  LOG.info("Updating file "+destIndexFile.getName());
               }
+              if (!needsUpdate)
+                continue;
+              else
+                LOG.info("Updating file "+destIndexFile.getName());
+            }
 
-              // Do the merge
-              Path tmpFile;
-              do {
-                tmpFile = new Path((int)(Math.random()* 1000000)+".tmp");
-              } while (fs.exists(tmpFile));
-              tmpFile = tmpFile.makeQualified(fs);
-              LOG.info("Merging tile "+tileID+" into file "+destIndexFile);
-              AggregateQuadTree.merge(params,
-                  filesToMerge.toArray(new Path[filesToMerge.size()]), tmpFile);
-              synchronized (fs) {
-                Path destDir = destIndexFile.getParent();
-                if (!fs.exists(destDir))
-                  fs.mkdirs(destDir);
-              }
-              fs.rename(tmpFile, destIndexFile);
-            } catch (IOException e) {
-              e.printStackTrace();
+            // Do the merge
+            Path tmpFile;
+            do {
+              tmpFile = new Path((int)(Math.random()* 1000000)+".tmp");
+            } while (fs.exists(tmpFile));
+            tmpFile = tmpFile.makeQualified(fs);
+            LOG.info("Merging tile "+tileID+" into file "+destIndexFile);
+            AggregateQuadTree.merge(params,
+                filesToMerge.toArray(new Path[filesToMerge.size()]), tmpFile);
+            synchronized (fs) {
+              Path destDir = destIndexFile.getParent();
+              if (!fs.exists(destDir))
+                fs.mkdirs(destDir);
             }
+            fs.rename(tmpFile, destIndexFile);
+          } catch (IOException e) {
+            e.printStackTrace();
           }
-          return null;
         }
-      });
-      i1 = i2;
-    }
+        return null;
+      }
+    });
   }
 
   /**
@@ -0,0 +1,390 @@
+/***********************************************************************
+* Copyright (c) 2015 by Regents of the University of Minnesota.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Apache License, Version 2.0 which
+* accompanies this distribution and is available at
+* http://www.opensource.org/licenses/apache2.0.php.
+*
+*************************************************************************/
+package edu.umn.cs.spatialHadoop.nasa;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+
+import edu.umn.cs.spatialHadoop.core.ResultCollector;
+import edu.umn.cs.spatialHadoop.io.ByteBufferInputStream;
+import edu.umn.cs.spatialHadoop.io.RandomCompressedInputStream;
+import edu.umn.cs.spatialHadoop.nasa.AggregateQuadTree.Node;
+import edu.umn.cs.spatialHadoop.nasa.AggregateQuadTree.PointValue;
+import edu.umn.cs.spatialHadoop.util.IntArray;
+
+/**
+ * A long-lived reader that answers queries on many {@link AggregateQuadTree}
+ * files. Unlike the static query methods in {@link AggregateQuadTree}, which
+ * open the file and parse its header on every call, this reader keeps the
+ * following state across queries.
+ * <ul>
+ *  <li>The contents of each opened tree file, memory-mapped for local files
+ *  or read once into memory for other file systems.</li>
+ *  <li>The parsed header of each tree.</li>
+ *  <li>The aggregate values of the nodes in the top levels of each tree so
+ *  that queries over large ranges do not touch the file at all.</li>
+ * </ul>
+ * Opened trees are kept in an LRU pool bounded by their total size in bytes.
+ * A cached tree is used only if the file still has the same modification time
+ * and length. A tree that leaves the pool while queries are running on it is
+ * closed when the last of these queries finishes. This class is thread safe.
+ * @author Ahmed Eldawy
+ *
+ */
+public class AggregateQuadTreeReader {
+  private static final Log LOG = LogFactory.getLog(AggregateQuadTreeReader.class);
+
+  /**Maximum total size in bytes of the trees kept open by the reader*/
+  public static final String MaxCachedBytes = "AggregateQuadTreeReader.MaxCachedBytes";
+
+  /**Number of levels at the top of each tree whose nodes are kept in memory*/
+  public static final String CachedLevels = "AggregateQuadTreeReader.CachedLevels";
+
+  /**
+   * An opened tree file along with its parsed header and the aggregate
+   * values of the top-level nodes.
+   */
+  private static class OpenTree {
+    /**The version of the file that was opened*/
+    long modificationTime, length;
+
+    /**The (compressed) contents of the file or null if it is read from disk*/
+    ByteBuffer data;
+
+    /**A random access stream over the decompressed tree. Guarded by this*/
+    FSDataInputStream in;
+
+    int resolution;
+    short fillValue;
+    int cardinality;
+    long[] timestamps;
+    StockQuadTree stockQuadTree;
+
+    /**Number of nodes at the beginning of the nodes section that are cached*/
+    int numCachedNodes;
+    short[] nodeMin, nodeMax;
+    long[] nodeSum, nodeCount;
+
+    /**Number of bytes this tree occupies in memory*/
+    long getCachedBytes() {
+      return (data == null ? 0 : data.capacity())
+          + (long) numCachedNodes * AggregateQuadTree.NodeSize;
+    }
+
+    /**Number of running queries that use this tree. Guarded by openTrees*/
+    int numUsers;
+
+    /**Whether this tree was removed from the pool. Guarded by openTrees*/
+    boolean retired;
+
+    /**
+     * Removes this tree from use and closes it if no queries are using it.
+     * Otherwise, it is closed when the last query releases it.
+     */
+    void retire() {
+      retired = true;
+      if (numUsers == 0)
+        close();
+    }
+
+    synchronized void close() {
+      IOUtils.closeStream(in);
+    }
+  }
+
+  /**Opened trees in access order. Guarded by itself*/
+  private final LinkedHashMap<Path, OpenTree> openTrees =
+      new LinkedHashMap<Path, OpenTree>(16, 0.75f, true);
+
+  /**Total size of all opened trees*/
+  private long cachedBytes;
+
+  /**Maximum total size of all opened trees*/
+  private final long maxCachedBytes;
+
+  /**Number of levels of nodes cached for each tree*/
+  private final int cachedLevels;
+
+  public AggregateQuadTreeReader(Configuration conf) {
+    this(conf.getLong(MaxCachedBytes, 1024L * 1024 * 1024),
+        conf.getInt(CachedLevels, 4));
+  }
+
+  /**
+   * Creates a new reader
+   * @param maxCachedBytes - maximum total size in bytes of the opened trees
+   * @param cachedLevels - number of levels of nodes cached for each tree
+   */
+  public AggregateQuadTreeReader(long maxCachedBytes, int cachedLevels) {
+    this.maxCachedBytes = maxCachedBytes;
+    // Node IDs at level L are in the range [4^L, 2*4^L)
+    this.cachedLevels = Math.max(0, Math.min(cachedLevels, 15));
+  }
+
+  /**
+   * Returns the resolution of the given tree.
+   * @param fs
+   * @param file
+   * @return
+   * @throws IOException
+   */
+  public int getResolution(FileSystem fs, FileStatus file) throws IOException {
+    OpenTree tree = getOpenTree(fs, file);
+    try {
+      return tree.resolution;
+    } finally {
+      release(tree);
+    }
+  }
+
+  /**
+   * Computes the aggregate values in the given range of the given tree.
+   * @param fs
+   * @param file
+   * @param query_mbr the query range in the two-dimensional array positions
+   * @return
+   * @throws IOException
+   */
+  public Node aggregateQuery(FileSystem fs, FileStatus file, Rectangle query_mbr)
+      throws IOException {
+    OpenTree tree = getOpenTree(fs, file);
+    try {
+      Node result = new Node();
+      IntArray selectedNodesPos = new IntArray();
+      IntArray selectedStarts = new IntArray();
+      IntArray selectedEnds = new IntArray();
+      AggregateQuadTree.selectNodes(tree.stockQuadTree, query_mbr,
+          selectedNodesPos, selectedStarts, selectedEnds);
+
+      // Accumulate the cached nodes without touching the file
+      for (int i = 0; i < selectedNodesPos.size(); i++) {
+        int node_pos = selectedNodesPos.get(i);
+        if (node_pos < tree.numCachedNodes) {
+          if (tree.nodeMin[node_pos] < result.min)
+            result.min = tree.nodeMin[node_pos];
+          if (tree.nodeMax[node_pos] > result.max)
+            result.max = tree.nodeMax[node_pos];
+          result.sum += tree.nodeSum[node_pos];
+          result.count += tree.nodeCount[node_pos];
+        }
+      }
+
+      synchronized (tree) {
+        AggregateQuadTree.accumulateValues(tree.in,
+            AggregateQuadTree.getValuesStartOffset(tree.cardinality),
+            tree.cardinality, tree.fillValue, selectedStarts, selectedEnds, result);
+        AggregateQuadTree.accumulateNodes(tree.in,
+            AggregateQuadTree.getNodesStartOffset(tree.resolution, tree.cardinality),
+            selectedNodesPos, tree.numCachedNodes, result);
+      }
+      return result;
+    } finally {
+      release(tree);
+    }
+  }
+
+  /**
+   * Retrieves all the values in the given range of the given tree.
+   * @param fs
+   * @param file
+   * @param query_mbr the query range in the two-dimensional array positions
+   * @param output
+   * @return number of matched records
+   * @throws IOException
+   */
+  public int selectionQuery(FileSystem fs, FileStatus file, Rectangle query_mbr,
+      ResultCollector<PointValue> output) throws IOException {
+    OpenTree tree = getOpenTree(fs, file);
+    try {
+      IntArray selectedStarts = new IntArray();
+      IntArray selectedEnds = new IntArray();
+      int numOfResults = AggregateQuadTree.selectNodes(tree.stockQuadTree,
+          query_mbr, null, selectedStarts, selectedEnds);
+      if (output != null) {
+        synchronized (tree) {
+          AggregateQuadTree.collectValues(tree.in,
+              AggregateQuadTree.getValuesStartOffset(tree.cardinality),
+              tree.stockQuadTree, tree.fillValue, tree.timestamps,
+              selectedStarts, selectedEnds, output);
+        }
+      }
+      return numOfResults;
+    } finally {
+      release(tree);
+    }
+  }
+
+  /**
+   * Closes all the opened trees. Trees that are used by running queries are
+   * closed when these queries finish.
+   */
+  public void close() {
+    synchronized (openTrees) {
+      for (OpenTree tree : openTrees.values())
+        tree.retire();
+      openTrees.clear();
+      cachedBytes = 0;
+    }
+  }
+
+  /**
+   * Returns the opened tree of the given file from the pool or opens it if
+   * it is not in the pool or the file has changed since it was opened.
+   * The caller must {@link #release(OpenTree)} the returned tree when done.
+   * @param fs
+   * @param file
+   * @return
+   * @throws IOException
+   */
+  private OpenTree getOpenTree(FileSystem fs, FileStatus file) throws IOException {
+    Path path = fs.makeQualified(file.getPath());
+    OpenTree tree;
+    synchronized (openTrees) {
+      tree = openTrees.get(path);
+      if (tree != null && tree.modificationTime == file.getModificationTime()
+          && tree.length == file.getLen()) {
+        tree.numUsers++;
+        return tree;
+      }
+    }
+
+    // Open the file outside the lock to allow opening many files in parallel
+    OpenTree newTree = openTree(fs, file);
+    synchronized (openTrees) {
+      tree = openTrees.get(path);
+      if (tree != null && tree.modificationTime == newTree.modificationTime
+          && tree.length == newTree.length) {
+        // Another thread opened the same file while we were opening it
+        newTree.close();
+        tree.numUsers++;
+        return tree;
+      }
+      newTree.numUsers++;
+      OpenTree oldTree = openTrees.put(path, newTree);
+      if (oldTree != null) {
+        cachedBytes -= oldTree.getCachedBytes();
+        oldTree.retire();
+      }
+      cachedBytes += newTree.getCachedBytes();
+      Iterator<Map.Entry<Path, OpenTree>> lruTrees = openTrees.entrySet().iterator();
+      while (cachedBytes > maxCachedBytes && openTrees.size() > 1) {
+        OpenTree evicted = lruTrees.next().getValue();
+        lruTrees.remove();
+        cachedBytes -= evicted.getCachedBytes();
+        evicted.retire();
+      }
+    }
+    return newTree;
+  }
+
+  /**
+   * Ends a query on the given tree and closes the tree if it was removed
+   * from the pool while the query was running.
+   * @param tree
+   */
+  private void release(OpenTree tree) {
+    synchronized (openTrees) {
+      if (--tree.numUsers == 0 && tree.retired)
+        tree.close();
+    }
+  }
+
+  /**
+   * Opens the given tree file, parses its header, and caches the top-level
+   * nodes.
+   * @param fs
+   * @param file
+   * @return
+   * @throws IOException
+   */
+  private OpenTree openTree(FileSystem fs, FileStatus file) throws IOException {
+    OpenTree tree = new OpenTree();
+    tree.modificationTime = file.getModificationTime();
+    tree.length = file.getLen();
+    if (file.getLen() > Integer.MAX_VALUE) {
+      // Too large to fit in one buffer. Read it directly from the file system
+      tree.in = new FSDataInputStream(new RandomCompressedInputStream(fs, file.getPath()));
+    } else {
+      if (fs instanceof LocalFileSystem) {
+        RandomAccessFile raf = new RandomAccessFile(
+            ((LocalFileSystem) fs).pathToFile(file.getPath()), "r");
+        try {
+          // The mapping remains valid after the channel is closed
+          tree.data = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.getLen());
+        } finally {
+          raf.close();
+        }
+      } else {
+        byte[] bytes = new byte[(int) file.getLen()];
+        FSDataInputStream in = fs.open(file.getPath());
+        try {
+          in.readFully(0, bytes);
+        } finally {
+          in.close();
+        }
+        tree.data = ByteBuffer.wrap(bytes);
+      }
+      tree.in = new FSDataInputStream(new RandomCompressedInputStream(
+          new FSDataInputStream(new ByteBufferInputStream(tree.data)), file.getLen()));
+    }
+
+    try {
+      tree.in.seek(0);
+      tree.resolution = tree.in.readInt();
+      tree.fillValue = tree.in.readShort();
+      tree.cardinality = tree.in.readInt();
+      tree.timestamps = new long[tree.cardinality];
+      for (int i = 0; i < tree.cardinality; i++)
+        tree.timestamps[i] = tree.in.readLong();
+      tree.stockQuadTree = AggregateQuadTree.getOrCreateStockQuadTree(tree.resolution);
+
+      // Nodes are stored level by level so the top levels are a prefix of
+      // the nodes section and can be read in one sequential pass
+      int numCachedNodes = Arrays.binarySearch(tree.stockQuadTree.nodesID,
+          1 << (2 * cachedLevels));
+      if (numCachedNodes < 0)
+        numCachedNodes = -(numCachedNodes + 1);
+      tree.nodeMin = new short[numCachedNodes];
+      tree.nodeMax = new short[numCachedNodes];
+      tree.nodeSum = new long[numCachedNodes];
+      tree.nodeCount = new long[numCachedNodes];
+      tree.in.seek(AggregateQuadTree.getNodesStartOffset(tree.resolution, tree.cardinality));
+      for (int i = 0; i < numCachedNodes; i++) {
+        tree.nodeMin[i] = tree.in.readShort();
+        tree.nodeMax[i] = tree.in.readShort();
+        tree.nodeSum[i] = tree.in.readLong();
+        tree.nodeCount[i] = tree.in.readLong();
+      }
+      tree.numCachedNodes = numCachedNodes;
+    } catch (IOException e) {
+      tree.close();
+      throw e;
+    }
+    LOG.debug("Opened aggregate quad tree "+file.getPath()+" with "
+        +tree.numCachedNodes+" cached nodes");
+    return tree;
+  }
+}
@@ -52,6 +52,12 @@ public class HDFRecordReader<S extends NASAShape>
   
   /**Configuration line for the path to water mask*/
   public static final String WATER_MASK_PATH = "HDFRecordReader.WaterMaskPath";
+
+  /**
+   * Configuration line to read remote HDF files through HTTP range requests
+   * instead of copying them to a local temporary file
+   */
+  public static final String STREAM_REMOTE_FILES = "HDFRecordReader.StreamRemoteFiles";
   
   /**Information about the dataset being read*/
   private NASADataset nasaDataset;
@@ -122,13 +128,14 @@ public class HDFRecordReader<S extends NASAShape>
     }
     inFile = ((FileSplit) split).getPath();
     fs = inFile.getFileSystem(conf);
-    if (fs instanceof HTTPFileSystem) {
+    this.deleteOnEnd = false;
+    if (fs instanceof HTTPFileSystem && !conf.getBoolean(STREAM_REMOTE_FILES, true)) {
       // For performance reasons, we don't open HDF files from HTTP
       inFile = new Path(FileUtil.copyFile(conf, inFile));
       fs = FileSystem.getLocal(conf);
       this.deleteOnEnd = true;
     }
-    hdfFile = new HDFFile(fs.open(inFile));
+    hdfFile = openHDFFile(fs, inFile);
     
     // Retrieve meta data
     String archiveMetadata = (String) hdfFile.findHeaderByName("ArchiveMetadata.0").getEntryAt(0);
@@ -235,6 +242,19 @@ public class HDFRecordReader<S extends NASAShape>
     return moreRecordsInCurrentFile;
   }
   
+  /**
+   * Opens an HDF file for reading. A file on HTTP is read through range
+   * requests by {@link HTTPInputStream} so only the headers and the blocks
+   * of the datasets being parsed are fetched.
+   * @param fs the file system that contains the file
+   * @param path the path of the file
+   * @return
+   * @throws IOException
+   */
+  public static HDFFile openHDFFile(FileSystem fs, Path path) throws IOException {
+    return new HDFFile(fs.open(path));
+  }
+
   @Override
   public void close() throws IOException {
     hdfFile.close();
@@ -365,11 +385,11 @@ public class HDFRecordReader<S extends NASAShape>
         return;
       }
       Path wmFileToLoad = wmFile[0].getPath();
-      if (wmFs instanceof HTTPFileSystem) {
+      if (wmFs instanceof HTTPFileSystem && !conf.getBoolean(STREAM_REMOTE_FILES, true)) {
         wmFileToLoad = new Path(FileUtil.copyFile(conf, wmFileToLoad));
         wmFs = FileSystem.getLocal(conf);
       }
-      waterMaskFile = new HDFFile(wmFs.open(wmFileToLoad));
+      waterMaskFile = openHDFFile(wmFs, wmFileToLoad);
       DDVGroup waterMaskGroup = waterMaskFile.findGroupByName("water_mask");
       if (waterMaskGroup == null) {
         LOG.warn("Water mask dataset 'water_mask' not found in file "+wmFile[0]);
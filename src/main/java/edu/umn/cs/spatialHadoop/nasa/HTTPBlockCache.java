@@ -0,0 +1,467 @@
+/***********************************************************************
+* Copyright (c) 2015 by Regents of the University of Minnesota.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Apache License, Version 2.0 which
+* accompanies this distribution and is available at
+* http://www.opensource.org/licenses/apache2.0.php.
+*
+*************************************************************************/
+package edu.umn.cs.spatialHadoop.nasa;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IOUtils;
+
+/**
+ * A cache of fixed-size blocks of remote HTTP files which is shared by all
+ * {@link HTTPInputStream}s in the JVM. Each block is fetched with one HTTP
+ * range request. Recently used blocks are kept in memory and blocks evicted
+ * from memory are kept in a local directory up to a maximum size. Both
+ * levels evict the least recently used block first. Blocks that follow a
+ * sequential read are prefetched in the background. Files of the disk cache
+ * are deleted as soon as their blocks are evicted. All file operations run
+ * outside the lock of the cache so that a slow disk does not block readers
+ * of blocks in memory.
+ * @author Ahmed Eldawy
+ *
+ */
+public class HTTPBlockCache {
+  private static final Log LOG = LogFactory.getLog(HTTPBlockCache.class);
+
+  /**Size of each block fetched with one range request*/
+  public static final String BlockSize = "fs.http.block.size";
+  /**Maximum number of blocks to keep in memory*/
+  public static final String MemoryBlocks = "fs.http.cache.memory.blocks";
+  /**Maximum number of bytes to keep in the local disk cache*/
+  public static final String DiskSize = "fs.http.cache.disk.size";
+  /**Number of blocks to prefetch after a sequential read*/
+  public static final String PrefetchBlocks = "fs.http.prefetch.blocks";
+
+  private static final int DefaultBlockSize = 1024 * 1024;
+  private static final int DefaultMemoryBlocks = 64;
+  private static final long DefaultDiskSize = 1024L * 1024 * 1024;
+  private static final int DefaultPrefetchBlocks = 4;
+
+  /**The cache shared by all streams*/
+  private static HTTPBlockCache sharedCache;
+
+  /**Size of each block in bytes*/
+  private final int blockSize;
+  /**Maximum number of blocks in memory*/
+  private final int maxMemoryBlocks;
+  /**Maximum number of bytes on disk*/
+  private final long maxDiskBytes;
+  /**Number of blocks to prefetch after a sequential read*/
+  private final int prefetchBlocks;
+
+  /**Blocks in memory in access order*/
+  private final LinkedHashMap<String, byte[]> memoryBlocks =
+      new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+  /**Blocks on the local disk in access order*/
+  private final LinkedHashMap<String, File> diskBlocks =
+      new LinkedHashMap<String, File>(16, 0.75f, true);
+  /**
+   * Blocks evicted from memory that are being written to disk. They are
+   * still served from memory until they are on disk.
+   */
+  private final Map<String, byte[]> spillingBlocks = new HashMap<String, byte[]>();
+  /**Total size of the blocks on disk*/
+  private long diskBytes;
+  /**The directory of the disk cache. Created on first use*/
+  private File diskDir;
+
+  /**Blocks that are being fetched. Used to fetch each block only once*/
+  private final Map<String, Future<byte[]>> pendingBlocks =
+      new ConcurrentHashMap<String, Future<byte[]>>();
+  /**Fetches prefetched blocks in the background*/
+  private final ExecutorService prefetcher;
+  /**Number of range requests sent to servers*/
+  private final AtomicLong numRequests = new AtomicLong();
+
+  public HTTPBlockCache(int blockSize, int maxMemoryBlocks, long maxDiskBytes,
+      int prefetchBlocks) {
+    this.blockSize = blockSize;
+    this.maxMemoryBlocks = Math.max(1, maxMemoryBlocks);
+    this.maxDiskBytes = maxDiskBytes;
+    this.prefetchBlocks = prefetchBlocks;
+    this.prefetcher = Executors.newFixedThreadPool(Math.max(1, prefetchBlocks),
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "HTTPPrefetcher");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+  }
+
+  /**
+   * Returns the cache shared by all HTTP streams
+   * @return
+   */
+  public static synchronized HTTPBlockCache getSharedCache() {
+    if (sharedCache == null)
+      sharedCache = new HTTPBlockCache(DefaultBlockSize, DefaultMemoryBlocks,
+          DefaultDiskSize, DefaultPrefetchBlocks);
+    return sharedCache;
+  }
+
+  /**
+   * Creates the shared cache with the parameters of the given configuration.
+   * The shared cache is configured once for the lifetime of the JVM. If it is
+   * already created, by an earlier call or by {@link #getSharedCache()}, it
+   * is kept as is and a warning is logged if the given configuration asks
+   * for different parameters.
+   * @param conf
+   */
+  public static synchronized void configure(Configuration conf) {
+    int blockSize = conf.getInt(BlockSize, DefaultBlockSize);
+    int maxMemoryBlocks = conf.getInt(MemoryBlocks, DefaultMemoryBlocks);
+    long maxDiskBytes = conf.getLong(DiskSize, DefaultDiskSize);
+    int prefetchBlocks = conf.getInt(PrefetchBlocks, DefaultPrefetchBlocks);
+    if (sharedCache == null) {
+      sharedCache = new HTTPBlockCache(blockSize, maxMemoryBlocks, maxDiskBytes,
+          prefetchBlocks);
+    } else if (sharedCache.blockSize != blockSize
+        || sharedCache.maxMemoryBlocks != Math.max(1, maxMemoryBlocks)
+        || sharedCache.maxDiskBytes != maxDiskBytes
+        || sharedCache.prefetchBlocks != prefetchBlocks) {
+      LOG.warn("The shared HTTP block cache is already configured. Ignoring "
+          + "the new parameters");
+    }
+  }
+
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  /**
+   * Number of range requests this cache sent to servers
+   * @return
+   */
+  public long getNumRequests() {
+    return numRequests.get();
+  }
+
+  private static String blockKey(URL url, long block) {
+    return url.toString() + '@' + block;
+  }
+
+  /**
+   * Returns the data of the given block of a file. The last block of the
+   * file can be shorter than the block size.
+   * @param url the URL of the file
+   * @param fileLength the total length of the file
+   * @param block the index of the block
+   * @return
+   * @throws IOException
+   */
+  public byte[] getBlock(URL url, long fileLength, long block) throws IOException {
+    String key = blockKey(url, block);
+    while (true) {
+      byte[] data = getCachedBlock(key);
+      if (data != null)
+        return data;
+      FutureTask<byte[]> fetch = createFetch(url, fileLength, block, key);
+      Future<byte[]> pending = registerFetch(key, fetch);
+      if (pending == null)
+        continue; // Cached by another thread after the first lookup
+      if (pending == fetch)
+        fetch.run(); // No other thread is fetching this block
+      try {
+        return pending.get();
+      } catch (InterruptedException e) {
+        throw new IOException("Interrupted while fetching " + url, e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException)
+          throw (IOException) e.getCause();
+        throw new IOException("Error fetching " + url, e.getCause());
+      }
+    }
+  }
+
+  /**
+   * Fetches the blocks that follow the given block in the background if they
+   * are not cached
+   * @param url
+   * @param fileLength
+   * @param block
+   */
+  public void prefetch(URL url, long fileLength, long block) {
+    for (long b = block + 1; b <= block + prefetchBlocks && b * blockSize < fileLength; b++) {
+      String key = blockKey(url, b);
+      FutureTask<byte[]> fetch = createFetch(url, fileLength, b, key);
+      if (registerFetch(key, fetch) == fetch)
+        prefetcher.execute(fetch);
+    }
+  }
+
+  /**
+   * Registers a fetch of a block unless the block is cached or is being
+   * fetched. A fetch adds its block to the cache before it is unregistered so
+   * a block that is neither cached nor registered needs to be fetched.
+   * @param key
+   * @param fetch
+   * @return the given fetch if it is registered, the fetch of another thread,
+   * or null if the block is cached
+   */
+  private synchronized Future<byte[]> registerFetch(String key, FutureTask<byte[]> fetch) {
+    if (memoryBlocks.containsKey(key) || spillingBlocks.containsKey(key)
+        || diskBlocks.containsKey(key))
+      return null;
+    Future<byte[]> pending = pendingBlocks.get(key);
+    if (pending != null)
+      return pending;
+    pendingBlocks.put(key, fetch);
+    return fetch;
+  }
+
+  /**
+   * Creates a task that fetches a block and adds it to the cache
+   */
+  private FutureTask<byte[]> createFetch(final URL url, final long fileLength,
+      final long block, final String key) {
+    return new FutureTask<byte[]>(new Callable<byte[]>() {
+      @Override
+      public byte[] call() throws Exception {
+        try {
+          byte[] data = fetchBlock(url, fileLength, block);
+          putBlock(key, data);
+          return data;
+        } finally {
+          pendingBlocks.remove(key);
+        }
+      }
+    });
+  }
+
+  /**
+   * Returns a block from memory or from disk or null if it is not cached
+   * @param key
+   * @return
+   * @throws IOException
+   */
+  private byte[] getCachedBlock(String key) throws IOException {
+    File file;
+    synchronized (this) {
+      byte[] data = memoryBlocks.get(key);
+      if (data == null)
+        data = spillingBlocks.get(key);
+      if (data != null)
+        return data;
+      file = diskBlocks.get(key);
+    }
+    if (file == null)
+      return null;
+    FileInputStream in;
+    try {
+      in = new FileInputStream(file);
+    } catch (FileNotFoundException e) {
+      // Evicted by another thread
+      return null;
+    }
+    byte[] data;
+    try {
+      // The open file stays readable even if it is evicted while reading it
+      data = new byte[(int) in.getChannel().size()];
+      IOUtils.readFully(in, data, 0, data.length);
+    } finally {
+      in.close();
+    }
+    putBlock(key, data);
+    return data;
+  }
+
+  /**
+   * Adds a block to memory and moves the least recently used blocks to disk
+   * if memory is full
+   * @param key
+   * @param data
+   * @throws IOException
+   */
+  private void putBlock(String key, byte[] data) throws IOException {
+    List<File> filesToDelete = new ArrayList<File>();
+    Map<String, byte[]> blocksToSpill = new LinkedHashMap<String, byte[]>();
+    synchronized (this) {
+      memoryBlocks.put(key, data);
+      File oldFile = diskBlocks.remove(key);
+      if (oldFile != null) {
+        diskBytes -= oldFile.length();
+        filesToDelete.add(oldFile);
+      }
+      Iterator<Map.Entry<String, byte[]>> iter = memoryBlocks.entrySet().iterator();
+      while (memoryBlocks.size() > maxMemoryBlocks) {
+        Map.Entry<String, byte[]> eldest = iter.next();
+        iter.remove();
+        if (maxDiskBytes >= eldest.getValue().length
+            && !spillingBlocks.containsKey(eldest.getKey())) {
+          spillingBlocks.put(eldest.getKey(), eldest.getValue());
+          blocksToSpill.put(eldest.getKey(), eldest.getValue());
+        }
+      }
+    }
+    deleteFiles(filesToDelete);
+    for (Map.Entry<String, byte[]> block : blocksToSpill.entrySet())
+      spillToDisk(block.getKey(), block.getValue());
+  }
+
+  /**
+   * Writes a block evicted from memory to the disk cache and evicts the least
+   * recently used blocks from disk to keep it below the maximum size. The
+   * block stays in {@link #spillingBlocks} until it is in the disk cache.
+   */
+  private void spillToDisk(String key, byte[] data) throws IOException {
+    File file = null;
+    try {
+      file = File.createTempFile("block", ".dat", getDiskDir());
+      OutputStream out = new FileOutputStream(file);
+      try {
+        out.write(data);
+      } finally {
+        out.close();
+      }
+    } catch (IOException e) {
+      if (file != null)
+        file.delete();
+      synchronized (this) {
+        spillingBlocks.remove(key);
+      }
+      throw e;
+    }
+    List<File> filesToDelete = new ArrayList<File>();
+    synchronized (this) {
+      if (spillingBlocks.remove(key) == null || memoryBlocks.containsKey(key)
+          || diskBlocks.containsKey(key)) {
+        // The cache was cleared or the block was cached again while writing it
+        filesToDelete.add(file);
+      } else {
+        diskBlocks.put(key, file);
+        diskBytes += data.length;
+        Iterator<Map.Entry<String, File>> iter = diskBlocks.entrySet().iterator();
+        while (diskBytes > maxDiskBytes) {
+          File eldest = iter.next().getValue();
+          iter.remove();
+          diskBytes -= eldest.length();
+          filesToDelete.add(eldest);
+        }
+      }
+    }
+    deleteFiles(filesToDelete);
+  }
+
+  /**
+   * Returns the directory of the disk cache and creates it on first use
+   * @return
+   * @throws IOException
+   */
+  private synchronized File getDiskDir() throws IOException {
+    if (diskDir == null) {
+      diskDir = File.createTempFile("http-blocks", "");
+      diskDir.delete();
+      diskDir.mkdirs();
+      // Block files are deleted explicitly which leaves the directory empty
+      diskDir.deleteOnExit();
+    }
+    return diskDir;
+  }
+
+  /**
+   * Deletes files of evicted blocks
+   * @param files
+   */
+  private static void deleteFiles(List<File> files) {
+    for (File file : files) {
+      if (!file.delete() && file.exists())
+        LOG.warn("Could not delete cached block '" + file + "'");
+    }
+  }
+
+  /**
+   * Removes all cached blocks from memory and deletes the files of the disk
+   * cache. Blocks that are being written to disk are deleted once written.
+   */
+  public void clear() {
+    List<File> filesToDelete;
+    synchronized (this) {
+      memoryBlocks.clear();
+      spillingBlocks.clear();
+      filesToDelete = new ArrayList<File>(diskBlocks.values());
+      diskBlocks.clear();
+      diskBytes = 0;
+    }
+    deleteFiles(filesToDelete);
+  }
+
+  /**
+   * Fetches one block of a file with an HTTP range request
+   * @param url
+   * @param fileLength
+   * @param block
+   * @return
+   * @throws IOException
+   */
+  private byte[] fetchBlock(URL url, long fileLength, long block) throws IOException {
+    long start = block * blockSize;
+    int length = (int) Math.min(blockSize, fileLength - start);
+    byte[] data = new byte[length];
+    int retries = Math.max(1, HTTPFileSystem.retries);
+    while (true) {
+      HttpURLConnection conn = null;
+      try {
+        conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestProperty("Range",
+            String.format("bytes=%d-%d", start, start + length - 1));
+        numRequests.incrementAndGet();
+        InputStream in = conn.getInputStream();
+        try {
+          if (conn.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+            // The server does not support ranges and sent the whole file
+            IOUtils.skipFully(in, start);
+          }
+          IOUtils.readFully(in, data, 0, length);
+        } finally {
+          in.close();
+        }
+        // Keep the connection alive to be reused by the next request
+        return data;
+      } catch (IOException e) {
+        if (conn != null)
+          conn.disconnect();
+        if (--retries <= 0)
+          throw e;
+        LOG.info("Error accessing file '"+url+"'. Trials left: "+retries);
+        try {
+          Thread.sleep(1000);
+        } catch (InterruptedException e1) {
+          throw new IOException("Interrupted while fetching " + url, e1);
+        }
+      }
+    }
+  }
+}
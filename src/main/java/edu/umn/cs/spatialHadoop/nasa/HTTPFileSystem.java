@@ -95,6 +95,7 @@ public class HTTPFileSystem extends FileSystem {
     setConf(conf);
     this.uri = uri;
     retries = conf.getInt(HTTP_RETRIES, 3);
+    HTTPBlockCache.configure(conf);
   }
   
   @Override
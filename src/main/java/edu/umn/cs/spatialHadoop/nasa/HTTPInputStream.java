@@ -1,18 +1,18 @@
 /***********************************************************************
 * Copyright (c) 2015 by Regents of the University of Minnesota.
 * All rights reserved. This program and the accompanying materials
-* are made available under the terms of the Apache License, Version 2.0 which 
+* are made available under the terms of the Apache License, Version 2.0 which
 * accompanies this distribution and is available at
 * http://www.opensource.org/licenses/apache2.0.php.
 *
 *************************************************************************/
 package edu.umn.cs.spatialHadoop.nasa;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.net.URLConnection;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -21,193 +21,163 @@ import org.apache.hadoop.fs.PositionedReadable;
 import org.apache.hadoop.fs.Seekable;
 
 /**
- * A wrapper around a stream obtained from {@link URL#openStream()} that
- * makes it {@link Seekable} and {@link PositionedReadable} to be used
- * with {@link FSDataInputStream}, hence {@link HTTPFileSystem}.
- * 
- * All methods are delegated to the underlying (wrapped) input stream.
- * Non-supported methods raise an exception if called.
- * 
- * 
+ * A {@link Seekable} and {@link PositionedReadable} stream over a remote
+ * HTTP file to be used with {@link FSDataInputStream}, hence
+ * {@link HTTPFileSystem}.
+ *
+ * The file is read in fixed-size blocks through HTTP range requests and the
+ * blocks are kept in an {@link HTTPBlockCache} shared by all streams. Seeks
+ * and positioned reads only change which block is read and never reopen a
+ * connection. Reading a block right after the one before it prefetches the
+ * next blocks in the background.
+ *
  * @author Ahmed Eldawy
  *
  */
 public class HTTPInputStream extends InputStream implements Seekable, PositionedReadable {
   public static final Log LOG = LogFactory.getLog(HTTPInputStream.class);
-  
-  /**The underlying stream obtained from {@link URL#openStream()}*/
-  private InputStream in;
-  
+
   /**Cached value of content length.*/
   private long length;
-  
+
   /**Current position in the file*/
   private long pos;
 
-  /**The underlying URL. Used to reposition the stream on seeks*/
+  /**The underlying URL*/
   private URL url;
 
-  /**The underlying connection*/
-  private HttpURLConnection conn;
-  
+  /**The cache that fetches and stores the blocks of the file*/
+  private HTTPBlockCache cache;
+
+  /**The block that contains the last byte read or null if none is read*/
+  private byte[] currentBlock;
+
+  /**Index of the current block in the file*/
+  private long currentBlockIndex;
+
   public HTTPInputStream(URL url) {
+    this(url, HTTPBlockCache.getSharedCache());
+  }
+
+  public HTTPInputStream(URL url, HTTPBlockCache cache) {
     this.url = url;
+    this.cache = cache;
     this.pos = 0;
     this.length = -1; // Initially invalidate content length.
+    this.currentBlockIndex = -1;
   }
 
   /**
-   * Lazily opens a stream to the file if needed
-   * @throws IOException 
+   * Makes sure that the current block contains the current position. Moving
+   * to the block that follows the current one prefetches the next blocks.
+   * @throws IOException
    */
-  private void lazyConnect() throws IOException {
-    if (in == null) {
-      if (conn == null) {
-        int retries = Math.max(1, HTTPFileSystem.retries);
-        while (conn == null && retries-- > 0) {
-          try {
-            conn = (HttpURLConnection) url.openConnection();
-          } catch (java.net.SocketException e) {
-            if (retries == 0)
-              throw e;
-            LOG.info("Error accessing file '"+url+"'. Trials left: "+retries);
-          } catch (java.net.UnknownHostException e) {
-            if (retries == 0)
-              throw e;
-            LOG.info("Error accessing file '"+url+"'. Trials left: "+retries);
-          }
-        }
-      }
-      
-      if (pos != 0) {
-        // Need to reposition the stream at the middle
-        long fileLength = getContentLength();
-        conn.setRequestProperty("Range", String.format("bytes %d-%d/%d", pos, fileLength, fileLength));
-      }
-      int retries = Math.max(1, HTTPFileSystem.retries);
-      while (in == null && retries-- > 0) {
-        try {
-          this.in = conn.getInputStream();
-        } catch (java.net.SocketException e) {
-          if (retries == 0)
-            throw e;
-          LOG.info("Error accessing file '"+url+"'. Trials left: "+retries);
-          try {
-            Thread.sleep(1000);
-          } catch (InterruptedException e1) {
-            e1.printStackTrace();
-          }
-        } catch (java.net.UnknownHostException e) {
-          if (retries == 0)
-            throw e;
-          LOG.info("Error accessing file '"+url+"'. Trials left: "+retries);
-          try {
-            Thread.sleep(1000);
-          } catch (InterruptedException e1) {
-            e1.printStackTrace();
-          }
-        }
-      }
-      if (in == null)
-        throw new IOException("Could not open an HTTP connection");
+  private void loadCurrentBlock() throws IOException {
+    long block = pos / cache.getBlockSize();
+    if (block != currentBlockIndex || currentBlock == null) {
+      boolean sequential = block == currentBlockIndex + 1;
+      currentBlock = cache.getBlock(url, getContentLength(), block);
+      currentBlockIndex = block;
+      if (sequential)
+        cache.prefetch(url, getContentLength(), block);
     }
   }
 
   public int read() throws IOException {
-    lazyConnect();
-    int value = in.read();
+    if (pos >= getContentLength())
+      return -1;
+    loadCurrentBlock();
+    int value = currentBlock[(int) (pos - currentBlockIndex * cache.getBlockSize())] & 0xff;
     pos++;
     return value;
   }
 
-  public int read(byte[] b) throws IOException {
-    lazyConnect();
-    int diff = in.read(b);
-    pos += diff;
-    return diff;
-  }
-
   public int read(byte[] b, int off, int len) throws IOException {
-    int retries = HTTPFileSystem.retries;
-    int diff;
-    do {
-      lazyConnect();
-      diff = in.read(b, off, len);
-      pos += diff;
-    } while (retries-- > 0 && diff < 0 && pos < getContentLength());
-    return diff;
+    if (len == 0)
+      return 0;
+    if (pos >= getContentLength())
+      return -1;
+    int totalRead = 0;
+    while (totalRead < len && pos < getContentLength()) {
+      loadCurrentBlock();
+      int offsetInBlock = (int) (pos - currentBlockIndex * cache.getBlockSize());
+      int bytesToCopy = Math.min(len - totalRead, currentBlock.length - offsetInBlock);
+      System.arraycopy(currentBlock, offsetInBlock, b, off + totalRead, bytesToCopy);
+      totalRead += bytesToCopy;
+      pos += bytesToCopy;
+    }
+    return totalRead;
   }
 
   public long skip(long n) throws IOException {
-    long skipped = in.skip(n);
-    pos += skipped;
+    if (n <= 0)
+      return 0;
+    long newPos = Math.min(pos + n, getContentLength());
+    long skipped = newPos - pos;
+    pos = newPos;
     return skipped;
   }
 
   public String toString() {
-    return in.toString();
+    return url.toString();
   }
 
   public int available() throws IOException {
-    return in.available();
+    if (currentBlock == null || pos / cache.getBlockSize() != currentBlockIndex)
+      return 0;
+    return currentBlock.length - (int) (pos - currentBlockIndex * cache.getBlockSize());
   }
 
   public void close() throws IOException {
-    if (in != null)
-      in.close();
-    if (conn != null)
-      conn.disconnect();
-  }
-
-  public void mark(int readlimit) {
-    in.mark(readlimit);
-  }
-
-  public void reset() throws IOException {
-    in.reset();
-  }
-
-  public boolean markSupported() {
-    return in.markSupported();
+    // Cached blocks stay in the shared cache for other streams
+    currentBlock = null;
   }
 
   @Override
   public int read(long position, byte[] buffer, int offset, int length)
       throws IOException {
-    seek(position);
-    return read(buffer, offset, length);
+    // Reads directly from the cache without changing the state of this
+    // stream so that it can be called from multiple threads
+    long fileLength = getContentLength();
+    if (position >= fileLength)
+      return -1;
+    int blockSize = cache.getBlockSize();
+    int totalRead = 0;
+    while (totalRead < length && position < fileLength) {
+      long block = position / blockSize;
+      byte[] data = cache.getBlock(url, fileLength, block);
+      int offsetInBlock = (int) (position - block * blockSize);
+      int bytesToCopy = Math.min(length - totalRead, data.length - offsetInBlock);
+      System.arraycopy(data, offsetInBlock, buffer, offset + totalRead, bytesToCopy);
+      totalRead += bytesToCopy;
+      position += bytesToCopy;
+    }
+    return totalRead;
   }
 
   @Override
   public void readFully(long position, byte[] buffer, int offset, int length)
       throws IOException {
-    seek(position);
-    read(buffer, offset, length);
+    int bytesRead = read(position, buffer, offset, length);
+    if (bytesRead < length)
+      throw new EOFException("Reached end of file '"+url+"' at position "
+          + (position + Math.max(bytesRead, 0)));
   }
 
   @Override
   public void readFully(long position, byte[] buffer) throws IOException {
-    seek(position);
-    read(buffer);
+    readFully(position, buffer, 0, buffer.length);
   }
 
   @Override
   public void seek(long newPos) throws IOException {
-    if (newPos < pos || in == null) {
-      // Reposition the stream and invalidate the underlying stream
-      pos = newPos;
-      if (this.in != null) {
-        this.in.close();
-      }
-      this.in = null;
-      if (this.conn != null) {
-        this.conn.disconnect();
-      }
-      this.conn = null;
-    } else {
-      // Skip the difference and the #skip function will increment 'pos'
-      skip(newPos - pos);
-    }
+    if (newPos < 0)
+      throw new IOException("Cannot seek to a negative position "+newPos);
+    if (newPos > getContentLength())
+      throw new EOFException("Cannot seek to "+newPos+" after the end of file '"
+          +url+"' of length "+getContentLength());
+    // The current block is replaced on the next read if needed
+    pos = newPos;
   }
 
   @Override
@@ -221,26 +191,37 @@ public class HTTPInputStream extends InputStream implements Seekable, Positioned
     // If we have mirrors, we can do a connection to a new mirror here
     return false;
   }
-  
+
+  /**
+   * Retrieves the length of the file with an HTTP HEAD request
+   * @return
+   * @throws IOException
+   */
   private long getContentLength() throws IOException {
     if (length < 0) {
       int retries = Math.max(1, HTTPFileSystem.retries);
-      HttpURLConnection localConn = null;
-      while (localConn == null && retries-- > 0) {
+      while (length < 0) {
+        HttpURLConnection localConn = null;
         try {
           localConn = (HttpURLConnection) url.openConnection();
+          localConn.setRequestMethod("HEAD");
+          String contentLength = localConn.getHeaderField("Content-Length");
+          if (contentLength == null)
+            throw new IOException("Cannot retrieve the length of '"+url+"'");
+          length = Long.parseLong(contentLength);
         } catch (java.net.SocketException e) {
-          if (retries == 0)
+          if (--retries <= 0)
             throw e;
           LOG.info("Error accessing file '"+url+"'. Trials left: "+retries);
         } catch (java.net.UnknownHostException e) {
-          if (retries == 0)
+          if (--retries <= 0)
             throw e;
           LOG.info("Error accessing file '"+url+"'. Trials left: "+retries);
+        } finally {
+          if (localConn != null)
+            localConn.disconnect();
         }
       }
-      length = localConn.getContentLength();
-      localConn.disconnect();
     }
     return length;
   }
@@ -19,6 +19,7 @@ import org.apache.hadoop.io.Text;
 
 import edu.umn.cs.spatialHadoop.core.Point;
 import edu.umn.cs.spatialHadoop.core.Rectangle;
+import edu.umn.cs.spatialHadoop.io.TextCursor;
 import edu.umn.cs.spatialHadoop.io.TextSerializerHelper;
 
 public class NASAPoint extends Point implements NASAShape {
@@ -75,10 +76,11 @@ public class NASAPoint extends Point implements NASAShape {
   @Override
   public void fromText(Text text) {
     super.fromText(text);
-    byte[] bytes = text.getBytes();
-    text.set(bytes, 1, text.getLength() - 1);
-    value = TextSerializerHelper.consumeInt(text, ',');
-    timestamp = TextSerializerHelper.consumeLong(text, '\0');
+    TextCursor cursor = new TextCursor(text);
+    cursor.skip(1); // Skip comma
+    value = cursor.nextInt(',');
+    timestamp = cursor.nextLong('\0');
+    cursor.commit();
   }
   
   @Override
@@ -17,6 +17,7 @@ import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
@@ -28,8 +29,6 @@ import edu.umn.cs.spatialHadoop.core.Point;
 import edu.umn.cs.spatialHadoop.core.Rectangle;
 import edu.umn.cs.spatialHadoop.core.ResultCollector;
 import edu.umn.cs.spatialHadoop.nasa.AggregateQuadTree.Node;
-import edu.umn.cs.spatialHadoop.temporal.TemporalIndex;
-import edu.umn.cs.spatialHadoop.temporal.TemporalIndex.TemporalPartition;
 import edu.umn.cs.spatialHadoop.util.Parallel;
 import edu.umn.cs.spatialHadoop.util.Parallel.RunnableRange;
 
@@ -49,6 +48,21 @@ public class SpatioAggregateQueries {
   /**Keeps track of number of temporal partitions matched by last query as stats*/
   public static int numOfTemporalPartitionsInLastQuery; 
 
+  /**A reader shared by all queries to reuse the opened trees across queries*/
+  private static AggregateQuadTreeReader treeReader;
+
+  /**
+   * Returns the reader that is shared by all queries in this process and
+   * creates it on the first call.
+   * @param conf
+   * @return
+   */
+  static synchronized AggregateQuadTreeReader getTreeReader(Configuration conf) {
+    if (treeReader == null)
+      treeReader = new AggregateQuadTreeReader(conf);
+    return treeReader;
+  }
+
 
   /**
    * Performs a spatio-temporal aggregate query on an indexed directory
@@ -100,13 +114,13 @@ public class SpatioAggregateQueries {
       }
     };
 
-    final Vector<Path> allMatchingFiles = new Vector<Path>();
+    final Vector<FileStatus> allMatchingFiles = new Vector<FileStatus>();
     
     for (Path matchingPartition : matchingPartitions) {
       // Select all matching files
       FileStatus[] matchingFiles = fs.listStatus(matchingPartition, rangeFilter);
       for (FileStatus matchingFile : matchingFiles) {
-        allMatchingFiles.add(matchingFile.getPath());
+        allMatchingFiles.add(matchingFile);
       }
     }
 
@@ -114,7 +128,8 @@ public class SpatioAggregateQueries {
     if (allMatchingFiles.isEmpty())
       return null;
     
-    final int resolution = AggregateQuadTree.getResolution(fs, allMatchingFiles.get(0));
+    final AggregateQuadTreeReader reader = getTreeReader(params);
+    final int resolution = reader.getResolution(fs, allMatchingFiles.get(0));
     
     // 3- Query all matching files in parallel
     List<Node> threadsResults = Parallel.forEach(allMatchingFiles.size(), new RunnableRange<AggregateQuadTree.Node>() {
@@ -122,9 +137,9 @@ public class SpatioAggregateQueries {
       public Node run(int i1, int i2) {
         Node threadResult = new AggregateQuadTree.Node();
         for (int i_file = i1; i_file < i2; i_file++) {
-          Path matchingFile = allMatchingFiles.get(i_file);
+          FileStatus matchingFile = allMatchingFiles.get(i_file);
           try {
-            Matcher matcher = MODISTileID.matcher(matchingFile.getName());
+            Matcher matcher = MODISTileID.matcher(matchingFile.getPath().getName());
             matcher.matches(); // It has to match
             int h = Integer.parseInt(matcher.group(1));
             int v = Integer.parseInt(matcher.group(2));
@@ -134,11 +149,11 @@ public class SpatioAggregateQueries {
             int y1 = (int) (Math.max(translated.y1, 0) * resolution);
             int x2 = (int) (Math.min(translated.x2, 1.0) * resolution);
             int y2 = (int) (Math.min(translated.y2, 1.0) * resolution);
-            AggregateQuadTree.Node fileResult = AggregateQuadTree.aggregateQuery(fs, matchingFile,
+            AggregateQuadTree.Node fileResult = reader.aggregateQuery(fs, matchingFile,
                 new java.awt.Rectangle(x1, y1, (x2 - x1), (y2 - y1)));
             threadResult.accumulate(fileResult);
           } catch (Exception e) {
-            throw new RuntimeException("Error reading file "+matchingFile, e);
+            throw new RuntimeException("Error reading file "+matchingFile.getPath(), e);
           }
         }
         return threadResult;
@@ -186,18 +201,19 @@ public class SpatioAggregateQueries {
       }
     };
   
-    final Vector<Path> allMatchingFiles = new Vector<Path>();
+    final Vector<FileStatus> allMatchingFiles = new Vector<FileStatus>();
     
     for (Path matchingPartition : matchingPartitions) {
       // Select all matching files
       FileStatus[] matchingFiles = fs.listStatus(matchingPartition, rangeFilter);
       for (FileStatus matchingFile : matchingFiles) {
-        allMatchingFiles.add(matchingFile.getPath());
+        allMatchingFiles.add(matchingFile);
       }
     }
     
     // All matching files are supposed to have the same resolution
-    final int resolution = AggregateQuadTree.getResolution(fs, allMatchingFiles.get(0));
+    final AggregateQuadTreeReader reader = getTreeReader(params);
+    final int resolution = reader.getResolution(fs, allMatchingFiles.get(0));
     
     final java.awt.Point queryInMatchingTile = new java.awt.Point();
     queryInMatchingTile.x = (int) Math.floor((queryPoint.x - h) * resolution);
@@ -222,10 +238,10 @@ public class SpatioAggregateQueries {
         long numOfResults = 0;
         for (int i_file = i1; i_file < i2; i_file++) {
           try {
-            Path matchingFile = allMatchingFiles.get(i_file);
+            FileStatus matchingFile = allMatchingFiles.get(i_file);
                 java.awt.Rectangle query = new java.awt.Rectangle(
                     queryInMatchingTile.x, queryInMatchingTile.y, 1, 1);
-            AggregateQuadTree.selectionQuery(fs, matchingFile, query, internalOutput);
+            reader.selectionQuery(fs, matchingFile, query, internalOutput);
           } catch (IOException e) {
             e.printStackTrace();
           }
@@ -241,7 +257,10 @@ public class SpatioAggregateQueries {
   }
 
   /**
-   * Return all matching partitions according to a time range
+   * Return all matching partitions according to a time range. The range is
+   * covered with the fewest partitions from the yearly, monthly, and daily
+   * levels using {@link TemporalRollupPlanner}. Missing rollups that would
+   * make the same query cheaper are built in the background.
    * @param inFile 
    * @param params
    * @return
@@ -250,59 +269,18 @@ public class SpatioAggregateQueries {
    */
   private static Vector<Path> selectTemporalPartitions(Path inFile,
       OperationsParams params) throws ParseException, IOException {
-    // 1- Run a temporal filter step to find all matching temporal partitions
-    Vector<Path> matchingPartitions = new Vector<Path>();
-    // List of time ranges to check. Initially it contains one range as
-    // specified by the user. Eventually, it can be split into at most two
-    // partitions if partially matched by a partition.
-    Vector<TimeRange> temporalRanges = new Vector<TimeRange>();
-    System.out.println(new TimeRange(params.get("time")));
-    temporalRanges.add(new TimeRange(params.get("time")));
-    Path[] temporalIndexes = new Path[] {
-      new Path(inFile, "yearly"),
-      new Path(inFile, "monthly"),
-      new Path(inFile, "daily")
-    };
-    int index = 0;
+    TimeRange range = new TimeRange(params.get("time"));
     final FileSystem fs = inFile.getFileSystem(params);
-    while (index < temporalIndexes.length && !temporalRanges.isEmpty()) {
-      Path indexDir = temporalIndexes[index];
-      LOG.info("Checking index dir "+indexDir);
-      TemporalIndex temporalIndex = new TemporalIndex(fs, indexDir);
-      for (int iRange = 0; iRange < temporalRanges.size(); iRange++) {
-        TimeRange range = temporalRanges.get(iRange);
-        TemporalPartition[] matches = temporalIndex.selectContained(range.start, range.end);
-        if (matches != null) {
-          LOG.info("Matched "+matches.length+" partitions in "+indexDir);
-          for (TemporalPartition match : matches) {
-            matchingPartitions.add(new Path(indexDir, match.dirName));
-          }
-          // Update range to remove matching part
-          TemporalPartition firstMatch = matches[0];
-          TemporalPartition lastMatch = matches[matches.length - 1];
-          if (range.start < firstMatch.start && range.end > lastMatch.end) {
-            // Need to split the range into two
-            temporalRanges.setElementAt(
-                new TimeRange(range.start, firstMatch.start), iRange);
-            temporalRanges.insertElementAt(
-                new TimeRange(lastMatch.end, range.end), iRange);
-          } else if (range.start < firstMatch.start) {
-            // Update range in-place
-            range.end = firstMatch.start;
-          } else if (range.end > lastMatch.end) {
-            // Update range in-place
-            range.start = lastMatch.end;
-          } else {
-            // Current range was completely covered. Remove it
-            temporalRanges.remove(iRange);
-          }
-        }
-      }
-      index++;
-    }
+    TemporalRollupPlanner.Plan plan =
+        new TemporalRollupPlanner(fs, inFile).plan(range.start, range.end);
+    LOG.info("Time range "+range+" is covered by "+plan.partitions.size()
+        +" partitions");
+    if (!plan.missingRollups.isEmpty()
+        && params.getBoolean(TemporalRollupPlanner.BuildMissingRollups, true))
+      TemporalRollupPlanner.buildInBackground(fs, plan.missingRollups, params);
     
-    numOfTemporalPartitionsInLastQuery = matchingPartitions.size();
-    return matchingPartitions;
+    numOfTemporalPartitionsInLastQuery = plan.partitions.size();
+    return plan.partitions;
   }
 
   /**
@@ -0,0 +1,265 @@
+/***********************************************************************
+* Copyright (c) 2015 by Regents of the University of Minnesota.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Apache License, Version 2.0 which
+* accompanies this distribution and is available at
+* http://www.opensource.org/licenses/apache2.0.php.
+*
+*************************************************************************/
+package edu.umn.cs.spatialHadoop.nasa;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import edu.umn.cs.spatialHadoop.OperationsParams;
+import edu.umn.cs.spatialHadoop.temporal.TemporalIndex;
+import edu.umn.cs.spatialHadoop.temporal.TemporalIndex.TemporalPartition;
+
+/**
+ * Plans a spatio-temporal aggregate query over the yearly, monthly, and daily
+ * levels of an index directory as built by
+ * {@link AggregateQuadTree#directoryIndexer(OperationsParams)}. The query
+ * interval is covered with the fewest partitions by taking whole years first,
+ * then whole months, then the remaining days. Periods that have no partition
+ * at any level are skipped.
+ *
+ * While planning, the planner also finds the rollups that are missing, i.e.,
+ * a year or a month that is fully covered by finer partitions but has no
+ * partition of its own. These rollups can be built in the background so that
+ * later queries over the same period touch fewer trees.
+ * @author Ahmed Eldawy
+ *
+ */
+public class TemporalRollupPlanner {
+  private static final Log LOG = LogFactory.getLog(TemporalRollupPlanner.class);
+
+  /**Whether to build missing rollups in the background after planning a query*/
+  public static final String BuildMissingRollups = "TemporalRollupPlanner.BuildMissingRollups";
+
+  /**Names of the levels in the index directory from the coarsest to the finest*/
+  static final String[] LevelNames = {"yearly", "monthly", "daily"};
+
+  /**The calendar field of the unit of each level*/
+  private static final int[] LevelUnits = {Calendar.YEAR, Calendar.MONTH, Calendar.DAY_OF_MONTH};
+
+  /**The format of the directory names at each level*/
+  private static final String[] LevelFormats = {"yyyy", "yyyy.MM", "yyyy.MM.dd"};
+
+  /**
+   * A rollup that merges a set of partitions into one coarser partition
+   */
+  public static class Rollup {
+    /**The directory of the rollup to create*/
+    public Path dir;
+    /**The directories of the partitions to merge sorted by time*/
+    public Path[] sources;
+
+    @Override
+    public String toString() {
+      return dir + " from " + sources.length + " partitions";
+    }
+  }
+
+  /**
+   * The plan of a query
+   */
+  public static class Plan {
+    /**Directories of the selected partitions sorted by time*/
+    public Vector<Path> partitions = new Vector<Path>();
+    /**Rollups that can replace some of the selected partitions*/
+    public Vector<Rollup> missingRollups = new Vector<Rollup>();
+  }
+
+  /**The directory that contains all levels*/
+  private final Path indexDir;
+
+  /**The temporal index of each level or null if the level does not exist*/
+  private final TemporalIndex[] levels = new TemporalIndex[LevelNames.length];
+
+  /**The single thread that builds missing rollups*/
+  private static ExecutorService rollupBuilder;
+
+  /**Directories of the rollups that are waiting to be built or being built*/
+  private static final Set<Path> pendingRollups =
+      Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+
+  public TemporalRollupPlanner(FileSystem fs, Path indexDir) throws IOException, ParseException {
+    this.indexDir = indexDir;
+    for (int level = 0; level < LevelNames.length; level++) {
+      Path levelDir = new Path(indexDir, LevelNames[level]);
+      if (fs.exists(levelDir))
+        levels[level] = new TemporalIndex(fs, levelDir);
+    }
+  }
+
+  /**
+   * Covers the given time interval with the fewest partitions.
+   * @param start the start time of the interval (inclusive)
+   * @param end the end time of the interval (exclusive)
+   * @return
+   */
+  public Plan plan(long start, long end) {
+    Plan plan = new Plan();
+    Vector<TemporalPartition> selected = new Vector<TemporalPartition>();
+    Vector<Integer> selectedLevels = new Vector<Integer>();
+    long t = start;
+    while (t < end) {
+      // Take the coarsest partition that starts at t and ends in the interval
+      TemporalPartition match = null;
+      for (int level = 0; level < levels.length && match == null; level++) {
+        if (levels[level] == null)
+          continue;
+        TemporalPartition p = levels[level].selectStartingAt(t);
+        if (p != null && p.end <= end) {
+          match = p;
+          selected.add(p);
+          selectedLevels.add(level);
+          plan.partitions.add(new Path(new Path(indexDir, LevelNames[level]), p.dirName));
+        }
+      }
+      if (match != null) {
+        t = match.end;
+      } else {
+        // No data at t in any level. Skip to the next partition in any level
+        long next = Long.MAX_VALUE;
+        for (TemporalIndex level : levels) {
+          if (level != null)
+            next = Math.min(next, level.nextStart(t));
+        }
+        t = next;
+      }
+    }
+
+    // Find the years and months that are fully covered by finer partitions
+    Calendar calendar = Calendar.getInstance();
+    for (int level = 0; level < LevelNames.length - 1; level++) {
+      SimpleDateFormat format = new SimpleDateFormat(LevelFormats[level]);
+      int i1 = 0;
+      while (i1 < selected.size()) {
+        if (selectedLevels.get(i1) <= level) {
+          i1++;
+          continue;
+        }
+        long unitStart = truncate(calendar, selected.get(i1).start, level);
+        calendar.setTimeInMillis(unitStart);
+        calendar.add(LevelUnits[level], 1);
+        long unitEnd = calendar.getTimeInMillis();
+        // Scan the consecutive finer partitions in the same unit
+        int i2 = i1 + 1;
+        while (i2 < selected.size() && selectedLevels.get(i2) > level
+            && selected.get(i2).start == selected.get(i2 - 1).end
+            && selected.get(i2).end <= unitEnd)
+          i2++;
+        if (selected.get(i1).start == unitStart
+            && selected.get(i2 - 1).end == unitEnd) {
+          Rollup rollup = new Rollup();
+          rollup.dir = new Path(new Path(indexDir, LevelNames[level]),
+              format.format(unitStart));
+          rollup.sources = plan.partitions.subList(i1, i2).toArray(new Path[i2 - i1]);
+          plan.missingRollups.add(rollup);
+        }
+        i1 = i2;
+      }
+    }
+    return plan;
+  }
+
+  /**
+   * Returns the start of the unit of the given level that contains the given time
+   */
+  private static long truncate(Calendar calendar, long time, int level) {
+    calendar.setTimeInMillis(time);
+    calendar.set(Calendar.HOUR_OF_DAY, 0);
+    calendar.set(Calendar.MINUTE, 0);
+    calendar.set(Calendar.SECOND, 0);
+    calendar.set(Calendar.MILLISECOND, 0);
+    if (LevelUnits[level] == Calendar.YEAR || LevelUnits[level] == Calendar.MONTH)
+      calendar.set(Calendar.DAY_OF_MONTH, 1);
+    if (LevelUnits[level] == Calendar.YEAR)
+      calendar.set(Calendar.MONTH, Calendar.JANUARY);
+    return calendar.getTimeInMillis();
+  }
+
+  /**
+   * Builds the given rollup by merging the trees of each tile in all its
+   * source partitions. The rollup is built in a hidden directory and then
+   * renamed so that queries never see a partially built rollup.
+   * @param fs
+   * @param rollup
+   * @param params
+   * @throws IOException
+   * @throws InterruptedException
+   */
+  public static void buildRollup(FileSystem fs, Rollup rollup,
+      OperationsParams params) throws IOException, InterruptedException {
+    Path tmpDir = new Path(rollup.dir.getParent(), "_" + rollup.dir.getName() + ".tmp");
+    if (fs.exists(tmpDir))
+      fs.delete(tmpDir, true);
+    LOG.info("Building rollup " + rollup);
+    AggregateQuadTree.mergeTiles(fs, rollup.sources, tmpDir, params);
+    int numOfSourceTiles = fs.listStatus(rollup.sources[0]).length;
+    int numOfRollupTiles = fs.exists(tmpDir) ? fs.listStatus(tmpDir).length : 0;
+    if (numOfRollupTiles < numOfSourceTiles || fs.exists(rollup.dir)) {
+      LOG.warn("Discarding rollup " + rollup.dir + " with " + numOfRollupTiles
+          + " out of " + numOfSourceTiles + " tiles");
+      fs.delete(tmpDir, true);
+      return;
+    }
+    fs.rename(tmpDir, rollup.dir);
+  }
+
+  /**
+   * Queues the given rollups to be built by a background thread. Rollups
+   * that are already queued are skipped.
+   * @param fs
+   * @param rollups
+   * @param params
+   */
+  public static void buildInBackground(final FileSystem fs,
+      Vector<Rollup> rollups, OperationsParams params) {
+    final OperationsParams rollupParams = new OperationsParams(params);
+    synchronized (TemporalRollupPlanner.class) {
+      if (rollupBuilder == null) {
+        rollupBuilder = Executors.newSingleThreadExecutor(new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "RollupBuilder");
+            // Do not keep the process alive for rollups
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+      }
+    }
+    for (final Rollup rollup : rollups) {
+      if (!pendingRollups.add(rollup.dir))
+        continue;
+      rollupBuilder.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            buildRollup(fs, rollup, rollupParams);
+          } catch (Exception e) {
+            LOG.warn("Error building rollup " + rollup.dir, e);
+          } finally {
+            pendingRollups.remove(rollup.dir);
+          }
+        }
+      });
+    }
+  }
+}
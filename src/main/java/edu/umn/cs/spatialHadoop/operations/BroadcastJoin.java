@@ -0,0 +1,366 @@
+/***********************************************************************
+* Copyright (c) 2015 by Regents of the University of Minnesota.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Apache License, Version 2.0 which
+* accompanies this distribution and is available at
+* http://www.opensource.org/licenses/apache2.0.php.
+*
+*************************************************************************/
+package edu.umn.cs.spatialHadoop.operations;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.ClusterStatus;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.Counters.Counter;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.RunningJob;
+import org.apache.hadoop.mapred.Task;
+import org.apache.hadoop.mapred.lib.NullOutputFormat;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import edu.umn.cs.spatialHadoop.OperationsParams;
+import edu.umn.cs.spatialHadoop.core.Rectangle;
+import edu.umn.cs.spatialHadoop.core.Shape;
+import edu.umn.cs.spatialHadoop.core.SpatialSite;
+import edu.umn.cs.spatialHadoop.indexing.GlobalIndex;
+import edu.umn.cs.spatialHadoop.indexing.Partition;
+import edu.umn.cs.spatialHadoop.indexing.RTreeGuttman;
+import edu.umn.cs.spatialHadoop.indexing.STRPackedRTree;
+import edu.umn.cs.spatialHadoop.mapred.BlockFilter;
+import edu.umn.cs.spatialHadoop.mapred.ShapeLineInputFormat;
+import edu.umn.cs.spatialHadoop.mapred.TextOutputFormat;
+import edu.umn.cs.spatialHadoop.mapreduce.LocalIndexRecordReader;
+import edu.umn.cs.spatialHadoop.mapreduce.SpatialInputFormat3;
+import edu.umn.cs.spatialHadoop.mapreduce.SpatialRecordReader3;
+import edu.umn.cs.spatialHadoop.nasa.HDFRecordReader;
+import edu.umn.cs.spatialHadoop.util.FileUtil;
+import edu.umn.cs.spatialHadoop.util.IntArray;
+
+/**
+ * A map-only spatial join between a small file and a large file. The small
+ * file is sent to all map tasks through the distributed cache where each map
+ * task loads it into an in-memory R-tree. Each record in the large file is
+ * then joined by searching the R-tree and refining the candidates. If the
+ * large file is indexed, only its partitions that overlap the small file are
+ * read which makes it an index nested loop join.
+ * @author Ahmed Eldawy
+ *
+ */
+@OperationMetadata(shortName = "bj",
+description = "Computes the spatial join between a small and a large file " +
+        "by broadcasting the small file to all map tasks")
+public class BroadcastJoin {
+  private static final Log LOG = LogFactory.getLog(BroadcastJoin.class);
+
+  /**The index of the input file to broadcast (0 or 1)*/
+  public static final String BroadcastFile = "BroadcastJoin.BroadcastFile";
+
+  /**The path of the broadcast file to read its global index, if any*/
+  private static final String BroadcastPath = "BroadcastJoin.BroadcastPath";
+
+  /**Whether the large file is indexed with replication*/
+  private static final String LargeFileReplicated = "BroadcastJoin.LargeFileReplicated";
+
+  /**
+   * The maximum size of the broadcast file in bytes. Larger files are
+   * rejected as they are unlikely to fit in the memory of map tasks.
+   */
+  public static final String MaxBroadcastSize = "BroadcastJoin.MaxBroadcastSize";
+
+  /**Default value of {@link #MaxBroadcastSize}*/
+  public static final long DefaultMaxBroadcastSize = 32 * 1024 * 1024;
+
+  public static class BroadcastJoinMap extends MapReduceBase
+      implements Mapper<Rectangle, Text, Shape, Shape> {
+    /**All the records of the broadcast file*/
+    private Shape[] broadcastShapes;
+    /**An in-memory R-tree over the broadcast records*/
+    private RTreeGuttman rtree;
+    /**Whether the broadcast file is the first file in the output pairs*/
+    private boolean broadcastFirst;
+    /**Whether to apply duplicate avoidance on records of the large file*/
+    private boolean largeFileReplicated;
+    /**A stock shape to parse records of the large file*/
+    private Shape shape;
+    /**Results of the R-tree search*/
+    private IntArray candidates = new IntArray();
+
+    @Override
+    public void configure(JobConf job) {
+      super.configure(job);
+      shape = SpatialSite.createStockShape(job);
+      broadcastFirst = job.getInt(BroadcastFile, 0) == 0;
+      largeFileReplicated = job.getBoolean(LargeFileReplicated, false);
+      try {
+        loadBroadcastFile(job);
+      } catch (IOException e) {
+        throw new RuntimeException("Error loading the broadcast file", e);
+      }
+    }
+
+    /**
+     * Reads all the records of the broadcast file from the local copies in
+     * the distributed cache and builds an R-tree over them. The copies are
+     * read through {@link SpatialInputFormat3} which picks the record reader
+     * of each file by its extension, e.g., locally indexed files are read
+     * through their local indexes. Records that are replicated in an indexed
+     * file are loaded only once.
+     * @param job
+     * @throws IOException
+     */
+    private void loadBroadcastFile(JobConf job) throws IOException {
+      Path broadcastPath = new Path(job.get(BroadcastPath));
+      GlobalIndex<Partition> gindex = SpatialSite.getGlobalIndex(
+          broadcastPath.getFileSystem(job), broadcastPath);
+      FileSystem localFs = FileSystem.getLocal(job);
+      SpatialInputFormat3<Rectangle, Shape> inputFormat =
+          new SpatialInputFormat3<Rectangle, Shape>();
+      List<Shape> shapes = new ArrayList<Shape>();
+      for (Path cacheFile : DistributedCache.getLocalCacheFiles(job)) {
+        Partition partition = null;
+        if (gindex != null && gindex.isReplicated()) {
+          for (Partition p : gindex) {
+            if (p.filename.equals(cacheFile.getName()))
+              partition = p;
+          }
+        }
+        FileSplit fsplit = new FileSplit(cacheFile, 0,
+            localFs.getFileStatus(cacheFile).getLen(), new String[0]);
+        RecordReader<Rectangle, Iterable<Shape>> reader;
+        try {
+          reader = inputFormat.createRecordReader(fsplit, null);
+          if (reader instanceof SpatialRecordReader3) {
+            ((SpatialRecordReader3)reader).initialize(fsplit, job);
+          } else if (reader instanceof LocalIndexRecordReader) {
+            ((LocalIndexRecordReader)reader).initialize(fsplit, job);
+          } else if (reader instanceof HDFRecordReader) {
+            ((HDFRecordReader)reader).initialize(fsplit, job);
+          } else {
+            throw new RuntimeException("Unknown record reader");
+          }
+          while (reader.nextKeyValue()) {
+            for (Shape s : reader.getCurrentValue()) {
+              Rectangle mbr = s.getMBR();
+              if (mbr == null)
+                continue;
+              if (partition != null && !partition.contains(mbr.x1, mbr.y1))
+                continue;
+              shapes.add(s.clone());
+            }
+          }
+        } catch (InterruptedException e) {
+          throw new IOException("Interrupted while reading "+cacheFile, e);
+        }
+        reader.close();
+      }
+      broadcastShapes = shapes.toArray(new Shape[shapes.size()]);
+      double[] x1s = new double[broadcastShapes.length];
+      double[] y1s = new double[broadcastShapes.length];
+      double[] x2s = new double[broadcastShapes.length];
+      double[] y2s = new double[broadcastShapes.length];
+      for (int i = 0; i < broadcastShapes.length; i++) {
+        Rectangle mbr = broadcastShapes[i].getMBR();
+        x1s[i] = mbr.x1;
+        y1s[i] = mbr.y1;
+        x2s[i] = mbr.x2;
+        y2s[i] = mbr.y2;
+      }
+      // The broadcast file is never modified so the R-tree is bulk loaded
+      rtree = new STRPackedRTree(8, 32);
+      rtree.initializeFromRects(x1s, y1s, x2s, y2s);
+      LOG.info("Loaded " + broadcastShapes.length + " broadcast records");
+    }
+
+    @Override
+    public void map(Rectangle cellMbr, Text value,
+        OutputCollector<Shape, Shape> output, Reporter reporter)
+        throws IOException {
+      shape.fromText(value);
+      Rectangle mbr = shape.getMBR();
+      if (mbr == null)
+        return;
+      boolean dupAvoidance = largeFileReplicated && cellMbr != null && cellMbr.isValid();
+      rtree.search(mbr.x1, mbr.y1, mbr.x2, mbr.y2, candidates);
+      for (int i = 0; i < candidates.size(); i++) {
+        Shape broadcastShape = broadcastShapes[candidates.get(i)];
+        if (dupAvoidance) {
+          // Report the pair only in the partition that contains the
+          // reference point, i.e., the bottom-left corner of the intersection
+          Rectangle broadcastMBR = broadcastShape.getMBR();
+          if (!cellMbr.contains(Math.max(mbr.x1, broadcastMBR.x1),
+              Math.max(mbr.y1, broadcastMBR.y1)))
+            continue;
+        }
+        if (broadcastShape.isIntersected(shape)) {
+          if (broadcastFirst)
+            output.collect(broadcastShape, shape);
+          else
+            output.collect(shape, broadcastShape);
+        }
+      }
+    }
+  }
+
+  /**
+   * Spatially joins two files by broadcasting one of them to all map tasks.
+   * @param inFiles the two files to join
+   * @param broadcastFile the index of the file to broadcast or -1 to
+   *   broadcast the smaller file
+   * @param userOutputPath
+   * @param params
+   * @return the number of result pairs
+   * @throws IOException
+   * @throws InterruptedException
+   */
+  public static long broadcastJoin(Path[] inFiles, int broadcastFile,
+      Path userOutputPath, OperationsParams params) throws IOException, InterruptedException {
+    JobConf job = new JobConf(params, BroadcastJoin.class);
+    FileSystem[] fs = new FileSystem[inFiles.length];
+    long[] sizes = new long[inFiles.length];
+    for (int i = 0; i < inFiles.length; i++) {
+      fs[i] = inFiles[i].getFileSystem(job);
+      sizes[i] = FileUtil.getPathSize(fs[i], inFiles[i]);
+    }
+    if (broadcastFile == -1)
+      broadcastFile = sizes[0] <= sizes[1] ? 0 : 1;
+    int largeFile = 1 - broadcastFile;
+    long maxBroadcastSize = params.getLong(MaxBroadcastSize, DefaultMaxBroadcastSize);
+    if (sizes[broadcastFile] > maxBroadcastSize)
+      throw new RuntimeException(String.format("File %s of size %d is larger "
+          + "than the maximum broadcast size %d", inFiles[broadcastFile],
+          sizes[broadcastFile], maxBroadcastSize));
+
+    Path outputPath = userOutputPath;
+    if (outputPath == null) {
+      do {
+        outputPath = new Path(inFiles[0].getName() + ".bj_"
+            + (int) (Math.random() * 1000000));
+      } while (fs[0].exists(outputPath));
+    }
+
+    job.setJobName("BroadcastJoin");
+    LOG.info("Broadcasting " + inFiles[broadcastFile] + " to join with "
+        + inFiles[largeFile]);
+    ClusterStatus clusterStatus = new JobClient(job).getClusterStatus();
+    job.setMapperClass(BroadcastJoinMap.class);
+    Shape shape = params.getShape("shape");
+    job.setMapOutputKeyClass(shape.getClass());
+    job.setMapOutputValueClass(shape.getClass());
+    job.setNumMapTasks(5 * Math.max(1, clusterStatus.getMaxMapTasks()));
+    job.setNumReduceTasks(0); // No reduce needed for this task
+
+    // Send all data files of the small file to the map tasks
+    job.setInt(BroadcastFile, broadcastFile);
+    job.set(BroadcastPath, inFiles[broadcastFile].toString());
+    FileStatus broadcastStatus = fs[broadcastFile].getFileStatus(inFiles[broadcastFile]);
+    FileStatus[] broadcastDataFiles = broadcastStatus.isDir() ?
+        fs[broadcastFile].listStatus(inFiles[broadcastFile], SpatialSite.NonHiddenFileFilter) :
+        new FileStatus[] {broadcastStatus};
+    for (FileStatus dataFile : broadcastDataFiles)
+      DistributedCache.addCacheFile(dataFile.getPath().toUri(), job);
+
+    // Read only the partitions of the large file that overlap the small file
+    GlobalIndex<Partition> largeIndex = SpatialSite.getGlobalIndex(fs[largeFile],
+        inFiles[largeFile]);
+    if (largeIndex != null) {
+      // Records of the large file are parsed from text lines
+      for (Partition p : largeIndex) {
+        if (SpatialSite.getLocalIndex(new Path(inFiles[largeFile], p.filename)) != null)
+          throw new RuntimeException(String.format("File %s is locally indexed "
+              + "and cannot be the large file of a broadcast join", inFiles[largeFile]));
+      }
+      job.setBoolean(LargeFileReplicated, largeIndex.isReplicated());
+      Rectangle broadcastMBR = FileMBR.fileMBR(inFiles[broadcastFile], params);
+      if (broadcastMBR != null) {
+        OperationsParams.setShape(job, RangeFilter.QueryRange, broadcastMBR);
+        job.setClass(SpatialSite.FilterClass, RangeFilter.class, BlockFilter.class);
+      }
+    }
+
+    job.setInputFormat(ShapeLineInputFormat.class);
+    ShapeLineInputFormat.setInputPaths(job, inFiles[largeFile]);
+    if (job.getBoolean("output", true))
+      job.setOutputFormat(TextOutputFormat.class);
+    else
+      job.setOutputFormat(NullOutputFormat.class);
+    TextOutputFormat.setOutputPath(job, outputPath);
+
+    if (OperationsParams.isLocal(job, inFiles)) {
+      // Enforce local execution if explicitly set by user or for small files
+      job.set("mapred.job.tracker", "local");
+    }
+
+    // Start the job
+    RunningJob runningJob = JobClient.runJob(job);
+    Counters counters = runningJob.getCounters();
+    Counter outputRecordCounter = counters.findCounter(Task.Counter.MAP_OUTPUT_RECORDS);
+    final long resultCount = outputRecordCounter.getValue();
+
+    if (userOutputPath == null)
+      fs[0].delete(outputPath, true);
+
+    return resultCount;
+  }
+
+  private static void printUsage() {
+    System.out.println("Performs a spatial join between a small file and a large file by broadcasting the small file");
+    System.out.println("Parameters: (* marks the required parameters)");
+    System.out.println("<input file 1> - (*) Path to the first input file");
+    System.out.println("<input file 2> - (*) Path to the second input file");
+    System.out.println("<output file> - Path to output file");
+    System.out.println("broadcast:<index> - The index of the file to broadcast (0|1). The smaller file by default");
+    System.out.println("-overwrite - Overwrite output file without notice");
+    GenericOptionsParser.printGenericCommandUsage(System.out);
+  }
+
+  /**
+   * @param args
+   * @throws IOException
+   * @throws InterruptedException
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    OperationsParams params = new OperationsParams(new GenericOptionsParser(args));
+    Path[] allFiles = params.getPaths();
+    if (allFiles.length < 2) {
+      System.err.println("This operation requires at least two input files");
+      printUsage();
+      System.exit(1);
+    }
+    if (allFiles.length == 2 && !params.checkInput()) {
+      // One of the input files does not exist
+      printUsage();
+      System.exit(1);
+    }
+    if (allFiles.length > 2 && !params.checkInputOutput()) {
+      printUsage();
+      System.exit(1);
+    }
+
+    Path[] inputPaths = allFiles.length == 2 ? allFiles : params.getInputPaths();
+    Path outputPath = allFiles.length == 2 ? null : params.getOutputPath();
+
+    long t1 = System.currentTimeMillis();
+    long resultSize = broadcastJoin(inputPaths, params.getInt("broadcast", -1),
+        outputPath, params);
+    long t2 = System.currentTimeMillis();
+    System.out.println("Total time: " + (t2 - t1) + " millis");
+    System.out.println("Result size: " + resultSize);
+  }
+}
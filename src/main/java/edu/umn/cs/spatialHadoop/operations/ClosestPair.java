@@ -16,6 +16,7 @@ import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
@@ -30,6 +31,7 @@ import org.apache.hadoop.mapreduce.OutputCommitter;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
 import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputCommitter;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
@@ -48,6 +50,7 @@ import edu.umn.cs.spatialHadoop.mapreduce.SpatialRecordReader3;
 import edu.umn.cs.spatialHadoop.nasa.HDFRecordReader;
 import edu.umn.cs.spatialHadoop.util.MemoryReporter;
 import edu.umn.cs.spatialHadoop.util.Parallel;
+import edu.umn.cs.spatialHadoop.util.PointArray;
 import edu.umn.cs.spatialHadoop.util.Parallel.RunnableRange;
 
 /**
@@ -225,6 +228,288 @@ public class ClosestPair {
     return closestPair;
   }
 
+  /**
+   * The closest pairs of consecutive sublists of points sorted by x
+   */
+  private static class Sublists {
+    /**The range of each sublist in the sorted points*/
+    int[] starts, ends;
+    /**The indexes of the closest pair in each sublist*/
+    int[] p1s, p2s;
+    /**The squared distance between the closest pair of each sublist*/
+    double[] distances2;
+
+    Sublists(int size) {
+      starts = new int[size];
+      ends = new int[size];
+      p1s = new int[size];
+      p2s = new int[size];
+      distances2 = new double[size];
+    }
+
+    void copy(int i, Sublists dst, int j) {
+      dst.starts[j] = starts[i];
+      dst.ends[j] = ends[i];
+      dst.p1s[j] = p1s[i];
+      dst.p2s[j] = p2s[i];
+      dst.distances2[j] = distances2[i];
+    }
+  }
+
+  /**
+   * Finds the closest pair of a set of points stored as primitive coordinates
+   * using the same divide and conquer algorithm of
+   * {@link #closestPairInMemory(Point[], int)}. The points are sorted by x,
+   * in parallel for large arrays. Sublists are solved by brute force and
+   * adjacent sublists are merged level by level where all the merges of one
+   * level run in parallel. Distances are compared squared and no objects are
+   * created per point.
+   * @param points the points which are sorted by x in place
+   * @param threshold
+   * @param parallelism
+   * @return the closest pair or null if there are less than two points. The
+   *   points of the pair are those returned by {@link PointArray#getPoint(int)}
+   *   so they keep their class and attributes.
+   */
+  public static Pair closestPairInMemory(PointArray points, int threshold,
+      int parallelism) {
+    points.sort(parallelism);
+    final double[] xs = points.getXs();
+    final double[] ys = points.getYs();
+    final int size = points.size();
+    if (size < 2)
+      return null;
+    final int bruteForceThreshold = Math.max(threshold, 2);
+
+    // Split the points into sublists below the threshold
+    int numSublists = 0;
+    for (int sublistStart = 0; sublistStart < size; numSublists++)
+      sublistStart = nextSublistStart(sublistStart, size, bruteForceThreshold);
+    final Sublists sublists = new Sublists(numSublists);
+    int sublistStart = 0;
+    for (int i = 0; i < numSublists; i++) {
+      sublists.starts[i] = sublistStart;
+      sublistStart = nextSublistStart(sublistStart, size, bruteForceThreshold);
+      sublists.ends[i] = sublistStart;
+    }
+
+    // Compute the closest pair for each sublist using brute force
+    PointArray.runInParallel(numSublists, new RunnableRange<Object>() {
+      @Override
+      public Object run(int i1, int i2) {
+        for (int i = i1; i < i2; i++) {
+          int start = sublists.starts[i], end = sublists.ends[i];
+          int p1 = start, p2 = start + 1;
+          double minDistance2 = distance2(xs, ys, p1, p2);
+          for (int j1 = start; j1 < end; j1++) {
+            for (int j2 = j1 + 1; j2 < end; j2++) {
+              double distance2 = distance2(xs, ys, j1, j2);
+              if (distance2 < minDistance2) {
+                p1 = j1;
+                p2 = j2;
+                minDistance2 = distance2;
+              }
+            }
+          }
+          sublists.p1s[i] = p1;
+          sublists.p2s[i] = p2;
+          sublists.distances2[i] = minDistance2;
+        }
+        return null;
+      }
+    }, parallelism);
+
+    // Merge each pair of adjacent sublists
+    final int[] rPoints = new int[size];
+    Sublists current = sublists;
+    while (numSublists > 1) {
+      final Sublists src = current;
+      final Sublists dst = new Sublists((numSublists + 1) / 2);
+      final int numMerges = numSublists / 2;
+      PointArray.runInParallel(numMerges, new RunnableRange<Object>() {
+        @Override
+        public Object run(int i1, int i2) {
+          for (int i = i1; i < i2; i++)
+            mergeSublists(xs, ys, rPoints, bruteForceThreshold, src, 2 * i, dst, i);
+          return null;
+        }
+      }, parallelism);
+      if (numSublists % 2 == 1)
+        src.copy(numSublists - 1, dst, numMerges);
+      current = dst;
+      numSublists = (numSublists + 1) / 2;
+    }
+
+    Pair closestPair = new Pair();
+    closestPair.p1 = points.getPoint(current.p1s[0]);
+    closestPair.p2 = points.getPoint(current.p2s[0]);
+    return closestPair;
+  }
+
+  /**
+   * Returns the end of the sublist that starts at the given index. The last
+   * sublist takes all remaining points if they are less than one and a half
+   * of the threshold.
+   */
+  private static int nextSublistStart(int start, int size, int threshold) {
+    return start + (threshold * 3 / 2) > size ? size : start + threshold;
+  }
+
+  /**
+   * Merges the sublists i and i+1 of src into the sublist j of dst. The
+   * candidate pairs cross the boundary between the two sublists and lie
+   * within the closest distance of both sublists from that boundary.
+   * @param xs
+   * @param ys
+   * @param rPoints a temporary array of indexes. Only the range of the second
+   *   sublist is used so that merges can run in parallel.
+   * @param threshold
+   * @param src
+   * @param i
+   * @param dst
+   * @param j
+   */
+  private static void mergeSublists(final double[] xs, final double[] ys,
+      final int[] rPoints, int threshold, Sublists src, int i, Sublists dst, int j) {
+    int start1 = src.starts[i], end1 = src.ends[i];
+    int start2 = src.starts[i + 1], end2 = src.ends[i + 1];
+    double minDistance2 = Math.min(src.distances2[i], src.distances2[i + 1]);
+    double minDistance = Math.sqrt(minDistance2);
+    int leftMargin = exponentialSearchLeft(xs, start1, end1, xs[end1 - 1] - minDistance);
+    int rightMargin = exponentialSearchRight(xs, start2, end2, xs[start2] + minDistance);
+    int minPointL = -1, minPointR = -1;
+    double minDistanceLR2 = minDistance2;
+    if (rightMargin - leftMargin < threshold) {
+      // Use brute force technique
+      for (int i1 = leftMargin; i1 < end1; i1++) {
+        for (int i2 = start2; i2 < rightMargin; i2++) {
+          double distance2 = distance2(xs, ys, i1, i2);
+          if (distance2 < minDistanceLR2) {
+            minPointL = i1;
+            minPointR = i2;
+            minDistanceLR2 = distance2;
+          }
+        }
+      }
+    } else {
+      // Use a y-sort technique. Sort the right points by y and compare each
+      // left point to the right points within the minimum distance in y
+      for (int r = start2; r < rightMargin; r++)
+        rPoints[r] = r;
+      new QuickSort().sort(new IndexedSortable() {
+        @Override
+        public void swap(int i, int j) {
+          int temp = rPoints[i]; rPoints[i] = rPoints[j]; rPoints[j] = temp;
+        }
+
+        @Override
+        public int compare(int i, int j) {
+          double dy = ys[rPoints[i]] - ys[rPoints[j]];
+          if (dy < 0) return -1; if (dy > 0) return 1; return 0;
+        }
+      }, start2, rightMargin);
+      for (int l = leftMargin; l < end1; l++) {
+        double ymin = ys[l] - minDistance;
+        // Binary search for the first right point with y >= ymin
+        int r1 = start2, r2 = rightMargin;
+        while (r1 < r2) {
+          int m = (r1 + r2) >>> 1;
+          if (ys[rPoints[m]] >= ymin)
+            r2 = m;
+          else
+            r1 = m + 1;
+        }
+        double ymax = ys[l] + minDistance;
+        for (int r = r1; r < rightMargin && ys[rPoints[r]] <= ymax; r++) {
+          double distance2 = distance2(xs, ys, l, rPoints[r]);
+          if (distance2 < minDistanceLR2) {
+            minPointL = l;
+            minPointR = rPoints[r];
+            minDistanceLR2 = distance2;
+          }
+        }
+      }
+    }
+
+    dst.starts[j] = start1;
+    dst.ends[j] = end2;
+    if (minPointL != -1) {
+      // The closest pair is in the middle (between list1 and list2)
+      dst.p1s[j] = minPointL;
+      dst.p2s[j] = minPointR;
+      dst.distances2[j] = minDistanceLR2;
+    } else if (src.distances2[i] < src.distances2[i + 1]) {
+      // The closest pair is in list1
+      dst.p1s[j] = src.p1s[i];
+      dst.p2s[j] = src.p2s[i];
+      dst.distances2[j] = src.distances2[i];
+    } else {
+      // The closest pair is in list2
+      dst.p1s[j] = src.p1s[i + 1];
+      dst.p2s[j] = src.p2s[i + 1];
+      dst.distances2[j] = src.distances2[i + 1];
+    }
+  }
+
+  /**
+   * The squared distance between the two points at the given indexes
+   */
+  private static double distance2(double[] xs, double[] ys, int i1, int i2) {
+    double dx = xs[i1] - xs[i2];
+    double dy = ys[i1] - ys[i2];
+    return dx * dx + dy * dy;
+  }
+
+  /**
+   * Exponential search on the first point in the range [bound0, bound2) with
+   * x-coordinate larger than or equal to the given xmin.
+   * @param xs
+   * @param bound0
+   * @param bound2
+   * @param xmin
+   * @return
+   */
+  static int exponentialSearchLeft(double[] xs, int bound0, int bound2, double xmin) {
+    int size = 1;
+    while (bound2 - size > bound0 && xs[bound2 - size] > xmin)
+      size *= 2;
+    int bound1 = Math.max(bound0, bound2 - size);
+    // Binary search in the given boundary
+    while (bound1 < bound2) {
+      int m = (bound1 + bound2) / 2;
+      if (xs[m] >= xmin)
+        bound2 = m;
+      else
+        bound1 = m + 1;
+    }
+    return bound1;
+  }
+
+  /**
+   * Exponential search on the first point in the range [bound1, bound3) with
+   * x-coordinate larger than or equal to the given xmax.
+   * @param xs
+   * @param bound1
+   * @param bound3
+   * @param xmax
+   * @return
+   */
+  static int exponentialSearchRight(double[] xs, int bound1, int bound3, double xmax) {
+    int size = 1;
+    while (bound1 + size <= bound3 && xs[bound1 + size - 1] < xmax)
+      size *= 2;
+    int bound2 = Math.min(bound3, bound1 + size);
+    // Binary search in the given boundary
+    while (bound1 < bound2) {
+      int m = (bound1 + bound2) / 2;
+      if (xs[m] >= xmax)
+        bound2 = m;
+      else
+        bound1 = m + 1;
+    }
+    return bound1;
+  }
+
   /**
    * Exponential search on the first point with x-coordinate larger than the
    * given xmin.
@@ -273,6 +558,47 @@ public class ClosestPair {
     return bound1;
   }
   
+  /**
+   * Writes the two closest points as well as all points that are closer to
+   * the boundary of the given MBR than the distance between the closest pair.
+   * Only these points can contribute to a closer pair across the boundary.
+   * Points of a subclass of {@link Point} are written as they were read since
+   * the map output value class is the input shape class.
+   * @param points
+   * @param pair the closest pair of the points or null if less than two points
+   * @param mbr
+   * @param key
+   * @param context
+   * @throws IOException
+   * @throws InterruptedException
+   */
+  private static <K> void writeCandidates(PointArray points, Pair pair,
+      Rectangle mbr, K key, TaskInputOutputContext<?, ?, K, Point> context)
+      throws IOException, InterruptedException {
+    double minDistance = pair == null ? Double.POSITIVE_INFINITY : pair.getDistance();
+    Rectangle innerRectangle = mbr.buffer(-minDistance, -minDistance);
+    Point[] shapes = points.getShapes();
+    Point p = new Point();
+    for (int i = 0; i < points.size(); i++) {
+      if (!innerRectangle.contains(points.getX(i), points.getY(i))) {
+        if (shapes != null && shapes[i] != null) {
+          context.write(key, shapes[i]);
+        } else {
+          p.set(points.getX(i), points.getY(i));
+          context.write(key, p);
+        }
+      }
+    }
+
+    // Write p1 and p2 if they have not been written using the previous loop
+    if (pair != null) {
+      if (innerRectangle.contains(pair.p1))
+        context.write(key, pair.p1);
+      if (innerRectangle.contains(pair.p2))
+        context.write(key, pair.p2);
+    }
+  }
+
   /**
    * The map function computes the closest pair for a partition and returns all
    * points that can possibly contribute to the global closest pair. This
@@ -298,12 +624,12 @@ public class ClosestPair {
     protected void map(Rectangle key, Iterable<Point> values, Context context)
         throws IOException, InterruptedException {
       IntWritable column = new IntWritable();
-      List<Point> points = new ArrayList<Point>();
+      PointArray points = new PointArray();
       for (Point point : values)
-        points.add(point.clone());
+        points.add(point);
       
-      Pair pair = closestPairInMemory(points.toArray(new Point[points.size()]),
-          context.getConfiguration().getInt(BruteForceThreshold, 100));
+      Pair pair = closestPairInMemory(points,
+          context.getConfiguration().getInt(BruteForceThreshold, 100), 1);
       
       // Output the two closest points as well as all points within the minimum
       // distance of the partition boundary
@@ -313,18 +639,7 @@ public class ClosestPair {
           col = -col - 1;
         column.set(col);
         
-        double minDistance = pair.getDistance();
-        Rectangle innerRectangle = key.buffer(-minDistance, -minDistance);
-        for (Point p : points) {
-          if (!innerRectangle.contains(p))
-            context.write(column, p);
-        }
-        
-        // Write p1 and p2 if they have not been written using the previous loop
-        if (innerRectangle.contains(pair.p1))
-          context.write(column, (Point) pair.p1);
-        if (innerRectangle.contains(pair.p2))
-          context.write(column, (Point) pair.p2);
+        writeCandidates(points, pair, key, column, context);
       }
     }
   }
@@ -341,32 +656,21 @@ public class ClosestPair {
     protected void reduce(IntWritable dummyColumn, Iterable<Point> values,
         Context context) throws IOException, InterruptedException {
 
-      List<Point> points = new ArrayList<Point>();
+      PointArray points = new PointArray();
       Rectangle mbr = new Rectangle(Double.MAX_VALUE, Double.MAX_VALUE,
           -Double.MAX_VALUE, -Double.MAX_VALUE);
       for (Point point : values) {
-        points.add(point.clone());
+        points.add(point);
         mbr.expand(point);
       }
       
-      Pair pair = closestPairInMemory(points.toArray(new Point[points.size()]),
-          context.getConfiguration().getInt(BruteForceThreshold, 100));
+      Configuration conf = context.getConfiguration();
+      Pair pair = closestPairInMemory(points, conf.getInt(BruteForceThreshold, 100),
+          conf.getInt("parallel", Runtime.getRuntime().availableProcessors()));
       
       // Output the two closest points as well as all points within the minimum
       // distance of the partition boundary
-      double minDistance = pair.getDistance();
-      Rectangle innerRectangle = mbr.buffer(-minDistance, -minDistance);
-      final NullWritable dummyNull = NullWritable.get();
-      for (Point p : points) {
-        if (!innerRectangle.contains(p))
-          context.write(dummyNull, p);
-      }
-
-      // Write p1 and p2 if they have not been written using the previous loop
-      if (innerRectangle.contains(pair.p1))
-        context.write(dummyNull, (Point) pair.p1);
-      if (innerRectangle.contains(pair.p2))
-        context.write(dummyNull, (Point) pair.p2);
+      writeCandidates(points, pair, mbr, NullWritable.get(), context);
     }
   }
 
@@ -469,7 +773,8 @@ public class ClosestPair {
     Job job = Job.getInstance(params);
     SpatialInputFormat3.setInputPaths(job, inPaths);
     final List<InputSplit> splits = inputFormat.getSplits(job);
-    final Point[][] allLists = new Point[splits.size()][];
+    final PointArray[] allLists = new PointArray[splits.size()];
+    int parallelism = params.getInt("parallel", Runtime.getRuntime().availableProcessors());
     
     // 2- Read all input points in memory
     LOG.info("Reading points from "+splits.size()+" splits");
@@ -479,7 +784,7 @@ public class ClosestPair {
         int numPoints = 0;
         for (int i = i1; i < i2; i++) {
           try {
-            List<Point> points = new ArrayList<Point>();
+            PointArray points = new PointArray();
             FileSplit fsplit = (FileSplit) splits.get(i);
             final RecordReader<Rectangle, Iterable<Point>> reader =
                 inputFormat.createRecordReader(fsplit, null);
@@ -492,13 +797,12 @@ public class ClosestPair {
             }
             while (reader.nextKeyValue()) {
               Iterable<Point> pts = reader.getCurrentValue();
-              for (Point p : pts) {
-                points.add(p.clone());
-              }
+              for (Point p : pts)
+                points.add(p);
             }
             reader.close();
             numPoints += points.size();
-            allLists[i] = points.toArray(new Point[points.size()]);
+            allLists[i] = points;
           } catch (IOException e) {
             throw new RuntimeException("Error reading file", e);
           } catch (InterruptedException e) {
@@ -507,25 +811,22 @@ public class ClosestPair {
         }
         return numPoints;
       }
-    }, params.getInt("parallel", Runtime.getRuntime().availableProcessors()));
+    }, parallelism);
     
     int totalNumPoints = 0;
     for (int numPoints : numsPoints)
       totalNumPoints += numPoints;
     
     LOG.info("Read "+totalNumPoints+" points and merging into one list");
-    Point[] allPoints = new Point[totalNumPoints];
-    int pointer = 0;
-    
+    PointArray allPoints = new PointArray(totalNumPoints);
     for (int iList = 0; iList < allLists.length; iList++) {
-      System.arraycopy(allLists[iList], 0, allPoints, pointer, allLists[iList].length);
-      pointer += allLists[iList].length;
+      allPoints.add(allLists[iList]);
       allLists[iList] = null; // To let the GC collect it
     }
     
-    LOG.info("Computing closest-pair for "+allPoints.length+" points");
+    LOG.info("Computing closest-pair for "+allPoints.size()+" points");
     Pair closestPair = closestPairInMemory(allPoints,
-        params.getInt(BruteForceThreshold, 100));
+        params.getInt(BruteForceThreshold, 100), parallelism);
     return closestPair;
   }
   
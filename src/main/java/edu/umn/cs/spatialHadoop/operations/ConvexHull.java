@@ -10,7 +10,6 @@ package edu.umn.cs.spatialHadoop.operations;
 
 import java.io.IOException;
 import java.lang.reflect.Array;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -55,6 +54,7 @@ import edu.umn.cs.spatialHadoop.mapreduce.SpatialRecordReader3;
 import edu.umn.cs.spatialHadoop.nasa.HDFRecordReader;
 import edu.umn.cs.spatialHadoop.util.MemoryReporter;
 import edu.umn.cs.spatialHadoop.util.Parallel;
+import edu.umn.cs.spatialHadoop.util.PointArray;
 import edu.umn.cs.spatialHadoop.util.Parallel.RunnableRange;
 
 /**
@@ -114,6 +114,71 @@ public class ConvexHull {
     return s1.toArray((P[]) Array.newInstance(s1.firstElement().getClass(), s1.size()));    
   }
   
+  /**
+   * Computes the convex hull of a set of points stored as primitive
+   * coordinates using Andrew's monotone chain algorithm. The points are
+   * sorted by x, in parallel for large arrays, and the two chains are built
+   * on one stack of point indexes. The convex hull replaces the points in the
+   * array in the same order returned by {@link #convexHullInMemory(Point[])}.
+   * Points of a subclass of {@link Point} are kept in the array as they are,
+   * see {@link PointArray#getPoint(int)}.
+   * @param points
+   * @param parallelism
+   */
+  public static void convexHullInMemory(PointArray points, int parallelism) {
+    points.sort(parallelism);
+    double[] xs = points.getXs();
+    double[] ys = points.getYs();
+    int size = points.size();
+    if (size < 3)
+      return;
+    int[] stack = new int[Math.min(size + 1, 1024)];
+    int top = 0;
+    // Lower chain
+    for (int i = 0; i < size; i++) {
+      while (top > 1 && cross(xs, ys, stack[top - 2], stack[top - 1], i) <= 0)
+        top--;
+      if (top == stack.length)
+        stack = Arrays.copyOf(stack, Math.min(stack.length * 2, size + 1));
+      stack[top++] = i;
+    }
+    // Upper chain. Never pop points of the lower chain
+    int lowerSize = top;
+    for (int i = size - 2; i >= 0; i--) {
+      while (top > lowerSize && cross(xs, ys, stack[top - 2], stack[top - 1], i) <= 0)
+        top--;
+      if (top == stack.length)
+        stack = Arrays.copyOf(stack, Math.min(stack.length * 2, 2 * size));
+      stack[top++] = i;
+    }
+    // The last point of the upper chain is the first point of the lower chain
+    int hullSize = top - 1;
+    double[] hullXs = new double[hullSize];
+    double[] hullYs = new double[hullSize];
+    for (int i = 0; i < hullSize; i++) {
+      hullXs[i] = xs[stack[i]];
+      hullYs[i] = ys[stack[i]];
+    }
+    System.arraycopy(hullXs, 0, xs, 0, hullSize);
+    System.arraycopy(hullYs, 0, ys, 0, hullSize);
+    Point[] shapes = points.getShapes();
+    if (shapes != null) {
+      Point[] hullShapes = new Point[hullSize];
+      for (int i = 0; i < hullSize; i++)
+        hullShapes[i] = shapes[stack[i]];
+      System.arraycopy(hullShapes, 0, shapes, 0, hullSize);
+    }
+    points.resize(hullSize);
+  }
+
+  /**
+   * The cross product of the vectors o-&gt;a and o-&gt;b where o, a, and b are
+   * indexes in the given coordinate arrays.
+   */
+  private static double cross(double[] xs, double[] ys, int o, int a, int b) {
+    return (xs[a] - xs[o]) * (ys[b] - ys[o]) - (ys[a] - ys[o]) * (xs[b] - xs[o]);
+  }
+
   /**
    * Computes the convex hull of an input file using a single machine algorithm.
    * The output is written to the output file. If output file is null, the
@@ -135,17 +200,18 @@ public class ConvexHull {
     Job job = Job.getInstance(params);
     SpatialInputFormat3.setInputPaths(job, inFile);
     final List<InputSplit> splits = inputFormat.getSplits(job);
+    int parallelism = params.getInt("parallel", Runtime.getRuntime().availableProcessors());
     
     // 2- Read all input points in memory
     LOG.info("Reading points from "+splits.size()+" splits");
-    List<Point[]> allLists = Parallel.forEach(splits.size(), new RunnableRange<Point[]>() {
+    List<PointArray> allLists = Parallel.forEach(splits.size(), new RunnableRange<PointArray>() {
       @Override
-      public Point[] run(int i1, int i2) {
+      public PointArray run(int i1, int i2) {
         try {
-          List<Point> finalPoints = new ArrayList<Point>();
           final int MaxSize = 100000;
-          Point[] points = new Point[MaxSize];
-          int size = 0;
+          PointArray points = new PointArray(MaxSize);
+          // Size at which the convex hull of the points read so far is computed
+          int nextHullSize = MaxSize;
           for (int i = i1; i < i2; i++) {
             org.apache.hadoop.mapreduce.lib.input.FileSplit fsplit = (org.apache.hadoop.mapreduce.lib.input.FileSplit) splits.get(i);
             final RecordReader<Rectangle, Iterable<Point>> reader =
@@ -160,21 +226,17 @@ public class ConvexHull {
             while (reader.nextKeyValue()) {
               Iterable<Point> pts = reader.getCurrentValue();
               for (Point p : pts) {
-                points[size++] = p.clone();
-                if (size >= points.length) {
-                  // Perform convex hull and write the result to finalPoints
-                  Point[] chPoints = convexHullInMemory(points);
-                  for (Point skylinePoint : chPoints)
-                    finalPoints.add(skylinePoint);
-                  size = 0; // reset
+                points.add(p);
+                if (points.size() >= nextHullSize) {
+                  // Replace the points with their convex hull to bound memory
+                  convexHullInMemory(points, 1);
+                  nextHullSize = points.size() + MaxSize;
                 }
               }
             }
             reader.close();
           }
-          while (size-- > 0)
-            finalPoints.add(points[size]);
-          return finalPoints.toArray(new Point[finalPoints.size()]);
+          return points;
         } catch (IOException e) {
           e.printStackTrace();
         } catch (InterruptedException e) {
@@ -182,23 +244,19 @@ public class ConvexHull {
         }
         return null;
       }
-    }, params.getInt("parallel", Runtime.getRuntime().availableProcessors()));
+    }, parallelism);
     
     int totalNumPoints = 0;
-    for (Point[] list : allLists)
-      totalNumPoints += list.length;
+    for (PointArray list : allLists)
+      totalNumPoints += list.size();
     
     LOG.info("Read "+totalNumPoints+" points and merging into one list");
-    Point[] allPoints = new Point[totalNumPoints];
-    int pointer = 0;
-    
-    for (Point[] list : allLists) {
-      System.arraycopy(list, 0, allPoints, pointer, list.length);
-      pointer += list.length;
-    }
+    PointArray allPoints = new PointArray(totalNumPoints);
+    for (PointArray list : allLists)
+      allPoints.add(list);
     allLists.clear(); // To the let the GC collect it
     
-    Point[] ch = convexHullInMemory(allPoints);
+    convexHullInMemory(allPoints, parallelism);
 
     if (outFile != null) {
       if (params.getBoolean("overwrite", false)) {
@@ -206,8 +264,8 @@ public class ConvexHull {
         outFs.delete(outFile, true);
       }
       GridRecordWriter<Point> out = new GridRecordWriter<Point>(outFile, null, null, null);
-      for (Point pt : ch) {
-        out.write(NullWritable.get(), pt);
+      for (int i = 0; i < allPoints.size(); i++) {
+        out.write(NullWritable.get(), allPoints.getPoint(i));
       }
       out.close(null);
     }
@@ -278,19 +336,28 @@ public class ConvexHull {
   
   public static class ConvexHullReducer extends MapReduceBase implements
   Reducer<NullWritable,Point,NullWritable,Point> {
+
+    /**Number of threads used to sort the points*/
+    private int parallelism;
+
+    @Override
+    public void configure(JobConf job) {
+      super.configure(job);
+      parallelism = job.getInt("parallel", Runtime.getRuntime().availableProcessors());
+    }
     
     @Override
     public void reduce(NullWritable dummy, Iterator<Point> points,
         OutputCollector<NullWritable, Point> output, Reporter reporter)
         throws IOException {
-      Vector<Point> vpoints = new Vector<Point>();
-      while (points.hasNext()) {
-        vpoints.add(points.next().clone());
-      }
-      Point[] convex_hull = convexHullInMemory(vpoints.toArray(new Point[vpoints.size()]));
-      for (Point pt : convex_hull) {
-        output.collect(dummy, pt);
-      }
+      PointArray vpoints = new PointArray();
+      while (points.hasNext())
+        vpoints.add(points.next());
+      convexHullInMemory(vpoints, parallelism);
+      // The original objects are written as this reducer is also the combiner
+      // whose output must be of the input shape class
+      for (int i = 0; i < vpoints.size(); i++)
+        output.collect(dummy, vpoints.getPoint(i));
     }
   }
   
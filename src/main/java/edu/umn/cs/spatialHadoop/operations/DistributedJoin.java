@@ -21,7 +21,6 @@ import edu.umn.cs.spatialHadoop.indexing.Partitioner;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.ArrayWritable;
@@ -48,8 +47,6 @@ import org.apache.hadoop.mapred.Task;
 import org.apache.hadoop.mapred.lib.CombineFileSplit;
 import org.apache.hadoop.mapred.lib.NullOutputFormat;
 import org.apache.hadoop.util.GenericOptionsParser;
-import org.apache.hadoop.util.IndexedSortable;
-import org.apache.hadoop.util.QuickSort;
 
 import edu.umn.cs.spatialHadoop.OperationsParams;
 import edu.umn.cs.spatialHadoop.indexing.GlobalIndex;
@@ -918,7 +915,6 @@ public class DistributedJoin {
 	@SuppressWarnings("unchecked")
 	public static long distributedJoinSmart(final Path[] inputFiles,
 			Path userOutputPath, OperationsParams params) throws IOException, InterruptedException, ClassNotFoundException {
-		Path[] originalInputFiles = inputFiles.clone();
 		FileSystem outFs = inputFiles[0].getFileSystem(params);
 		Path outputPath = userOutputPath;
 		if (outputPath == null) {
@@ -928,89 +924,33 @@ public class DistributedJoin {
 			} while (outFs.exists(outputPath));
 		}
 
-		// Decide whether to do a repartition step or not
-		int cost_with_repartition, cost_without_repartition;
-		final FileStatus[] fStatus = new FileStatus[inputFiles.length];
-		for (int i_file = 0; i_file < inputFiles.length; i_file++) {
-			// TODO work with folders. Calculate size more accurately
-			FileSystem fs = inputFiles[i_file].getFileSystem(params);
-			fStatus[i_file] = fs.getFileStatus(inputFiles[i_file]);
-		}
-
-		// Sort files by length (size)
-		IndexedSortable filesBySize = new IndexedSortable() {
-			@Override
-			public void swap(int i, int j) {
-				Path tmp1 = inputFiles[i];
-				inputFiles[i] = inputFiles[j];
-				inputFiles[j] = tmp1;
-
-				FileStatus tmp2 = fStatus[i];
-				fStatus[i] = fStatus[j];
-				fStatus[j] = tmp2;
-			}
-
-			@Override
-			public int compare(int i, int j) {
-				if (fStatus[i].getLen() < fStatus[j].getLen())
-					return 0;
-				return fStatus[i].getLen() < fStatus[j].getLen() ? -1 : 1;
-			}
-		};
-
-		new QuickSort().sort(filesBySize, 0, inputFiles.length);
-		GlobalIndex<Partition>[] gIndexes = new GlobalIndex[fStatus.length];
-		int[] numBlocks = new int[fStatus.length];
-		for (int i_file = 0; i_file < fStatus.length; i_file++) {
-			gIndexes[i_file] = SpatialSite.getGlobalIndex(outFs,
-					fStatus[i_file].getPath());
-			if (gIndexes[i_file] != null) {
-				// Number of blocks is equal to number of partitions in global
-				// index
-				numBlocks[i_file] = gIndexes[i_file].size();
-			} else if (fStatus[i_file].isDir()) {
-				// Add up number of file system blocks in all subfiles of this
-				// directory
-				numBlocks[i_file] = 0;
-				FileStatus[] subfiles = outFs.listStatus(inputFiles[i_file],
-						SpatialSite.NonHiddenFileFilter);
-				for (FileStatus subfile : subfiles) {
-					numBlocks[i_file] += outFs.getFileBlockLocations(subfile,
-							0, subfile.getLen()).length;
-				}
-			} else {
-				// Number of file system blocks in input file
-				numBlocks[i_file] = outFs.getFileBlockLocations(
-						fStatus[i_file], 0, fStatus[i_file].getLen()).length;
-			}
-		}
-
-		cost_without_repartition = gIndexes[0] != null && gIndexes[1] != null ? GlobalIndex
-				.spatialJoin(gIndexes[0], gIndexes[1], null)
-				: (numBlocks[0] * numBlocks[1]);
-		// Total cost = Cost of repartition (=== 2 * numBlocks[0]) +
-		// cost of join (=== numBlocks[0] + numBlocks[1])
-		cost_with_repartition = numBlocks[0] * 3 + numBlocks[1];
-		LOG.info("Cost with repartition is estimated to "
-				+ cost_with_repartition);
-		LOG.info("Cost without repartition is estimated to "
-				+ cost_without_repartition);
-		boolean need_repartition = cost_with_repartition < cost_without_repartition;
-		if (need_repartition) {
-			int file_to_repartition = selectRepartition(inputFiles, params);
-			repartitionStep(inputFiles, file_to_repartition, params);
-		}
-
-		// Restore inputFiles to the original order by user
-		if (inputFiles[1] != originalInputFiles[1]) {
-			Path temp = inputFiles[0];
-			inputFiles[0] = inputFiles[1];
-			inputFiles[1] = temp;
+		// Choose the join strategy with the least estimated cost
+		JoinPlanner.Plan plan = JoinPlanner.plan(inputFiles, params);
+		LOG.info("Join plan: " + plan);
+		long t1 = System.currentTimeMillis();
+		long result_size;
+		switch (plan.strategy) {
+		case SJMR:
+			result_size = SJMR.sjmr(inputFiles, outputPath, params);
+			break;
+		case Broadcast:
+		case IndexNestedLoop:
+			result_size = BroadcastJoin.broadcastJoin(inputFiles,
+					plan.fileToBroadcast, outputPath, params);
+			break;
+		case RepartitionJoin:
+			// Repartition a copy to keep the input files of the caller intact
+			Path[] files = inputFiles.clone();
+			repartitionStep(files, plan.fileToRepartition, params);
+			result_size = DistributedJoin.joinStep(files, outputPath, params);
+			break;
+		default:
+			result_size = DistributedJoin.joinStep(inputFiles, outputPath,
+					params);
 		}
-
-		// Redistribute join the larger file and the partitioned file
-		long result_size = DistributedJoin.joinStep(inputFiles, outputPath,
-				params);
+		long t2 = System.currentTimeMillis();
+		LOG.info(String.format("%s: estimated cost %.0f bytes read and shuffled, actual run time %d millis",
+				plan.strategy, plan.getCost(), t2 - t1));
 
 		if (userOutputPath == null)
 			outFs.delete(outputPath, true);
@@ -1085,6 +1025,8 @@ public class DistributedJoin {
 				.println("heuristic-repartition:<decision> - (*) Decision to have a heuristic or exact repartition (yes|no)");
 		System.out
 				.println("direct-join:<decision> - (*) Decision to directly join after repartitioning (yes|no)");
+		System.out
+				.println("histograms:<paths> - Histograms of the input files to estimate the join cost with repartition:auto");
 		System.out.println("-overwrite - Overwrite output file without notice");
 
 		GenericOptionsParser.printGenericCommandUsage(System.out);
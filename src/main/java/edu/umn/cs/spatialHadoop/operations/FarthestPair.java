@@ -46,6 +46,7 @@ import edu.umn.cs.spatialHadoop.mapreduce.SpatialRecordReader3;
 import edu.umn.cs.spatialHadoop.nasa.HDFRecordReader;
 import edu.umn.cs.spatialHadoop.util.MemoryReporter;
 import edu.umn.cs.spatialHadoop.util.Parallel;
+import edu.umn.cs.spatialHadoop.util.PointArray;
 import edu.umn.cs.spatialHadoop.util.Parallel.RunnableRange;
 
 /**
@@ -119,6 +120,61 @@ public class FarthestPair {
     return farthest_pair;
   }
   
+  /**
+   * Finds the farthest pair of points on a convex hull stored as primitive
+   * coordinates, e.g., the output of
+   * {@link ConvexHull#convexHullInMemory(PointArray, int)}. Distances are
+   * compared squared and the square root is taken only for the final answer.
+   * @param hull
+   * @return
+   */
+  public static PairDistance rotatingCallipers(PointArray hull) {
+    PairDistance farthestPair = new PairDistance();
+    double[] xs = hull.getXs();
+    double[] ys = hull.getYs();
+    int n = hull.size();
+    if (n == 0)
+      return farthestPair;
+    int farthest1 = 0, farthest2 = 0;
+    double maxDistance2 = 0;
+    int i, j = 1 % n, j_plus_one = 2 % n;
+    for (i = 0; i < n; i++) {
+      int i_plus_one = (i + 1) % n;
+      while (cross(xs, ys, i, i_plus_one, j_plus_one) > cross(xs, ys, i, i_plus_one, j)) {
+        j = j_plus_one;
+        j_plus_one = (j + 1) % n;
+      }
+      double dx = xs[i] - xs[j], dy = ys[i] - ys[j];
+      double dist2 = dx * dx + dy * dy;
+      if (dist2 > maxDistance2) {
+        maxDistance2 = dist2;
+        farthest1 = i;
+        farthest2 = j;
+      }
+
+      dx = xs[i_plus_one] - xs[j];
+      dy = ys[i_plus_one] - ys[j];
+      dist2 = dx * dx + dy * dy;
+      if (dist2 > maxDistance2) {
+        maxDistance2 = dist2;
+        farthest1 = i_plus_one;
+        farthest2 = j;
+      }
+    }
+    farthestPair.distance = Math.sqrt(maxDistance2);
+    farthestPair.first.set(xs[farthest1], ys[farthest1]);
+    farthestPair.second.set(xs[farthest2], ys[farthest2]);
+    return farthestPair;
+  }
+
+  /**
+   * The cross product of the vectors o-&gt;a and o-&gt;b where o, a, and b are
+   * indexes in the given coordinate arrays.
+   */
+  private static double cross(double[] xs, double[] ys, int o, int a, int b) {
+    return (xs[a] - xs[o]) * (ys[b] - ys[o]) - (ys[a] - ys[o]) * (xs[b] - xs[o]);
+  }
+
   /**
    * Computes an upper bound of the farthest pair of all possible points
    * that could be in two partitions.
@@ -290,11 +346,14 @@ public class FarthestPair {
     protected void map(Rectangle key, Iterable<Shape> value, Context context)
             throws IOException, InterruptedException {
       Counter processedPairs = context.getCounter(FarthestPairCounters.FP_ProcessedPairs);
-      List<Point> tempPoints = new ArrayList<Point>();
-      for (Shape s : value)
-        tempPoints.add((Point) s.clone());
-      Point[] mainPoints = tempPoints.toArray(new Point[tempPoints.size()]);
-      mainPoints = ConvexHull.convexHullInMemory(mainPoints);
+      PointArray mainPoints = new PointArray();
+      // Only coordinates are needed as the pair is reported as plain points
+      for (Shape s : value) {
+        Point p = (Point) s;
+        mainPoints.add(p.x, p.y);
+      }
+      ConvexHull.convexHullInMemory(mainPoints, 1);
+      PointArray allPoints = new PointArray();
       
       // Process other partitions, one-by-one in their order
       PairDistance answer = new PairDistance();
@@ -304,7 +363,8 @@ public class FarthestPair {
           new SpatialInputFormat3<Rectangle, Point>();
       while (i < candidatePartitions.length && candidateUpperBounds[i] > answer.distance) {
         processedPairs.increment(1);
-        tempPoints = new ArrayList<Point>();
+        allPoints.clear();
+        allPoints.add(mainPoints);
         Path partitionPath = new Path(inPath, candidatePartitions[i].filename);
         FileStatus partitionStatus = fs.getFileStatus(partitionPath);
         FileSplit fsplit = new FileSplit(partitionPath, 0, partitionStatus.getLen(), new String[0]);
@@ -319,19 +379,14 @@ public class FarthestPair {
         }
         while (reader.nextKeyValue()) {
           Iterable<Point> pts = reader.getCurrentValue();
-          for (Point p : pts) {
-            tempPoints.add(p.clone());
-          }
+          for (Point p : pts)
+            allPoints.add(p.x, p.y);
         }
         reader.close();
         
-        // Compute the farthest pair between mainPoints and otherPoints
-        Point[] otherPoints = tempPoints.toArray(new Point[tempPoints.size()]);
-        Point[] allPoints = new Point[mainPoints.length + otherPoints.length];
-        System.arraycopy(mainPoints, 0, allPoints, 0, mainPoints.length);
-        System.arraycopy(otherPoints, 0, allPoints, mainPoints.length, otherPoints.length);
-        Point[] chull = ConvexHull.convexHullInMemory(allPoints);
-        PairDistance fp = rotatingCallipers(chull);
+        // Compute the farthest pair between mainPoints and the other points
+        ConvexHull.convexHullInMemory(allPoints, 1);
+        PairDistance fp = rotatingCallipers(allPoints);
         if (fp.distance > answer.distance)
           answer = fp;
         i++;
@@ -421,7 +476,8 @@ public class FarthestPair {
     Job job = Job.getInstance(params);
     SpatialInputFormat3.setInputPaths(job, inPaths);
     final List<org.apache.hadoop.mapreduce.InputSplit> splits = inputFormat.getSplits(job);
-    final Point[][] allLists = new Point[splits.size()][];
+    final PointArray[] allLists = new PointArray[splits.size()];
+    int parallelism = params.getInt("parallel", Runtime.getRuntime().availableProcessors());
     
     // 2- Read all input points in memory
     LOG.info("Reading points from "+splits.size()+" splits");
@@ -431,7 +487,7 @@ public class FarthestPair {
         try {
           int numPoints = 0;
           for (int i = i1; i < i2; i++) {
-            List<Point> points = new ArrayList<Point>();
+            PointArray points = new PointArray();
             org.apache.hadoop.mapreduce.lib.input.FileSplit fsplit = (org.apache.hadoop.mapreduce.lib.input.FileSplit) splits.get(i);
             final org.apache.hadoop.mapreduce.RecordReader<Rectangle, Iterable<Point>> reader =
                 inputFormat.createRecordReader(fsplit, null);
@@ -444,13 +500,12 @@ public class FarthestPair {
             }
             while (reader.nextKeyValue()) {
               Iterable<Point> pts = reader.getCurrentValue();
-              for (Point p : pts) {
-                points.add(p.clone());
-              }
+              for (Point p : pts)
+                points.add(p.x, p.y);
             }
             reader.close();
             numPoints += points.size();
-            allLists[i] = points.toArray(new Point[points.size()]);
+            allLists[i] = points;
           }
           return numPoints;
         } catch (IOException e) {
@@ -460,27 +515,24 @@ public class FarthestPair {
         }
         return null;
       }
-    }, params.getInt("parallel", Runtime.getRuntime().availableProcessors()));
+    }, parallelism);
     
     int totalNumPoints = 0;
     for (int numPoints : numsPoints)
       totalNumPoints += numPoints;
     
     LOG.info("Read "+totalNumPoints+" points and merging into one list");
-    Point[] allPoints = new Point[totalNumPoints];
-    int pointer = 0;
-    
+    PointArray allPoints = new PointArray(totalNumPoints);
     for (int iList = 0; iList < allLists.length; iList++) {
-      System.arraycopy(allLists[iList], 0, allPoints, pointer, allLists[iList].length);
-      pointer += allLists[iList].length;
+      allPoints.add(allLists[iList]);
       allLists[iList] = null; // To let the GC collect it
     }
     
-    LOG.info("Computing closest-pair for "+allPoints.length+" points");
+    LOG.info("Computing farthest-pair for "+allPoints.size()+" points");
     long t1 = System.currentTimeMillis();
-    Point[] convexHull = ConvexHull.convexHullInMemory(allPoints);
+    ConvexHull.convexHullInMemory(allPoints, parallelism);
     long t2 = System.currentTimeMillis();
-    PairDistance farthestPair = rotatingCallipers(convexHull);
+    PairDistance farthestPair = rotatingCallipers(allPoints);
     long t3 = System.currentTimeMillis();
     System.out.println("Convex hull in "+(t2-t1)/1000.0+" seconds "
         + "and rotating calipers in "+(t3-t2)/1000.0+" seconds");
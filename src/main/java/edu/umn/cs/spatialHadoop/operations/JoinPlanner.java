@@ -0,0 +1,406 @@
+/***********************************************************************
+* Copyright (c) 2015 by Regents of the University of Minnesota.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Apache License, Version 2.0 which
+* accompanies this distribution and is available at
+* http://www.opensource.org/licenses/apache2.0.php.
+*
+*************************************************************************/
+package edu.umn.cs.spatialHadoop.operations;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import edu.umn.cs.spatialHadoop.OperationsParams;
+import edu.umn.cs.spatialHadoop.core.Rectangle;
+import edu.umn.cs.spatialHadoop.core.SpatialSite;
+import edu.umn.cs.spatialHadoop.indexing.GlobalIndex;
+import edu.umn.cs.spatialHadoop.indexing.Partition;
+import edu.umn.cs.spatialHadoop.visualization.GridHistogram;
+
+/**
+ * A cost-based planner for the spatial join of two files. It collects the
+ * statistics of each input, i.e., the sizes and record counts of its
+ * partitions from the global index, an optional histogram, and the number of
+ * file system blocks, and estimates the number of bytes that each join
+ * strategy reads and shuffles. The strategy with the least estimated cost is
+ * chosen.
+ * @author Ahmed Eldawy
+ *
+ */
+public class JoinPlanner {
+  private static final Log LOG = LogFactory.getLog(JoinPlanner.class);
+
+  /**
+   * Comma separated paths of histograms of the input files in the same order
+   * of the input files, as computed by
+   * {@link edu.umn.cs.spatialHadoop.visualization.Histogram}. Each histogram
+   * must be computed over the MBR of its input file.
+   */
+  public static final String InputHistograms = "histograms";
+
+  /**
+   * Expected ratio of replicated records when a file is partitioned, i.e.,
+   * the ratio between the size of the partitioned file and the input file.
+   */
+  public static final String ReplicationFactor = "JoinPlanner.ReplicationFactor";
+
+  /**The strategies that the planner chooses from*/
+  public enum Strategy {
+    /**Join the two files directly using {@link DistributedJoin}*/
+    DistributedJoin,
+    /**Repartition one file to match the other before {@link DistributedJoin}*/
+    RepartitionJoin,
+    /**Partition both files on the fly using {@link SJMR}*/
+    SJMR,
+    /**Broadcast the small file to all blocks of the non-indexed large file*/
+    Broadcast,
+    /**
+     * Broadcast the small file to the partitions of the indexed large file
+     * that overlap it using {@link BroadcastJoin}
+     */
+    IndexNestedLoop,
+  }
+
+  /**
+   * The statistics of one input file used to estimate the costs.
+   */
+  public static class DatasetStats {
+    /**Path of the input file*/
+    public Path path;
+    /**Total size of the file in bytes*/
+    public long size;
+    /**Number of file system blocks or partitions of the file*/
+    public int numBlocks;
+    /**The global index of the file or null if not indexed*/
+    public GlobalIndex<Partition> gindex;
+    /**The MBR of the file or null if not known without scanning the file*/
+    public Rectangle mbr;
+    /**An optional histogram of the sizes of the records over the MBR*/
+    public GridHistogram histogram;
+    /**Whether the partitions of the file have local indexes*/
+    public boolean locallyIndexed;
+    /**
+     * Sizes of the partitions that are not stored in the master file, keyed
+     * by the file name. The global index is shared through a cache so it is
+     * never modified.
+     */
+    private Map<String, Long> missingSizes = new HashMap<String, Long>();
+
+    public DatasetStats() {}
+
+    /**
+     * Collects the statistics of the given file without scanning it.
+     * @param path
+     * @param histogramPath the path of a histogram of the file or null
+     * @param params
+     * @throws IOException
+     */
+    public DatasetStats(Path path, Path histogramPath, OperationsParams params)
+        throws IOException {
+      this.path = path;
+      FileSystem fs = path.getFileSystem(params);
+      this.gindex = SpatialSite.getGlobalIndex(fs, path);
+      if (gindex != null) {
+        this.mbr = gindex.getMBR();
+        this.numBlocks = gindex.size();
+        for (Partition p : gindex) {
+          // Older master files do not store the partition sizes
+          long partitionSize = p.size;
+          if (partitionSize == 0) {
+            partitionSize = fs.getFileStatus(new Path(path, p.filename)).getLen();
+            missingSizes.put(p.filename, partitionSize);
+          }
+          this.size += partitionSize;
+          if (SpatialSite.getLocalIndex(new Path(path, p.filename)) != null)
+            this.locallyIndexed = true;
+        }
+      } else {
+        FileStatus fStatus = fs.getFileStatus(path);
+        FileStatus[] files = fStatus.isDir() ?
+            fs.listStatus(path, SpatialSite.NonHiddenFileFilter) :
+            new FileStatus[] {fStatus};
+        for (FileStatus file : files) {
+          this.size += file.getLen();
+          this.numBlocks += Math.max(1,
+              fs.getFileBlockLocations(file, 0, file.getLen()).length);
+        }
+      }
+      if (histogramPath != null && mbr != null) {
+        FileSystem histFS = histogramPath.getFileSystem(params);
+        this.histogram = GridHistogram.readFromFile(histFS, histogramPath);
+      }
+    }
+
+    /**
+     * Estimates the fraction of the bytes of this file that lie in the given
+     * range. It uses the histogram if available, otherwise, the partitions of
+     * the global index, otherwise, the overlap between the MBR and the range.
+     * @param range the query range or null to return the whole file
+     * @return a fraction in the range [0, 1]
+     */
+    public double fractionIn(Rectangle range) {
+      if (range == null || mbr == null || size == 0)
+        return 1.0;
+      if (!mbr.isIntersected(range))
+        return 0.0;
+      if (histogram != null) {
+        long total = histogram.getSum(0, 0, histogram.getWidth(), histogram.getHeight());
+        if (total > 0) {
+          int col1 = histogramColumn(range.x1), col2 = histogramColumn(range.x2);
+          int row1 = histogramRow(range.y1), row2 = histogramRow(range.y2);
+          return (double) histogram.getSum(col1, row1, col2 - col1 + 1, row2 - row1 + 1) / total;
+        }
+      }
+      if (gindex != null) {
+        double overlap = 0;
+        for (Partition p : gindex)
+          overlap += sizeOf(p) * overlapRatio(p, range);
+        return Math.min(1.0, overlap / size);
+      }
+      return overlapRatio(mbr, range);
+    }
+
+    /**
+     * Total size of the partitions that overlap the given range. These are
+     * the partitions that a join reads as a whole.
+     * @param range the range or null to return the size of all partitions
+     * @return
+     */
+    public long overlappingPartitionsSize(Rectangle range) {
+      long overlappingSize = 0;
+      for (Partition p : gindex) {
+        if (range == null || p.isIntersected(range))
+          overlappingSize += sizeOf(p);
+      }
+      return overlappingSize;
+    }
+
+    /**
+     * Number of partitions that overlap the given range.
+     * @param range the range or null to count all partitions
+     * @return
+     */
+    public int numOverlappingPartitions(Rectangle range) {
+      if (range == null)
+        return gindex.size();
+      int count = 0;
+      for (Partition p : gindex) {
+        if (p.isIntersected(range))
+          count++;
+      }
+      return count;
+    }
+
+    /**
+     * The size of the given partition of this file in bytes
+     * @param p
+     * @return
+     */
+    public long sizeOf(Partition p) {
+      if (p.size != 0)
+        return p.size;
+      Long partitionSize = missingSizes.get(p.filename);
+      return partitionSize == null ? 0 : partitionSize;
+    }
+
+    private int histogramColumn(double x) {
+      int col = (int) ((x - mbr.x1) * histogram.getWidth() / mbr.getWidth());
+      return Math.max(0, Math.min(histogram.getWidth() - 1, col));
+    }
+
+    private int histogramRow(double y) {
+      int row = (int) ((y - mbr.y1) * histogram.getHeight() / mbr.getHeight());
+      return Math.max(0, Math.min(histogram.getHeight() - 1, row));
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s: %d bytes in %d %s", path, size, numBlocks,
+          gindex != null ? "partitions" : "blocks");
+    }
+  }
+
+  /**
+   * The ratio of the area of the given rectangle that overlaps the range.
+   * Degenerate rectangles, e.g., points, count fully if they intersect it.
+   * @param r
+   * @param range
+   * @return
+   */
+  static double overlapRatio(Rectangle r, Rectangle range) {
+    if (!r.isIntersected(range))
+      return 0.0;
+    double area = r.area();
+    if (area == 0)
+      return 1.0;
+    return r.getIntersection(range).area() / area;
+  }
+
+  /**
+   * The outcome of the planner along with the estimated costs of all
+   * strategies.
+   */
+  public static class Plan {
+    /**The chosen strategy*/
+    public Strategy strategy;
+    /**The file to repartition if the strategy is RepartitionJoin*/
+    public int fileToRepartition = -1;
+    /**The file to broadcast if the strategy is Broadcast or IndexNestedLoop*/
+    public int fileToBroadcast = -1;
+    /**Estimated costs in bytes of all strategies. Infinity if inapplicable*/
+    public double[] costs = new double[Strategy.values().length];
+
+    /**Estimated cost of the chosen strategy*/
+    public double getCost() {
+      return costs[strategy.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder str = new StringBuilder();
+      str.append(strategy);
+      if (strategy == Strategy.RepartitionJoin)
+        str.append(" of file #" + fileToRepartition);
+      else if (strategy == Strategy.Broadcast || strategy == Strategy.IndexNestedLoop)
+        str.append(" of file #" + fileToBroadcast);
+      str.append(" (estimated costs:");
+      for (Strategy s : Strategy.values())
+        str.append(String.format(" %s=%.0f", s, costs[s.ordinal()]));
+      str.append(" bytes)");
+      return str.toString();
+    }
+  }
+
+  /**
+   * Collects the statistics of the two input files and plans their join.
+   * @param inputFiles
+   * @param params
+   * @return
+   * @throws IOException
+   */
+  public static Plan plan(Path[] inputFiles, OperationsParams params) throws IOException {
+    String[] histogramPaths = params.getStrings(InputHistograms);
+    DatasetStats[] stats = new DatasetStats[inputFiles.length];
+    for (int i = 0; i < inputFiles.length; i++) {
+      Path histogramPath = histogramPaths != null && i < histogramPaths.length ?
+          new Path(histogramPaths[i]) : null;
+      stats[i] = new DatasetStats(inputFiles[i], histogramPath, params);
+      LOG.info("Join input " + stats[i]);
+    }
+    return plan(stats, params.getFloat(ReplicationFactor, 1.2f),
+        params.getLong(BroadcastJoin.MaxBroadcastSize, BroadcastJoin.DefaultMaxBroadcastSize));
+  }
+
+  /**
+   * Chooses the join strategy with the least estimated cost.
+   * @param stats the statistics of the two input files
+   * @param replication the expected replication factor of partitioning
+   * @param maxBroadcastSize the size of the largest file that can be broadcast
+   * @return
+   */
+  public static Plan plan(DatasetStats[] stats, double replication,
+      long maxBroadcastSize) {
+    DatasetStats s0 = stats[0], s1 = stats[1];
+    // Estimated fraction of each file that overlaps the other file
+    double f0 = s0.fractionIn(s1.mbr);
+    double f1 = s1.fractionIn(s0.mbr);
+    Plan plan = new Plan();
+
+    // Distributed join reads each file once per overlapping pair of blocks
+    double djCost;
+    if (s0.gindex != null && s1.gindex != null) {
+      djCost = 0;
+      for (Partition p0 : s0.gindex) {
+        for (Partition p1 : s1.gindex) {
+          if (p0.isIntersected(p1))
+            djCost += s0.sizeOf(p0) + s1.sizeOf(p1);
+        }
+      }
+    } else if (s0.gindex != null || s1.gindex != null) {
+      // Every block of the non-indexed file is paired with all overlapping
+      // partitions of the indexed file
+      DatasetStats indexed = s0.gindex != null ? s0 : s1;
+      DatasetStats notIndexed = indexed == s0 ? s1 : s0;
+      djCost = (double) notIndexed.numBlocks * indexed.overlappingPartitionsSize(notIndexed.mbr)
+          + (double) notIndexed.size * indexed.numOverlappingPartitions(notIndexed.mbr);
+    } else {
+      djCost = (double) s0.numBlocks * s1.size + (double) s1.numBlocks * s0.size;
+    }
+    plan.costs[Strategy.DistributedJoin.ordinal()] = djCost;
+
+    // Repartitioning reads the non-indexed (or smaller) file, writes its
+    // overlapping part, and reads it back along with the partitions of the
+    // other file that overlap it. It requires at least one indexed file.
+    if (s0.gindex != null || s1.gindex != null) {
+      int r = s0.gindex == null ? 0 : s1.gindex == null ? 1 :
+          s0.size < s1.size ? 0 : 1;
+      DatasetStats rep = stats[r], other = stats[1 - r];
+      double fRep = r == 0 ? f0 : f1;
+      plan.costs[Strategy.RepartitionJoin.ordinal()] = rep.size
+          + 2 * rep.size * fRep * replication
+          + other.overlappingPartitionsSize(rep.mbr);
+      plan.fileToRepartition = r;
+    } else {
+      plan.costs[Strategy.RepartitionJoin.ordinal()] = Double.POSITIVE_INFINITY;
+    }
+
+    // SJMR computes the MBR of non-indexed files, reads both files, and
+    // shuffles the overlapping part of each file with replication
+    double sjmrCost = s0.size + s1.size
+        + 2 * (s0.size * f0 + s1.size * f1) * replication;
+    for (DatasetStats s : stats) {
+      if (s.mbr == null)
+        sjmrCost += s.size;
+    }
+    plan.costs[Strategy.SJMR.ordinal()] = sjmrCost;
+
+    // Broadcasting copies the small file to every map task, which reads
+    // either all blocks of the large file or its overlapping partitions
+    plan.costs[Strategy.Broadcast.ordinal()] = Double.POSITIVE_INFINITY;
+    plan.costs[Strategy.IndexNestedLoop.ordinal()] = Double.POSITIVE_INFINITY;
+    Strategy broadcastStrategy = null;
+    double broadcastCost = Double.POSITIVE_INFINITY;
+    for (int b = 0; b < stats.length; b++) {
+      DatasetStats small = stats[b], large = stats[1 - b];
+      // The large file is read as text lines by the broadcast join
+      if (small.size > maxBroadcastSize || large.locallyIndexed)
+        continue;
+      Strategy strategy;
+      double cost;
+      if (large.gindex != null) {
+        strategy = Strategy.IndexNestedLoop;
+        cost = large.overlappingPartitionsSize(small.mbr)
+            + (double) small.size * large.numOverlappingPartitions(small.mbr);
+      } else {
+        strategy = Strategy.Broadcast;
+        cost = large.size + (double) small.size * large.numBlocks;
+      }
+      if (cost < broadcastCost) {
+        broadcastStrategy = strategy;
+        broadcastCost = cost;
+        plan.fileToBroadcast = b;
+      }
+    }
+    if (broadcastStrategy != null)
+      plan.costs[broadcastStrategy.ordinal()] = broadcastCost;
+
+    plan.strategy = Strategy.DistributedJoin;
+    for (Strategy s : Strategy.values()) {
+      if (plan.costs[s.ordinal()] < plan.getCost())
+        plan.strategy = s;
+    }
+    // Broadcast wins ties as it builds one index per map task rather than
+    // joining each pair of blocks from scratch
+    if (broadcastStrategy != null && broadcastCost <= plan.getCost())
+      plan.strategy = broadcastStrategy;
+    return plan;
+  }
+}
@@ -28,14 +28,9 @@ import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.BooleanWritable;
-import org.apache.hadoop.io.DoubleWritable;
-import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
-import org.apache.hadoop.mapred.Task;
-import org.apache.hadoop.mapreduce.Counter;
-import org.apache.hadoop.mapreduce.Counters;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
@@ -43,14 +38,15 @@ import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 import org.apache.hadoop.util.GenericOptionsParser;
+import org.apache.hadoop.util.IndexedSortable;
+import org.apache.hadoop.util.LineReader;
 import org.apache.hadoop.util.PriorityQueue;
+import org.apache.hadoop.util.QuickSort;
 
 import edu.umn.cs.spatialHadoop.OperationsParams;
-import edu.umn.cs.spatialHadoop.core.Circle;
 import edu.umn.cs.spatialHadoop.core.Point;
 import edu.umn.cs.spatialHadoop.core.Rectangle;
 import edu.umn.cs.spatialHadoop.core.ResultCollector;
-import edu.umn.cs.spatialHadoop.core.ResultCollector2;
 import edu.umn.cs.spatialHadoop.core.Shape;
 import edu.umn.cs.spatialHadoop.core.SpatialSite;
 import edu.umn.cs.spatialHadoop.indexing.GlobalIndex;
@@ -58,6 +54,7 @@ import edu.umn.cs.spatialHadoop.indexing.Partition;
 import edu.umn.cs.spatialHadoop.io.TextSerializable;
 import edu.umn.cs.spatialHadoop.io.TextSerializerHelper;
 import edu.umn.cs.spatialHadoop.mapred.BlockFilter;
+import edu.umn.cs.spatialHadoop.mapred.DefaultBlockFilter;
 import edu.umn.cs.spatialHadoop.mapred.TextOutputFormat3;
 import edu.umn.cs.spatialHadoop.mapreduce.SpatialInputFormat3;
 import edu.umn.cs.spatialHadoop.mapreduce.SpatialRecordReader3;
@@ -213,11 +210,57 @@ public class KNN {
       }
       return inserted;
     }
+
+    /**
+     * Tests whether an element equal to the given one is currently in the heap
+     * @param element
+     * @return
+     */
+    public boolean contains(S element) {
+      return allElements.contains(element);
+    }
+  }
+
+  /**
+   * A block filter that selects an explicit list of partitions by file name.
+   * Used by the iterative MapReduce kNN to read only the partitions that can
+   * still contribute to the answer.
+   * @author Ahmed Eldawy
+   *
+   */
+  public static class SelectedPartitionsFilter extends DefaultBlockFilter {
+    /**Configuration parameter for the names of the selected partitions*/
+    public static final String SelectedPartitions = "KNN.SelectedPartitions";
+
+    /**File names of all partitions to be processed*/
+    private Set<String> selectedPartitions;
+
+    @Override
+    public void configure(Configuration conf) {
+      String[] names = conf.getStrings(SelectedPartitions, new String[0]);
+      this.selectedPartitions = new HashSet<String>();
+      for (String name : names)
+        selectedPartitions.add(name);
+    }
+
+    @Override
+    public void selectCells(GlobalIndex<Partition> gIndex,
+        ResultCollector<Partition> output) {
+      int numPartitions = 0;
+      for (Partition p : gIndex) {
+        if (selectedPartitions.contains(p.filename)) {
+          output.collect(p);
+          numPartitions++;
+        }
+      }
+      LOG.info("Selected "+numPartitions+" partitions for kNN");
+    }
   }
 
   /**
-   * Mapper for KNN MapReduce. Calculates the distance between a shape and 
-   * the query point.
+   * Mapper for KNN MapReduce. Calculates the distance between a shape and
+   * the query point and keeps only the k nearest shapes in the whole split.
+   * The retained shapes are written out when the mapper finishes.
    * @author eldawy
    *
    */
@@ -225,11 +268,14 @@ public class KNN {
     Mapper<Rectangle, Iterable<Shape>, NullWritable, TextWithDistance> {
     /**A temporary object to be used for output*/
     private final TextWithDistance outputValue = new TextWithDistance();
-    
+
     /**User query*/
     private Point queryPoint;
     private int k;
 
+    /**The k nearest shapes found so far in this split*/
+    private KNNObjects<TextWithDistance> knn;
+
     @Override
     protected void setup(Context context) throws IOException,
         InterruptedException {
@@ -237,19 +283,35 @@ public class KNN {
       Configuration conf = context.getConfiguration();
       queryPoint = (Point) OperationsParams.getShape(conf, "point");
       k = conf.getInt("k", 1);
+      knn = new KNNObjects<TextWithDistance>(k);
     }
-    
+
     @Override
     protected void map(Rectangle key, Iterable<Shape> shapes, final Context context)
         throws IOException, InterruptedException {
-      final NullWritable dummy = NullWritable.get();
+      if (k == 0)
+        return;
       for (Shape shape : shapes) {
-        outputValue.distance = shape.distanceTo(queryPoint.x, queryPoint.y);
+        double distance = shape.distanceTo(queryPoint.x, queryPoint.y);
+        // Skip the serialization if the shape cannot make it into the heap
+        if (knn.size() == k && distance >= knn.top().distance)
+          continue;
+        outputValue.distance = distance;
         outputValue.text.clear();
         shape.toText(outputValue.text);
-        context.write(dummy, outputValue);
+        if (!knn.contains(outputValue))
+          knn.insert(outputValue.clone());
       }
     }
+
+    @Override
+    protected void cleanup(Context context) throws IOException,
+        InterruptedException {
+      final NullWritable dummy = NullWritable.get();
+      while (knn.size() > 0)
+        context.write(dummy, knn.pop());
+      super.cleanup(context);
+    }
   }
   
   /**
@@ -297,7 +359,11 @@ public class KNN {
   }
   
   /**
-   * A MapReduce version of KNN query.
+   * A MapReduce version of KNN query. If the input is indexed, the partitions
+   * are read in iterations in the order of their minimum distance to the
+   * query point. The first iteration reads the partitions that are expected
+   * to contain the answer and each following iteration reads only the unread
+   * partitions that overlap the circle of the current k<sup>th</sup> neighbor.
    * @param inputPath
    * @param userOutputPath
    * @param params
@@ -320,15 +386,12 @@ public class KNN {
     job.setMapOutputKeyClass(NullWritable.class);
     job.setMapOutputValueClass(TextWithDistance.class);
 
+    job.setCombinerClass(KNNReduce.class);
     job.setReducerClass(KNNReduce.class);
     job.setNumReduceTasks(1);
     
-    job.getConfiguration().setClass(SpatialSite.FilterClass, RangeFilter.class, BlockFilter.class);
     final Point queryPoint = (Point) params.getShape("point");
     final int k = params.getInt("k", 1);
-    
-    final IntWritable additional_blocks_2b_processed = new IntWritable(0);
-    long resultCount;
     int iterations = 0;
     
     Path outputPath = userOutputPath;
@@ -342,106 +405,120 @@ public class KNN {
     TextOutputFormat3.setOutputPath(job, outputPath);
     
     GlobalIndex<Partition> globalIndex = SpatialSite.getGlobalIndex(inFs, inputPath);
-    Configuration templateConf = job.getConfiguration();
-
     FileSystem outFs = outputPath.getFileSystem(params);
-    // Start with the query point to select all partitions overlapping with it
-    Shape range_for_this_iteration = new Point(queryPoint.x, queryPoint.y);
-    
-    do {
-      job = new Job(templateConf);
-      // Delete results of last iteration if not first iteration
-      if (outputPath != null)
-        outFs.delete(outputPath, true);
-        
+
+    if (globalIndex == null) {
+      // No global index, scan the whole file in one job
+      outFs.delete(outputPath, true);
       LOG.info("Running iteration: "+(++iterations));
-      // Set query range for the SpatialInputFormat
-      OperationsParams.setShape(job.getConfiguration(), RangeFilter.QueryRange,
-          range_for_this_iteration);
-
-      // Submit the job
-      if (params.getBoolean("background", false)) {
-        // XXX this is incorrect because if the job needs multiple iterations,
-        // it will run only the first one
-        job.waitForCompletion(false);
-        return job;
-      }
       job.waitForCompletion(false);
+    } else {
+      Configuration templateConf = job.getConfiguration();
+      templateConf.setClass(SpatialSite.FilterClass,
+          SelectedPartitionsFilter.class, BlockFilter.class);
 
-      // Retrieve answers for this iteration
-      Counters counters = job.getCounters();
-      Counter resultSizeCounter = counters.findCounter(Task.Counter.REDUCE_OUTPUT_RECORDS);
-      resultCount = resultSizeCounter.getValue();
-      
-      if (globalIndex != null) {
-        Circle range_for_next_iteration;
-        if (resultCount < k) {
-          LOG.info("Found only "+resultCount+" results");
-          // Did not find enough results in the query space
-          // Increase the distance by doubling the maximum distance among all
-          // partitions that were processed
-          final DoubleWritable maximum_distance = new DoubleWritable(0);
-          int matched_partitions = globalIndex.rangeQuery(range_for_this_iteration, new ResultCollector<Partition>() {
-            @Override
-            public void collect(Partition p) {
-              double distance =
-                  p.getMaxDistanceTo(queryPoint.x, queryPoint.y);
-              if (distance > maximum_distance.get())
-                maximum_distance.set(distance);
-            }
-          });
-          if (matched_partitions == 0) {
-            // The query point is outside the search space
-            // Set the range to include the closest partition
-            globalIndex.knn(queryPoint.x, queryPoint.y, 1, new ResultCollector2<Partition, Double>() {
-              @Override
-              public void collect(Partition r, Double s) {
-                maximum_distance.set(s);
-              }
-            });
-          }
-          range_for_next_iteration =
-              new Circle(queryPoint.x, queryPoint.y, maximum_distance.get()*2);
-          LOG.info("Expanding to "+maximum_distance.get()*2);
+      // Order partitions by their minimum distance to the query point. The
+      // partitions processed by all iterations are always a prefix of them.
+      final Partition[] partitions = new Partition[globalIndex.size()];
+      final double[] minDistances = new double[partitions.length];
+      int numPartitions = 0;
+      for (Partition p : globalIndex) {
+        partitions[numPartitions] = p;
+        minDistances[numPartitions] = p.getMinDistanceTo(queryPoint.x, queryPoint.y);
+        numPartitions++;
+      }
+      new QuickSort().sort(new IndexedSortable() {
+        @Override
+        public void swap(int i, int j) {
+          Partition tempP = partitions[i];
+          partitions[i] = partitions[j];
+          partitions[j] = tempP;
+          double tempD = minDistances[i];
+          minDistances[i] = minDistances[j];
+          minDistances[j] = tempD;
+        }
+
+        @Override
+        public int compare(int i, int j) {
+          return Double.compare(minDistances[i], minDistances[j]);
+        }
+      }, 0, numPartitions);
+
+      // The first iteration reads all partitions that may contain a shape
+      // closer than the initial search radius
+      double searchRadius = initialSearchRadius(globalIndex, queryPoint, k);
+      int numPartitionsRead = 0;
+      int numPartitionsSelected = 0;
+      while (numPartitionsSelected < numPartitions &&
+          (numPartitionsSelected == 0 ||
+           minDistances[numPartitionsSelected] <= searchRadius))
+        numPartitionsSelected++;
+      LOG.info("Initial search radius "+searchRadius+" selects "+
+          numPartitionsSelected+" out of "+numPartitions+" partitions");
+
+      KNNObjects<TextWithDistance> knn = new KNNObjects<TextWithDistance>(k);
+      while (numPartitionsSelected > numPartitionsRead) {
+        job = new Job(templateConf);
+        // Delete results of last iteration if not first iteration
+        outFs.delete(outputPath, true);
+
+        LOG.info("Running iteration: "+(++iterations));
+        String[] selectedNames = new String[numPartitionsSelected - numPartitionsRead];
+        for (int i = 0; i < selectedNames.length; i++)
+          selectedNames[i] = partitions[numPartitionsRead + i].filename;
+        job.getConfiguration().setStrings(
+            SelectedPartitionsFilter.SelectedPartitions, selectedNames);
+
+        // Submit the job
+        if (params.getBoolean("background", false)) {
+          // XXX this is incorrect because if the job needs multiple iterations,
+          // it will run only the first one
+          job.waitForCompletion(false);
+          return job;
+        }
+        job.waitForCompletion(false);
+        if (!job.isSuccessful())
+          throw new RuntimeException("KNN iteration "+iterations+" failed");
+        numPartitionsRead = numPartitionsSelected;
+
+        // Merge the answers of this iteration with all previous ones
+        readAnswers(outFs, outputPath, knn);
+
+        if (knn.size() < k) {
+          LOG.info("Found only "+knn.size()+" results");
+          // Did not find enough results. Read the next nearest partitions
+          // that are expected to contain the missing results
+          long expectedCount = knn.size();
+          while (numPartitionsSelected < numPartitions &&
+              (numPartitionsSelected == numPartitionsRead || expectedCount < k))
+            expectedCount += partitions[numPartitionsSelected++].recordCount;
         } else {
-          // Calculate the new test range which is a circle centered at the
-          // query point and distance to the k^{th} neighbor
-          
-          // Get distance to the kth neighbor
-          final DoubleWritable distance_to_kth_neighbor = new DoubleWritable();
-          FileStatus[] results = outFs.listStatus(outputPath);
-          for (FileStatus result_file : results) {
-            if (result_file.getLen() > 0 && result_file.getPath().getName().startsWith("part-")) {
-              // Read the last line (kth neighbor)
-              Tail.tail(outFs, result_file.getPath(), 1, new TextWithDistance(), new ResultCollector<TextWithDistance>() {
-
-                @Override
-                public void collect(TextWithDistance r) {
-                  distance_to_kth_neighbor.set(r.distance);
-                }
-              });
-            }
-          }
-          range_for_next_iteration = new Circle(queryPoint.x, queryPoint.y,
-              distance_to_kth_neighbor.get());
-          LOG.info("Expanding to kth neighbor: "+distance_to_kth_neighbor);
+          // Read all unread partitions that overlap the circle centered at
+          // the query point with the distance to the kth neighbor as radius
+          double kthDistance = knn.top().distance;
+          while (numPartitionsSelected < numPartitions &&
+              minDistances[numPartitionsSelected] < kthDistance)
+            numPartitionsSelected++;
+          LOG.info("Distance to kth neighbor: "+kthDistance);
         }
-        
-        // Calculate the number of blocks to be processed to check the
-        // terminating condition;
-        additional_blocks_2b_processed.set(0);
-        final Shape temp = range_for_this_iteration;
-        globalIndex.rangeQuery(range_for_next_iteration, new ResultCollector<Partition>() {
-          @Override
-          public void collect(Partition p) {
-            if (!(p.isIntersected(temp))) {
-              additional_blocks_2b_processed.set(additional_blocks_2b_processed.get() + 1);
-            }
-          }
-        });
-        range_for_this_iteration = range_for_next_iteration;
       }
-    } while (additional_blocks_2b_processed.get() > 0);
+
+      if (iterations > 1) {
+        // Replace the output of the last iteration with the merged answer
+        outFs.delete(outputPath, true);
+        PrintStream ps = new PrintStream(outFs.create(new Path(outputPath, "part-r-00000")));
+        TextWithDistance[] knnAscendingOrder = new TextWithDistance[knn.size()];
+        int i = knnAscendingOrder.length;
+        while (knn.size() > 0)
+          knnAscendingOrder[--i] = knn.pop();
+        Text text = new Text();
+        for (TextWithDistance t : knnAscendingOrder) {
+          text.clear();
+          ps.println(t.toText(text));
+        }
+        ps.close();
+      }
+    }
     
     // If output file is not set by user, delete it
     if (userOutputPath == null)
@@ -450,6 +527,77 @@ public class KNN {
     
     return job;
   }
+
+  /**
+   * Computes a search radius around the query point that is expected to
+   * contain at least k records. This is the smallest maximum distance to a
+   * partition such that all partitions within it contain k records in total.
+   * If the partitions do not have enough records, an infinite radius is
+   * returned.
+   * @param gIndex
+   * @param queryPoint
+   * @param k
+   * @return
+   */
+  private static double initialSearchRadius(GlobalIndex<Partition> gIndex,
+      Point queryPoint, int k) {
+    final double[] maxDistances = new double[gIndex.size()];
+    final long[] recordCounts = new long[gIndex.size()];
+    int i = 0;
+    for (Partition p : gIndex) {
+      maxDistances[i] = p.getMaxDistanceTo(queryPoint.x, queryPoint.y);
+      recordCounts[i] = p.recordCount;
+      i++;
+    }
+    new QuickSort().sort(new IndexedSortable() {
+      @Override
+      public void swap(int i, int j) {
+        double tempD = maxDistances[i];
+        maxDistances[i] = maxDistances[j];
+        maxDistances[j] = tempD;
+        long tempC = recordCounts[i];
+        recordCounts[i] = recordCounts[j];
+        recordCounts[j] = tempC;
+      }
+
+      @Override
+      public int compare(int i, int j) {
+        return Double.compare(maxDistances[i], maxDistances[j]);
+      }
+    }, 0, maxDistances.length);
+    long totalCount = 0;
+    for (i = 0; i < maxDistances.length; i++) {
+      totalCount += recordCounts[i];
+      if (totalCount >= k)
+        return maxDistances[i];
+    }
+    return Double.POSITIVE_INFINITY;
+  }
+
+  /**
+   * Reads the answers written by one KNN MapReduce job and adds them to the
+   * given heap.
+   * @param fs
+   * @param outputPath
+   * @param knn
+   * @throws IOException
+   */
+  private static void readAnswers(FileSystem fs, Path outputPath,
+      KNNObjects<TextWithDistance> knn) throws IOException {
+    FileStatus[] results = fs.listStatus(outputPath);
+    Text line = new Text();
+    for (FileStatus resultFile : results) {
+      if (resultFile.getLen() > 0 && resultFile.getPath().getName().startsWith("part-")) {
+        LineReader in = new LineReader(fs.open(resultFile.getPath()));
+        while (in.readLine(line) > 0) {
+          TextWithDistance answer = new TextWithDistance();
+          answer.fromText(line);
+          knn.insert(answer);
+        }
+        in.close();
+      }
+    }
+  }
   
   private static<S extends Shape> long knnLocal(Path inFile, Path outPath,
       OperationsParams params) throws IOException, InterruptedException {
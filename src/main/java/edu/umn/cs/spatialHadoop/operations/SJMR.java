@@ -11,8 +11,8 @@ package edu.umn.cs.spatialHadoop.operations;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Vector;
 
 import edu.umn.cs.spatialHadoop.core.*;
@@ -23,6 +23,8 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
@@ -43,11 +45,12 @@ import org.apache.hadoop.mapred.RunningJob;
 import org.apache.hadoop.mapred.Task;
 import org.apache.hadoop.mapred.lib.NullOutputFormat;
 import org.apache.hadoop.util.GenericOptionsParser;
+import org.apache.hadoop.util.IndexedSortable;
+import org.apache.hadoop.util.QuickSort;
 
 import edu.umn.cs.spatialHadoop.OperationsParams;
 import edu.umn.cs.spatialHadoop.core.CellInfo;
 import edu.umn.cs.spatialHadoop.core.Rectangle;
-import edu.umn.cs.spatialHadoop.core.ResultCollector2;
 import edu.umn.cs.spatialHadoop.core.Shape;
 import edu.umn.cs.spatialHadoop.core.SpatialAlgorithms;
 import edu.umn.cs.spatialHadoop.core.SpatialSite;
@@ -83,27 +86,130 @@ public class SJMR {
   public static boolean isFilterOnly = false;
   public static int joiningThresholdPerOnce = 50000;
 
-  public static class IndexedText implements Writable {
+  /**
+   * The value shuffled from the map to the reduce function. It carries the MBR
+   * of the shape as four doubles followed by the shape in its binary form.
+   * This allows the reduce function to run the filter step on the MBRs and
+   * deserialize only the shapes that appear in candidate pairs.
+   */
+  public static class ShapePayload implements Writable {
+    /**The index of the input file that contains the shape*/
     public byte index;
-    public Text text;
-    
-    IndexedText() {
-      text = new Text();
+    /**The MBR of the shape*/
+    public double x1, y1, x2, y2;
+    /**The shape as written by {@link Shape#write(DataOutput)}*/
+    public final DataOutputBuffer shapeBytes = new DataOutputBuffer();
+
+    public void set(byte index, Shape shape, Rectangle mbr) throws IOException {
+      this.index = index;
+      this.x1 = mbr.x1;
+      this.y1 = mbr.y1;
+      this.x2 = mbr.x2;
+      this.y2 = mbr.y2;
+      shapeBytes.reset();
+      shape.write(shapeBytes);
     }
-    
+
     @Override
     public void write(DataOutput out) throws IOException {
       out.writeByte(index);
-      text.write(out);
+      out.writeDouble(x1);
+      out.writeDouble(y1);
+      out.writeDouble(x2);
+      out.writeDouble(y2);
+      out.writeInt(shapeBytes.getLength());
+      out.write(shapeBytes.getData(), 0, shapeBytes.getLength());
     }
-    
+
     @Override
     public void readFields(DataInput in) throws IOException {
       index = in.readByte();
-      text.readFields(in);
+      x1 = in.readDouble();
+      y1 = in.readDouble();
+      x2 = in.readDouble();
+      y2 = in.readDouble();
+      int length = in.readInt();
+      shapeBytes.reset();
+      shapeBytes.write(in, length);
     }
   }
-  
+
+  /**
+   * The shapes of one input file in a reduce call stored as primitive arrays
+   * of MBRs and one buffer of binary shapes. Shapes are deserialized on
+   * demand and only once.
+   */
+  static class ShapeList implements IndexedSortable {
+    int size;
+    double[] x1s = new double[16], y1s = new double[16], x2s = new double[16], y2s = new double[16];
+    /**The start offset and length of each shape in the buffer*/
+    int[] starts = new int[16], lengths = new int[16];
+    final DataOutputBuffer shapesData = new DataOutputBuffer();
+    /**The deserialized shapes*/
+    Shape[] shapes = new Shape[16];
+
+    void add(ShapePayload payload) throws IOException {
+      if (size == x1s.length) {
+        int newCapacity = size * 2;
+        x1s = Arrays.copyOf(x1s, newCapacity);
+        y1s = Arrays.copyOf(y1s, newCapacity);
+        x2s = Arrays.copyOf(x2s, newCapacity);
+        y2s = Arrays.copyOf(y2s, newCapacity);
+        starts = Arrays.copyOf(starts, newCapacity);
+        lengths = Arrays.copyOf(lengths, newCapacity);
+        shapes = Arrays.copyOf(shapes, newCapacity);
+      }
+      x1s[size] = payload.x1;
+      y1s[size] = payload.y1;
+      x2s[size] = payload.x2;
+      y2s[size] = payload.y2;
+      starts[size] = shapesData.getLength();
+      lengths[size] = payload.shapeBytes.getLength();
+      shapesData.write(payload.shapeBytes.getData(), 0, payload.shapeBytes.getLength());
+      size++;
+    }
+
+    /**
+     * Returns the shape at the given position, deserializing it if needed
+     * @param i
+     * @param stockShape a shape that is cloned to deserialize the shape
+     * @param in a reusable buffer used for deserialization
+     * @return
+     * @throws IOException
+     */
+    Shape get(int i, Shape stockShape, DataInputBuffer in) throws IOException {
+      if (shapes[i] == null) {
+        in.reset(shapesData.getData(), starts[i], lengths[i]);
+        Shape s = stockShape.clone();
+        s.readFields(in);
+        shapes[i] = s;
+      }
+      return shapes[i];
+    }
+
+    void clear() {
+      Arrays.fill(shapes, 0, size, null);
+      size = 0;
+      shapesData.reset();
+    }
+
+    @Override
+    public int compare(int i, int j) {
+      return Double.compare(x1s[i], x1s[j]);
+    }
+
+    @Override
+    public void swap(int i, int j) {
+      double td = x1s[i]; x1s[i] = x1s[j]; x1s[j] = td;
+      td = y1s[i]; y1s[i] = y1s[j]; y1s[j] = td;
+      td = x2s[i]; x2s[i] = x2s[j]; x2s[j] = td;
+      td = y2s[i]; y2s[i] = y2s[j]; y2s[j] = td;
+      int ti = starts[i]; starts[i] = starts[j]; starts[j] = ti;
+      ti = lengths[i]; lengths[i] = lengths[j]; lengths[j] = ti;
+      Shape ts = shapes[i]; shapes[i] = shapes[j]; shapes[j] = ts;
+    }
+  }
+
   /**
    * Map function for the self join version of SJMR. Instead of associating
    * each record with an index to indicate whether it's left or right, each
@@ -149,13 +255,15 @@ public class SJMR {
    */
   public static class SJMRMap extends MapReduceBase
   implements
-  Mapper<Rectangle, Text, IntWritable, IndexedText> {
+  Mapper<Rectangle, Text, IntWritable, ShapePayload> {
     private Shape shape;
-    private IndexedText outputValue = new IndexedText();
+    private ShapePayload outputValue = new ShapePayload();
     private Partitioner partitioner;
     private IntWritable cellId = new IntWritable();
     private Path[] inputFiles;
     private InputSplit currentSplit;
+    /**The index of the input file of the current split*/
+    private byte fileIndex;
     
     @Override
     public void configure(JobConf job) {
@@ -171,29 +279,26 @@ public class SJMR {
 
     @Override
     public void map(Rectangle cellMbr, Text value,
-        final OutputCollector<IntWritable, IndexedText> output,
+        final OutputCollector<IntWritable, ShapePayload> output,
         Reporter reporter) throws IOException {
       if (reporter.getInputSplit() != currentSplit) {
       	FileSplit fsplit = (FileSplit) reporter.getInputSplit();
       	for (int i = 0; i < inputFiles.length; i++) {
       		if (fsplit.getPath().toString().startsWith(inputFiles[i].toString())) {
-      			outputValue.index = (byte) i;
+      			fileIndex = (byte) i;
       		}
       	}
       	currentSplit = reporter.getInputSplit();
       }
       
 
-      Text tempText = new Text(value);
-      outputValue.text = value;
-      shape.fromText(tempText);
-      Rectangle shape_mbr = shape.getMBR();
+      shape.fromText(value);
+      Rectangle shapeMBR = shape.getMBR();
+      if (shapeMBR == null)
+        return;
       // Do a reference point technique to avoid processing the same record twice
-      if (cellMbr == null || !cellMbr.isValid() || cellMbr.contains(shape_mbr.x1, shape_mbr.y1)) {
-        Rectangle shapeMBR = shape.getMBR();
-        if (shapeMBR == null)
-          return;
-
+      if (cellMbr == null || !cellMbr.isValid() || cellMbr.contains(shapeMBR.x1, shapeMBR.y1)) {
+        outputValue.set(fileIndex, shape, shapeMBR);
         partitioner.overlapPartitions(shapeMBR, new ResultCollector<Integer>() {
           @Override
           public void collect(Integer cellID) {
@@ -251,7 +356,7 @@ public class SJMR {
   }
   
   public static class SJMRReduce<S extends Shape> extends MapReduceBase implements
-  Reducer<IntWritable, IndexedText, S, S> {
+  Reducer<IntWritable, ShapePayload, S, S> {
 	 /**Class logger*/
 	 private static final Log sjmrReduceLOG = LogFactory.getLog(SJMRReduce.class);
 	  
@@ -264,6 +369,9 @@ public class SJMR {
     private int shapesThresholdPerOnce;
 	
     private S shape;
+
+    /**A reusable buffer to deserialize shapes*/
+    private final DataInputBuffer shapeIn = new DataInputBuffer();
     
     @Override
     public void configure(JobConf job) {
@@ -278,7 +386,7 @@ public class SJMR {
     }
 
     @Override
-    public void reduce(IntWritable cellId, Iterator<IndexedText> values,
+    public void reduce(IntWritable cellId, Iterator<ShapePayload> values,
         final OutputCollector<S, S> output, Reporter reporter)
             throws IOException {
       if(!inactiveMode){
@@ -289,63 +397,23 @@ public class SJMR {
         final CellInfo cellInfo = partitioner.getPartition(cellId.get());
 
         // Partition retrieved shapes (values) into lists for each file
-        List<S>[] shapeLists = new List[inputFileCount];
+        ShapeList[] shapeLists = new ShapeList[inputFileCount];
         for (int i = 0; i < shapeLists.length; i++) {
-          shapeLists[i] = new Vector<S>();
+          shapeLists[i] = new ShapeList();
         }
 
+        QuickSort sorter = new QuickSort();
         while (values.hasNext()) {
           do{
-            IndexedText t = values.next();
-            S s = (S) shape.clone();
-            s.fromText(t.text);
-            shapeLists[t.index].add(s);	
-          } while(values.hasNext() && shapeLists[1].size() < shapesThresholdPerOnce);
+            ShapePayload p = values.next();
+            shapeLists[p.index].add(p);
+          } while(values.hasNext() && shapeLists[1].size < shapesThresholdPerOnce);
 
           // Perform spatial join between the two lists
-          sjmrReduceLOG.info("Joining (" + shapeLists[0].size() +" X "+ shapeLists[1].size()+ ")...");
-          if(isFilterOnly){
-            SpatialAlgorithms.SpatialJoin_planeSweepFilterOnly(shapeLists[0], shapeLists[1], new ResultCollector2<S, S>() {
-              @Override
-              public void collect(S x, S y) {
-                if(isSpatialJoinOutputRequired){
-                  try {
-                    Rectangle intersectionMBR = x.getMBR().getIntersection(y.getMBR());
-                    // Error: intersectionMBR may be null.
-                    if (intersectionMBR != null) {
-                      if (cellInfo.contains(intersectionMBR.x1, intersectionMBR.y1)) {
-                        // Report to the reduce result collector
-                        output.collect(x, y);
-                      }
-                    }
-                  } catch (IOException e) {
-                    e.printStackTrace();
-                  }	
-                }
-              }
-            }, reporter);  
-          }else{
-            SpatialAlgorithms.SpatialJoin_planeSweep(shapeLists[0], shapeLists[1], new ResultCollector2<S, S>() {
-              @Override
-              public void collect(S x, S y) {
-                if(isSpatialJoinOutputRequired){
-                  try {
-                    Rectangle intersectionMBR = x.getMBR().getIntersection(y.getMBR());
-                    // Error: intersectionMBR may be null.
-                    if (intersectionMBR != null) {
-                      if (cellInfo.contains(intersectionMBR.x1, intersectionMBR.y1)) {
-                        // Report to the reduce result collector
-                        output.collect(x, y);
-                      }
-                    }
-                  } catch (IOException e) {
-                    e.printStackTrace();
-                  }	
-                }
-              }
-            }, reporter);
-
-          }
+          sjmrReduceLOG.info("Joining (" + shapeLists[0].size +" X "+ shapeLists[1].size+ ")...");
+          sorter.sort(shapeLists[0], 0, shapeLists[0].size);
+          sorter.sort(shapeLists[1], 0, shapeLists[1].size);
+          planeSweep(shapeLists[0], shapeLists[1], cellInfo, output, reporter);
           shapeLists[1].clear();
         }
 
@@ -356,6 +424,56 @@ public class SJMR {
         LOG.info("Nothing to do !!!");	
       }
     }
+
+    /**
+     * Joins two lists of shapes that are sorted by x1. The filter step runs
+     * on the MBRs only and the duplicate avoidance test is applied to the
+     * MBRs of each candidate pair. Only shapes of the remaining candidate
+     * pairs are deserialized and refined.
+     * @param R
+     * @param S
+     * @param cellInfo
+     * @param output
+     * @param reporter
+     * @throws IOException
+     */
+    private void planeSweep(ShapeList R, ShapeList S, CellInfo cellInfo,
+        OutputCollector<S, S> output, Reporter reporter) throws IOException {
+      int i = 0, j = 0;
+      while (i < R.size && j < S.size) {
+        if (R.x1s[i] < S.x1s[j]) {
+          for (int jj = j; jj < S.size && S.x1s[jj] <= R.x2s[i]; jj++)
+            joinCandidate(R, i, S, jj, cellInfo, output);
+          i++;
+        } else {
+          for (int ii = i; ii < R.size && R.x1s[ii] <= S.x2s[j]; ii++)
+            joinCandidate(R, ii, S, j, cellInfo, output);
+          j++;
+        }
+        if (reporter != null)
+          reporter.progress();
+      }
+    }
+
+    private void joinCandidate(ShapeList R, int i, ShapeList S, int j,
+        CellInfo cellInfo, OutputCollector<S, S> output) throws IOException {
+      // Same as Rectangle#isIntersected which is also used to compute the
+      // intersection MBR for duplicate avoidance
+      if (!(R.x2s[i] > S.x1s[j] && S.x2s[j] > R.x1s[i] &&
+          R.y2s[i] > S.y1s[j] && S.y2s[j] > R.y1s[i]))
+        return;
+      // Perform a reference point duplicate avoidance technique
+      double refx = Math.max(R.x1s[i], S.x1s[j]);
+      double refy = Math.max(R.y1s[i], S.y1s[j]);
+      if (!cellInfo.contains(refx, refy))
+        return;
+      S r = (S) R.get(i, shape, shapeIn);
+      S s = (S) S.get(j, shape, shapeIn);
+      if (isFilterOnly || r.isIntersected(s)) {
+        if (isSpatialJoinOutputRequired)
+          output.collect(r, s);
+      }
+    }
   }
 
   public static <S extends Shape> long sjmr(Path[] inFiles,
@@ -377,7 +495,7 @@ public class SJMR {
     job.setJobName("SJMR");
     job.setMapperClass(SJMRMap.class);
     job.setMapOutputKeyClass(IntWritable.class);
-    job.setMapOutputValueClass(IndexedText.class);
+    job.setMapOutputValueClass(ShapePayload.class);
     job.setNumMapTasks(5 * Math.max(1, clusterStatus.getMaxMapTasks()));
     job.setLong("mapred.min.split.size",
         Math.max(inFs.getFileStatus(inFiles[0]).getBlockSize(),
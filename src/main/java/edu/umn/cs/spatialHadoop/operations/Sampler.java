@@ -9,6 +9,7 @@
 package edu.umn.cs.spatialHadoop.operations;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import edu.umn.cs.spatialHadoop.core.Point;
 import edu.umn.cs.spatialHadoop.core.Rectangle;
@@ -18,14 +19,17 @@ import edu.umn.cs.spatialHadoop.mapreduce.SampleInputFormat;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.LocalJobRunner;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 import org.apache.hadoop.util.GenericOptionsParser;
 
@@ -77,24 +81,37 @@ public class Sampler {
     }
   }
 
+  /**
+   * Sets the given point to the point that represents the given shape in
+   * a sample, i.e., the center of its MBR.
+   * @param shape
+   * @param pt
+   * @return {@code false} if the shape has no MBR and should be skipped
+   */
+  static boolean toPoint(Shape shape, Point pt) {
+    if (shape instanceof Point) {
+      Point ptshape = (Point) shape;
+      pt.set(ptshape.x, ptshape.y);
+    } else if (shape instanceof Rectangle) {
+      Rectangle rect = (Rectangle) shape;
+      pt.set((rect.x1+rect.x2)/2, (rect.y1+rect.y2)/2);
+    } else {
+      Rectangle mbr = shape.getMBR();
+      // If no MBR, skip this record
+      if (mbr == null)
+        return false;
+      pt.set((mbr.x1 + mbr.x2) / 2, (mbr.y1 + mbr.y2) / 2);
+    }
+    return true;
+  }
+
   static class PointConverter extends ShapeConverter {
     Point pt = new Point();
 
     @Override public boolean convert(Text inout) {
       super.convert(inout);
-      if (shape instanceof Point) {
-        Point ptshape = (Point) shape;
-        pt.set(ptshape.x, ptshape.y);
-      } else if (shape instanceof Rectangle) {
-        Rectangle rect = (Rectangle) shape;
-        pt.set((rect.x1+rect.x2)/2, (rect.y1+rect.y2)/2);
-      } else {
-        Rectangle mbr = shape.getMBR();
-        // If no MBR, skip this record
-        if (mbr == null)
-          return false;
-        pt.set((mbr.x1 + mbr.x2) / 2, (mbr.y1 + mbr.y2) / 2);
-      }
+      if (!toPoint(shape, pt))
+        return false;
       inout.clear();
       pt.toText(inout);
       return true;
@@ -129,6 +146,29 @@ public class Sampler {
     }
   }
 
+  /**
+   * Converts each sampled record to a point and writes it in binary form
+   */
+  public static class PointSampleMap
+      extends Mapper<Object, Text, NullWritable, Point> {
+
+    private Shape shape;
+    private Point pt = new Point();
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+      super.setup(context);
+      shape = OperationsParams.getShape(context.getConfiguration(), "shape");
+    }
+
+    @Override
+    protected void map(Object key, Text value, Context context) throws IOException, InterruptedException {
+      shape.fromText(value);
+      if (toPoint(shape, pt))
+        context.write(NullWritable.get(), pt);
+    }
+  }
+
   public static Job sampleMapReduce(Path[] files, Path output, OperationsParams params) throws IOException, InterruptedException, ClassNotFoundException {
     Job job = Job.getInstance(params, "Sampler");
     job.setJarByClass(Sampler.class);
@@ -180,6 +220,70 @@ public class Sampler {
     return lines;
   }
   
+  /**
+   * Reads a sample of points from the given files. Each sampled record is
+   * converted to the center of its MBR. The points are shuffled in binary form
+   * and returned as two arrays of coordinates without parsing any text.
+   * @param files
+   * @param params
+   * @return two arrays of the same length, the x and y coordinates
+   * @throws IOException
+   * @throws ClassNotFoundException
+   * @throws InterruptedException
+   */
+  public static double[][] takeSamplePoints(Path[] files, OperationsParams params) throws IOException, ClassNotFoundException, InterruptedException {
+    FileSystem fs = files[0].getFileSystem(params);
+    Path tempPath;
+    do {
+      tempPath = new Path(String.format("temp_sample_%06d", (int)(Math.random()*1000000)));
+    } while (fs.exists(tempPath));
+
+    Job job = Job.getInstance(params, "Sampler");
+    job.setJarByClass(Sampler.class);
+    job.setInputFormatClass(SampleInputFormat.class);
+    SampleInputFormat.setInputPaths(job, files);
+    job.setOutputFormatClass(SequenceFileOutputFormat.class);
+    SequenceFileOutputFormat.setOutputPath(job, tempPath);
+    job.setOutputKeyClass(NullWritable.class);
+    job.setOutputValueClass(Point.class);
+    job.setMapperClass(PointSampleMap.class);
+    job.setNumReduceTasks(0);
+    job.getConfiguration().setInt(LocalJobRunner.LOCAL_MAX_MAPS, Runtime.getRuntime().availableProcessors());
+    job.waitForCompletion(false);
+    int outputSize = (int) job.getCounters().findCounter(TaskCounter.MAP_OUTPUT_RECORDS).getValue();
+
+    // Read the points back
+    double[] xs = new double[outputSize];
+    double[] ys = new double[outputSize];
+    int numPoints = 0;
+    Point pt = new Point();
+    FileStatus[] sampleFiles = fs.listStatus(tempPath, SpatialSite.NonHiddenFileFilter);
+    for (FileStatus sampleFile : sampleFiles) {
+      SequenceFile.Reader reader = new SequenceFile.Reader(fs, sampleFile.getPath(), params);
+      try {
+        while (reader.next(NullWritable.get(), pt)) {
+          if (numPoints == xs.length) {
+            xs = Arrays.copyOf(xs, Math.max(16, numPoints * 2));
+            ys = Arrays.copyOf(ys, xs.length);
+          }
+          xs[numPoints] = pt.x;
+          ys[numPoints] = pt.y;
+          numPoints++;
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    // Delete the temporary path with all its contents
+    fs.delete(tempPath, true);
+
+    if (numPoints != xs.length) {
+      xs = Arrays.copyOf(xs, numPoints);
+      ys = Arrays.copyOf(ys, numPoints);
+    }
+    return new double[][] {xs, ys};
+  }
+
   private static void printUsage() {
     System.out.println("Reads a random sample of an input file. Sample is written to the output path.");
     System.out.println("Parameters (* marks required parameters):");
@@ -9,7 +9,6 @@
 package edu.umn.cs.spatialHadoop.operations;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
@@ -54,6 +53,7 @@ import edu.umn.cs.spatialHadoop.mapreduce.SpatialRecordReader3;
 import edu.umn.cs.spatialHadoop.nasa.HDFRecordReader;
 import edu.umn.cs.spatialHadoop.util.MemoryReporter;
 import edu.umn.cs.spatialHadoop.util.Parallel;
+import edu.umn.cs.spatialHadoop.util.PointArray;
 import edu.umn.cs.spatialHadoop.util.Parallel.RunnableRange;
 
 /**
@@ -71,7 +71,11 @@ public class Skyline {
    * Computes the skyline of a set of points using a divided and conquer
    * in-memory algorithm. The algorithm recursively splits the points into
    * half, computes the skyline of each half, and finally combines the two
-   * skylines.
+   * skylines. The merge step assumes that the second half can only dominate
+   * the first half which holds only for {@link Direction#MaxMax}. For other
+   * directions, the result can contain dominated points. Use
+   * {@link #skylineInMemory(PointArray, Direction, int)} for an exact skyline
+   * in all directions.
    * @param points
    * @param dir
    * @return
@@ -108,6 +112,80 @@ public class Skyline {
     return result;
   }
 
+  /**
+   * Computes the skyline of a set of points stored as primitive coordinates.
+   * The points are sorted by x, in parallel for large arrays, and then
+   * scanned once from the best x to the worst x. A point is in the skyline
+   * only if its y is strictly better than all points scanned before it. Only
+   * the best point of each group of points with the same x can qualify. The
+   * skyline replaces the points in the array sorted by x.
+   *
+   * Unlike {@link #skylineInMemory(Point[], Direction)}, the result is exact
+   * in all four directions. For {@link Direction#MaxMax}, both methods return
+   * the same skyline apart from duplicate points which are returned once.
+   * For the other directions, points dominated by another point are no
+   * longer returned. Points of a subclass of {@link Point} are kept in the
+   * array as they are, see {@link PointArray#getPoint(int)}.
+   * @param points
+   * @param dir
+   * @param parallelism
+   */
+  public static void skylineInMemory(PointArray points, Direction dir, int parallelism) {
+    points.sort(parallelism);
+    double[] xs = points.getXs();
+    double[] ys = points.getYs();
+    Point[] shapes = points.getShapes();
+    int size = points.size();
+    boolean maxX = dir == Direction.MaxMax || dir == Direction.MaxMin;
+    boolean maxY = dir == Direction.MaxMax || dir == Direction.MinMax;
+    double bestY = 0;
+    int numSkyline = 0;
+    if (!maxX) {
+      // Scan forward and write the skyline at the beginning of the array
+      int i = 0;
+      while (i < size) {
+        int groupEnd = i + 1;
+        while (groupEnd < size && xs[groupEnd] == xs[i])
+          groupEnd++;
+        int candidate = maxY ? groupEnd - 1 : i;
+        if (numSkyline == 0 || (maxY ? ys[candidate] > bestY : ys[candidate] < bestY)) {
+          bestY = ys[candidate];
+          xs[numSkyline] = xs[candidate];
+          ys[numSkyline] = ys[candidate];
+          if (shapes != null)
+            shapes[numSkyline] = shapes[candidate];
+          numSkyline++;
+        }
+        i = groupEnd;
+      }
+    } else {
+      // Scan backward and write the skyline at the end of the array
+      int i = size;
+      int skylineStart = size;
+      while (i > 0) {
+        int groupStart = i - 1;
+        while (groupStart > 0 && xs[groupStart - 1] == xs[i - 1])
+          groupStart--;
+        int candidate = maxY ? i - 1 : groupStart;
+        if (skylineStart == size || (maxY ? ys[candidate] > bestY : ys[candidate] < bestY)) {
+          bestY = ys[candidate];
+          skylineStart--;
+          xs[skylineStart] = xs[candidate];
+          ys[skylineStart] = ys[candidate];
+          if (shapes != null)
+            shapes[skylineStart] = shapes[candidate];
+        }
+        i = groupStart;
+      }
+      numSkyline = size - skylineStart;
+      System.arraycopy(xs, skylineStart, xs, 0, numSkyline);
+      System.arraycopy(ys, skylineStart, ys, 0, numSkyline);
+      if (shapes != null)
+        System.arraycopy(shapes, skylineStart, shapes, 0, numSkyline);
+    }
+    points.resize(numSkyline);
+  }
+
   /**
    * Returns true if p1 dominates p2 according to the given direction.
    * @param p1
@@ -192,17 +270,18 @@ public class Skyline {
     SpatialInputFormat3.setInputPaths(job, inFile);
     final List<InputSplit> splits = inputFormat.getSplits(job);
     final Direction dir = params.getDirection("dir", Direction.MaxMax);
+    int parallelism = params.getInt("parallel", Runtime.getRuntime().availableProcessors());
     
     // 2- Read all input points in memory
     LOG.info("Reading points from "+splits.size()+" splits");
-    List<Point[]> allLists = Parallel.forEach(splits.size(), new RunnableRange<Point[]>() {
+    List<PointArray> allLists = Parallel.forEach(splits.size(), new RunnableRange<PointArray>() {
       @Override
-      public Point[] run(int i1, int i2) {
+      public PointArray run(int i1, int i2) {
         try {
-          List<Point> finalPoints = new ArrayList<Point>();
           final int MaxSize = 100000;
-          Point[] points = new Point[MaxSize];
-          int size = 0;
+          PointArray points = new PointArray(MaxSize);
+          // Size at which the skyline of the points read so far is computed
+          int nextSkylineSize = MaxSize;
           for (int i = i1; i < i2; i++) {
             org.apache.hadoop.mapreduce.lib.input.FileSplit fsplit = (org.apache.hadoop.mapreduce.lib.input.FileSplit) splits.get(i);
             final RecordReader<Rectangle, Iterable<Point>> reader =
@@ -217,21 +296,17 @@ public class Skyline {
             while (reader.nextKeyValue()) {
               Iterable<Point> pts = reader.getCurrentValue();
               for (Point p : pts) {
-                points[size++] = p.clone();
-                if (size >= points.length) {
-                  // Perform Skyline and write the result to finalPoints
-                  Point[] skylinePoints = skylineInMemory(points, dir);
-                  for (Point skylinePoint : skylinePoints)
-                    finalPoints.add(skylinePoint);
-                  size = 0; // reset
+                points.add(p);
+                if (points.size() >= nextSkylineSize) {
+                  // Replace the points with their skyline to bound memory
+                  skylineInMemory(points, dir, 1);
+                  nextSkylineSize = points.size() + MaxSize;
                 }
               }
             }
             reader.close();
           }
-          while (size-- > 0)
-            finalPoints.add(points[size]);
-          return finalPoints.toArray(new Point[finalPoints.size()]);
+          return points;
         } catch (IOException e) {
           e.printStackTrace();
         } catch (InterruptedException e) {
@@ -239,23 +314,19 @@ public class Skyline {
         }
         return null;
       }
-    }, params.getInt("parallel", Runtime.getRuntime().availableProcessors()));
+    }, parallelism);
     
     int totalNumPoints = 0;
-    for (Point[] list : allLists)
-      totalNumPoints += list.length;
+    for (PointArray list : allLists)
+      totalNumPoints += list.size();
     
     LOG.info("Read "+totalNumPoints+" points and merging into one list");
-    Point[] allPoints = new Point[totalNumPoints];
-    int pointer = 0;
-    
-    for (Point[] list : allLists) {
-      System.arraycopy(list, 0, allPoints, pointer, list.length);
-      pointer += list.length;
-    }
+    PointArray allPoints = new PointArray(totalNumPoints);
+    for (PointArray list : allLists)
+      allPoints.add(list);
     allLists.clear(); // To the let the GC collect it
     
-    Point[] skyline = skylineInMemory(allPoints, dir);
+    skylineInMemory(allPoints, dir, parallelism);
 
     if (outFile != null) {
       if (params.getBoolean("overwrite", false)) {
@@ -263,8 +334,8 @@ public class Skyline {
         outFs.delete(outFile, true);
       }
       GridRecordWriter<Point> out = new GridRecordWriter<Point>(outFile, null, null, null);
-      for (Point pt : skyline) {
-        out.write(NullWritable.get(), pt);
+      for (int i = 0; i < allPoints.size(); i++) {
+        out.write(NullWritable.get(), allPoints.getPoint(i));
       }
       out.close(null);
     }
@@ -336,11 +407,15 @@ public class Skyline {
   Reducer<NullWritable,Point,NullWritable,Point> {
     
     private Direction dir;
+
+    /**Number of threads used to sort the points*/
+    private int parallelism;
     
     @Override
     public void configure(JobConf job) {
       super.configure(job);
       dir = OperationsParams.getDirection(job, "dir", Direction.MaxMax);
+      parallelism = job.getInt("parallel", Runtime.getRuntime().availableProcessors());
     }
     
 
@@ -348,14 +423,14 @@ public class Skyline {
     public void reduce(NullWritable dummy, Iterator<Point> points,
         OutputCollector<NullWritable, Point> output, Reporter reporter)
         throws IOException {
-      Vector<Point> vpoints = new Vector<Point>();
-      while (points.hasNext()) {
-        vpoints.add(points.next().clone());
-      }
-      Point[] skyline = skylineInMemory(vpoints.toArray(new Point[vpoints.size()]), dir);
-      for (Point pt : skyline) {
-        output.collect(dummy, pt);
-      }
+      PointArray vpoints = new PointArray();
+      while (points.hasNext())
+        vpoints.add(points.next());
+      skylineInMemory(vpoints, dir, parallelism);
+      // The original objects are written as this reducer is also the combiner
+      // whose output must be of the input shape class
+      for (int i = 0; i < vpoints.size(); i++)
+        output.collect(dummy, vpoints.getPoint(i));
     }
   }
   
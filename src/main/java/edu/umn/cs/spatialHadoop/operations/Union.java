@@ -347,7 +347,8 @@ public class Union {
                   continue;
                 batch[batchSize++] = s.geom;
                 if (batchSize >= MaxBatchSize) {
-                  SpatialAlgorithms.multiUnion(batch, progress, output);
+                  // This thread is one of many so the union runs sequentially
+                  SpatialAlgorithms.multiUnion(batch, progress, output, 1);
                   batchSize = 0;
                 }
               }
@@ -363,7 +364,7 @@ public class Union {
         try {
           Geometry[] finalBatch = new Geometry[batchSize];
           System.arraycopy(batch, 0, finalBatch, 0, batchSize);
-          SpatialAlgorithms.multiUnion(finalBatch, progress, output);
+          SpatialAlgorithms.multiUnion(finalBatch, progress, output, 1);
           return localUnion;
         } catch (IOException e) {
           // Should never happen as the context is passed as null
@@ -34,7 +34,15 @@ public class MapToJson extends EvalFunc<String> {
     if (!(input.get(0) instanceof Map))
       throw new IOException("Invalid argument type "+input.get(0).getClass());
     
-    Map<String, String> tags = (Map<String, String>) input.get(0);
+    return toJson((Map<String, String>) input.get(0));
+  }
+
+  /**
+   * Converts the given tags to the same format returned by this UDF
+   * @param tags
+   * @return
+   */
+  public static String toJson(Map<String, String> tags) {
     StringBuffer result = new StringBuffer();
     for (Map.Entry<String, String> entry : tags.entrySet()) {
       result.append("{");
@@ -0,0 +1,50 @@
+/***********************************************************************
+* Copyright (c) 2015 by Regents of the University of Minnesota.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Apache License, Version 2.0 which
+* accompanies this distribution and is available at
+* http://www.opensource.org/licenses/apache2.0.php.
+*
+*************************************************************************/
+package edu.umn.cs.spatialHadoop.osm;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+
+/**
+ * An input format that streams nodes and ways from OSM XML files without
+ * building a DOM per element. Uncompressed files are split on element
+ * boundaries. See {@link OSMRecordReader}.
+ * @author Ahmed Eldawy
+ *
+ */
+public class OSMInputFormat extends FileInputFormat<LongWritable, Writable> {
+
+  /**
+   * Comma separated list of the element types to read, i.e., node and way.
+   * Elements of other types are skipped without being parsed into objects.
+   */
+  public static final String ElementTypes = "OSMInputFormat.ElementTypes";
+
+  @Override
+  public RecordReader<LongWritable, Writable> createRecordReader(
+      InputSplit split, TaskAttemptContext context) throws IOException,
+      InterruptedException {
+    return new OSMRecordReader();
+  }
+
+  @Override
+  protected boolean isSplitable(JobContext context, Path file) {
+    // Element boundaries can be found only in uncompressed files
+    return new CompressionCodecFactory(context.getConfiguration()).getCodec(file) == null;
+  }
+}
@@ -17,6 +17,7 @@ import java.util.Map;
 import org.apache.hadoop.io.Text;
 
 import edu.umn.cs.spatialHadoop.core.Point;
+import edu.umn.cs.spatialHadoop.io.TextCursor;
 import edu.umn.cs.spatialHadoop.io.TextSerializerHelper;
 
 
@@ -26,11 +27,13 @@ public class OSMPoint extends Point {
 
   @Override
   public void fromText(Text text) {
-    id = TextSerializerHelper.consumeLong(text, '\t');
-    x = TextSerializerHelper.consumeDouble(text, '\t');
-    y = TextSerializerHelper.consumeDouble(text, '\t');
-    if (text.getLength() > 0)
-      TextSerializerHelper.consumeMap(text, tags);
+    TextCursor cursor = new TextCursor(text);
+    id = cursor.nextLong('\t');
+    x = cursor.nextDouble('\t');
+    y = cursor.nextDouble('\t');
+    if (cursor.hasMore())
+      cursor.nextMap(tags);
+    cursor.commit();
   }
 
   @Override
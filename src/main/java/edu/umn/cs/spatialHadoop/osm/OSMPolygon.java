@@ -21,6 +21,7 @@ import com.vividsolutions.jts.geom.Geometry;
 
 import edu.umn.cs.spatialHadoop.core.OGCJTSShape;
 import edu.umn.cs.spatialHadoop.core.Shape;
+import edu.umn.cs.spatialHadoop.io.TextCursor;
 import edu.umn.cs.spatialHadoop.io.TextSerializerHelper;
 
 public class OSMPolygon extends OGCJTSShape implements WritableComparable<OSMPolygon> {
@@ -47,15 +48,16 @@ public class OSMPolygon extends OGCJTSShape implements WritableComparable<OSMPol
   
   @Override
   public void fromText(Text text) {
-    String s= text.toString();
     try {
-      id = TextSerializerHelper.consumeLong(text, SEPARATOR);
-      this.geom = TextSerializerHelper.consumeGeometryJTS(text, SEPARATOR);
+      // The text is not modified before the commit so it can be reported as is
+      TextCursor cursor = new TextCursor(text);
+      id = cursor.nextLong(SEPARATOR);
+      this.geom = cursor.nextGeometryJTS(SEPARATOR);
       // Read the tags
-      tags.clear();
-      TextSerializerHelper.consumeMap(text, tags);
+      cursor.nextMap(tags);
+      cursor.commit();
     } catch (Exception e) {
-      throw new RuntimeException("Error parsing '" + s + "'", e);
+      throw new RuntimeException("Error parsing '" + text + "'", e);
     }
   }
   
@@ -0,0 +1,466 @@
+/***********************************************************************
+* Copyright (c) 2015 by Regents of the University of Minnesota.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Apache License, Version 2.0 which
+* accompanies this distribution and is available at
+* http://www.opensource.org/licenses/apache2.0.php.
+*
+*************************************************************************/
+package edu.umn.cs.spatialHadoop.osm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/**
+ * Reads nodes and ways from an OSM XML file with one streaming StAX parser
+ * per split. Nodes are returned as {@link OSMPoint} and ways as
+ * {@link OSMWayRecord}, keyed by their IDs. The same value objects are reused
+ * for all records.
+ *
+ * A split contains all top-level elements (node, way, and relation) that
+ * start in its byte range. The raw bytes of these elements are wrapped in a
+ * root element and fed to the parser so that the parser never sees a partial
+ * element. Relations are skipped.
+ * @author Ahmed Eldawy
+ *
+ */
+public class OSMRecordReader extends RecordReader<LongWritable, Writable> {
+  private static final Log LOG = LogFactory.getLog(OSMRecordReader.class);
+
+  /**The input stream that reads directly from the file*/
+  private FSDataInputStream directIn;
+  /**The decompressor used with compressed files*/
+  private Decompressor decompressor;
+  /**Start and end of the split in the raw file*/
+  private long start, end;
+  /**Returns the elements of this split to the parser*/
+  private ElementStream elementStream;
+  private XMLStreamReader xmlReader;
+
+  private boolean readNodes, readWays;
+
+  private LongWritable key = new LongWritable();
+  private OSMPoint node = new OSMPoint();
+  private OSMWayRecord way = new OSMWayRecord();
+  private Writable value;
+
+  @Override
+  public void initialize(InputSplit split, TaskAttemptContext context)
+      throws IOException, InterruptedException {
+    initialize(split, context.getConfiguration());
+  }
+
+  public void initialize(InputSplit split, Configuration conf) throws IOException {
+    FileSplit fsplit = (FileSplit) split;
+    Path path = fsplit.getPath();
+    this.start = fsplit.getStart();
+    this.end = start + fsplit.getLength();
+    String elementTypes = conf.get(OSMInputFormat.ElementTypes, "node,way");
+    this.readNodes = elementTypes.contains("node");
+    this.readWays = elementTypes.contains("way");
+
+    FileSystem fs = path.getFileSystem(conf);
+    directIn = fs.open(path);
+    CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(path);
+    if (codec != null) {
+      // Compressed files are not split. Read the whole file
+      decompressor = CodecPool.getDecompressor(codec);
+      elementStream = new ElementStream(
+          codec.createInputStream(directIn, decompressor), 0, Long.MAX_VALUE);
+    } else {
+      directIn.seek(start);
+      elementStream = new ElementStream(directIn, start, end);
+    }
+
+    if (elementStream.isEmpty())
+      return;
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+    try {
+      xmlReader = factory.createXMLStreamReader(elementStream, "UTF-8");
+    } catch (XMLStreamException e) {
+      throw new IOException("Error parsing " + path, e);
+    }
+  }
+
+  @Override
+  public boolean nextKeyValue() throws IOException, InterruptedException {
+    if (xmlReader == null)
+      return false;
+    try {
+      while (xmlReader.hasNext()) {
+        if (xmlReader.next() != XMLStreamConstants.START_ELEMENT)
+          continue;
+        String name = xmlReader.getLocalName();
+        if (name.equals("osm")) {
+          // The root element added by the element stream
+          continue;
+        } else if (readNodes && name.equals("node")) {
+          parseNode();
+          key.set(node.id);
+          value = node;
+          return true;
+        } else if (readWays && name.equals("way")) {
+          parseWay();
+          key.set(way.id);
+          value = way;
+          return true;
+        } else {
+          skipElement();
+        }
+      }
+      return false;
+    } catch (XMLStreamException e) {
+      throw new IOException("Error parsing OSM element near position "
+          + elementStream.getPos(), e);
+    }
+  }
+
+  /**
+   * Parses the current node element and its tags into {@link #node}
+   * @throws XMLStreamException
+   */
+  private void parseNode() throws XMLStreamException {
+    node.tags.clear();
+    for (int i = 0; i < xmlReader.getAttributeCount(); i++) {
+      String name = xmlReader.getAttributeLocalName(i);
+      if (name.equals("id"))
+        node.id = Long.parseLong(xmlReader.getAttributeValue(i));
+      else if (name.equals("lat"))
+        node.y = Double.parseDouble(xmlReader.getAttributeValue(i));
+      else if (name.equals("lon"))
+        node.x = Double.parseDouble(xmlReader.getAttributeValue(i));
+    }
+    int event;
+    while ((event = xmlReader.next()) != XMLStreamConstants.END_ELEMENT) {
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        if (xmlReader.getLocalName().equals("tag"))
+          parseTag(node.tags);
+        skipElement();
+      }
+    }
+  }
+
+  /**
+   * Parses the current way element, its node references, and its tags into
+   * {@link #way}
+   * @throws XMLStreamException
+   */
+  private void parseWay() throws XMLStreamException {
+    way.clear();
+    for (int i = 0; i < xmlReader.getAttributeCount(); i++) {
+      if (xmlReader.getAttributeLocalName(i).equals("id"))
+        way.id = Long.parseLong(xmlReader.getAttributeValue(i));
+    }
+    int event;
+    while ((event = xmlReader.next()) != XMLStreamConstants.END_ELEMENT) {
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        String name = xmlReader.getLocalName();
+        if (name.equals("nd")) {
+          for (int i = 0; i < xmlReader.getAttributeCount(); i++) {
+            if (xmlReader.getAttributeLocalName(i).equals("ref"))
+              way.addNode(Long.parseLong(xmlReader.getAttributeValue(i)));
+          }
+        } else if (name.equals("tag")) {
+          parseTag(way.tags);
+        }
+        skipElement();
+      }
+    }
+  }
+
+  /**
+   * Adds the key and value of the current tag element to the given tags after
+   * replacing the characters that conflict with the text format of shapes as
+   * done by the Pig UDFs, e.g., {@link OSMNode}.
+   */
+  private void parseTag(Map<String, String> tags) {
+    String key = null, value = null;
+    for (int i = 0; i < xmlReader.getAttributeCount(); i++) {
+      String name = xmlReader.getAttributeLocalName(i);
+      if (name.equals("k"))
+        key = sanitize(xmlReader.getAttributeValue(i));
+      else if (name.equals("v"))
+        value = sanitize(xmlReader.getAttributeValue(i));
+    }
+    if (key != null && value != null)
+      tags.put(key, value);
+  }
+
+  /**
+   * Replaces white spaces with a space and the characters ' " # , with _
+   */
+  static String sanitize(String str) {
+    char[] chars = null;
+    for (int i = 0; i < str.length(); i++) {
+      char c = str.charAt(i);
+      char replacement = c;
+      if (Character.isWhitespace(c))
+        replacement = ' ';
+      else if (c == '\'' || c == '"' || c == '#' || c == ',')
+        replacement = '_';
+      if (replacement != c) {
+        if (chars == null)
+          chars = str.toCharArray();
+        chars[i] = replacement;
+      }
+    }
+    return chars == null ? str : new String(chars);
+  }
+
+  /**
+   * Skips the current element and all its children. The parser is left at
+   * the end of the element.
+   * @throws XMLStreamException
+   */
+  private void skipElement() throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      int event = xmlReader.next();
+      if (event == XMLStreamConstants.START_ELEMENT)
+        depth++;
+      else if (event == XMLStreamConstants.END_ELEMENT)
+        depth--;
+    }
+  }
+
+  @Override
+  public LongWritable getCurrentKey() throws IOException, InterruptedException {
+    return key;
+  }
+
+  @Override
+  public Writable getCurrentValue() throws IOException, InterruptedException {
+    return value;
+  }
+
+  @Override
+  public float getProgress() throws IOException, InterruptedException {
+    if (decompressor != null) {
+      long fileLength = end - start;
+      return fileLength == 0 ? 1.0f :
+        Math.min(1.0f, directIn.getPos() / (float) fileLength);
+    }
+    if (start == end)
+      return 1.0f;
+    return Math.min(1.0f, (elementStream.getPos() - start) / (float) (end - start));
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      if (xmlReader != null)
+        xmlReader.close();
+    } catch (XMLStreamException e) {
+      LOG.warn("Error closing the XML parser", e);
+    }
+    if (elementStream != null)
+      elementStream.close();
+    if (decompressor != null) {
+      CodecPool.returnDecompressor(decompressor);
+      decompressor = null;
+    }
+  }
+
+  /**
+   * A stream over the top-level elements that start in a range of a file,
+   * wrapped in an &lt;osm&gt; root element. OSM files contain no comments or
+   * CDATA sections and escape '&lt;' in attribute values, so every '&lt;' that
+   * is followed by the name of a top-level element starts one.
+   */
+  static class ElementStream extends InputStream {
+    private static final byte[] Prefix = "<osm>".getBytes();
+    private static final byte[] Suffix = "</osm>".getBytes();
+    private static final byte[] RootEnd = "</osm".getBytes();
+    private static final byte[][] ElementNames = {
+      "<node".getBytes(), "<way".getBytes(), "<relation".getBytes()};
+    /**Number of bytes needed to recognize the start of an element*/
+    private static final int LookAhead = 10;
+
+    private static final int Prefixing = 0, Body = 1, Suffixing = 2, Done = 3;
+
+    private final InputStream in;
+    /**Elements that start at this offset or after it are not returned*/
+    private final long end;
+    private final byte[] buffer = new byte[64 * 1024];
+    /**Offset of the first byte in the buffer in the file*/
+    private long bufferOffset;
+    /**Position of the next byte in the buffer and the end of valid bytes*/
+    private int pos, limit;
+    private boolean eof;
+    private int state;
+    /**Position in the prefix or the suffix*/
+    private int wrapperPos;
+
+    /**
+     * Creates a stream over the elements that start in the range [start, end)
+     * @param in a stream positioned at the start offset
+     * @param start
+     * @param end
+     * @throws IOException
+     */
+    ElementStream(InputStream in, long start, long end) throws IOException {
+      this.in = in;
+      this.end = end;
+      this.bufferOffset = start;
+      // Skip the XML header, the root element, and any partial element
+      while (true) {
+        if (pos == limit && !ensureAvailable(1)) {
+          state = Done;
+          break;
+        }
+        if (buffer[pos] == '<') {
+          if (isRootEnd() || bufferOffset + pos >= end) {
+            state = Done;
+            break;
+          }
+          if (isElementStart()) {
+            state = Prefixing;
+            break;
+          }
+        }
+        pos++;
+      }
+    }
+
+    /**
+     * Makes sure the buffer contains at least n bytes after the current
+     * position unless the end of file is reached.
+     */
+    private boolean ensureAvailable(int n) throws IOException {
+      if (limit - pos >= n)
+        return true;
+      System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+      bufferOffset += pos;
+      limit -= pos;
+      pos = 0;
+      while (!eof && limit < n) {
+        int bytesRead = in.read(buffer, limit, buffer.length - limit);
+        if (bytesRead < 0)
+          eof = true;
+        else
+          limit += bytesRead;
+      }
+      return limit - pos >= n;
+    }
+
+    private boolean matches(byte[] pattern) {
+      if (limit - pos < pattern.length)
+        return false;
+      for (int i = 0; i < pattern.length; i++)
+        if (buffer[pos + i] != pattern[i])
+          return false;
+      return true;
+    }
+
+    /**
+     * Tests whether the '&lt;' at the current position starts a node, a way, or
+     * a relation.
+     */
+    private boolean isElementStart() throws IOException {
+      ensureAvailable(LookAhead);
+      for (byte[] name : ElementNames) {
+        if (matches(name)) {
+          if (pos + name.length >= limit)
+            return true;
+          byte next = buffer[pos + name.length];
+          return next == ' ' || next == '\t' || next == '\n' || next == '\r'
+              || next == '/' || next == '>';
+        }
+      }
+      return false;
+    }
+
+    private boolean isRootEnd() throws IOException {
+      ensureAvailable(LookAhead);
+      return matches(RootEnd);
+    }
+
+    /**
+     * Whether no elements start in the range of this stream
+     * @return
+     */
+    public boolean isEmpty() {
+      return state == Done;
+    }
+
+    /**
+     * Offset in the file of the next byte to return from the body
+     * @return
+     */
+    public long getPos() {
+      return bufferOffset + pos;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) <= 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0)
+        return 0;
+      int n = 0;
+      while (n < len && state != Done) {
+        if (state == Prefixing || state == Suffixing) {
+          byte[] wrapper = state == Prefixing ? Prefix : Suffix;
+          int bytesToCopy = Math.min(len - n, wrapper.length - wrapperPos);
+          System.arraycopy(wrapper, wrapperPos, b, off + n, bytesToCopy);
+          n += bytesToCopy;
+          wrapperPos += bytesToCopy;
+          if (wrapperPos == wrapper.length) {
+            wrapperPos = 0;
+            state++;
+          }
+        } else {
+          // Copy bytes until the start of an element that is out of range
+          if (pos == limit && !ensureAvailable(1)) {
+            state = Suffixing;
+            continue;
+          }
+          byte c = buffer[pos];
+          if (c == '<' && (isRootEnd() ||
+              (bufferOffset + pos >= end && isElementStart()))) {
+            state = Suffixing;
+            continue;
+          }
+          b[off + n++] = c;
+          pos++;
+        }
+      }
+      return n == 0 ? -1 : n;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,353 @@
+/***********************************************************************
+* Copyright (c) 2015 by Regents of the University of Minnesota.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Apache License, Version 2.0 which
+* accompanies this distribution and is available at
+* http://www.opensource.org/licenses/apache2.0.php.
+*
+*************************************************************************/
+package edu.umn.cs.spatialHadoop.osm;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+import edu.umn.cs.spatialHadoop.OperationsParams;
+import edu.umn.cs.spatialHadoop.core.Shape;
+import edu.umn.cs.spatialHadoop.mapred.TextOutputFormat3;
+import edu.umn.cs.spatialHadoop.operations.OperationMetadata;
+
+/**
+ * Builds the geometries of OSM ways from an OSM XML file with two sort-merge
+ * jobs instead of the Pig joins in osmx.pig. The first job sorts nodes and
+ * the references of ways to them by node ID so that each reference meets the
+ * location of its node in the reducer. The second job sorts the located
+ * references by way ID and connects the nodes of each way in order. Closed
+ * ways become polygons and other ways become line strings, written as
+ * {@link OSMPolygon}s, or the ways are split into {@link OSMEdge}s.
+ * @author Ahmed Eldawy
+ *
+ */
+@OperationMetadata(shortName = "osmways",
+description = "Builds the geometries of the ways in an OSM XML file")
+public class OSMWayAssembler {
+  private static final Log LOG = LogFactory.getLog(OSMWayAssembler.class);
+
+  /**
+   * The key of the first job is the node ID shifted left by two bits and
+   * combined with the type of the part so that the location of a node is
+   * sorted before the way parts that refer to it.
+   */
+  private static long nodeKey(long nodeId, byte type) {
+    return (nodeId << 2) | type;
+  }
+
+  /**
+   * Partitions the records of the first job by node ID only
+   */
+  public static class NodePartitioner extends Partitioner<LongWritable, OSMWayPart> {
+    @Override
+    public int getPartition(LongWritable key, OSMWayPart value, int numPartitions) {
+      long nodeId = key.get() >> 2;
+      return (int) ((nodeId ^ (nodeId >>> 32)) & Integer.MAX_VALUE) % numPartitions;
+    }
+  }
+
+  /**
+   * Groups the records of the first job by node ID only
+   */
+  public static class NodeGroupingComparator extends WritableComparator {
+    public NodeGroupingComparator() {
+      super(LongWritable.class);
+    }
+
+    @Override
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+      long nodeId1 = readLong(b1, s1) >> 2;
+      long nodeId2 = readLong(b2, s2) >> 2;
+      return nodeId1 < nodeId2 ? -1 : (nodeId1 > nodeId2 ? 1 : 0);
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public int compare(WritableComparable a, WritableComparable b) {
+      long nodeId1 = ((LongWritable) a).get() >> 2;
+      long nodeId2 = ((LongWritable) b).get() >> 2;
+      return nodeId1 < nodeId2 ? -1 : (nodeId1 > nodeId2 ? 1 : 0);
+    }
+  }
+
+  /**
+   * Emits the location of each node and, for each way, one reference per
+   * node. The header of a way is sent along with its first node.
+   */
+  public static class NodeJoinMap extends
+      Mapper<LongWritable, Writable, LongWritable, OSMWayPart> {
+    private final LongWritable outKey = new LongWritable();
+    private final OSMWayPart part = new OSMWayPart();
+
+    @Override
+    protected void map(LongWritable key, Writable value, Context context)
+        throws IOException, InterruptedException {
+      if (value instanceof OSMPoint) {
+        OSMPoint node = (OSMPoint) value;
+        part.setNodeLocation(node.id, node.x, node.y);
+        outKey.set(nodeKey(node.id, OSMWayPart.NodeLocation));
+        context.write(outKey, part);
+      } else if (value instanceof OSMWayRecord) {
+        OSMWayRecord way = (OSMWayRecord) value;
+        if (way.numNodes == 0)
+          return;
+        part.setWayHeader(way.id, way.tags);
+        outKey.set(nodeKey(way.nodeIds[0], OSMWayPart.WayHeader));
+        context.write(outKey, part);
+        for (int i = 0; i < way.numNodes; i++) {
+          part.setNodeReference(way.id, i, way.nodeIds[i]);
+          outKey.set(nodeKey(way.nodeIds[i], OSMWayPart.NodeReference));
+          context.write(outKey, part);
+        }
+      }
+    }
+  }
+
+  /**
+   * Sets the location of each node to all references to it and writes them
+   * keyed by the way ID. References to missing nodes are dropped.
+   */
+  public static class NodeJoinReduce extends
+      Reducer<LongWritable, OSMWayPart, LongWritable, OSMWayPart> {
+    private final LongWritable wayId = new LongWritable();
+
+    @Override
+    protected void reduce(LongWritable key, Iterable<OSMWayPart> values,
+        Context context) throws IOException, InterruptedException {
+      boolean nodeFound = false;
+      double x = 0, y = 0;
+      for (OSMWayPart part : values) {
+        switch (part.type) {
+        case OSMWayPart.NodeLocation:
+          nodeFound = true;
+          x = part.x;
+          y = part.y;
+          break;
+        case OSMWayPart.WayHeader:
+          wayId.set(part.wayId);
+          context.write(wayId, part);
+          break;
+        case OSMWayPart.NodeReference:
+          if (nodeFound) {
+            part.x = x;
+            part.y = y;
+            wayId.set(part.wayId);
+            context.write(wayId, part);
+          }
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * Connects the located nodes of each way in order
+   */
+  public static class WayAssembleReduce extends
+      Reducer<LongWritable, OSMWayPart, NullWritable, Shape> {
+    private boolean edges;
+    private final GeometryFactory geometryFactory = new GeometryFactory();
+    private final OSMPolygon polygon = new OSMPolygon();
+    private final OSMEdge edge = new OSMEdge();
+    /**Locations and IDs of the nodes of the current way by position*/
+    private double[] xs = new double[16], ys = new double[16];
+    private long[] nodeIds = new long[16];
+    private boolean[] found = new boolean[16];
+
+    @Override
+    protected void setup(Context context) throws IOException,
+        InterruptedException {
+      super.setup(context);
+      edges = context.getConfiguration().getBoolean("edges", false);
+    }
+
+    @Override
+    protected void reduce(LongWritable wayId, Iterable<OSMWayPart> values,
+        Context context) throws IOException, InterruptedException {
+      polygon.tags.clear();
+      int size = 0;
+      for (OSMWayPart part : values) {
+        if (part.type == OSMWayPart.WayHeader) {
+          polygon.tags.putAll(part.tags);
+        } else {
+          if (part.pos >= found.length) {
+            int newLength = Math.max(part.pos + 1, found.length * 2);
+            xs = Arrays.copyOf(xs, newLength);
+            ys = Arrays.copyOf(ys, newLength);
+            nodeIds = Arrays.copyOf(nodeIds, newLength);
+            found = Arrays.copyOf(found, newLength);
+          }
+          xs[part.pos] = part.x;
+          ys[part.pos] = part.y;
+          nodeIds[part.pos] = part.nodeId;
+          found[part.pos] = true;
+          size = Math.max(size, part.pos + 1);
+        }
+      }
+      // Skip the nodes that are not in the input, e.g., in a regional extract
+      int numNodes = 0;
+      for (int i = 0; i < size; i++) {
+        if (found[i]) {
+          xs[numNodes] = xs[i];
+          ys[numNodes] = ys[i];
+          nodeIds[numNodes] = nodeIds[i];
+          numNodes++;
+        }
+        found[i] = false;
+      }
+      if (numNodes < 2)
+        return;
+
+      if (edges) {
+        edge.wayId = wayId.get();
+        edge.tags = MapToJson.toJson(polygon.tags);
+        for (int i = 1; i < numNodes; i++) {
+          // Same as the segment IDs generated in osmx.pig
+          edge.edgeId = Long.parseLong(Long.toString(wayId.get()) + i);
+          edge.nodeId1 = nodeIds[i - 1];
+          edge.lon1 = xs[i - 1];
+          edge.lat1 = ys[i - 1];
+          edge.nodeId2 = nodeIds[i];
+          edge.lon2 = xs[i];
+          edge.lat2 = ys[i];
+          context.write(NullWritable.get(), edge);
+        }
+      } else {
+        Coordinate[] coords = new Coordinate[numNodes];
+        for (int i = 0; i < numNodes; i++)
+          coords[i] = new Coordinate(xs[i], ys[i]);
+        Geometry geom;
+        if (numNodes >= 4 && nodeIds[0] == nodeIds[numNodes - 1])
+          geom = geometryFactory.createPolygon(
+              geometryFactory.createLinearRing(coords), null);
+        else
+          geom = geometryFactory.createLineString(coords);
+        polygon.id = wayId.get();
+        polygon.geom = geom;
+        context.write(NullWritable.get(), polygon);
+      }
+    }
+  }
+
+  /**
+   * Builds the geometries of all ways in the given OSM XML files
+   * @param inPaths
+   * @param outPath
+   * @param params
+   * @return the second job
+   * @throws IOException
+   * @throws InterruptedException
+   * @throws ClassNotFoundException
+   */
+  public static Job assembleWays(Path[] inPaths, Path outPath,
+      OperationsParams params) throws IOException, InterruptedException,
+      ClassNotFoundException {
+    Path joinedPath = new Path(outPath.getParent(), outPath.getName() + "_joined");
+    FileSystem fs = joinedPath.getFileSystem(params);
+    boolean verbose = params.getBoolean("verbose", false);
+
+    // First job: join the references of ways with node locations
+    Job joinJob = new Job(params, "OSMNodeJoin");
+    joinJob.setJarByClass(OSMWayAssembler.class);
+    joinJob.getConfiguration().set(OSMInputFormat.ElementTypes, "node,way");
+    joinJob.setInputFormatClass(OSMInputFormat.class);
+    OSMInputFormat.setInputPaths(joinJob, inPaths);
+    joinJob.setMapperClass(NodeJoinMap.class);
+    joinJob.setMapOutputKeyClass(LongWritable.class);
+    joinJob.setMapOutputValueClass(OSMWayPart.class);
+    joinJob.setPartitionerClass(NodePartitioner.class);
+    joinJob.setGroupingComparatorClass(NodeGroupingComparator.class);
+    joinJob.setReducerClass(NodeJoinReduce.class);
+    joinJob.setOutputKeyClass(LongWritable.class);
+    joinJob.setOutputValueClass(OSMWayPart.class);
+    joinJob.setOutputFormatClass(SequenceFileOutputFormat.class);
+    SequenceFileOutputFormat.setOutputPath(joinJob, joinedPath);
+    joinJob.waitForCompletion(verbose);
+    if (!joinJob.isSuccessful())
+      throw new RuntimeException("Job failed!");
+
+    // Second job: connect the nodes of each way
+    Job assembleJob = new Job(params, "OSMWayAssemble");
+    assembleJob.setJarByClass(OSMWayAssembler.class);
+    assembleJob.setInputFormatClass(SequenceFileInputFormat.class);
+    SequenceFileInputFormat.setInputPaths(assembleJob, joinedPath);
+    assembleJob.setMapperClass(Mapper.class);
+    assembleJob.setMapOutputKeyClass(LongWritable.class);
+    assembleJob.setMapOutputValueClass(OSMWayPart.class);
+    assembleJob.setReducerClass(WayAssembleReduce.class);
+    assembleJob.setOutputKeyClass(NullWritable.class);
+    assembleJob.setOutputValueClass(params.getBoolean("edges", false) ?
+        OSMEdge.class : OSMPolygon.class);
+    assembleJob.setOutputFormatClass(TextOutputFormat3.class);
+    TextOutputFormat3.setOutputPath(assembleJob, outPath);
+    assembleJob.waitForCompletion(verbose);
+    fs.delete(joinedPath, true);
+    if (!assembleJob.isSuccessful())
+      throw new RuntimeException("Job failed!");
+    return assembleJob;
+  }
+
+  private static void printUsage() {
+    System.out.println("Builds the geometries of the ways in an OSM XML file");
+    System.out.println("Parameters: (* marks required parameters)");
+    System.out.println("<input file> - (*) Path to the OSM XML file");
+    System.out.println("<output file> - (*) Path to output file");
+    System.out.println("-edges: Write the edges of each way instead of its geometry");
+    System.out.println("-overwrite: Overwrite output file without notice");
+    GenericOptionsParser.printGenericCommandUsage(System.out);
+  }
+
+  public static void main(String[] args) throws IOException,
+      InterruptedException, ClassNotFoundException {
+    OperationsParams params = new OperationsParams(new GenericOptionsParser(args), false);
+    Path[] paths = params.getPaths();
+    if (paths.length < 2) {
+      printUsage();
+      System.err.println("Please provide both input and output files");
+      return;
+    }
+    Path[] inPaths = Arrays.copyOf(paths, paths.length - 1);
+    Path outPath = paths[paths.length - 1];
+
+    boolean overwrite = params.getBoolean("overwrite", false);
+    FileSystem outFs = outPath.getFileSystem(params);
+    if (outFs.exists(outPath)) {
+      if (overwrite)
+        outFs.delete(outPath, true);
+      else
+        throw new RuntimeException("Output file exists and overwrite flag is not set");
+    }
+
+    long t1 = System.currentTimeMillis();
+    assembleWays(inPaths, outPath, params);
+    long t2 = System.currentTimeMillis();
+    LOG.info("Total time for assembling ways "+(t2-t1)+" millis");
+  }
+}
@@ -0,0 +1,120 @@
+/***********************************************************************
+* Copyright (c) 2015 by Regents of the University of Minnesota.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Apache License, Version 2.0 which
+* accompanies this distribution and is available at
+* http://www.opensource.org/licenses/apache2.0.php.
+*
+*************************************************************************/
+package edu.umn.cs.spatialHadoop.osm;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.io.Writable;
+
+/**
+ * An intermediate record of {@link OSMWayAssembler}. It is either the
+ * location of a node, a reference from a way to one of its nodes, or the
+ * header of a way that carries its tags.
+ * @author Ahmed Eldawy
+ *
+ */
+public class OSMWayPart implements Writable {
+  public static final byte NodeLocation = 0;
+  public static final byte WayHeader = 1;
+  public static final byte NodeReference = 2;
+
+  public byte type;
+  public long wayId;
+  public long nodeId;
+  /**Position of the referenced node in its way*/
+  public int pos;
+  /**Location of the node*/
+  public double x, y;
+  /**Tags of the way. Only used with way headers*/
+  public Map<String, String> tags = new HashMap<String, String>();
+
+  public void setNodeLocation(long nodeId, double x, double y) {
+    this.type = NodeLocation;
+    this.nodeId = nodeId;
+    this.x = x;
+    this.y = y;
+  }
+
+  public void setWayHeader(long wayId, Map<String, String> tags) {
+    this.type = WayHeader;
+    this.wayId = wayId;
+    this.tags.clear();
+    this.tags.putAll(tags);
+  }
+
+  public void setNodeReference(long wayId, int pos, long nodeId) {
+    this.type = NodeReference;
+    this.wayId = wayId;
+    this.pos = pos;
+    this.nodeId = nodeId;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    out.writeByte(type);
+    switch (type) {
+    case NodeLocation:
+      out.writeLong(nodeId);
+      out.writeDouble(x);
+      out.writeDouble(y);
+      break;
+    case WayHeader:
+      out.writeLong(wayId);
+      out.writeInt(tags.size());
+      for (Map.Entry<String, String> tag : tags.entrySet()) {
+        out.writeUTF(tag.getKey());
+        out.writeUTF(tag.getValue());
+      }
+      break;
+    case NodeReference:
+      // The location is set after the reference is joined with its node
+      out.writeLong(wayId);
+      out.writeInt(pos);
+      out.writeLong(nodeId);
+      out.writeDouble(x);
+      out.writeDouble(y);
+      break;
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    type = in.readByte();
+    switch (type) {
+    case NodeLocation:
+      nodeId = in.readLong();
+      x = in.readDouble();
+      y = in.readDouble();
+      break;
+    case WayHeader:
+      wayId = in.readLong();
+      tags.clear();
+      int size = in.readInt();
+      while (size-- > 0) {
+        String key = in.readUTF();
+        String value = in.readUTF();
+        tags.put(key, value);
+      }
+      break;
+    case NodeReference:
+      wayId = in.readLong();
+      pos = in.readInt();
+      nodeId = in.readLong();
+      x = in.readDouble();
+      y = in.readDouble();
+      break;
+    default:
+      throw new IOException("Unknown way part type " + type);
+    }
+  }
+}
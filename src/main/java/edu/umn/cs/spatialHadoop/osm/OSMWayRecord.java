@@ -0,0 +1,80 @@
+/***********************************************************************
+* Copyright (c) 2015 by Regents of the University of Minnesota.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Apache License, Version 2.0 which
+* accompanies this distribution and is available at
+* http://www.opensource.org/licenses/apache2.0.php.
+*
+*************************************************************************/
+package edu.umn.cs.spatialHadoop.osm;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.io.Writable;
+
+/**
+ * A way as it appears in an OSM XML file, i.e., its ID, the IDs of its nodes
+ * in order, and its tags. The locations of the nodes are resolved later by
+ * {@link OSMWayAssembler}.
+ * @author Ahmed Eldawy
+ *
+ */
+public class OSMWayRecord implements Writable {
+  public long id;
+  /**IDs of the nodes of this way. Only the first numNodes entries are valid*/
+  public long[] nodeIds = new long[16];
+  public int numNodes;
+  public Map<String, String> tags = new HashMap<String, String>();
+
+  public void addNode(long nodeId) {
+    if (numNodes == nodeIds.length)
+      nodeIds = Arrays.copyOf(nodeIds, nodeIds.length * 2);
+    nodeIds[numNodes++] = nodeId;
+  }
+
+  /**
+   * Removes all nodes and tags to reuse this object for another way
+   */
+  public void clear() {
+    numNodes = 0;
+    tags.clear();
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    out.writeLong(id);
+    out.writeInt(numNodes);
+    for (int i = 0; i < numNodes; i++)
+      out.writeLong(nodeIds[i]);
+    out.writeInt(tags.size());
+    for (Map.Entry<String, String> tag : tags.entrySet()) {
+      out.writeUTF(tag.getKey());
+      out.writeUTF(tag.getValue());
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    clear();
+    id = in.readLong();
+    int size = in.readInt();
+    while (size-- > 0)
+      addNode(in.readLong());
+    size = in.readInt();
+    while (size-- > 0) {
+      String key = in.readUTF();
+      String value = in.readUTF();
+      tags.put(key, value);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "Way #" + id + " with " + numNodes + " nodes " + tags;
+  }
+}
@@ -242,6 +242,38 @@ public class TemporalIndex {
 		return matches;
 	}
 
+	/**
+	 * Returns the partition that starts exactly at the given time.
+	 * 
+	 * @param time The start time of the partition
+	 * @return The matching partition or <code>null</code> if no partition
+	 *  starts at the given time
+	 */
+	public TemporalPartition selectStartingAt(long time) {
+		int index = binarySearch(time);
+		if (index < this.partitions.length
+				&& this.partitions[index].start == time)
+			return this.partitions[index];
+		return null;
+	}
+
+	/**
+	 * Returns the start time of the first partition that starts after the
+	 * given time.
+	 * 
+	 * @param time The time point to search after
+	 * @return The start time of the next partition or
+	 *  <code>Long.MAX_VALUE</code> if no partitions start after the given time
+	 */
+	public long nextStart(long time) {
+		int index = binarySearch(time);
+		if (index < this.partitions.length
+				&& this.partitions[index].start <= time)
+			index++;
+		return index < this.partitions.length ? this.partitions[index].start
+				: Long.MAX_VALUE;
+	}
+
 	/**
 	 * Perform a binary search in the sorted array of partitions to find the
 	 * index in which this time can be inserted while keeping the array sorted.
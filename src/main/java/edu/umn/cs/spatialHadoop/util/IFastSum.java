@@ -44,9 +44,6 @@ public class IFastSum {
   protected static final long MAX_N = 1L << HALF_MANTISSA; // 2^HALF_MANTISSA
   protected static final long MAX_N_AFTER_SWAP = MAX_N - N2_EXPONENT;
 
-  /** a global used by iFastSum */
-  public static int r_c;
-
   public IFastSum() {
   }
 
@@ -68,6 +65,19 @@ public class IFastSum {
   }
 
   public static double iFastSum(double[] num_list, int size) {
+    return iFastSum(num_list, size, false);
+  }
+
+  /**
+   * Computes the sum of the given numbers. The rounding check flag was a
+   * global variable in the original code and is passed along the recursive
+   * calls instead so that sums can be computed concurrently.
+   * @param num_list the numbers to sum starting at index 1
+   * @param size the number of numbers to sum
+   * @param r_c set in the recursive calls that check the rounding
+   * @return
+   */
+  private static double iFastSum(double[] num_list, int size, boolean r_c) {
     if (size < 1)
       return .0;
     double s = 0, s_t, s1, s2, e1, e2;
@@ -152,7 +162,7 @@ public class IFastSum {
         half_ulp = .0;
 
       if (e_m < half_ulp || e_m == .0) {
-        if (r_c > 0)
+        if (r_c)
           return s;
         s1 = s2 = s_t;
         e1 = e_m;
@@ -171,16 +181,14 @@ public class IFastSum {
         e2 = temp[1];
 
         if (s + s1 != s || s + s2 != s || Round3(s, s1, e1) || Round3(s, s2, e2)) {
-          r_c = 1;
-          double ss1 = iFastSum(num_list, c_n);
+          double ss1 = iFastSum(num_list, c_n, true);
           // AddTwo(s, s1);
           temp[0] = s;
           temp[1] = ss1;
           AddTwo(temp);
           s = temp[0];
           ss1 = temp[1];
-          double ss2 = iFastSum(num_list, c_n);
-          r_c = 0;
+          double ss2 = iFastSum(num_list, c_n, true);
           if (Round3(s, ss1, ss2)) {
             //s1->mantissa |= 0x1;
             // The magnify function
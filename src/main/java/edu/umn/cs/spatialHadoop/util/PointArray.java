@@ -0,0 +1,346 @@
+/***********************************************************************
+* Copyright (c) 2015 by Regents of the University of Minnesota.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Apache License, Version 2.0 which
+* accompanies this distribution and is available at
+* http://www.opensource.org/licenses/apache2.0.php.
+*
+*************************************************************************/
+package edu.umn.cs.spatialHadoop.util;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.util.IndexedSortable;
+import org.apache.hadoop.util.QuickSort;
+
+import edu.umn.cs.spatialHadoop.core.Point;
+import edu.umn.cs.spatialHadoop.util.Parallel.RunnableRange;
+
+/**
+ * Stores an expandable array of points as two arrays of coordinates. This
+ * avoids creating one object per point when processing large sets of points
+ * in memory. Points of a subclass of {@link Point}, e.g., with additional
+ * attributes, are also kept as objects so that algorithms can return the
+ * original points rather than their coordinates.
+ * @author Ahmed Eldawy
+ *
+ */
+public class PointArray {
+  /**Arrays with fewer points than this are always sorted in one thread*/
+  public static final int ParallelSortThreshold = 100000;
+
+  /**The x-coordinates of all points*/
+  protected double[] xs;
+  /**The y-coordinates of all points*/
+  protected double[] ys;
+  /**Number of points stored in the arrays*/
+  protected int size;
+  /**
+   * A copy of each point that is an instance of a subclass of {@link Point}
+   * and null for plain points. The array is only created when the first of
+   * these points is added.
+   */
+  protected Point[] shapes;
+
+  public PointArray() {
+    this(16);
+  }
+
+  public PointArray(int capacity) {
+    this.xs = new double[Math.max(capacity, 1)];
+    this.ys = new double[xs.length];
+  }
+
+  public void add(double x, double y) {
+    expand(1);
+    xs[size] = x;
+    ys[size] = y;
+    if (shapes != null)
+      shapes[size] = null;
+    size++;
+  }
+
+  /**
+   * Adds the coordinates of the given point. If the point is an instance of a
+   * subclass of {@link Point}, a copy of it is kept and returned by
+   * {@link #getPoint(int)}.
+   * @param p
+   */
+  public void add(Point p) {
+    add(p.x, p.y);
+    if (p.getClass() != Point.class) {
+      if (shapes == null)
+        shapes = new Point[xs.length];
+      shapes[size - 1] = p.clone();
+    }
+  }
+
+  public void add(PointArray another) {
+    expand(another.size);
+    System.arraycopy(another.xs, 0, xs, size, another.size);
+    System.arraycopy(another.ys, 0, ys, size, another.size);
+    if (another.shapes != null) {
+      if (shapes == null)
+        shapes = new Point[xs.length];
+      System.arraycopy(another.shapes, 0, shapes, size, another.size);
+    } else if (shapes != null) {
+      Arrays.fill(shapes, size, size + another.size, null);
+    }
+    size += another.size;
+  }
+
+  /**
+   * Makes sure the arrays have room for the given number of additional points
+   * @param additionalSize
+   */
+  protected void expand(int additionalSize) {
+    if (size + additionalSize > xs.length) {
+      int newCapacity = Math.max(size + additionalSize, xs.length * 2);
+      xs = Arrays.copyOf(xs, newCapacity);
+      ys = Arrays.copyOf(ys, newCapacity);
+      if (shapes != null)
+        shapes = Arrays.copyOf(shapes, newCapacity);
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public void clear() {
+    size = 0;
+    shapes = null;
+  }
+
+  /**
+   * Keeps only the first newSize points. Used after an algorithm compacts its
+   * result at the beginning of the arrays.
+   * @param newSize
+   */
+  public void resize(int newSize) {
+    if (shapes != null && newSize < size)
+      Arrays.fill(shapes, newSize, size, null);
+    this.size = newSize;
+  }
+
+  /**
+   * The underlying array of x-coordinates. Only the first {@link #size()}
+   * entries are valid.
+   * @return
+   */
+  public double[] getXs() {
+    return xs;
+  }
+
+  /**
+   * The underlying array of y-coordinates. Only the first {@link #size()}
+   * entries are valid.
+   * @return
+   */
+  public double[] getYs() {
+    return ys;
+  }
+
+  public double getX(int i) {
+    return xs[i];
+  }
+
+  public double getY(int i) {
+    return ys[i];
+  }
+
+  /**
+   * The underlying array of points of subclasses of {@link Point} or null if
+   * none were added. An entry is null if its point is a plain {@link Point}.
+   * Algorithms that move coordinates in the arrays must move these entries
+   * the same way.
+   * @return
+   */
+  public Point[] getShapes() {
+    return shapes;
+  }
+
+  /**
+   * Returns the point at the given position. This is the point that was
+   * added if it is of a subclass of {@link Point} or a new point with the
+   * coordinates at this position otherwise.
+   * @param i
+   * @return
+   */
+  public Point getPoint(int i) {
+    if (shapes != null && shapes[i] != null)
+      return shapes[i];
+    return new Point(xs[i], ys[i]);
+  }
+
+  /**
+   * Sorts the points by x and then by y, i.e., the same order of
+   * {@link Point#compareTo(Point)}.
+   * @param parallelism
+   */
+  public void sort(int parallelism) {
+    sort(xs, ys, shapes, size, parallelism);
+  }
+
+  /**
+   * Sorts the first size points of the given coordinate arrays by x and then
+   * by y. Above {@link #ParallelSortThreshold}, the array is split into one
+   * chunk per thread, the chunks are sorted in parallel, and the sorted runs
+   * are merged in pairs in parallel.
+   * @param xs
+   * @param ys
+   * @param size
+   * @param parallelism
+   */
+  public static void sort(final double[] xs, final double[] ys, int size,
+      int parallelism) {
+    sort(xs, ys, null, size, parallelism);
+  }
+
+  /**
+   * Sorts the first size points of the given coordinate arrays as in
+   * {@link #sort(double[], double[], int, int)} and moves the entries of the
+   * given array of shapes along with their coordinates.
+   * @param xs
+   * @param ys
+   * @param shapes the array of shapes or null if there are no shapes
+   * @param size
+   * @param parallelism
+   */
+  public static void sort(final double[] xs, final double[] ys,
+      final Point[] shapes, int size, int parallelism) {
+    if (size < ParallelSortThreshold || parallelism <= 1) {
+      sortRange(xs, ys, shapes, 0, size);
+      return;
+    }
+    final int[] runBounds = new int[parallelism + 1];
+    for (int i = 0; i <= parallelism; i++)
+      runBounds[i] = (int) ((long) size * i / parallelism);
+    runInParallel(parallelism, new RunnableRange<Object>() {
+      @Override
+      public Object run(int i1, int i2) {
+        for (int i = i1; i < i2; i++)
+          sortRange(xs, ys, shapes, runBounds[i], runBounds[i + 1]);
+        return null;
+      }
+    }, parallelism);
+
+    // Merge each two adjacent runs until one run remains
+    double[] srcXs = xs, srcYs = ys;
+    double[] dstXs = new double[size], dstYs = new double[size];
+    Point[] srcShapes = shapes;
+    Point[] dstShapes = shapes == null ? null : new Point[size];
+    int[] bounds = runBounds;
+    int numRuns = parallelism;
+    while (numRuns > 1) {
+      final int numMerges = (numRuns + 1) / 2;
+      final int[] srcBounds = bounds;
+      final int srcNumRuns = numRuns;
+      final double[] fSrcXs = srcXs, fSrcYs = srcYs, fDstXs = dstXs, fDstYs = dstYs;
+      final Point[] fSrcShapes = srcShapes, fDstShapes = dstShapes;
+      runInParallel(numMerges, new RunnableRange<Object>() {
+        @Override
+        public Object run(int i1, int i2) {
+          for (int i = i1; i < i2; i++) {
+            merge(fSrcXs, fSrcYs, fSrcShapes, srcBounds[2 * i],
+                srcBounds[Math.min(2 * i + 1, srcNumRuns)],
+                srcBounds[Math.min(2 * i + 2, srcNumRuns)], fDstXs, fDstYs,
+                fDstShapes);
+          }
+          return null;
+        }
+      }, parallelism);
+      int[] newBounds = new int[numMerges + 1];
+      for (int i = 0; i <= numMerges; i++)
+        newBounds[i] = srcBounds[Math.min(2 * i, srcNumRuns)];
+      bounds = newBounds;
+      numRuns = numMerges;
+      double[] tmp = srcXs; srcXs = dstXs; dstXs = tmp;
+      tmp = srcYs; srcYs = dstYs; dstYs = tmp;
+      Point[] tmpShapes = srcShapes; srcShapes = dstShapes; dstShapes = tmpShapes;
+    }
+    if (srcXs != xs) {
+      System.arraycopy(srcXs, 0, xs, 0, size);
+      System.arraycopy(srcYs, 0, ys, 0, size);
+      if (shapes != null)
+        System.arraycopy(srcShapes, 0, shapes, 0, size);
+    }
+  }
+
+  /**
+   * Sorts a range of points in the current thread
+   * @param xs
+   * @param ys
+   * @param start
+   * @param end
+   */
+  private static void sortRange(final double[] xs, final double[] ys,
+      final Point[] shapes, int start, int end) {
+    new QuickSort().sort(new IndexedSortable() {
+      @Override
+      public int compare(int i, int j) {
+        if (xs[i] < xs[j]) return -1;
+        if (xs[i] > xs[j]) return 1;
+        if (ys[i] < ys[j]) return -1;
+        if (ys[i] > ys[j]) return 1;
+        return 0;
+      }
+
+      @Override
+      public void swap(int i, int j) {
+        double t = xs[i]; xs[i] = xs[j]; xs[j] = t;
+        t = ys[i]; ys[i] = ys[j]; ys[j] = t;
+        if (shapes != null) {
+          Point s = shapes[i]; shapes[i] = shapes[j]; shapes[j] = s;
+        }
+      }
+    }, start, end);
+  }
+
+  /**
+   * Merges the two sorted runs [start, mid) and [mid, end) of the source
+   * arrays into the same range of the destination arrays.
+   */
+  private static void merge(double[] srcXs, double[] srcYs, Point[] srcShapes,
+      int start, int mid, int end, double[] dstXs, double[] dstYs,
+      Point[] dstShapes) {
+    int i1 = start, i2 = mid, i = start;
+    while (i1 < mid && i2 < end) {
+      int src;
+      if (srcXs[i2] < srcXs[i1] || (srcXs[i2] == srcXs[i1] && srcYs[i2] < srcYs[i1]))
+        src = i2++;
+      else
+        src = i1++;
+      dstXs[i] = srcXs[src];
+      dstYs[i] = srcYs[src];
+      if (srcShapes != null)
+        dstShapes[i] = srcShapes[src];
+      i++;
+    }
+    System.arraycopy(srcXs, i1, dstXs, i, mid - i1);
+    System.arraycopy(srcYs, i1, dstYs, i, mid - i1);
+    if (srcShapes != null)
+      System.arraycopy(srcShapes, i1, dstShapes, i, mid - i1);
+    i += mid - i1;
+    System.arraycopy(srcXs, i2, dstXs, i, end - i2);
+    System.arraycopy(srcYs, i2, dstYs, i, end - i2);
+    if (srcShapes != null)
+      System.arraycopy(srcShapes, i2, dstShapes, i, end - i2);
+  }
+
+  /**
+   * Runs the given range with {@link Parallel#forEach(int, RunnableRange, int)}
+   * and rethrows an interruption as a runtime exception.
+   */
+  public static <T> void runInParallel(int size, RunnableRange<T> r, int parallelism) {
+    try {
+      Parallel.forEach(size, r, parallelism);
+    } catch (InterruptedException e) {
+      throw new RuntimeException("Interrupted while processing points", e);
+    }
+  }
+}
@@ -5,7 +5,6 @@ package edu.umn.cs.spatialHadoop.visualization;
 
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -23,6 +22,9 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.mortbay.jetty.Request;
 import org.mortbay.jetty.Server;
 import org.mortbay.jetty.handler.AbstractHandler;
@@ -35,7 +37,17 @@ import org.mortbay.jetty.handler.AbstractHandler;
 public class DaVinciServerV2 extends AbstractHandler {
 	private static final Log LOG = LogFactory.getLog(DaVinciServerV2.class);
 	
-	ImagePlot imagePlot;
+	/**Maximum total size of the rendered tiles kept in memory*/
+	private static final long MaxCachedTileBytes = 256L * 1024 * 1024;
+
+	/**
+	 * Renders tiles that are not pre-generated and caches them across requests.
+	 * Created when the handler starts and shut down when it stops.
+	 */
+	private volatile TileService tileService;
+
+	/**The local file system of the tile archives. Created when the handler starts*/
+	private volatile FileSystem localFs;
 
 	/**
 	 * A constructor that starts the Jetty server
@@ -56,10 +68,26 @@ public class DaVinciServerV2 extends AbstractHandler {
 
 		Server server = new Server(port);
 		server.setHandler(new DaVinciServerV2());
+		// Stops the handler and its tile service when the JVM exits
+		server.setStopAtShutdown(true);
 		server.start();
 		server.join();
 	}
 
+	@Override
+	protected void doStart() throws Exception {
+		localFs = FileSystem.getLocal(new Configuration());
+		tileService = new TileService(
+				Runtime.getRuntime().availableProcessors(), MaxCachedTileBytes);
+		super.doStart();
+	}
+
+	@Override
+	protected void doStop() throws Exception {
+		super.doStop();
+		tileService.shutdown();
+	}
+
 	public void handle(String target, HttpServletRequest request, HttpServletResponse response, int dispatch)
 			throws IOException, ServletException {
 		// Bypass cross-site scripting (XSS)
@@ -84,7 +112,10 @@ public class DaVinciServerV2 extends AbstractHandler {
 		LOG.info("display image start time "+System.currentTimeMillis());
 		target = target.replace("/dynamic/showImage.cgi/", "");
 		
-		if (new File(target).isFile() && target.endsWith("index.html")) {
+		if (target.endsWith(".png") && tryToLoadFromArchive(target, response)) {
+			// The image is stored in a tile archive. It is checked first as the
+			// cached archive serves a tile without touching the file system
+		} else if (new File(target).isFile() && target.endsWith("index.html")) {
 			// The server requests the root HTML file
 			tryToLoadStaticResource(target, response);
 		} else if (new File(target).isFile() && target.endsWith(".png")) {
@@ -121,14 +152,14 @@ public class DaVinciServerV2 extends AbstractHandler {
 						double startTime = System.nanoTime();
 					
 						
-						imagePlot = new ImagePlot();
-						DataOutputStream output = new DataOutputStream(response.getOutputStream());
-						imagePlot.createImage(datafile.getParent(),datafile.getName(), output, upLevel, filename,zoom_level,column,row);
+						byte[] tile = tileService.getTile(datafile.getParent(), zoom_level, column, row);
 						upLevel = false;
 						
-						output.close();
 						response.setContentType("image/png");
 						response.setStatus(HttpServletResponse.SC_OK);
+						ServletOutputStream output = response.getOutputStream();
+						output.write(tile);
+						output.close();
 						
 						double finishTime = System.nanoTime();
 						LOG.info(String.format("****DATFILE : %s image generation and load time is %f seconds", filename, (finishTime-startTime)*1E-9));
@@ -150,6 +181,36 @@ public class DaVinciServerV2 extends AbstractHandler {
 		}
 	}
 	
+	/**
+	 * Tries to load the given tile from a tile archive in its directory.
+	 * @param target
+	 * @param response
+	 * @return true if the tile was found in an archive and sent
+	 * @throws IOException
+	 */
+	private boolean tryToLoadFromArchive(String target,
+			HttpServletResponse response) throws IOException {
+		File tileFile = new File(target).getAbsoluteFile();
+		TileArchive archive = TileArchive.openCached(localFs,
+				new Path(tileFile.getParent()));
+		if (archive == null)
+			return false;
+		byte[] tile;
+		try {
+			tile = archive.getTile(tileFile.getName());
+		} finally {
+			archive.close();
+		}
+		if (tile == null)
+			return false;
+		response.setContentType("image/png");
+		response.setStatus(HttpServletResponse.SC_OK);
+		ServletOutputStream output = response.getOutputStream();
+		output.write(tile);
+		output.close();
+		return true;
+	}
+
 	/**
 	 * Tries to load the given resource name from class path if it exists.
 	 * Used to serve static files such as HTML pages, images and JavaScript files.
@@ -42,9 +42,23 @@ public class FrequencyMap extends Canvas {
   /**Frequencies*/
   protected float[][] frequencies;
 
+  /**
+   * Raw number of points in each pixel. Only used when smoothing is deferred;
+   * the kernel is applied once when the image is generated. Null if the
+   * points are smoothed as they are added. The counts cover a margin of
+   * radius pixels around the image because points in this margin still
+   * contribute to the image. They are stored column by column, i.e., the
+   * count of pixel (x, y) is at position
+   * (x + radius) * (height + 2 * radius) + (y + radius).
+   */
+  protected int[] counts;
+
   /**Radius to smooth nearboy points*/
   private int radius;
 
+  /**Type of smoothing to apply to the counts when smoothing is deferred*/
+  private SmoothType smoothType;
+
   /**The minimum value to be used while drawing the heat map*/
   private float min;
 
@@ -64,13 +78,32 @@ public class FrequencyMap extends Canvas {
    * @param height
    */
   public FrequencyMap(Rectangle inputMBR, int width, int height, int radius, SmoothType smoothType) {
+    this(inputMBR, width, height, radius, smoothType, false);
+  }
+
+  /**
+   * Initializes a frequency map with the given dimensions
+   * @param inputMBR
+   * @param width
+   * @param height
+   * @param radius
+   * @param smoothType
+   * @param deferSmoothing - when set to true, only the number of points in
+   *   each pixel is counted and the kernel is applied once when the image is
+   *   generated. This avoids stamping the kernel for each point.
+   */
+  public FrequencyMap(Rectangle inputMBR, int width, int height, int radius,
+      SmoothType smoothType, boolean deferSmoothing) {
     System.setProperty("java.awt.headless", "true");
     this.inputMBR = inputMBR;
     this.width = width;
     this.height = height;
-    this.frequencies = new float[width][height];
     this.min = -1; this.max = -2;
     initKernel(radius, smoothType);
+    if (deferSmoothing)
+      this.counts = new int[(width + 2 * radius) * (height + 2 * radius)];
+    else
+      this.frequencies = new float[width][height];
   }
   
   /**
@@ -80,6 +113,7 @@ public class FrequencyMap extends Canvas {
    */
   protected void initKernel(int radius, SmoothType smoothType) {
     this.radius = radius;
+    this.smoothType = smoothType;
     // initialize the kernel according to the radius and kernel type
     kernel = new float[radius * 2][radius * 2];
     switch (smoothType) {
@@ -118,18 +152,35 @@ public class FrequencyMap extends Canvas {
   @Override
   public void write(DataOutput out) throws IOException {
     super.write(out);
+    out.writeBoolean(counts != null);
+    if (counts != null) {
+      // The kernel is needed to smooth the counts after they are read
+      out.writeInt(radius);
+      out.writeByte(smoothType.ordinal());
+    }
     ByteArrayOutputStream baos = new ByteArrayOutputStream();
     GZIPOutputStream gzos = new GZIPOutputStream(baos);
     ByteBuffer bbuffer = ByteBuffer.allocate(getHeight() * 4 + 8);
     bbuffer.putInt(getWidth());
     bbuffer.putInt(getHeight());
     gzos.write(bbuffer.array(), 0, bbuffer.position());
-    for (int x = 0; x < getWidth(); x++) {
-      bbuffer.clear();
-      for (int y = 0; y < getHeight(); y++) {
-        bbuffer.putFloat(frequencies[x][y]);
+    if (counts != null) {
+      // Write the counts including the margin column by column
+      int columnHeight = getHeight() + 2 * radius;
+      bbuffer = ByteBuffer.allocate(columnHeight * 4);
+      for (int x = 0; x < getWidth() + 2 * radius; x++) {
+        bbuffer.clear();
+        bbuffer.asIntBuffer().put(counts, x * columnHeight, columnHeight);
+        gzos.write(bbuffer.array(), 0, columnHeight * 4);
+      }
+    } else {
+      for (int x = 0; x < getWidth(); x++) {
+        bbuffer.clear();
+        for (int y = 0; y < getHeight(); y++) {
+          bbuffer.putFloat(frequencies[x][y]);
+        }
+        gzos.write(bbuffer.array(), 0, bbuffer.position());
       }
-      gzos.write(bbuffer.array(), 0, bbuffer.position());
     }
     gzos.close();
     
@@ -141,6 +192,13 @@ public class FrequencyMap extends Canvas {
   @Override
   public void readFields(DataInput in) throws IOException {
     super.readFields(in);
+    boolean deferred = in.readBoolean();
+    if (deferred) {
+      int radius = in.readInt();
+      SmoothType smoothType = SmoothType.values()[in.readByte()];
+      if (kernel == null || radius != this.radius || smoothType != this.smoothType)
+        initKernel(radius, smoothType);
+    }
     int length = in.readInt();
     byte[] serializedData = new byte[length];
     in.readFully(serializedData);
@@ -152,6 +210,24 @@ public class FrequencyMap extends Canvas {
     ByteBuffer bbuffer = ByteBuffer.wrap(buffer);
     int width = bbuffer.getInt();
     int height = bbuffer.getInt();
+    if (deferred) {
+      frequencies = null;
+      int numColumns = width + 2 * radius;
+      int columnHeight = height + 2 * radius;
+      // Reallocate memory only if needed
+      if (counts == null || counts.length != numColumns * columnHeight)
+        counts = new int[numColumns * columnHeight];
+      buffer = new byte[columnHeight * 4];
+      for (int x = 0; x < numColumns; x++) {
+        int size = 0;
+        while (size < buffer.length) {
+          size += gzis.read(buffer, size, buffer.length - size);
+        }
+        ByteBuffer.wrap(buffer).asIntBuffer().get(counts, x * columnHeight, columnHeight);
+      }
+      return;
+    }
+    counts = null;
     // Reallocate memory only if needed
     if (width != this.getWidth() || height != this.getHeight())
       frequencies = new float[width][height];
@@ -169,11 +245,31 @@ public class FrequencyMap extends Canvas {
   }
   
   public void mergeWith(FrequencyMap another) {
+    if ((this.counts == null) != (another.counts == null))
+      throw new RuntimeException("Cannot merge a smoothed frequency map with raw counts");
     Point offset = projectToImageSpace(another.getInputMBR().x1, another.getInputMBR().y1);
     int xmin = Math.max(0, offset.x);
     int ymin = Math.max(0, offset.y);
     int xmax = Math.min(this.getWidth(), another.getWidth() + offset.x);
     int ymax = Math.min(this.getHeight(), another.getHeight() + offset.y);
+    if (counts != null) {
+      if (this.radius != another.radius)
+        throw new RuntimeException("Cannot merge raw counts of different radii");
+      // Merge the margins as well
+      xmin = Math.max(-radius, offset.x - radius);
+      ymin = Math.max(-radius, offset.y - radius);
+      xmax = Math.min(this.getWidth(), another.getWidth() + offset.x) + radius;
+      ymax = Math.min(this.getHeight(), another.getHeight() + offset.y) + radius;
+      int thisHeight = this.getHeight() + 2 * radius;
+      int anotherHeight = another.getHeight() + 2 * radius;
+      for (int x = xmin; x < xmax; x++) {
+        int thisOffset = (x + radius) * thisHeight + radius;
+        int anotherOffset = (x - offset.x + radius) * anotherHeight + radius - offset.y;
+        for (int y = ymin; y < ymax; y++)
+          this.counts[thisOffset + y] += another.counts[anotherOffset + y];
+      }
+      return;
+    }
     for (int x = xmin; x < xmax; x++) {
       for (int y = ymin; y < ymax; y++) {
         this.frequencies[x][y] +=
@@ -181,8 +277,92 @@ public class FrequencyMap extends Canvas {
       }
     }
   }
+
+  /**
+   * Applies the kernel to the raw counts if smoothing is deferred. Afterwards,
+   * this map contains the same frequencies as if the kernel was applied to
+   * each point as it was added. The Gaussian kernel is separable, so it is
+   * applied as two one-dimensional passes. The flat kernel is a disk which
+   * is not separable, so each of its rows is applied as a range sum over
+   * prefix sums of the counts. Both cost O(r) per pixel rather than O(r^2)
+   * per point.
+   */
+  protected void applyDeferredKernel() {
+    if (counts == null)
+      return;
+    int width = getWidth();
+    int height = getHeight();
+    int numColumns = width + 2 * radius;
+    int columnHeight = height + 2 * radius;
+    frequencies = new float[width][height];
+    // A point counted at (sx, sy), including the margin, contributes to the
+    // pixel (sx - radius + dx, sy - radius + dy) for dx, dy in [-radius, radius)
+    if (smoothType == SmoothType.Gaussian) {
+      // The 2D kernel is the product of this 1D kernel in both dimensions,
+      // which is its row at dy=0
+      float[] kernel1D = new float[radius * 2];
+      for (int d = -radius; d < radius; d++)
+        kernel1D[d + radius] = kernel[d + radius][radius];
+      // Horizontal pass from the counts to a temporary map that keeps the
+      // vertical margin
+      float[][] temp = new float[width][columnHeight];
+      for (int sx = 0; sx < numColumns; sx++) {
+        int dxmin = Math.max(-radius, radius - sx);
+        int dxmax = Math.min(radius, width + radius - sx);
+        for (int sy = 0; sy < columnHeight; sy++) {
+          int count = counts[sx * columnHeight + sy];
+          if (count == 0)
+            continue;
+          for (int dx = dxmin; dx < dxmax; dx++)
+            temp[sx - radius + dx][sy] += count * kernel1D[dx + radius];
+        }
+      }
+      // Vertical pass from the temporary map to the frequencies
+      for (int x = 0; x < width; x++) {
+        float[] tempColumn = temp[x];
+        float[] column = frequencies[x];
+        for (int sy = 0; sy < columnHeight; sy++) {
+          float value = tempColumn[sy];
+          if (value == 0)
+            continue;
+          int dymin = Math.max(-radius, radius - sy);
+          int dymax = Math.min(radius, height + radius - sy);
+          for (int dy = dymin; dy < dymax; dy++)
+            column[sy - radius + dy] += value * kernel1D[dy + radius];
+        }
+      }
+    } else {
+      // prefixSums[sy][sx] is the total count of pixels (0, sy) .. (sx-1, sy)
+      int[][] prefixSums = new int[columnHeight][numColumns + 1];
+      for (int sy = 0; sy < columnHeight; sy++) {
+        for (int sx = 0; sx < numColumns; sx++)
+          prefixSums[sy][sx + 1] = prefixSums[sy][sx] + counts[sx * columnHeight + sy];
+      }
+      for (int dy = -radius; dy < radius; dy++) {
+        // The range of dx for which the kernel is set at this dy
+        int dxmin = radius, dxmax = -radius - 1;
+        for (int dx = -radius; dx < radius; dx++) {
+          if (kernel[dx + radius][dy + radius] != 0) {
+            dxmin = Math.min(dxmin, dx);
+            dxmax = Math.max(dxmax, dx);
+          }
+        }
+        if (dxmin > dxmax)
+          continue;
+        // The pixel (x, y) sums the points in the row sy = y + radius - dy
+        // and in the range sx = [x + radius - dxmax, x + radius - dxmin]
+        for (int y = 0; y < height; y++) {
+          int[] sourceRow = prefixSums[y + radius - dy];
+          for (int x = 0; x < width; x++)
+            frequencies[x][y] += sourceRow[x + radius - dxmin + 1] - sourceRow[x + radius - dxmax];
+        }
+      }
+    }
+    counts = null;
+  }
   
   public BufferedImage asImage() {
+    applyDeferredKernel();
     if (min >= max) {
       // Values not set. Autodetect
       min = Float.MAX_VALUE;
@@ -212,6 +392,12 @@ public class FrequencyMap extends Canvas {
    * @param cy
    */
   public void addPoint(int cx, int cy) {
+    if (counts != null) {
+      // Smoothing is deferred, just count the point
+      if (cx >= -radius && cx < getWidth() + radius && cy >= -radius && cy < getHeight() + radius)
+        counts[(cx + radius) * (getHeight() + 2 * radius) + (cy + radius)]++;
+      return;
+    }
     for (int dx = -radius; dx < radius; dx++) {
       for (int dy = -radius; dy < radius; dy++) {
         int imgx = cx + dx;
@@ -223,10 +409,14 @@ public class FrequencyMap extends Canvas {
   }
 
   public int getWidth() {
+    if (counts != null)
+      return width;
     return frequencies == null? 0 : frequencies.length;
   }
 
   public int getHeight() {
+    if (counts != null)
+      return height;
     return frequencies == null? 0 : frequencies[0].length;
   }
   
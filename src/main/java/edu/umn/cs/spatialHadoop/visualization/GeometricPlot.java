@@ -43,16 +43,20 @@ public class GeometricPlot {
     
     private Color strokeColor;
 
+    private ImageCanvas.WireFormat wireFormat;
+
     @Override
     public void configure(Configuration conf) {
       super.configure(conf);
       this.strokeColor = OperationsParams.getColor(conf, "color", Color.BLACK);
+      this.wireFormat = ImageCanvas.getWireFormat(conf);
     }
 
     @Override
     public Canvas createCanvas(int width, int height, Rectangle mbr) {
       ImageCanvas imageCanvas = new ImageCanvas(mbr, width, height);
       imageCanvas.setColor(strokeColor);
+      imageCanvas.setWireFormat(wireFormat);
       return imageCanvas;
     }
 
@@ -274,6 +274,28 @@ public class HadoopvizServer extends AbstractHandler {
 
       LOG.info("Fetching from " + path);
 
+      // The file could be a tile stored in a tile archive. The cached archive
+      // is checked first so that such a tile is served with one read
+      TileArchive archive = TileArchive.openCached(fs, filePath.getParent());
+      if (archive != null) {
+        byte[] tile;
+        try {
+          tile = archive.getTile(filePath.getName());
+        } finally {
+          archive.close();
+        }
+        if (tile != null) {
+          ServletOutputStream outResponse = response.getOutputStream();
+          outResponse.write(tile);
+          outResponse.close();
+          response.setStatus(HttpServletResponse.SC_OK);
+          if (filePath.toString().endsWith("png")) {
+            response.setContentType("image/png");
+          }
+          return;
+        }
+      }
+
       FSDataInputStream resource;
 
       resource = fs.open(filePath);
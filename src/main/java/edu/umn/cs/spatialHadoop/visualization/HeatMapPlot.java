@@ -37,12 +37,20 @@ import edu.umn.cs.spatialHadoop.visualization.FrequencyMap.GradientType;
 description = "Plots a heat map to an image")
 public class HeatMapPlot {
 
+  /**
+   * Configuration key for counting points per pixel while plotting and
+   * applying the smoothing kernel once to each final image
+   */
+  public static final String DeferSmoothing = "defersmooth";
+
   public static class HeatMapRasterizer extends Plotter {
 
     /**Radius of the heat map smooth in pixels*/
     private int radius;
     /**Type of smoothing to use in the frequency map*/
     private FrequencyMap.SmoothType smoothType;
+    /**Whether to count the points and apply the kernel to the final image*/
+    private boolean deferSmoothing;
     /**Color associated with minimum value*/
     private Color color1;
     /**Color associated with maximum value*/
@@ -59,6 +67,7 @@ public class HeatMapPlot {
       this.radius = conf.getInt("radius", 5);
       this.smoothType = conf.getBoolean("smooth", true) ? FrequencyMap.SmoothType.Gaussian
           : FrequencyMap.SmoothType.Flat;
+      this.deferSmoothing = conf.getBoolean(DeferSmoothing, false);
       this.color1 = OperationsParams.getColor(conf, "color1", new Color(0, 0, 255, 0));
       this.color2 = OperationsParams.getColor(conf, "color2", new Color(255, 0, 0, 255));
       this.gradientType = conf.get("gradient", "hsb").equals("hsb") ? GradientType.GT_HSB : GradientType.GT_RGB;
@@ -75,7 +84,8 @@ public class HeatMapPlot {
     
     @Override
     public Canvas createCanvas(int width, int height, Rectangle mbr) {
-      FrequencyMap rasterLayer = new FrequencyMap(mbr, width, height, radius, smoothType);
+      FrequencyMap rasterLayer = new FrequencyMap(mbr, width, height, radius,
+          smoothType, deferSmoothing);
       rasterLayer.setGradientInfor(color1, color2, gradientType);
       if (this.minValue <= maxValue)
         rasterLayer.setValueRange(minValue, maxValue);
@@ -142,6 +152,7 @@ public class HeatMapPlot {
     System.out.println("partition:<data|space|flat|pyramid> - which partitioning technique to use");
     System.out.println("-overwrite: Override output file without notice");
     System.out.println("-vflip: Vertically flip generated image to correct +ve Y-axis direction");
+    System.out.println("-defersmooth: Count points per pixel and smooth each final image once");
     GenericOptionsParser.printGenericCommandUsage(System.out);
   }
 
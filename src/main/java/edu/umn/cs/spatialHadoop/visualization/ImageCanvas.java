@@ -12,14 +12,19 @@ import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.Arrays;
 
 import javax.imageio.ImageIO;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.WritableUtils;
+
 import edu.umn.cs.spatialHadoop.core.Rectangle;
 import edu.umn.cs.spatialHadoop.core.Shape;
 
@@ -30,6 +35,24 @@ import edu.umn.cs.spatialHadoop.core.Shape;
  */
 public class ImageCanvas extends Canvas {
 
+  /**
+   * The format used to serialize the image of intermediate canvases, e.g.,
+   * in the shuffle phase or in partial output files.
+   * <ul>
+   *  <li>PNG: The image is compressed as PNG using ImageIO</li>
+   *  <li>RLE: The ARGB pixels are written directly where runs of repeated
+   *  pixels, e.g., transparent areas, are run-length encoded</li>
+   * </ul>
+   * The final image is always written as PNG by the plotter.
+   */
+  public static enum WireFormat {PNG, RLE};
+
+  /**Configuration key for the wire format of intermediate image canvases*/
+  public static final String WireFormatKey = "ImageCanvas.WireFormat";
+
+  /**Maximum number of pixels in one run of the RLE format*/
+  private static final int MaxRunLength = 1 << 16;
+
   /**
    * The underlying image
    */
@@ -50,6 +73,9 @@ public class ImageCanvas extends Canvas {
   /**Default color to use with underlying graphics*/
   private Color color;
 
+  /**The format used to serialize the image in {@link #write(DataOutput)}*/
+  private WireFormat wireFormat = WireFormat.RLE;
+
   /**Default constructor is necessary to be able to deserialize it*/
   public ImageCanvas() {
     System.setProperty("java.awt.headless", "true");
@@ -75,29 +101,170 @@ public class ImageCanvas extends Canvas {
     this.color = color;
   }
   
+  /**
+   * Sets the format used to serialize the image of this canvas. The format of
+   * a deserialized canvas is the format it was read in.
+   * @param wireFormat
+   */
+  public void setWireFormat(WireFormat wireFormat) {
+    this.wireFormat = wireFormat;
+  }
+
+  public WireFormat getWireFormat() {
+    return wireFormat;
+  }
+
+  /**
+   * Returns the wire format set in the given configuration or the default
+   * format if it is not set.
+   * @param conf
+   * @return
+   */
+  public static WireFormat getWireFormat(Configuration conf) {
+    return WireFormat.valueOf(conf.get(WireFormatKey, WireFormat.RLE.name()).toUpperCase());
+  }
+
   @Override
   public void write(DataOutput out) throws IOException {
     super.write(out);
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    ImageIO.write(getImage(), "png", baos);
-    baos.close();
-    byte[] bytes = baos.toByteArray();
-    out.writeInt(bytes.length);
-    out.write(bytes);
+    out.writeByte(wireFormat.ordinal());
+    switch (wireFormat) {
+    case PNG:
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      ImageIO.write(getImage(), "png", baos);
+      baos.close();
+      byte[] bytes = baos.toByteArray();
+      out.writeInt(bytes.length);
+      out.write(bytes);
+      break;
+    case RLE:
+      writeRLE(out);
+      break;
+    }
   }
 
   @Override
   public void readFields(DataInput in) throws IOException {
     super.readFields(in);
-    int length = in.readInt();
-    byte[] bytes = new byte[length];
-    in.readFully(bytes);
-    this.image = ImageIO.read(new ByteArrayInputStream(bytes));
+    wireFormat = WireFormat.values()[in.readByte()];
+    switch (wireFormat) {
+    case PNG:
+      int length = in.readInt();
+      byte[] bytes = new byte[length];
+      in.readFully(bytes);
+      this.image = ImageIO.read(new ByteArrayInputStream(bytes));
+      break;
+    case RLE:
+      readRLE(in);
+      break;
+    }
+    if (graphics != null) {
+      // The graphics might belong to an image that has been replaced
+      graphics.dispose();
+      graphics = null;
+    }
     // Calculate the scale of the image in terms of pixels per unit
     xscale = image.getWidth() / getInputMBR().getWidth();
     yscale = image.getHeight() / getInputMBR().getHeight();
   }
 
+  /**
+   * Returns the ARGB pixels of the image in row-major order. If the image is
+   * of type {@link BufferedImage#TYPE_INT_ARGB}, its underlying array is
+   * returned without copying.
+   * @return
+   */
+  private int[] getPixels() {
+    BufferedImage img = getImage();
+    if (img.getType() == BufferedImage.TYPE_INT_ARGB)
+      return ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+    return img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth());
+  }
+
+  /**
+   * Writes the pixels of the image as a sequence of runs. Each run starts
+   * with a VInt n. A positive n is followed by one pixel repeated n times
+   * while a negative n is followed by -n distinct pixels.
+   * @param out
+   * @throws IOException
+   */
+  private void writeRLE(DataOutput out) throws IOException {
+    BufferedImage img = getImage();
+    out.writeInt(img.getWidth());
+    out.writeInt(img.getHeight());
+    int[] pixels = getPixels();
+    int numPixels = img.getWidth() * img.getHeight();
+    byte[] literals = null;
+    int i = 0;
+    while (i < numPixels) {
+      // Find the length of the run of repeated pixels that starts at i
+      int runEnd = i + 1;
+      while (runEnd < numPixels && runEnd - i < MaxRunLength && pixels[runEnd] == pixels[i])
+        runEnd++;
+      if (runEnd - i > 1) {
+        WritableUtils.writeVInt(out, runEnd - i);
+        out.writeInt(pixels[i]);
+        i = runEnd;
+      } else {
+        // Extend a literal run until the next two repeated pixels
+        int literalEnd = i + 1;
+        while (literalEnd < numPixels && literalEnd - i < MaxRunLength &&
+            (literalEnd + 1 >= numPixels || pixels[literalEnd] != pixels[literalEnd + 1]))
+          literalEnd++;
+        int count = literalEnd - i;
+        if (literals == null || literals.length < count * 4)
+          literals = new byte[count * 4];
+        for (int j = 0; j < count; j++) {
+          int pixel = pixels[i + j];
+          literals[j * 4] = (byte) (pixel >>> 24);
+          literals[j * 4 + 1] = (byte) (pixel >>> 16);
+          literals[j * 4 + 2] = (byte) (pixel >>> 8);
+          literals[j * 4 + 3] = (byte) pixel;
+        }
+        WritableUtils.writeVInt(out, -count);
+        out.write(literals, 0, count * 4);
+        i = literalEnd;
+      }
+    }
+  }
+
+  /**
+   * Reads an image written by {@link #writeRLE(DataOutput)}
+   * @param in
+   * @throws IOException
+   */
+  private void readRLE(DataInput in) throws IOException {
+    int width = in.readInt();
+    int height = in.readInt();
+    // Reuse the existing image if it has the same size
+    if (image == null || image.getWidth() != width || image.getHeight() != height
+        || image.getType() != BufferedImage.TYPE_INT_ARGB)
+      image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    int numPixels = width * height;
+    byte[] literals = null;
+    int i = 0;
+    while (i < numPixels) {
+      int n = WritableUtils.readVInt(in);
+      if (n > 0) {
+        int pixel = in.readInt();
+        Arrays.fill(pixels, i, i + n, pixel);
+        i += n;
+      } else {
+        int count = -n;
+        if (literals == null || literals.length < count * 4)
+          literals = new byte[count * 4];
+        in.readFully(literals, 0, count * 4);
+        for (int j = 0; j < count; j++) {
+          pixels[i++] = ((literals[j * 4] & 0xff) << 24)
+              | ((literals[j * 4 + 1] & 0xff) << 16)
+              | ((literals[j * 4 + 2] & 0xff) << 8)
+              | (literals[j * 4 + 3] & 0xff);
+        }
+      }
+    }
+  }
+
   public void mergeWith(ImageCanvas another) {
     Point offset = projectToImageSpace(another.getInputMBR().x1, another.getInputMBR().y1);
     getOrCreateGrahics(false).drawImage(another.getImage(), offset.x, offset.y, null);
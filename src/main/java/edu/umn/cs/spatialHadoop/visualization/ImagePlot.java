@@ -2,6 +2,7 @@
 package edu.umn.cs.spatialHadoop.visualization;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
@@ -26,7 +27,8 @@ public class ImagePlot {
 	 double x2 = 0;
 	 boolean vflip = true;
 	 String Shape = "osm";
-	 TileIndex tileIndex;
+	 /**The directory of the last loaded Configuration.txt*/
+	 String configuredDir;
 	 
 	 
 	 public static ArrayList<Partition> getPartitions(Path masterPath) throws IOException {
@@ -51,12 +53,14 @@ public class ImagePlot {
 		}
 		 
 	
-	public void createImage(String dirName, String inFileName, DataOutputStream output, Boolean upLevel, String newFileName,int zoom_level,int column,int row) throws IOException{
-	
-		
-		Path infile=new Path(dirName+"/"+inFileName);
-		//System.out.println("Infile:"+infile);
-		//ArrayList <Partition> MasterPartition=getPartitions(infile);
+	/**
+	 * Reads the MBR, vflip and shape parameters from the file Configuration.txt
+	 * in the given directory. The file is read only once for each directory.
+	 * @param dirName
+	 */
+	private synchronized void loadConfiguration(String dirName) {
+		if (dirName.equals(configuredDir))
+			return;
 		BufferedReader br = null;
 		FileReader fr = null;
 
@@ -76,6 +80,7 @@ public class ImagePlot {
 				if(strarr[0].equals("vflip")) vflip = Boolean.parseBoolean(strarr[1]);
 				if(strarr[0].equals("Shape")) Shape = strarr[1];
 			}
+			configuredDir = dirName;
 
 		} catch (IOException e) {
 
@@ -98,12 +103,38 @@ public class ImagePlot {
 			}
 
 		}
+	}
+
+	/**
+	 * Renders the given tile and returns it as a PNG image
+	 * @param dirName
+	 * @param zoom_level
+	 * @param column
+	 * @param row
+	 * @return
+	 * @throws IOException
+	 */
+	public byte[] renderTile(String dirName, int zoom_level, int column, int row) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(baos);
+		createImage(dirName, "_master.rstar", output, false, null, zoom_level, column, row);
+		output.close();
+		return baos.toByteArray();
+	}
+
+	public void createImage(String dirName, String inFileName, DataOutputStream output, Boolean upLevel, String newFileName,int zoom_level,int column,int row) throws IOException{
+	
+		
+		Path infile=new Path(dirName+"/"+inFileName);
+		//System.out.println("Infile:"+infile);
+		//ArrayList <Partition> MasterPartition=getPartitions(infile);
+		loadConfiguration(dirName);
 		//inFileName = dirName+"//"+inFileName;
 		Rectangle inputMBR=new Rectangle(x1,y1,x2,y2);
 		long tileID = TileIndex.encode(zoom_level, column, row);
 		 
 		 
-		 tileIndex = TileIndex.decode(tileID, tileIndex);
+		 TileIndex tileIndex = TileIndex.decode(tileID, null);
 		 
 		 
 		 
@@ -152,17 +183,11 @@ public class ImagePlot {
 	      
 		 //Canvas canvasImage = null; 
 	    try {
-			 SingleLevelPlot.plotLocal(new Path[] { new Path("all_nodes_index") },
+			 SingleLevelPlot.plotLocal(new Path[] { new Path(dirName) },
 			        output, GeometricPlot.GeometricRasterizer.class, params);
-		} catch (IllegalArgumentException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
 		} catch (InterruptedException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			// Report the error to the caller rather than returning an incomplete image
+			throw new IOException("Interrupted while plotting", e);
 		}
 	    
 	}
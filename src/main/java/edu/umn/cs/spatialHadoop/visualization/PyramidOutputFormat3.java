@@ -11,6 +11,8 @@ package edu.umn.cs.spatialHadoop.visualization;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
@@ -50,6 +52,12 @@ public class PyramidOutputFormat3 extends FileOutputFormat<LongWritable, Writabl
   private static final Log LOG = LogFactory.getLog(AdaptiveMultilevelPlot.class);
   public static final String DataExt = ".txt";
 
+  /**
+   * Whether to write all the tiles of each reducer in one archive file
+   * instead of one file per tile. See {@link TileArchive}.
+   */
+  public static final String TileArchiveMode = "PyramidOutputFormat3.TileArchive";
+
   static class ImageRecordWriter extends RecordWriter<LongWritable, Writable> {
 
     private Plotter plotter;
@@ -71,7 +79,22 @@ public class PyramidOutputFormat3 extends FileOutputFormat<LongWritable, Writabl
 
     /**A temporary tile index to decocde the tile ID*/
     private TileIndex tempTileIndex;
-    
+
+    /**The archive to write all tiles to or null to write one file per tile*/
+    private TileArchive.Writer archive;
+
+    /**
+     * Contents of the data tiles that are not written to the archive yet.
+     * They are written as fragments of their tiles when they grow too large.
+     */
+    private Map<Long, ByteArrayOutputStream> dataBuffers;
+
+    /**Maximum total size of {@link #dataBuffers} in bytes*/
+    private static final int MaxBufferedDataBytes = 8 * 1024 * 1024;
+
+    /**Total size of {@link #dataBuffers} in bytes*/
+    private int bufferedDataBytes;
+
     ImageRecordWriter(FileSystem outFs, Path taskOutPath, TaskAttemptContext task) {
       this.task = task;
       System.setProperty("java.awt.headless", "true");
@@ -87,14 +110,109 @@ public class PyramidOutputFormat3 extends FileOutputFormat<LongWritable, Writabl
       dataFiles = new HashMap<Long, FSDataOutputStream>();
     }
 
+    /**
+     * Creates a writer that writes all tiles to one archive
+     * @param outFs
+     * @param taskOutPath
+     * @param archivePath the path of the archive without the extension
+     * @param task
+     * @throws IOException
+     */
+    ImageRecordWriter(FileSystem outFs, Path taskOutPath, Path archivePath,
+        TaskAttemptContext task) throws IOException {
+      this(outFs, taskOutPath, task);
+      this.archive = new TileArchive.Writer(outFs, archivePath);
+      this.dataBuffers = new HashMap<Long, ByteArrayOutputStream>();
+    }
+
     private final Path getTilePath(int z, int x, int y, String ext) {
       if (vflip)
         y = ((1 << z) - 1) - y;
       return new Path(outPath, "tile-"+z +"-"+x+"-"+y+ext);
     }
 
+    /**
+     * Returns the ID of the tile in the archive which matches the name of the
+     * tile file, i.e., after the vertical flip.
+     */
+    private final long getArchiveTileID(int z, int x, int y) {
+      if (vflip)
+        y = ((1 << z) - 1) - y;
+      return TileIndex.encode(z, x, y);
+    }
+
+    /**
+     * Writes a tile to the archive
+     * @param encodedTileID
+     * @param w
+     * @throws IOException
+     */
+    private void writeToArchive(long encodedTileID, Writable w) throws IOException {
+      tempTileIndex = TileIndex.decode(encodedTileID, tempTileIndex);
+      long archiveTileID = getArchiveTileID(tempTileIndex.z, tempTileIndex.x, tempTileIndex.y);
+      if (w instanceof Canvas) {
+        ByteArrayOutputStream imageBytes = new ByteArrayOutputStream();
+        DataOutputStream imageOut = new DataOutputStream(imageBytes);
+        plotter.writeImage((Canvas) w, imageOut, this.vflip);
+        imageOut.close();
+        archive.append(archiveTileID, TileArchive.ImageTile,
+            imageBytes.toByteArray(), 0, imageBytes.size());
+      } else if (w instanceof Shape) {
+        // Data tiles arrive one shape at a time and are written in fragments
+        ByteArrayOutputStream dataBuffer = dataBuffers.get(archiveTileID);
+        if (dataBuffer == null) {
+          dataBuffer = new ByteArrayOutputStream();
+          dataBuffers.put(archiveTileID, dataBuffer);
+        }
+        tempLine.clear();
+        ((Shape) w).toText(tempLine);
+        tempLine.append(NewLineChars, 0, NewLineChars.length);
+        dataBuffer.write(tempLine.getBytes(), 0, tempLine.getLength());
+        bufferedDataBytes += tempLine.getLength();
+        if (bufferedDataBytes > MaxBufferedDataBytes)
+          flushDataTiles();
+      }
+    }
+
+    /**
+     * Writes the buffered part of a data tile to the archive
+     * @param archiveTileID
+     * @throws IOException
+     */
+    private void closeDataTile(long archiveTileID) throws IOException {
+      ByteArrayOutputStream dataBuffer = dataBuffers.remove(archiveTileID);
+      if (dataBuffer != null) {
+        archive.append(archiveTileID, TileArchive.DataTile,
+            dataBuffer.toByteArray(), 0, dataBuffer.size());
+        bufferedDataBytes -= dataBuffer.size();
+      }
+    }
+
+    /**
+     * Writes the buffered parts of all data tiles to the archive as
+     * fragments of their tiles
+     * @throws IOException
+     */
+    private void flushDataTiles() throws IOException {
+      for (Map.Entry<Long, ByteArrayOutputStream> entry : dataBuffers.entrySet())
+        archive.append(entry.getKey(), TileArchive.DataTile,
+            entry.getValue().toByteArray(), 0, entry.getValue().size());
+      dataBuffers.clear();
+      bufferedDataBytes = 0;
+    }
+
     @Override
     public void write(LongWritable encodedTileID, Writable w) throws IOException {
+      if (archive != null) {
+        if (encodedTileID.get() < 0) {
+          tempTileIndex = TileIndex.decode(-encodedTileID.get() - 1, tempTileIndex);
+          closeDataTile(getArchiveTileID(tempTileIndex.z, tempTileIndex.x, tempTileIndex.y));
+        } else {
+          writeToArchive(encodedTileID.get(), w);
+        }
+        task.progress();
+        return;
+      }
       if (encodedTileID.get() < 0) {	
     	  long tileIDToClose = -encodedTileID.get() - 1;
     	    FSDataOutputStream outFile = dataFiles.get(tileIDToClose);
@@ -137,14 +255,22 @@ public class PyramidOutputFormat3 extends FileOutputFormat<LongWritable, Writabl
         entry.getValue().close();
       }
       dataFiles.clear();
+      if (archive != null) {
+        // Write all the data tiles that were not explicitly closed
+        flushDataTiles();
+        archive.close();
+      }
     }
   }
   
   @Override
   public RecordWriter<LongWritable, Writable> getRecordWriter(
       TaskAttemptContext task) throws IOException, InterruptedException {
-    Path file = getDefaultWorkFile(task, "").getParent();
+    Path workFile = getDefaultWorkFile(task, "");
+    Path file = workFile.getParent();
     FileSystem fs = file.getFileSystem(task.getConfiguration());
+    if (task.getConfiguration().getBoolean(TileArchiveMode, false))
+      return new ImageRecordWriter(fs, file, workFile, task);
     return new ImageRecordWriter(fs, file, task);
   }
   
@@ -172,6 +298,11 @@ public class PyramidOutputFormat3 extends FileOutputFormat<LongWritable, Writabl
       Configuration conf = context.getConfiguration();
       FileSystem outFs = outPath.getFileSystem(conf);
 
+      if (conf.getBoolean(TileArchiveMode, false)) {
+        // Merge the directories of all reducers into one index
+        TileArchive.mergeDirectories(outFs, outPath);
+      }
+
       // Write a default empty image to be displayed for non-generated tiles
       int tileWidth = conf.getInt("tilewidth", 256);
       int tileHeight = conf.getInt("tileheight", 256);
@@ -0,0 +1,528 @@
+/***********************************************************************
+* Copyright (c) 2015 by Regents of the University of Minnesota.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Apache License, Version 2.0 which
+* accompanies this distribution and is available at
+* http://www.opensource.org/licenses/apache2.0.php.
+*
+*************************************************************************/
+package edu.umn.cs.spatialHadoop.visualization;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.util.IndexedSortable;
+import org.apache.hadoop.util.QuickSort;
+
+/**
+ * Stores all the tiles of a pyramid in a few large files instead of one file
+ * per tile. Each reducer appends its tiles to one archive file and writes a
+ * directory of all its tiles sorted by tile ID. When the job is done, all
+ * the directories are merged into one index file that maps each tile to its
+ * archive, offset, and length. A tile is then read with one positioned read.
+ * A data tile can be written in several fragments which are concatenated
+ * when the tile is read.
+ *
+ * Tiles are keyed by the ID of {@link TileIndex#encode(int, int, int)} of the
+ * same z, x, y that appear in the name of the tile file, i.e., after the
+ * vertical flip if any.
+ * @author Ahmed Eldawy
+ *
+ */
+public class TileArchive implements Closeable {
+  private static final Log LOG = LogFactory.getLog(TileArchive.class);
+
+  /**Name of the index file that contains the merged directories*/
+  public static final String IndexFileName = "_tiles.index";
+
+  /**Extension of the archive files that contain the tile data*/
+  public static final String ArchiveExt = ".tiles";
+
+  /**Extension of the directory written for each archive*/
+  public static final String DirectoryExt = ".tiledir";
+
+  /**Type of a tile that contains an image*/
+  public static final byte ImageTile = 0;
+
+  /**Type of a tile that contains data records*/
+  public static final byte DataTile = 1;
+
+  /**The name of a tile file, e.g., tile-3-2-5.png*/
+  private static final Pattern TileNamePattern =
+      Pattern.compile("tile-(\\d+)-(\\d+)-(\\d+)(\\.\\w+)");
+
+  /**Maximum number of archives kept open by {@link #openCached(FileSystem, Path)}*/
+  private static final int MaxCachedArchives = 16;
+
+  /**
+   * Archives opened by {@link #openCached(FileSystem, Path)} by directory in
+   * access order. An archive that is evicted or replaced is retired and its
+   * files are closed when its last user closes it.
+   */
+  @SuppressWarnings("serial")
+  private static final Map<Path, TileArchive> openedArchives =
+      new LinkedHashMap<Path, TileArchive>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Path, TileArchive> eldest) {
+      if (size() <= MaxCachedArchives)
+        return false;
+      eldest.getValue().retire();
+      return true;
+    }
+  };
+
+  /**
+   * The time each recently requested directory without an archive was
+   * checked. Guarded by {@link #openedArchives}.
+   */
+  @SuppressWarnings("serial")
+  private static final Map<Path, Long> missingArchives =
+      new LinkedHashMap<Path, Long>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Path, Long> eldest) {
+      return size() > MaxCachedArchives * 16;
+    }
+  };
+
+  /**
+   * Minimum time in milliseconds between two checks of the index file of a
+   * directory by {@link #openCached(FileSystem, Path)}. Within this time, the
+   * cached result is returned without calling the file system.
+   */
+  static long indexCheckInterval = 10000;
+
+  /**
+   * A list of tile entries stored in primitive arrays.
+   */
+  static class Directory implements IndexedSortable {
+    long[] tileIDs = new long[16];
+    byte[] types = new byte[16];
+    int[] archives = new int[16];
+    long[] offsets = new long[16];
+    int[] lengths = new int[16];
+    int size;
+
+    void add(long tileID, byte type, int archive, long offset, int length) {
+      if (size == tileIDs.length) {
+        int newCapacity = size * 2;
+        tileIDs = Arrays.copyOf(tileIDs, newCapacity);
+        types = Arrays.copyOf(types, newCapacity);
+        archives = Arrays.copyOf(archives, newCapacity);
+        offsets = Arrays.copyOf(offsets, newCapacity);
+        lengths = Arrays.copyOf(lengths, newCapacity);
+      }
+      tileIDs[size] = tileID;
+      types[size] = type;
+      archives[size] = archive;
+      offsets[size] = offset;
+      lengths[size] = length;
+      size++;
+    }
+
+    @Override
+    public int compare(int i, int j) {
+      if (tileIDs[i] != tileIDs[j])
+        return tileIDs[i] < tileIDs[j] ? -1 : 1;
+      if (types[i] != types[j])
+        return types[i] - types[j];
+      // Keep the fragments of one tile in the order they were written
+      if (archives[i] != archives[j])
+        return archives[i] - archives[j];
+      return offsets[i] < offsets[j] ? -1 : (offsets[i] > offsets[j] ? 1 : 0);
+    }
+
+    @Override
+    public void swap(int i, int j) {
+      long tl = tileIDs[i]; tileIDs[i] = tileIDs[j]; tileIDs[j] = tl;
+      byte tb = types[i]; types[i] = types[j]; types[j] = tb;
+      int ti = archives[i]; archives[i] = archives[j]; archives[j] = ti;
+      tl = offsets[i]; offsets[i] = offsets[j]; offsets[j] = tl;
+      ti = lengths[i]; lengths[i] = lengths[j]; lengths[j] = ti;
+    }
+
+    void sort() {
+      new QuickSort().sort(this, 0, size);
+    }
+
+    /**
+     * Finds the first entry of the given tile
+     * @return the index of the entry or -1 if not found
+     */
+    int find(long tileID, byte type) {
+      int i = Arrays.binarySearch(tileIDs, 0, size, tileID);
+      if (i < 0)
+        return -1;
+      // Move to the first entry of this tile as there could be two of them
+      while (i > 0 && tileIDs[i - 1] == tileID)
+        i--;
+      while (i < size && tileIDs[i] == tileID) {
+        if (types[i] == type)
+          return i;
+        i++;
+      }
+      return -1;
+    }
+  }
+
+  /**
+   * Appends tiles to one archive file and writes its sorted directory when
+   * closed.
+   */
+  public static class Writer implements Closeable {
+    private final FileSystem fs;
+    /**The path of the archive file without the extension*/
+    private final Path basePath;
+    private final FSDataOutputStream out;
+    private final Directory directory = new Directory();
+
+    /**
+     * Creates a new archive
+     * @param fs the file system to write to
+     * @param basePath the path of the archive without the extension. The
+     * archive and its directory are written next to each other.
+     * @throws IOException
+     */
+    public Writer(FileSystem fs, Path basePath) throws IOException {
+      this.fs = fs;
+      this.basePath = basePath;
+      this.out = fs.create(basePath.suffix(ArchiveExt));
+    }
+
+    /**
+     * Appends a tile to the archive. A tile that is appended more than once
+     * is stored as fragments which are concatenated in the order they were
+     * appended when the tile is read.
+     * @param tileID the encoded tile ID
+     * @param type the type of the tile, image or data
+     * @param data
+     * @param offset
+     * @param length
+     * @throws IOException
+     */
+    public void append(long tileID, byte type, byte[] data, int offset,
+        int length) throws IOException {
+      directory.add(tileID, type, 0, out.getPos(), length);
+      out.write(data, offset, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+      directory.sort();
+      DataOutputStream dirOut = new DataOutputStream(
+          fs.create(basePath.suffix(DirectoryExt)));
+      dirOut.writeInt(directory.size);
+      for (int i = 0; i < directory.size; i++) {
+        dirOut.writeLong(directory.tileIDs[i]);
+        dirOut.writeByte(directory.types[i]);
+        dirOut.writeLong(directory.offsets[i]);
+        dirOut.writeInt(directory.lengths[i]);
+      }
+      dirOut.close();
+    }
+  }
+
+  /**
+   * Merges the directories of all archives in the given directory into one
+   * index file and deletes the directories.
+   * @param fs
+   * @param dir
+   * @return the number of tiles in the index
+   * @throws IOException
+   */
+  public static int mergeDirectories(FileSystem fs, Path dir) throws IOException {
+    FileStatus[] dirFiles = fs.listStatus(dir, new PathFilter() {
+      @Override
+      public boolean accept(Path path) {
+        return path.getName().endsWith(DirectoryExt);
+      }
+    });
+    Directory merged = new Directory();
+    String[] archiveNames = new String[dirFiles.length];
+    for (int iArchive = 0; iArchive < dirFiles.length; iArchive++) {
+      String dirName = dirFiles[iArchive].getPath().getName();
+      archiveNames[iArchive] = dirName.substring(0,
+          dirName.length() - DirectoryExt.length()) + ArchiveExt;
+      DataInputStream in = new DataInputStream(fs.open(dirFiles[iArchive].getPath()));
+      try {
+        int numTiles = in.readInt();
+        for (int i = 0; i < numTiles; i++) {
+          long tileID = in.readLong();
+          byte type = in.readByte();
+          long offset = in.readLong();
+          int length = in.readInt();
+          merged.add(tileID, type, iArchive, offset, length);
+        }
+      } finally {
+        in.close();
+      }
+    }
+    merged.sort();
+
+    DataOutputStream indexOut = new DataOutputStream(
+        fs.create(new Path(dir, IndexFileName)));
+    indexOut.writeInt(archiveNames.length);
+    for (String archiveName : archiveNames)
+      indexOut.writeUTF(archiveName);
+    indexOut.writeInt(merged.size);
+    for (int i = 0; i < merged.size; i++) {
+      indexOut.writeLong(merged.tileIDs[i]);
+      indexOut.writeByte(merged.types[i]);
+      indexOut.writeInt(merged.archives[i]);
+      indexOut.writeLong(merged.offsets[i]);
+      indexOut.writeInt(merged.lengths[i]);
+    }
+    indexOut.close();
+
+    for (FileStatus dirFile : dirFiles)
+      fs.delete(dirFile.getPath(), false);
+    LOG.info("Merged "+merged.size+" tiles from "+dirFiles.length+" archives");
+    return merged.size;
+  }
+
+  /**
+   * Whether the given directory contains a tile archive
+   * @param fs
+   * @param dir
+   * @return
+   * @throws IOException
+   */
+  public static boolean exists(FileSystem fs, Path dir) throws IOException {
+    return fs.exists(new Path(dir, IndexFileName));
+  }
+
+  /**
+   * Returns the archive in the given directory and keeps it open for later
+   * calls. The index file is checked at most once every
+   * {@link #indexCheckInterval} and the archive is reopened if the index has
+   * changed. The caller must {@link #close()} the returned archive when done
+   * which releases it without closing it for other callers.
+   * @param fs
+   * @param dir
+   * @return the archive or null if the directory does not contain an archive
+   * @throws IOException
+   */
+  public static TileArchive openCached(FileSystem fs, Path dir) throws IOException {
+    dir = dir.makeQualified(fs);
+    long now = System.currentTimeMillis();
+    synchronized (openedArchives) {
+      TileArchive archive = openedArchives.get(dir);
+      if (archive != null && now - archive.checkTime < indexCheckInterval) {
+        archive.acquire();
+        return archive;
+      }
+      Long checkTime = missingArchives.get(dir);
+      if (archive == null && checkTime != null && now - checkTime < indexCheckInterval)
+        return null;
+    }
+    long indexTime;
+    try {
+      indexTime = fs.getFileStatus(new Path(dir, IndexFileName)).getModificationTime();
+    } catch (FileNotFoundException e) {
+      synchronized (openedArchives) {
+        TileArchive archive = openedArchives.remove(dir);
+        if (archive != null)
+          archive.retire();
+        missingArchives.put(dir, now);
+      }
+      return null;
+    }
+    synchronized (openedArchives) {
+      missingArchives.remove(dir);
+      TileArchive archive = openedArchives.get(dir);
+      if (archive != null && archive.indexTime != indexTime) {
+        // Other threads might still be reading the old archive
+        openedArchives.remove(dir);
+        archive.retire();
+        archive = null;
+      }
+      if (archive == null) {
+        archive = new TileArchive(fs, dir);
+        archive.indexTime = indexTime;
+        archive.cached = true;
+        openedArchives.put(dir, archive);
+      }
+      archive.checkTime = now;
+      archive.acquire();
+      return archive;
+    }
+  }
+
+  /**The file system of the archive*/
+  private final FileSystem fs;
+
+  /**Modification time of the index when it was loaded*/
+  private long indexTime;
+
+  /**The last time the index was checked. Guarded by {@link #openedArchives}*/
+  private long checkTime;
+
+  /**Paths of all archive files*/
+  private final Path[] archivePaths;
+
+  /**Streams of the archive files. Opened when first needed*/
+  private final FSDataInputStream[] archiveStreams;
+
+  /**The index of all the tiles*/
+  private final Directory index = new Directory();
+
+  /**Whether this archive is shared by {@link #openCached(FileSystem, Path)}*/
+  private boolean cached;
+
+  /**Number of callers of openCached that did not close this archive yet*/
+  private int numUsers;
+
+  /**Whether this archive was removed from the cache of opened archives*/
+  private boolean retired;
+
+  /**
+   * Opens the tile archive in the given directory and loads its index
+   * @param fs
+   * @param dir
+   * @throws IOException
+   */
+  public TileArchive(FileSystem fs, Path dir) throws IOException {
+    this.fs = fs;
+    DataInputStream in = new DataInputStream(fs.open(new Path(dir, IndexFileName)));
+    try {
+      int numArchives = in.readInt();
+      archivePaths = new Path[numArchives];
+      for (int i = 0; i < numArchives; i++)
+        archivePaths[i] = new Path(dir, in.readUTF());
+      archiveStreams = new FSDataInputStream[numArchives];
+      int numTiles = in.readInt();
+      for (int i = 0; i < numTiles; i++) {
+        long tileID = in.readLong();
+        byte type = in.readByte();
+        int archive = in.readInt();
+        long offset = in.readLong();
+        int length = in.readInt();
+        index.add(tileID, type, archive, offset, length);
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Number of tiles in this archive
+   * @return
+   */
+  public int getNumTiles() {
+    return index.size;
+  }
+
+  /**
+   * Reads the given tile with one positioned read per fragment.
+   * @param z
+   * @param x
+   * @param y
+   * @param type
+   * @return the tile data or null if the tile does not exist
+   * @throws IOException
+   */
+  public byte[] getTile(int z, int x, int y, byte type) throws IOException {
+    long tileID = TileIndex.encode(z, x, y);
+    int first = index.find(tileID, type);
+    if (first == -1)
+      return null;
+    int last = first;
+    int length = 0;
+    while (last < index.size && index.tileIDs[last] == tileID &&
+        index.types[last] == type)
+      length += index.lengths[last++];
+    byte[] tile = new byte[length];
+    int pos = 0;
+    for (int i = first; i < last; i++) {
+      FSDataInputStream in = getArchiveStream(index.archives[i]);
+      in.readFully(index.offsets[i], tile, pos, index.lengths[i]);
+      pos += index.lengths[i];
+    }
+    return tile;
+  }
+
+  /**
+   * Reads the tile with the given file name, e.g., tile-3-2-5.png. Data
+   * tiles are the ones with the extension {@link PyramidOutputFormat3#DataExt}.
+   * @param tileName
+   * @return the tile data or null if the tile does not exist
+   * @throws IOException
+   */
+  public byte[] getTile(String tileName) throws IOException {
+    Matcher matcher = TileNamePattern.matcher(tileName);
+    if (!matcher.matches())
+      return null;
+    int z = Integer.parseInt(matcher.group(1));
+    int x = Integer.parseInt(matcher.group(2));
+    int y = Integer.parseInt(matcher.group(3));
+    byte type = matcher.group(4).equals(PyramidOutputFormat3.DataExt) ?
+        DataTile : ImageTile;
+    return getTile(z, x, y, type);
+  }
+
+  private synchronized FSDataInputStream getArchiveStream(int archive) throws IOException {
+    if (archiveStreams[archive] == null)
+      archiveStreams[archive] = fs.open(archivePaths[archive]);
+    return archiveStreams[archive];
+  }
+
+  private synchronized void acquire() {
+    numUsers++;
+  }
+
+  /**
+   * Marks this archive as removed from the cache and closes its files if
+   * it is not used. Otherwise, the files are closed by its last user.
+   */
+  private synchronized void retire() {
+    retired = true;
+    if (numUsers == 0) {
+      try {
+        closeStreams();
+      } catch (IOException e) {
+        LOG.warn("Error closing retired archive", e);
+      }
+    }
+  }
+
+  /**
+   * Closes the archive. An archive returned by
+   * {@link #openCached(FileSystem, Path)} stays open for the other callers
+   * and is actually closed after it is retired and all its users closed it.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (cached) {
+      if (numUsers > 0)
+        numUsers--;
+      if (numUsers > 0 || !retired)
+        return;
+    }
+    closeStreams();
+  }
+
+  private void closeStreams() throws IOException {
+    for (int i = 0; i < archiveStreams.length; i++) {
+      if (archiveStreams[i] != null) {
+        archiveStreams[i].close();
+        archiveStreams[i] = null;
+      }
+    }
+  }
+}
@@ -0,0 +1,202 @@
+/***********************************************************************
+* Copyright (c) 2015 by Regents of the University of Minnesota.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Apache License, Version 2.0 which
+* accompanies this distribution and is available at
+* http://www.opensource.org/licenses/apache2.0.php.
+*
+*************************************************************************/
+package edu.umn.cs.spatialHadoop.visualization;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A long-lived service that renders tiles on demand for tile servers such as
+ * {@link DaVinciServerV2}. It keeps the following state across requests.
+ * <ul>
+ *  <li>One {@link ImagePlot} per data directory which reads the
+ *  configuration of that directory only once.</li>
+ *  <li>An LRU cache of the rendered PNG tiles bounded by their total size
+ *  in bytes.</li>
+ *  <li>The tiles being rendered so that concurrent requests for the same
+ *  tile wait for a single rendering.</li>
+ * </ul>
+ * All renderings run on a fixed pool of worker threads to limit the load
+ * when many tiles are requested at once, e.g., when the map is panned.
+ * The owner of the service calls {@link #shutdown()} to stop these threads
+ * and release the cached tiles.
+ * The service does not keep index files open. Each rendering looks up the
+ * global index in the global index cache of
+ * {@link edu.umn.cs.spatialHadoop.core.SpatialSite} and reopens the
+ * data files it overlaps. Pages of their local R-trees are reused through the
+ * page cache of {@link edu.umn.cs.spatialHadoop.indexing.RTreeReader}.
+ * @author Ahmed Eldawy
+ *
+ */
+public class TileService {
+  private static final Log LOG = LogFactory.getLog(TileService.class);
+
+  /**The plotter of each data directory*/
+  private final ConcurrentHashMap<String, ImagePlot> plots =
+      new ConcurrentHashMap<String, ImagePlot>();
+
+  /**Rendered tiles in access order. Guarded by itself*/
+  private final LinkedHashMap<String, byte[]> tileCache =
+      new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+
+  /**Total size of all tiles in the cache*/
+  private long cachedBytes;
+
+  /**Maximum total size of all tiles in the cache*/
+  private final long maxCachedBytes;
+
+  /**Tiles that are currently being rendered*/
+  private final ConcurrentHashMap<String, Future<byte[]>> inFlight =
+      new ConcurrentHashMap<String, Future<byte[]>>();
+
+  /**The worker threads that render the tiles*/
+  private final ExecutorService workers;
+
+  /**
+   * Creates a new tile service
+   * @param numWorkers - number of threads that render tiles concurrently
+   * @param maxCachedBytes - maximum total size in bytes of the cached tiles
+   */
+  public TileService(int numWorkers, long maxCachedBytes) {
+    this.maxCachedBytes = maxCachedBytes;
+    this.workers = Executors.newFixedThreadPool(numWorkers, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "TileService");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Returns the PNG image of the given tile. The tile is returned from the
+   * cache if it is rendered before. Otherwise, it is rendered on one of the
+   * worker threads and this method blocks until it is ready.
+   * @param dirName - the directory that contains the index configuration
+   * @param z - the zoom level of the tile
+   * @param x - the column of the tile
+   * @param y - the row of the tile
+   * @return
+   * @throws IOException
+   */
+  public byte[] getTile(final String dirName, final int z, final int x, final int y)
+      throws IOException {
+    final String key = String.format("%s/tile-%d-%d-%d.png", dirName, z, x, y);
+    byte[] tile = getCachedTile(key);
+    if (tile != null)
+      return tile;
+
+    FutureTask<byte[]> task = new FutureTask<byte[]>(new Callable<byte[]>() {
+      @Override
+      public byte[] call() throws Exception {
+        try {
+          long t1 = System.nanoTime();
+          byte[] tile = getImagePlot(dirName).renderTile(dirName, z, x, y);
+          long t2 = System.nanoTime();
+          LOG.info(String.format("Rendered tile %s in %f seconds", key, (t2 - t1) * 1E-9));
+          cacheTile(key, tile);
+          return tile;
+        } finally {
+          inFlight.remove(key);
+        }
+      }
+    });
+    Future<byte[]> rendering = inFlight.putIfAbsent(key, task);
+    if (rendering == null) {
+      // No one else is rendering this tile. The tile might have been cached
+      // by a rendering that finished after we checked the cache
+      tile = getCachedTile(key);
+      if (tile != null) {
+        inFlight.remove(key, task);
+        return tile;
+      }
+      rendering = task;
+      try {
+        workers.execute(task);
+      } catch (RejectedExecutionException e) {
+        inFlight.remove(key, task);
+        throw new IOException("Tile service is shut down", e);
+      }
+    }
+    try {
+      return rendering.get();
+    } catch (InterruptedException e) {
+      throw new IOException("Interrupted while rendering "+key, e);
+    } catch (ExecutionException e) {
+      throw new IOException("Error rendering "+key, e.getCause());
+    }
+  }
+
+  private ImagePlot getImagePlot(String dirName) {
+    ImagePlot plot = plots.get(dirName);
+    if (plot == null) {
+      ImagePlot newPlot = new ImagePlot();
+      plot = plots.putIfAbsent(dirName, newPlot);
+      if (plot == null)
+        plot = newPlot;
+    }
+    return plot;
+  }
+
+  private byte[] getCachedTile(String key) {
+    synchronized (tileCache) {
+      return tileCache.get(key);
+    }
+  }
+
+  /**
+   * Adds a rendered tile to the cache and evicts the least recently used
+   * tiles to keep the cache within its size limit.
+   * @param key
+   * @param tile
+   */
+  private void cacheTile(String key, byte[] tile) {
+    if (tile.length > maxCachedBytes)
+      return;
+    synchronized (tileCache) {
+      byte[] oldTile = tileCache.put(key, tile);
+      if (oldTile != null)
+        cachedBytes -= oldTile.length;
+      cachedBytes += tile.length;
+      Iterator<Map.Entry<String, byte[]>> lruTiles = tileCache.entrySet().iterator();
+      while (cachedBytes > maxCachedBytes && lruTiles.hasNext()) {
+        cachedBytes -= lruTiles.next().getValue().length;
+        lruTiles.remove();
+      }
+    }
+  }
+
+  /**
+   * Stops the worker threads and clears the tile cache. Tiles that are being
+   * rendered are completed while new requests fail.
+   */
+  public void shutdown() {
+    workers.shutdown();
+    synchronized (tileCache) {
+      tileCache.clear();
+      cachedBytes = 0;
+    }
+    plots.clear();
+  }
+}
@@ -0,0 +1,120 @@
+package edu.umn.cs.spatialHadoop.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+import edu.umn.cs.spatialHadoop.util.Progressable;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for {@link SpatialAlgorithms}
+ */
+public class SpatialAlgorithmsTest extends TestCase {
+
+  /**
+   * Create the test case
+   *
+   * @param testName
+   *          name of the test case
+   */
+  public SpatialAlgorithmsTest(String testName) {
+    super(testName);
+  }
+
+  /**
+   * @return the suite of tests being tested
+   */
+  public static Test suite() {
+    return new TestSuite(SpatialAlgorithmsTest.class);
+  }
+
+  private static Geometry square(GeometryFactory factory, double x, double y, double size) {
+    return factory.createPolygon(factory.createLinearRing(new Coordinate[] {
+        new Coordinate(x, y), new Coordinate(x + size, y),
+        new Coordinate(x + size, y + size), new Coordinate(x, y + size),
+        new Coordinate(x, y)}), null);
+  }
+
+  /**
+   * Creates one large group of overlapping squares that covers the square
+   * (0, 0)-(41, 41) and many small groups of two overlapping squares each.
+   * @return
+   */
+  private static Geometry[] createSquares() {
+    GeometryFactory factory = new GeometryFactory();
+    List<Geometry> squares = new ArrayList<Geometry>();
+    for (int x = 0; x < 40; x++)
+      for (int y = 0; y < 40; y++)
+        squares.add(square(factory, x, y, 2));
+    for (int i = 0; i < 100; i++) {
+      squares.add(square(factory, 100 + i * 3, 0, 1));
+      squares.add(square(factory, 100.5 + i * 3, 0.5, 1));
+    }
+    return squares.toArray(new Geometry[squares.size()]);
+  }
+
+  private static List<Geometry> multiUnion(int parallelism) throws IOException {
+    final List<Geometry> results = new ArrayList<Geometry>();
+    int resultSize = SpatialAlgorithms.multiUnion(createSquares(),
+        new Progressable.NullProgressable(), new ResultCollector<Geometry>() {
+          @Override
+          public void collect(Geometry r) {
+            results.add(r);
+          }
+        }, parallelism);
+    assertEquals(resultSize, results.size());
+    return results;
+  }
+
+  public void testParallelMultiUnion() throws IOException {
+    List<Geometry> sequential = multiUnion(1);
+    List<Geometry> parallel = multiUnion(4);
+    assertEquals(101, sequential.size());
+    assertEquals(sequential.size(), parallel.size());
+    double sequentialArea = 0, parallelArea = 0;
+    for (Geometry g : sequential)
+      sequentialArea += g.getArea();
+    for (Geometry g : parallel)
+      parallelArea += g.getArea();
+    assertEquals(41 * 41 + 100 * 1.75, sequentialArea, 1E-6);
+    assertEquals(sequentialArea, parallelArea, 1E-6);
+  }
+
+  public void testConcurrentCallsShareWorkers() throws Exception {
+    final int numCallers = 3;
+    final int[] resultSizes = new int[numCallers];
+    final Exception[] errors = new Exception[numCallers];
+    Thread[] callers = new Thread[numCallers];
+    for (int i = 0; i < numCallers; i++) {
+      final int iCaller = i;
+      callers[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            resultSizes[iCaller] = SpatialAlgorithms.multiUnion(createSquares(),
+                new Progressable.NullProgressable(), new ResultCollector<Geometry>() {
+                  @Override
+                  public void collect(Geometry r) {
+                  }
+                });
+          } catch (Exception e) {
+            errors[iCaller] = e;
+          }
+        }
+      };
+      callers[i].start();
+    }
+    for (int i = 0; i < numCallers; i++) {
+      callers[i].join();
+      assertNull(errors[i]);
+      assertEquals(101, resultSizes[i]);
+    }
+  }
+}
@@ -156,4 +156,55 @@ public class GSImprovedAlgorithmTest extends TestCase {
     }
   }
 
+  /**
+   * Test that the parallel divide and conquer algorithm produces the same
+   * triangulation as the serial one.
+   */
+  public void testParallelTriangulation() {
+    Random random = new Random(0);
+    Point[] points = new Point[50000];
+    for (int i = 0; i < points.length; i++)
+      points[i] = new Point(random.nextInt(100000), random.nextInt(100000));
+    points = SpatialAlgorithms.deduplicatePoints(points, 1E-10f);
+
+    Triangulation serial = new GSImprovedAlgorithm(points.clone(), null).getFinalTriangulation();
+    Triangulation parallel = new GSImprovedAlgorithm(points.clone(), null, 4).getFinalTriangulation();
+    assertTrue(Arrays.equals(serial.sites, parallel.sites));
+    assertTrue(Arrays.equals(serial.edgeStarts, parallel.edgeStarts));
+    assertTrue(Arrays.equals(serial.edgeEnds, parallel.edgeEnds));
+
+    // Merge eight vertical strips of the points so that the first two levels
+    // of the merge run several pairs in parallel
+    Arrays.sort(points);
+    int numParts = 8;
+    Triangulation[] parts = new Triangulation[numParts];
+    for (int i = 0; i < numParts; i++) {
+      Point[] part = Arrays.copyOfRange(points, points.length * i / numParts,
+          points.length * (i + 1) / numParts);
+      parts[i] = new GSImprovedAlgorithm(part, null).getFinalTriangulation();
+    }
+    Triangulation merged = new GSDTAlgorithm(parts, null, 4).getFinalTriangulation();
+    // The sites are ordered differently so the edges are compared by points
+    assertTrue(Arrays.equals(getEdges(serial, points), getEdges(merged, points)));
+  }
+
+  /**
+   * Returns the edges of the given triangulation where each edge is encoded
+   * from the positions of its two end points in the given sorted points
+   * @param t
+   * @param sortedPoints
+   * @return the encoded edges in sorted order
+   */
+  private static long[] getEdges(Triangulation t, Point[] sortedPoints) {
+    long[] edges = new long[t.edgeStarts.length];
+    for (int i = 0; i < edges.length; i++) {
+      long p1 = Arrays.binarySearch(sortedPoints, t.sites[t.edgeStarts[i]]);
+      long p2 = Arrays.binarySearch(sortedPoints, t.sites[t.edgeEnds[i]]);
+      assertTrue(p1 >= 0 && p2 >= 0);
+      edges[i] = p1 * sortedPoints.length + p2;
+    }
+    Arrays.sort(edges);
+    return edges;
+  }
+
 }
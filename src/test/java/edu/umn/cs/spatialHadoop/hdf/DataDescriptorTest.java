@@ -0,0 +1,222 @@
+package edu.umn.cs.spatialHadoop.hdf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import edu.umn.cs.spatialHadoop.BaseTest;
+import edu.umn.cs.spatialHadoop.OperationsParams;
+
+/**
+ * Unit test for {@link DataDescriptor}. It compares the parallel decoding
+ * of {@link DataDescriptor#readData(byte[], int, int)} with the sequential
+ * decoding of {@link DDScientificData#getData()} on compressed, linked, and
+ * chunked data.
+ */
+public class DataDescriptorTest extends BaseTest {
+
+  /**Reference number of the compressed scientific data*/
+  private static final int CompressedRef = 1;
+  /**Reference number of the scientific data stored in linked blocks*/
+  private static final int LinkedRef = 2;
+  /**Reference number of the scientific data stored in compressed chunks*/
+  private static final int ChunkedRef = 3;
+
+  private static final int NumChunks = 3;
+  /**Number of values in one chunk*/
+  private static final int ChunkSize = 50;
+  /**Size of one value in bytes*/
+  private static final int ValueSize = 2;
+
+  /**The data elements of the file being built*/
+  private List<int[]> ids = new ArrayList<int[]>();
+  private List<byte[]> contents = new ArrayList<byte[]>();
+
+  private byte[][] expectedData = new byte[4][];
+
+  private void addElement(int tag, int ref, boolean extended, byte[] data) {
+    ids.add(new int[] {extended ? tag | HDFConstants.DFTAG_EXTENDED : tag, ref});
+    contents.add(data);
+  }
+
+  private static byte[] deflate(byte[] data) {
+    Deflater deflater = new Deflater(6);
+    deflater.setInput(data);
+    deflater.finish();
+    byte[] buffer = new byte[data.length * 2 + 64];
+    int length = deflater.deflate(buffer);
+    deflater.end();
+    return Arrays.copyOf(buffer, length);
+  }
+
+  /**
+   * Adds an extended element with the given tag whose data is deflated into
+   * a compressed block with the same reference number
+   */
+  private void addCompressed(int tag, int ref, byte[] data) throws IOException {
+    ByteArrayOutputStream header = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(header);
+    out.writeShort(HDFConstants.SPECIAL_COMP);
+    out.writeShort(0); // Compression version
+    out.writeInt(data.length);
+    out.writeShort(ref); // Compressed block
+    out.writeShort(0); // Model type
+    out.writeShort(HDFConstants.COMP_CODE_DEFLATE);
+    out.writeShort(6); // Deflate level
+    out.close();
+    addElement(tag, ref, true, header.toByteArray());
+    addElement(HDFConstants.DFTAG_COMPRESSED, ref, false, deflate(data));
+  }
+
+  private void addLinked(int ref, byte[] data, int blockLength) throws IOException {
+    int numBlocks = (data.length + blockLength - 1) / blockLength;
+    int tableRef = 100;
+    ByteArrayOutputStream header = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(header);
+    out.writeShort(HDFConstants.SPECIAL_LINKED);
+    out.writeInt(data.length);
+    out.writeInt(blockLength);
+    out.writeInt(numBlocks);
+    out.writeShort(tableRef);
+    out.close();
+    addElement(HDFConstants.DFTAG_SD, ref, true, header.toByteArray());
+
+    ByteArrayOutputStream table = new ByteArrayOutputStream();
+    out = new DataOutputStream(table);
+    out.writeShort(0); // No more tables
+    for (int i = 0; i < numBlocks; i++) {
+      out.writeShort(tableRef + 1 + i);
+      addElement(HDFConstants.DFTAG_LINKED, tableRef + 1 + i, false,
+          Arrays.copyOfRange(data, i * blockLength,
+              Math.min(data.length, (i + 1) * blockLength)));
+    }
+    out.close();
+    addElement(HDFConstants.DFTAG_LINKED, tableRef, false, table.toByteArray());
+  }
+
+  private void addChunked(int ref, byte[] data) throws IOException {
+    int tableRef = 200;
+    ByteArrayOutputStream header = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(header);
+    out.writeShort(HDFConstants.SPECIAL_CHUNKED);
+    out.writeInt(0); // Special header length
+    out.writeByte(0); // Version
+    out.writeInt(0); // Flag
+    out.writeInt(NumChunks * ChunkSize);
+    out.writeInt(ChunkSize);
+    out.writeInt(ValueSize);
+    out.writeShort(HDFConstants.DFTAG_VH);
+    out.writeShort(tableRef);
+    out.writeShort(0); // No special table
+    out.writeShort(0);
+    out.writeShort(1); // One dimension
+    out.writeInt(0); // Flag
+    out.writeInt(NumChunks * ChunkSize);
+    out.writeInt(ChunkSize);
+    out.close();
+    addElement(HDFConstants.DFTAG_SD, ref, true, header.toByteArray());
+
+    // The chunk table is a vdata of (origin, tag, ref) records
+    ByteArrayOutputStream vheader = new ByteArrayOutputStream();
+    out = new DataOutputStream(vheader);
+    out.writeShort(0); // Interlace
+    out.writeInt(NumChunks);
+    out.writeShort(8); // Record size
+    out.writeShort(3); // Number of fields
+    for (int type : new int[] {HDFConstants.DFNT_INT32, HDFConstants.DFNT_UINT16, HDFConstants.DFNT_UINT16})
+      out.writeShort(type);
+    for (int size : new int[] {4, 2, 2})
+      out.writeShort(size);
+    for (int offset : new int[] {0, 4, 6})
+      out.writeShort(offset);
+    for (int i = 0; i < 3; i++)
+      out.writeShort(1); // Order
+    for (String name : new String[] {"origin", "chk_tag", "chk_ref", "chunk table", "_HDF_CHK_TBL_0"}) {
+      out.writeShort(name.length());
+      out.writeBytes(name);
+    }
+    out.writeShort(0); // Extension tag
+    out.writeShort(0); // Extension reference
+    out.writeShort(3); // Version
+    out.close();
+    addElement(HDFConstants.DFTAG_VH, tableRef, false, vheader.toByteArray());
+
+    ByteArrayOutputStream vset = new ByteArrayOutputStream();
+    out = new DataOutputStream(vset);
+    int chunkLength = ChunkSize * ValueSize;
+    for (int i = 0; i < NumChunks; i++) {
+      out.writeInt(i); // Origin
+      out.writeShort(HDFConstants.DFTAG_CHUNK);
+      out.writeShort(tableRef + 1 + i);
+      addCompressed(HDFConstants.DFTAG_CHUNK, tableRef + 1 + i,
+          Arrays.copyOfRange(data, i * chunkLength, (i + 1) * chunkLength));
+    }
+    out.close();
+    addElement(HDFConstants.DFTAG_VS, tableRef, false, vset.toByteArray());
+  }
+
+  /**
+   * Writes an HDF file that contains three scientific data elements, one
+   * compressed, one in linked blocks, and one in compressed chunks.
+   */
+  private Path writeHDFFile() throws IOException {
+    Random random = new Random(1);
+    for (int ref = CompressedRef; ref <= ChunkedRef; ref++) {
+      // Few distinct values that compress well as in real datasets
+      expectedData[ref] = new byte[NumChunks * ChunkSize * ValueSize];
+      for (int i = 0; i < expectedData[ref].length; i++)
+        expectedData[ref][i] = (byte) random.nextInt(4);
+    }
+    addCompressed(HDFConstants.DFTAG_SD, CompressedRef, expectedData[CompressedRef]);
+    addLinked(LinkedRef, expectedData[LinkedRef], 128);
+    addChunked(ChunkedRef, expectedData[ChunkedRef]);
+
+    Path file = new Path(scratchPath, "test.hdf");
+    FileSystem fs = file.getFileSystem(new OperationsParams());
+    FSDataOutputStream out = fs.create(file);
+    out.write(new byte[] {0x0E, 0x03, 0x13, 0x01});
+    out.writeShort(ids.size());
+    out.writeInt(0); // No more DD blocks
+    int offset = 4 + 2 + 4 + 12 * ids.size();
+    for (int i = 0; i < ids.size(); i++) {
+      out.writeShort(ids.get(i)[0]);
+      out.writeShort(ids.get(i)[1]);
+      out.writeInt(offset);
+      out.writeInt(contents.get(i).length);
+      offset += contents.get(i).length;
+    }
+    for (byte[] content : contents)
+      out.write(content);
+    out.close();
+    return file;
+  }
+
+  public void testParallelReadMatchesSequentialRead() throws IOException {
+    Path file = writeHDFFile();
+    FileSystem fs = file.getFileSystem(new OperationsParams());
+    for (int ref = CompressedRef; ref <= ChunkedRef; ref++) {
+      HDFFile hdfFile = new HDFFile(fs.open(file));
+      DDScientificData sd = (DDScientificData) hdfFile.retrieveElementByID(
+          new DDID(HDFConstants.DFTAG_SD, ref));
+      byte[] parallel = new byte[expectedData[ref].length];
+      int bytesRead = sd.readData(parallel, 0, parallel.length);
+      byte[] sequential = sd.getData();
+      hdfFile.close();
+
+      assertEquals(parallel.length, bytesRead);
+      assertTrue("Sequential read of element " + ref,
+          Arrays.equals(expectedData[ref], sequential));
+      assertTrue("Parallel read of element " + ref,
+          Arrays.equals(sequential, parallel));
+    }
+  }
+}
@@ -0,0 +1,139 @@
+package edu.umn.cs.spatialHadoop.indexing;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+
+import edu.umn.cs.spatialHadoop.BaseTest;
+import edu.umn.cs.spatialHadoop.OperationsParams;
+import edu.umn.cs.spatialHadoop.core.CellInfo;
+import edu.umn.cs.spatialHadoop.core.Rectangle;
+import edu.umn.cs.spatialHadoop.core.ResultCollector;
+import edu.umn.cs.spatialHadoop.core.SpatialSite;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the {@link GlobalIndex} class
+ */
+public class GlobalIndexTest extends BaseTest {
+
+  /**
+   * Create the test case
+   *
+   * @param testName
+   *          name of the test case
+   */
+  public GlobalIndexTest(String testName) {
+    super(testName);
+  }
+
+  /**
+   * @return the suite of tests being tested
+   */
+  public static Test suite() {
+    return new TestSuite(GlobalIndexTest.class);
+  }
+
+  private Partition[] createRandomPartitions(int numPartitions, Random random) {
+    Partition[] partitions = new Partition[numPartitions];
+    for (int i = 0; i < numPartitions; i++) {
+      double x = random.nextDouble() * 1000;
+      double y = random.nextDouble() * 1000;
+      partitions[i] = new Partition(String.format("part-%05d", i),
+          new CellInfo(i, x, y, x + random.nextDouble() * 50, y + random.nextDouble() * 50));
+    }
+    return partitions;
+  }
+
+  public void testRangeAndPointQueries() {
+    Random random = new Random(0);
+    Partition[] partitions = createRandomPartitions(1000, random);
+    GlobalIndex<Partition> gindex = new GlobalIndex<Partition>();
+    gindex.bulkLoad(partitions);
+    final List<Partition> results = new ArrayList<Partition>();
+    ResultCollector<Partition> collector = new ResultCollector<Partition>() {
+      @Override
+      public void collect(Partition r) {
+        results.add(r);
+      }
+    };
+
+    for (int q = 0; q < 100; q++) {
+      double x = random.nextDouble() * 1000;
+      double y = random.nextDouble() * 1000;
+      Rectangle query = new Rectangle(x, y, x + random.nextDouble() * 100, y + random.nextDouble() * 100);
+      results.clear();
+      int count = gindex.rangeQuery(query, collector);
+      assertEquals(count, results.size());
+      // Results should match a linear scan in the same order
+      int i = 0;
+      for (Partition p : partitions) {
+        if (p.isIntersected(query))
+          assertEquals(p.cellId, results.get(i++).cellId);
+      }
+      assertEquals(i, count);
+
+      results.clear();
+      count = gindex.pointQuery(x, y, collector);
+      assertEquals(count, results.size());
+      i = 0;
+      for (Partition p : partitions) {
+        if (p.contains(x, y))
+          assertEquals(p.cellId, results.get(i++).cellId);
+      }
+      assertEquals(i, count);
+    }
+  }
+
+  private void writeMasterFile(FileSystem fs, Path masterPath, Partition[] partitions)
+      throws IOException {
+    FSDataOutputStream out = fs.create(masterPath, true);
+    Text line = new Text();
+    for (Partition p : partitions) {
+      line.clear();
+      p.toText(line);
+      out.write(line.getBytes(), 0, line.getLength());
+      out.write('\n');
+    }
+    out.close();
+  }
+
+  public void testCacheGlobalIndexes() throws IOException {
+    OperationsParams params = new OperationsParams();
+    FileSystem fs = scratchPath.getFileSystem(params);
+    Path indexPath = new Path(scratchPath, "index");
+    Path masterPath = new Path(indexPath, "_master.grid");
+    Random random = new Random(1);
+    writeMasterFile(fs, masterPath, createRandomPartitions(10, random));
+
+    GlobalIndex<Partition> gindex1 = SpatialSite.getGlobalIndex(fs, indexPath);
+    assertEquals(10, gindex1.size());
+    // Changes to a returned index should not affect the cached one
+    Partition p1 = gindex1.iterator().next();
+    Rectangle mbr1 = new Rectangle(p1);
+    String filename1 = p1.filename;
+    p1.set(-1000, -1000, -999, -999);
+    p1.filename = "modified";
+    gindex1.setReplicated(!gindex1.isReplicated());
+    GlobalIndex<Partition> gindex2 = SpatialSite.getGlobalIndex(fs, indexPath);
+    assertNotSame(gindex1, gindex2);
+    assertEquals(10, gindex2.size());
+    Partition p2 = gindex2.iterator().next();
+    assertEquals(mbr1, new Rectangle(p2));
+    assertEquals(filename1, p2.filename);
+    assertTrue(gindex1.isReplicated() != gindex2.isReplicated());
+
+    // A modified master file should be parsed again
+    writeMasterFile(fs, masterPath, createRandomPartitions(20, random));
+    GlobalIndex<Partition> gindex3 = SpatialSite.getGlobalIndex(fs, indexPath);
+    assertNotSame(gindex1, gindex3);
+    assertEquals(20, gindex3.size());
+  }
+}
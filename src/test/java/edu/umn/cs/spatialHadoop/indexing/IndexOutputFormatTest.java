@@ -0,0 +1,114 @@
+package edu.umn.cs.spatialHadoop.indexing;
+
+import edu.umn.cs.spatialHadoop.BaseTest;
+import edu.umn.cs.spatialHadoop.core.CellInfo;
+import edu.umn.cs.spatialHadoop.core.Point;
+import edu.umn.cs.spatialHadoop.core.Rectangle;
+import edu.umn.cs.spatialHadoop.io.Text2;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.LineReader;
+
+import java.util.Random;
+
+/**
+ * Unit test for the {@link IndexOutputFormat.IndexRecordWriter} class
+ */
+public class IndexOutputFormatTest extends BaseTest {
+
+  /**
+   * Create the test case
+   *
+   * @param testName
+   *          name of the test case
+   */
+  public IndexOutputFormatTest(String testName) {
+    super(testName);
+  }
+
+  /**
+   * @return the suite of tests being tested
+   */
+  public static Test suite() {
+    return new TestSuite(IndexOutputFormatTest.class);
+  }
+
+  public void testLocalIndexesWithinMemoryBudget() {
+    Path outPath = new Path(scratchPath, "out");
+    try {
+      Configuration conf = new Configuration();
+      conf.setClass(LocalIndex.LocalIndexClass, RRStarLocalIndex.class, LocalIndex.class);
+      // A small budget that forces spilling partitions and waiting for the
+      // local indexes of closed partitions to be built
+      long memoryBudget = 1024;
+      conf.setLong(LocalIndex.MemoryBudget, memoryBudget);
+      GridPartitioner partitioner = new GridPartitioner(new Rectangle(0, 0, 100, 100), 4, 4);
+      IndexOutputFormat.IndexRecordWriter<Point> writer =
+          new IndexOutputFormat.IndexRecordWriter<Point>(partitioner, null, outPath, conf);
+
+      // Write one row of partitions at a time with their records interleaved
+      // so that several partitions are open and compete for the memory
+      Random random = new Random(0);
+      int[] expectedCounts = new int[partitioner.getPartitionCount()];
+      IntWritable partitionID = new IntWritable();
+      for (int row = 0; row < 4; row++) {
+        for (int i = 0; i < 500; i++) {
+          Point p = new Point(random.nextDouble() * 100, 25 * row + random.nextDouble() * 25);
+          int id = partitioner.overlapPartition(p);
+          partitionID.set(id);
+          writer.write(partitionID, p);
+          expectedCounts[id]++;
+          assertTrue("Memory budget exceeded", writer.getMemorySize() <= memoryBudget);
+        }
+        // Close the partitions of this row while the next row is written
+        for (int col = 0; col < 4; col++) {
+          partitionID.set(-(row * 4 + col) - 1);
+          writer.write(partitionID, null);
+        }
+      }
+      writer.close(null);
+      assertEquals(0, writer.getMemorySize());
+
+      // Check that each partition in the master file is correctly indexed
+      FileSystem fs = outPath.getFileSystem(conf);
+      LineReader masterIn = new LineReader(fs.open(new Path(outPath, "_master.grid")));
+      Text line = new Text2();
+      int numPartitions = 0;
+      while (masterIn.readLine(line) > 0) {
+        Partition partition = new Partition();
+        partition.fromText(line);
+        assertEquals(expectedCounts[partition.cellId], partition.recordCount);
+
+        Path partitionFile = new Path(outPath, partition.filename);
+        RRStarLocalIndex<Point> lindex = new RRStarLocalIndex<Point>();
+        lindex.setup(conf);
+        FSDataInputStream in = fs.open(partitionFile);
+        lindex.read(in, 0, fs.getFileStatus(partitionFile).getLen(), new Point());
+        int count = 0;
+        CellInfo cell = partitioner.getPartition(partition.cellId);
+        for (Point p : lindex.scanAll()) {
+          assertTrue(cell.contains(p));
+          count++;
+        }
+        assertEquals(partition.recordCount, count);
+        count = 0;
+        for (Point p : lindex.search(cell.x1, cell.y1, cell.x2, cell.y2))
+          count++;
+        assertEquals(partition.recordCount, count);
+        lindex.close();
+        numPartitions++;
+      }
+      masterIn.close();
+      assertEquals(partitioner.getPartitionCount(), numPartitions);
+    } catch (Exception e) {
+      e.printStackTrace();
+      fail("Error writing or reading the index");
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package edu.umn.cs.spatialHadoop.indexing;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import edu.umn.cs.spatialHadoop.core.Point;
+
+/**
+ * Compares the local indexes in build time and in the number of bytes read
+ * to answer range queries. This is not a unit test. Run it from the command
+ * line with the number of points as an optional argument.
+ */
+public class LocalIndexBenchmark {
+
+  /**Number of range queries to run against each index*/
+  private static final int NumQueries = 1000;
+
+  /**
+   * Total number of bytes read from all file systems of the same scheme,
+   * e.g., both the checksummed and the raw local file systems.
+   * @param fs
+   * @return
+   */
+  private static long getBytesRead(FileSystem fs) {
+    long bytesRead = 0;
+    for (FileSystem.Statistics stats : FileSystem.getAllStatistics()) {
+      if (stats.getScheme().equals(fs.getUri().getScheme()))
+        bytesRead += stats.getBytesRead();
+    }
+    return bytesRead;
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    int numPoints = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    Configuration conf = new Configuration();
+    File dataFile = File.createTempFile("points", ".csv");
+    dataFile.deleteOnExit();
+    Random random = new Random(0);
+    PrintStream ps = new PrintStream(dataFile);
+    for (int i = 0; i < numPoints; i++)
+      ps.printf("%f,%f\n", random.nextDouble() * 1000, random.nextDouble() * 1000);
+    ps.close();
+    double[][] queries = new double[NumQueries][];
+    for (int q = 0; q < NumQueries; q++) {
+      double x = random.nextDouble() * 990;
+      double y = random.nextDouble() * 990;
+      queries[q] = new double[] {x, y, x + 10, y + 10};
+    }
+
+    // Keep a single page in the cache to measure the actual I/O
+    RTreeReader.setPageCacheSize(RTreeReader.PageSize);
+    RRStarLocalIndex[] lindexes = {new RRStarLocalIndex<Point>(),
+        new STRLocalIndex<Point>(), new HilbertLocalIndex<Point>()};
+    for (RRStarLocalIndex<Point> lindex : lindexes) {
+      String name = lindex.getClass().getAnnotation(LocalIndex.LocalIndexMetadata.class).extension();
+      Path indexFile = new Path(dataFile.getPath() + "." + name);
+      FileSystem fs = indexFile.getFileSystem(conf);
+      fs.deleteOnExit(indexFile);
+      lindex.setup(conf);
+      long t1 = System.nanoTime();
+      lindex.buildLocalIndex(dataFile, indexFile, new Point());
+      long t2 = System.nanoTime();
+
+      long len = fs.getFileStatus(indexFile).getLen();
+      FSDataInputStream in = fs.open(indexFile);
+      long bytesBefore = getBytesRead(fs);
+      lindex.read(in, 0, len, new Point());
+      long numResults = 0;
+      long t3 = System.nanoTime();
+      for (double[] q : queries) {
+        for (Point p : lindex.search(q[0], q[1], q[2], q[3]))
+          numResults++;
+      }
+      long t4 = System.nanoTime();
+      long bytesRead = getBytesRead(fs) - bytesBefore;
+      lindex.close();
+      System.out.printf("%s: build %.3f seconds, %d queries in %.3f seconds, "
+          + "%d results, %d bytes read\n", name, (t2 - t1) * 1E-9,
+          NumQueries, (t4 - t3) * 1E-9, numResults, bytesRead);
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package edu.umn.cs.spatialHadoop.indexing;
+
+import java.util.Random;
+
+import edu.umn.cs.spatialHadoop.core.Rectangle;
+import edu.umn.cs.spatialHadoop.util.IntArray;
+
+/**
+ * Measures the throughput of partition assignment, i.e.,
+ * {@link Partitioner#overlapPartition(double, double, double, double)} and
+ * {@link Partitioner#overlapPartitions(double, double, double, double, IntArray)},
+ * for each partitioner. This is not a unit test. Run it from the command line
+ * with the number of records as an optional argument.
+ */
+public class PartitionerBenchmark {
+
+  /**Number of rounds to run before measuring to warm up the JIT*/
+  private static final int WarmupRounds = 3;
+
+  /**Number of measured rounds*/
+  private static final int MeasuredRounds = 5;
+
+  public static void main(String[] args) {
+    int numRecords = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    Random random = new Random(0);
+    Rectangle mbr = new Rectangle(0, 0, 1000000, 1000000);
+    double[] sampleXs = new double[10000];
+    double[] sampleYs = new double[sampleXs.length];
+    for (int i = 0; i < sampleXs.length; i++) {
+      sampleXs[i] = random.nextDouble() * mbr.getWidth();
+      sampleYs[i] = random.nextDouble() * mbr.getHeight();
+    }
+    double[] x1s = new double[numRecords];
+    double[] y1s = new double[numRecords];
+    double[] x2s = new double[numRecords];
+    double[] y2s = new double[numRecords];
+    for (int i = 0; i < numRecords; i++) {
+      x1s[i] = random.nextDouble() * mbr.getWidth();
+      y1s[i] = random.nextDouble() * mbr.getHeight();
+      x2s[i] = x1s[i] + random.nextDouble() * 1000;
+      y2s[i] = y1s[i] + random.nextDouble() * 1000;
+    }
+
+    Partitioner[] partitioners = {new GridPartitioner(), new STRPartitioner(),
+        new KdTreePartitioner(), new QuadTreePartitioner(),
+        new ZCurvePartitioner(), new HilbertCurvePartitioner()};
+    IntArray matches = new IntArray();
+    for (Partitioner p : partitioners) {
+      p.construct(mbr, sampleXs, sampleYs, 100);
+      String name = p.getClass().getSimpleName();
+      boolean supportsReplication = true;
+      for (int round = 0; round < WarmupRounds + MeasuredRounds; round++) {
+        long checksum = 0;
+        long t1 = System.nanoTime();
+        for (int i = 0; i < numRecords; i++)
+          checksum += p.overlapPartition(x1s[i], y1s[i], x2s[i], y2s[i]);
+        long t2 = System.nanoTime();
+        if (supportsReplication) {
+          try {
+            for (int i = 0; i < numRecords; i++) {
+              p.overlapPartitions(x1s[i], y1s[i], x2s[i], y2s[i], matches);
+              checksum += matches.size();
+            }
+          } catch (RuntimeException e) {
+            supportsReplication = false;
+          }
+        }
+        long t3 = System.nanoTime();
+        if (round >= WarmupRounds) {
+          System.out.printf("%s: overlapPartition %.1f records/us, "
+              + "overlapPartitions %s (checksum %d)\n", name,
+              numRecords * 1000.0 / (t2 - t1),
+              supportsReplication ? String.format("%.1f records/us",
+                  numRecords * 1000.0 / (t3 - t2)) : "unsupported",
+              checksum);
+        }
+      }
+    }
+  }
+}
@@ -2,6 +2,8 @@ package edu.umn.cs.spatialHadoop.indexing;
 
 import edu.umn.cs.spatialHadoop.BaseTest;
 import edu.umn.cs.spatialHadoop.core.CellInfo;
+import edu.umn.cs.spatialHadoop.core.Rectangle;
+import edu.umn.cs.spatialHadoop.util.IntArray;
 import junit.framework.TestCase;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
@@ -10,6 +12,7 @@ import org.apache.hadoop.io.Text;
 
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.Random;
 
 public class PartitionerTest extends BaseTest {
 
@@ -32,4 +35,44 @@ public class PartitionerTest extends BaseTest {
     }
 
   }
-}
\ No newline at end of file
+
+  public void testOverlapPartitionsWithCoordinates() {
+    Random random = new Random(0);
+    int numPoints = 1000;
+    double[] xs = new double[numPoints];
+    double[] ys = new double[numPoints];
+    for (int i = 0; i < numPoints; i++) {
+      xs[i] = random.nextDouble() * 1000;
+      ys[i] = random.nextDouble() * 1000;
+    }
+    Rectangle mbr = new Rectangle(0, 0, 1000, 1000);
+    Partitioner[] partitioners = {new GridPartitioner(), new STRPartitioner(),
+        new KdTreePartitioner(), new QuadTreePartitioner()};
+    IntArray matches = new IntArray();
+    for (Partitioner p : partitioners) {
+      p.construct(mbr, xs, ys, 50);
+      for (int q = 0; q < 100; q++) {
+        double x1 = random.nextDouble() * 900;
+        double y1 = random.nextDouble() * 900;
+        Rectangle query = new Rectangle(x1, y1,
+            x1 + random.nextDouble() * 100, y1 + random.nextDouble() * 100);
+        p.overlapPartitions(query.x1, query.y1, query.x2, query.y2, matches);
+        // The results should match a linear scan over all partitions
+        int expectedCount = 0;
+        for (int i = 0; i < p.getPartitionCount(); i++) {
+          CellInfo partition = p.getPartitionAt(i);
+          if (partition.isIntersected(query)) {
+            expectedCount++;
+            assertTrue(p.getClass().getSimpleName()+" missed partition #"+partition.cellId,
+                matches.contains(partition.cellId));
+          }
+        }
+        assertEquals(p.getClass().getSimpleName(), expectedCount, matches.size());
+        // The single assigned partition should be one of the overlapping ones
+        int pid = p.overlapPartition(query.x1, query.y1, query.x2, query.y2);
+        assertEquals(pid, p.overlapPartition(query));
+        assertTrue(matches.contains(pid));
+      }
+    }
+  }
+}
@@ -67,4 +67,75 @@ public class RRStarLocalInexTest extends BaseTest {
     }
   }
 
+  public void testBulkLoadedIndexes() {
+    Configuration conf = new Configuration();
+    RRStarLocalIndex[] lindexes = {new STRLocalIndex<Point>(),
+        new HilbertLocalIndex<Point>()};
+    try {
+      for (RRStarLocalIndex<Point> lindex : lindexes) {
+        Path indexFile = new Path(scratchPath, "tempout");
+        File heapFile = new File("src/test/resources/test.points");
+        lindex.setup(conf);
+        lindex.buildLocalIndex(heapFile, indexFile, new Point());
+
+        FileSystem fs = indexFile.getFileSystem(conf);
+        FSDataInputStream in = fs.open(indexFile);
+        long len = fs.getFileStatus(indexFile).getLen();
+        lindex.read(in, 0, len, new Point());
+        int count = 0;
+        for (Point p : lindex.search(0, 0, 5, 5))
+          count++;
+        assertEquals(2, count);
+        count = 0;
+        for (Point p : lindex.scanAll())
+          count++;
+        assertEquals(11, count);
+        lindex.close();
+
+        // An empty file should produce an empty index
+        File emptyFile = new File(scratchPath.toString(), "empty.points");
+        emptyFile.createNewFile();
+        lindex.buildLocalIndex(emptyFile, indexFile, new Point());
+        in = fs.open(indexFile);
+        len = fs.getFileStatus(indexFile).getLen();
+        lindex.read(in, 0, len, new Point());
+        assertFalse(lindex.scanAll().iterator().hasNext());
+        assertFalse(lindex.search(0, 0, 5, 5).iterator().hasNext());
+        lindex.close();
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+      fail("Error writing or reading the index");
+    }
+  }
+
+  public void testSpillRecordsToDisk() {
+    Path indexFile = new Path(scratchPath, "tempout");
+    try {
+      Configuration conf = new Configuration();
+      // A tiny memory budget to force spilling the records to disk
+      conf.setLong(LocalIndex.MemoryBudget, 16);
+      RRStarLocalIndex<Point> lindex = new RRStarLocalIndex<Point>();
+      lindex.setup(conf);
+      File heapFile = new File("src/test/resources/test.points");
+      lindex.buildLocalIndex(heapFile, indexFile, new Point());
+
+      FileSystem fs = indexFile.getFileSystem(conf);
+      FSDataInputStream in = fs.open(indexFile);
+      long len = fs.getFileStatus(indexFile).getLen();
+      lindex.read(in, 0, len, new Point());
+      int count = 0;
+      for (Point p : lindex.search(0, 0, 5, 5))
+        count++;
+      assertEquals(2, count);
+      count = 0;
+      for (Point p : lindex.scanAll())
+        count++;
+      assertEquals(11, count);
+      lindex.close();
+    } catch (Exception e) {
+      e.printStackTrace();
+      fail("Error writing or reading the index");
+    }
+  }
 }
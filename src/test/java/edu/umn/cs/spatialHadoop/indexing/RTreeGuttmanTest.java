@@ -349,6 +349,64 @@ public class RTreeGuttmanTest extends TestCase {
     }
   }
 
+  public void testLazyReader() {
+    try {
+      String fileName = "src/test/resources/test111.points";
+      double[][] points = BaseTest.readFile(fileName);
+      RTreeGuttman rtree = new RTreeGuttman(4, 8);
+      rtree.initializeFromPoints(points[0], points[1]);
+
+      // Write the ID of each entry as its data
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      DataOutputStream dos = new DataOutputStream(baos);
+      dos.writeLong(0); // Some data before the tree
+      rtree.write(dos, new RTreeGuttman.Serializer() {
+        @Override
+        public int serialize(DataOutput out, int iObject) throws IOException {
+          out.writeInt(iObject);
+          return 4;
+        }
+      });
+      dos.close();
+      byte[] treeBytes = baos.toByteArray();
+
+      FSDataInputStream fsdis = new FSDataInputStream(new MemoryInputStream(treeBytes));
+      RTreeReader<Integer> reader = new RTreeReader<Integer>(fsdis, 8, treeBytes.length - 8,
+          new RTreeGuttman.Deserializer<Integer>() {
+            @Override
+            public Integer deserialize(DataInput in, int length) throws IOException {
+              assertEquals(4, length);
+              return in.readInt();
+            }
+          });
+      assertEquals(111, reader.numOfDataEntries());
+      assertEquals(111 * 4, reader.getTotalDataSize());
+      int count = 0;
+      for (Integer i : reader.scanAll())
+        count++;
+      assertEquals(111, count);
+
+      double[][] queries = {{0, 0, 4.5, 10}, {10, 6, 11, 7}, {5.5, 5, 10, 7},
+          {0, 0, 1000, 1000}, {20, 20, 60, 60}};
+      for (double[] q : queries) {
+        IntArray expected = new IntArray();
+        rtree.search(q[0], q[1], q[2], q[3], expected);
+        expected.sort();
+        IntArray actual = new IntArray();
+        for (Integer i : reader.search(q[0], q[1], q[2], q[3]))
+          actual.add(i);
+        actual.sort();
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+          assertEquals(expected.get(i), actual.get(i));
+      }
+      reader.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+      fail("Error working with the tree");
+    }
+  }
+
   public void testHollowRTree() {
     try {
       String fileName = "src/test/resources/test.rect";
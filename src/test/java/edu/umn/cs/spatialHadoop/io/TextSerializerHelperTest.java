@@ -3,6 +3,8 @@ package edu.umn.cs.spatialHadoop.io;
 import org.apache.hadoop.io.Text;
 
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKBWriter;
+import com.vividsolutions.jts.io.WKTReader;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
@@ -10,6 +12,7 @@ import junit.framework.TestSuite;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
 
 /**
  * Unit test for the utility class {@link TextSerializerHelper}.
@@ -90,4 +93,76 @@ public class TextSerializerHelperTest extends TestCase {
     assertTrue("k2#v2 not found", text.toString().contains("k2#v2"));
     assertTrue("k3#v3 not found", text.toString().contains("k3#v3"));
   }
+
+  public void testParseWKTSameAsJTS() throws Exception {
+    String[] wkts = {
+        "POINT (1.5 -2.25)",
+        "POINT EMPTY",
+        "LINESTRING (0 0, 10 10, 20 25.5)",
+        "POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0), (2 2, 3 2, 3 3, 2 2))",
+        "MULTIPOINT ((1 2), (3 4))",
+        "MULTIPOINT (1 2, 3 4)",
+        "MULTILINESTRING ((0 0, 1 1), (2 2, 3 3))",
+        "MULTIPOLYGON (((0 0, 1 0, 1 1, 0 0)), ((5 5, 6 5, 6 6, 5 5)))",
+        "GEOMETRYCOLLECTION (POINT (1 2), LINESTRING (0 0, 1 1e1))",
+        "POLYGON((0 0,1e2 0,1E2 1.5e+2,0 0))",
+        "POINT Z (1 2 3)",
+    };
+    WKTReader reader = new WKTReader();
+    for (String wkt : wkts) {
+      Geometry expected;
+      try {
+        expected = reader.read(wkt);
+      } catch (Exception e) {
+        continue;
+      }
+      Geometry actual = TextSerializerHelper.consumeGeometryJTS(new Text(wkt), '\0');
+      assertTrue("Error parsing "+wkt, expected.equalsExact(actual));
+    }
+  }
+
+  public void testConsumeHexWKB() throws Exception {
+    Geometry expected = new WKTReader().read("POLYGON((0 0, 1 0, 1 1, 0 1, 0 0))");
+    String hex = WKBWriter.toHex(new WKBWriter().write(expected));
+    Text text = new Text(hex+",1234");
+    Geometry geom = TextSerializerHelper.consumeGeometryJTS(text, ',');
+    assertTrue(expected.equalsExact(geom));
+    assertEquals(1234, TextSerializerHelper.consumeInt(text, '\0'));
+  }
+
+  public void testDeserializeDouble() {
+    Random random = new Random(0);
+    String[] values = new String[1000];
+    for (int i = 0; i < values.length; i++) {
+      switch (i % 4) {
+      case 0: values[i] = Double.toString(random.nextDouble() * 360 - 180); break;
+      case 1: values[i] = String.format("%.6f", random.nextDouble() * 180 - 90); break;
+      case 2: values[i] = Double.toString(random.nextGaussian() * 1E-30); break;
+      default: values[i] = Long.toString(random.nextLong()); break;
+      }
+    }
+    for (String value : values) {
+      byte[] bytes = value.getBytes();
+      assertEquals(value, Double.parseDouble(value),
+          TextSerializerHelper.deserializeDouble(bytes, 0, bytes.length), 0.0);
+    }
+  }
+
+  public void testTextCursor() {
+    Text text = new Text("12,-3.5,1e3,ff,[k1#v1,k2#v2],rest");
+    TextCursor cursor = new TextCursor(text);
+    assertEquals(12, cursor.nextInt(','));
+    assertEquals(-3.5, cursor.nextDouble(','), 0.0);
+    assertEquals(1000.0, cursor.nextDouble(','), 0.0);
+    assertEquals(0xff, cursor.nextHexLong(','));
+    Map<String, String> map = new HashMap<String, String>();
+    cursor.nextMap(map);
+    assertEquals(2, map.size());
+    assertEquals("v2", map.get("k2"));
+    // Nothing is removed from the text until the cursor is committed
+    assertEquals("12,-3.5,1e3,ff,[k1#v1,k2#v2],rest", text.toString());
+    cursor.skip(1);
+    cursor.commit();
+    assertEquals("rest", text.toString());
+  }
 }
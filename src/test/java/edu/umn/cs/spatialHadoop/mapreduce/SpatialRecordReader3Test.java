@@ -0,0 +1,82 @@
+package edu.umn.cs.spatialHadoop.mapreduce;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Random;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+import edu.umn.cs.spatialHadoop.BaseTest;
+import edu.umn.cs.spatialHadoop.OperationsParams;
+import edu.umn.cs.spatialHadoop.core.Point;
+import edu.umn.cs.spatialHadoop.core.Rectangle;
+import edu.umn.cs.spatialHadoop.core.Shape;
+
+public class SpatialRecordReader3Test extends BaseTest {
+
+  /**
+   * Runs a range query over the given file and returns the number of matches
+   */
+  private int countMatches(Path file, Shape shape, Rectangle query,
+      boolean batchScan) throws IOException, InterruptedException {
+    OperationsParams params = new OperationsParams();
+    OperationsParams.setShape(params, "shape", shape);
+    OperationsParams.setShape(params, SpatialInputFormat3.InputQueryRange, query);
+    params.setBoolean(SpatialRecordReader3.BatchScan, batchScan);
+    // A small batch size to test reading many batches
+    params.setInt(SpatialRecordReader3.BatchSize, 7);
+    params.setInt(SpatialRecordReader3.ScanThreads, 2);
+    FileSystem fs = file.getFileSystem(params);
+    long length = fs.getFileStatus(file).getLen();
+    int count = 0;
+    // Read the file in two splits to test lines that cross split boundaries
+    long[] splitStarts = {0, length / 2, length};
+    for (int i = 0; i < 2; i++) {
+      SpatialRecordReader3<Shape> reader = new SpatialRecordReader3<Shape>();
+      reader.initialize(new FileSplit(file, splitStarts[i],
+          splitStarts[i + 1] - splitStarts[i], new String[0]), params);
+      while (reader.nextKeyValue()) {
+        for (Shape s : reader.getCurrentValue()) {
+          assertTrue(s.isIntersected(query));
+          count++;
+        }
+      }
+      reader.close();
+    }
+    return count;
+  }
+
+  public void testBatchScanPoints() throws IOException, InterruptedException {
+    Path file = new Path(scratchPath, "test.points");
+    FileSystem fs = file.getFileSystem(new OperationsParams());
+    Random random = new Random(0);
+    PrintStream ps = new PrintStream(fs.create(file));
+    for (int i = 0; i < 1000; i++)
+      ps.printf("%d,%d\n", random.nextInt(100), random.nextInt(100));
+    ps.close();
+
+    Rectangle query = new Rectangle(20, 30, 50, 45);
+    int expected = countMatches(file, new Point(), query, false);
+    assertTrue(expected > 0);
+    assertEquals(expected, countMatches(file, new Point(), query, true));
+  }
+
+  public void testBatchScanRectangles() throws IOException, InterruptedException {
+    Path file = new Path(scratchPath, "test.rect");
+    FileSystem fs = file.getFileSystem(new OperationsParams());
+    Random random = new Random(0);
+    PrintStream ps = new PrintStream(fs.create(file));
+    for (int i = 0; i < 1000; i++) {
+      int x = random.nextInt(100), y = random.nextInt(100);
+      ps.printf("%d,%d,%d,%d\n", x, y, x + random.nextInt(5) + 1, y + random.nextInt(5) + 1);
+    }
+    ps.close();
+
+    Rectangle query = new Rectangle(20, 30, 50, 45);
+    int expected = countMatches(file, new Rectangle(), query, false);
+    assertTrue(expected > 0);
+    assertEquals(expected, countMatches(file, new Rectangle(), query, true));
+  }
+}
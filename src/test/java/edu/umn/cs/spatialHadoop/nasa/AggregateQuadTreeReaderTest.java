@@ -0,0 +1,142 @@
+package edu.umn.cs.spatialHadoop.nasa;
+
+import java.awt.Rectangle;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import edu.umn.cs.spatialHadoop.BaseTest;
+import edu.umn.cs.spatialHadoop.OperationsParams;
+import edu.umn.cs.spatialHadoop.core.ResultCollector;
+import edu.umn.cs.spatialHadoop.io.RandomCompressedOutputStream;
+
+public class AggregateQuadTreeReaderTest extends BaseTest {
+
+  private static final int Resolution = 64;
+
+  private static final short FillValue = -1;
+
+  /**
+   * Writes a tree where the value at (x, y) is x + y except for a few fill
+   * values.
+   */
+  private static short[] writeTree(FileSystem fs, Path path) throws IOException {
+    short[] values = new short[Resolution * Resolution];
+    for (int y = 0; y < Resolution; y++) {
+      for (int x = 0; x < Resolution; x++)
+        values[y * Resolution + x] = (short) ((x * 7 + y) % 13 == 0 ? FillValue : x + y);
+    }
+    NASADataset metadata = new NASADataset();
+    metadata.time = 1000;
+    DataOutputStream out = new DataOutputStream(
+        new RandomCompressedOutputStream(fs.create(path, true)));
+    AggregateQuadTree.build(metadata, values, FillValue, out);
+    out.close();
+    return values;
+  }
+
+  public void testAggregateQuery() throws IOException {
+    OperationsParams params = new OperationsParams();
+    Path treePath = new Path(scratchPath, "tree.quad");
+    FileSystem fs = treePath.getFileSystem(params);
+    short[] values = writeTree(fs, treePath);
+    FileStatus treeFile = fs.getFileStatus(treePath);
+
+    AggregateQuadTreeReader reader = new AggregateQuadTreeReader(1024 * 1024, 2);
+    assertEquals(Resolution, reader.getResolution(fs, treeFile));
+    Rectangle[] queries = {
+        new Rectangle(0, 0, Resolution, Resolution),
+        new Rectangle(3, 5, 20, 17),
+        new Rectangle(32, 0, 32, 32),
+        new Rectangle(10, 10, 1, 1),
+    };
+    for (Rectangle query : queries) {
+      AggregateQuadTree.Node expected = new AggregateQuadTree.Node();
+      for (int y = query.y; y < query.y + query.height; y++) {
+        for (int x = query.x; x < query.x + query.width; x++) {
+          short value = values[y * Resolution + x];
+          if (value != FillValue)
+            expected.accumulate(value);
+        }
+      }
+      // Run each query twice to test the cached tree
+      for (int i = 0; i < 2; i++) {
+        AggregateQuadTree.Node actual = reader.aggregateQuery(fs, treeFile, query);
+        assertEquals(expected.count, actual.count);
+        assertEquals(expected.sum, actual.sum);
+        assertEquals(expected.min, actual.min);
+        assertEquals(expected.max, actual.max);
+      }
+      AggregateQuadTree.Node actual = AggregateQuadTree.aggregateQuery(fs, treePath, query);
+      assertEquals(expected.sum, actual.sum);
+      assertEquals(expected.count, actual.count);
+    }
+    reader.close();
+  }
+
+  public void testSelectionQuery() throws IOException {
+    OperationsParams params = new OperationsParams();
+    Path treePath = new Path(scratchPath, "tree.quad");
+    FileSystem fs = treePath.getFileSystem(params);
+    short[] values = writeTree(fs, treePath);
+    FileStatus treeFile = fs.getFileStatus(treePath);
+
+    AggregateQuadTreeReader reader = new AggregateQuadTreeReader(1024 * 1024, 2);
+    final int[] sum = new int[1];
+    int numResults = reader.selectionQuery(fs, treeFile, new Rectangle(5, 9, 1, 1),
+        new ResultCollector<AggregateQuadTree.PointValue>() {
+      @Override
+      public void collect(AggregateQuadTree.PointValue value) {
+        assertEquals(5, value.x);
+        assertEquals(9, value.y);
+        assertEquals(1000, value.timestamp);
+        sum[0] += value.value;
+      }
+    });
+    assertEquals(1, numResults);
+    assertEquals(values[9 * Resolution + 5], sum[0]);
+    reader.close();
+  }
+
+  public void testEvictTreeInUse() throws IOException {
+    OperationsParams params = new OperationsParams();
+    Path treePath1 = new Path(scratchPath, "tree1.quad");
+    final Path treePath2 = new Path(scratchPath, "tree2.quad");
+    final FileSystem fs = treePath1.getFileSystem(params);
+    short[] values = writeTree(fs, treePath1);
+    writeTree(fs, treePath2);
+    FileStatus treeFile1 = fs.getFileStatus(treePath1);
+    final FileStatus treeFile2 = fs.getFileStatus(treePath2);
+
+    // A pool that holds only one tree
+    final AggregateQuadTreeReader reader = new AggregateQuadTreeReader(1, 2);
+    final int[] count = new int[1];
+    Rectangle query = new Rectangle(0, 0, Resolution, 2);
+    reader.selectionQuery(fs, treeFile1, query,
+        new ResultCollector<AggregateQuadTree.PointValue>() {
+      @Override
+      public void collect(AggregateQuadTree.PointValue value) {
+        if (count[0]++ == 0) {
+          try {
+            // Evicts the first tree while its values are being read
+            reader.getResolution(fs, treeFile2);
+          } catch (IOException e) {
+            fail(e.getMessage());
+          }
+        }
+      }
+    });
+    int expectedCount = 0;
+    for (int y = query.y; y < query.y + query.height; y++) {
+      for (int x = query.x; x < query.x + query.width; x++) {
+        if (values[y * Resolution + x] != FillValue)
+          expectedCount++;
+      }
+    }
+    assertEquals(expectedCount, count[0]);
+    reader.close();
+  }
+}
@@ -0,0 +1,141 @@
+package edu.umn.cs.spatialHadoop.nasa;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Random;
+import java.util.Vector;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.TestCase;
+
+import org.mortbay.jetty.Request;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.handler.AbstractHandler;
+
+/**
+ * Unit test for {@link HTTPInputStream} and {@link HTTPBlockCache} against an
+ * embedded Jetty server that supports range requests.
+ */
+public class HTTPInputStreamTest extends TestCase {
+
+  private static final Pattern RangePattern = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+  private Server server;
+  private byte[] fileData;
+  private URL fileURL;
+  /**The Range headers of all GET requests received by the server*/
+  private Vector<String> ranges;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    fileData = new byte[10000];
+    new Random(0).nextBytes(fileData);
+    ranges = new Vector<String>();
+    // Listen on any free port
+    server = new Server(0);
+    server.setHandler(new AbstractHandler() {
+      @Override
+      public void handle(String target, HttpServletRequest request,
+          HttpServletResponse response, int dispatch) throws IOException,
+          ServletException {
+        ((Request) request).setHandled(true);
+        if (!target.equals("/file.hdf")) {
+          response.sendError(HttpServletResponse.SC_NOT_FOUND);
+          return;
+        }
+        if (request.getMethod().equals("HEAD")) {
+          response.setContentLength(fileData.length);
+          response.setStatus(HttpServletResponse.SC_OK);
+          return;
+        }
+        String range = request.getHeader("Range");
+        ranges.add(range);
+        int start = 0, end = fileData.length - 1;
+        response.setStatus(HttpServletResponse.SC_OK);
+        if (range != null) {
+          Matcher matcher = RangePattern.matcher(range);
+          if (!matcher.matches()) {
+            response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+          }
+          start = Integer.parseInt(matcher.group(1));
+          end = Math.min(Integer.parseInt(matcher.group(2)), fileData.length - 1);
+          response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+          response.setHeader("Content-Range",
+              String.format("bytes %d-%d/%d", start, end, fileData.length));
+        }
+        response.setContentLength(end - start + 1);
+        response.getOutputStream().write(fileData, start, end - start + 1);
+      }
+    });
+    server.start();
+    fileURL = new URL("http://localhost:" + server.getConnectors()[0].getLocalPort() + "/file.hdf");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    server.stop();
+    super.tearDown();
+  }
+
+  public void testSequentialRead() throws IOException {
+    HTTPBlockCache cache = new HTTPBlockCache(1024, 4, 1024 * 1024, 2);
+    HTTPInputStream in = new HTTPInputStream(fileURL, cache);
+    byte[] readData = new byte[fileData.length];
+    int offset = 0;
+    int bytesRead;
+    while ((bytesRead = in.read(readData, offset, Math.min(700, readData.length - offset))) > 0)
+      offset += bytesRead;
+    assertEquals(fileData.length, offset);
+    assertEquals(-1, in.read());
+    for (int i = 0; i < fileData.length; i++)
+      assertEquals(fileData[i], readData[i]);
+    in.close();
+    // Each block is fetched once with a correct range request
+    assertEquals(10, ranges.size());
+    for (String range : ranges)
+      assertTrue("Invalid range " + range, RangePattern.matcher(range).matches());
+
+    // Reading the file again is served from memory and disk
+    in = new HTTPInputStream(fileURL, cache);
+    for (int i = 0; i < fileData.length; i++)
+      assertEquals(fileData[i] & 0xff, in.read());
+    in.close();
+    assertEquals(10, ranges.size());
+  }
+
+  public void testSeekAndPositionedRead() throws IOException {
+    HTTPBlockCache cache = new HTTPBlockCache(1024, 16, 0, 0);
+    HTTPInputStream in = new HTTPInputStream(fileURL, cache);
+    in.seek(5000);
+    assertEquals(fileData[5000] & 0xff, in.read());
+    assertEquals(5001, in.getPos());
+
+    // A positioned read across blocks does not move the stream
+    byte[] buffer = new byte[3000];
+    in.readFully(1000, buffer);
+    for (int i = 0; i < buffer.length; i++)
+      assertEquals(fileData[1000 + i], buffer[i]);
+    assertEquals(5001, in.getPos());
+    assertEquals(fileData[5001] & 0xff, in.read());
+
+    // Reading past the end of file
+    assertEquals(100, in.read(fileData.length - 100, buffer, 0, buffer.length));
+    try {
+      in.readFully(fileData.length - 100, buffer);
+      fail("Should throw an EOFException");
+    } catch (EOFException e) {
+      // Expected
+    }
+    in.close();
+    // Only blocks 0 to 4 and block 9 are fetched
+    assertEquals(6, ranges.size());
+  }
+}
@@ -0,0 +1,74 @@
+package edu.umn.cs.spatialHadoop.nasa;
+
+import java.io.IOException;
+import java.text.ParseException;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import edu.umn.cs.spatialHadoop.BaseTest;
+import edu.umn.cs.spatialHadoop.OperationsParams;
+
+public class TemporalRollupPlannerTest extends BaseTest {
+
+  private FileSystem fs;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    fs = scratchPath.getFileSystem(new OperationsParams());
+  }
+
+  private void createPartitions(String level, String... names) throws IOException {
+    for (String name : names)
+      fs.mkdirs(new Path(new Path(scratchPath, level), name));
+  }
+
+  private TemporalRollupPlanner.Plan plan(String timeRange) throws IOException, ParseException {
+    TimeRange range = new TimeRange(timeRange);
+    return new TemporalRollupPlanner(fs, scratchPath).plan(range.start, range.end);
+  }
+
+  private static void assertPartitions(TemporalRollupPlanner.Plan plan, String... expected) {
+    assertEquals(expected.length, plan.partitions.size());
+    for (int i = 0; i < expected.length; i++)
+      assertEquals(expected[i], plan.partitions.get(i).getParent().getName()
+          + "/" + plan.partitions.get(i).getName());
+  }
+
+  public void testCoarsestLevelsFirst() throws IOException, ParseException {
+    createPartitions("yearly", "2015");
+    createPartitions("monthly", "2014.12", "2015.01", "2016.01");
+    createPartitions("daily", "2014.12.30", "2014.12.31", "2015.01.01",
+        "2016.01.01", "2016.02.01", "2016.02.02");
+    TemporalRollupPlanner.Plan plan = plan("2014.12.30..2016.02.03");
+    assertPartitions(plan, "daily/2014.12.30", "daily/2014.12.31",
+        "yearly/2015", "monthly/2016.01", "daily/2016.02.01", "daily/2016.02.02");
+    assertTrue(plan.missingRollups.isEmpty());
+  }
+
+  public void testSkipGaps() throws IOException, ParseException {
+    createPartitions("yearly", "2013", "2015");
+    createPartitions("daily", "2014.06.01");
+    TemporalRollupPlanner.Plan plan = plan("2013.01.01..2016.01.01");
+    assertPartitions(plan, "yearly/2013", "daily/2014.06.01", "yearly/2015");
+    assertTrue(plan.missingRollups.isEmpty());
+  }
+
+  public void testMissingRollups() throws IOException, ParseException {
+    String[] days = new String[31];
+    for (int day = 1; day <= 31; day++)
+      days[day - 1] = String.format("2016.03.%02d", day);
+    createPartitions("daily", days);
+    createPartitions("daily", "2016.04.01");
+    TemporalRollupPlanner.Plan plan = plan("2016.03.01..2016.04.02");
+    assertEquals(32, plan.partitions.size());
+    assertEquals(1, plan.missingRollups.size());
+    TemporalRollupPlanner.Rollup rollup = plan.missingRollups.get(0);
+    assertEquals("2016.03", rollup.dir.getName());
+    assertEquals("monthly", rollup.dir.getParent().getName());
+    assertEquals(31, rollup.sources.length);
+    assertEquals("2016.03.01", rollup.sources[0].getName());
+    assertEquals("2016.03.31", rollup.sources[30].getName());
+  }
+}
@@ -0,0 +1,66 @@
+package edu.umn.cs.spatialHadoop.operations;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import edu.umn.cs.spatialHadoop.BaseTest;
+import edu.umn.cs.spatialHadoop.OperationsParams;
+import edu.umn.cs.spatialHadoop.core.Rectangle;
+import edu.umn.cs.spatialHadoop.core.Shape;
+import edu.umn.cs.spatialHadoop.indexing.Indexer;
+
+public class BroadcastJoinTest extends BaseTest {
+
+  public void testBroadcastJoin() throws IOException, InterruptedException {
+    Path inFile = new Path("src/test/resources/test.rect");
+    Path inFile1 = new Path(scratchPath, "file1");
+    Path inFile2 = new Path(scratchPath, "file2");
+
+    OperationsParams params = new OperationsParams();
+    FileSystem fs = inFile.getFileSystem(params);
+    fs.copyToLocalFile(inFile, inFile1);
+    fs.copyToLocalFile(inFile, inFile2);
+    params.setClass("shape", Rectangle.class, Shape.class);
+    for (int broadcastFile = 0; broadcastFile < 2; broadcastFile++) {
+      Path outFile = new Path(scratchPath, "bjout" + broadcastFile);
+      long resultSize = BroadcastJoin.broadcastJoin(new Path[]{inFile1, inFile2},
+          broadcastFile, outFile, params);
+      assertEquals(14, resultSize);
+      String[] results = readTextFile(outFile.toString());
+      assertEquals(14, results.length);
+    }
+  }
+
+  public void testBroadcastLocallyIndexedFile() throws IOException,
+      InterruptedException, ClassNotFoundException {
+    Path inFile = new Path("src/test/resources/test.rect");
+    Path indexedFile = new Path(scratchPath, "indexed");
+    Path outFile = new Path(scratchPath, "bjout");
+
+    OperationsParams params = new OperationsParams();
+    params.setClass("shape", Rectangle.class, Shape.class);
+    params.set("sindex", "rtree");
+    params.setBoolean("local", false);
+    Indexer.index(inFile, indexedFile, params);
+
+    long resultSize = BroadcastJoin.broadcastJoin(new Path[]{indexedFile, inFile},
+        0, outFile, params);
+    assertEquals(14, resultSize);
+  }
+
+  public void testRejectLargeBroadcastFile() throws IOException, InterruptedException {
+    Path inFile = new Path("src/test/resources/test.rect");
+    OperationsParams params = new OperationsParams();
+    params.setClass("shape", Rectangle.class, Shape.class);
+    params.setLong(BroadcastJoin.MaxBroadcastSize, 10);
+    try {
+      BroadcastJoin.broadcastJoin(new Path[]{inFile, inFile}, -1,
+          new Path(scratchPath, "bjout"), params);
+      fail("The broadcast file should be rejected");
+    } catch (RuntimeException e) {
+      // Expected
+    }
+  }
+}
@@ -0,0 +1,125 @@
+package edu.umn.cs.spatialHadoop.operations;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import edu.umn.cs.spatialHadoop.BaseTest;
+import edu.umn.cs.spatialHadoop.OperationsParams;
+import edu.umn.cs.spatialHadoop.core.CellInfo;
+import edu.umn.cs.spatialHadoop.core.Rectangle;
+import edu.umn.cs.spatialHadoop.core.Shape;
+import edu.umn.cs.spatialHadoop.indexing.GlobalIndex;
+import edu.umn.cs.spatialHadoop.indexing.Partition;
+import edu.umn.cs.spatialHadoop.visualization.GridHistogram;
+
+public class JoinPlannerTest extends BaseTest {
+
+  private static final long MB = 1024 * 1024;
+
+  /**
+   * Creates the statistics of a file indexed as a uniform grid of n x n
+   * partitions, each of 10 x 10 units and the given size.
+   */
+  private static JoinPlanner.DatasetStats gridIndexed(int n, long partitionSize) {
+    Partition[] partitions = new Partition[n * n];
+    for (int i = 0; i < partitions.length; i++) {
+      int col = i % n, row = i / n;
+      partitions[i] = new Partition("part-" + i,
+          new CellInfo(i + 1, col * 10, row * 10, col * 10 + 10, row * 10 + 10));
+      partitions[i].size = partitionSize;
+    }
+    JoinPlanner.DatasetStats stats = new JoinPlanner.DatasetStats();
+    stats.gindex = new GlobalIndex<Partition>();
+    stats.gindex.bulkLoad(partitions);
+    stats.mbr = stats.gindex.getMBR();
+    stats.numBlocks = partitions.length;
+    stats.size = partitions.length * partitionSize;
+    return stats;
+  }
+
+  private static JoinPlanner.DatasetStats notIndexed(int numBlocks, long blockSize) {
+    JoinPlanner.DatasetStats stats = new JoinPlanner.DatasetStats();
+    stats.numBlocks = numBlocks;
+    stats.size = numBlocks * blockSize;
+    return stats;
+  }
+
+  public void testPlanBothIndexed() {
+    JoinPlanner.Plan plan = JoinPlanner.plan(new JoinPlanner.DatasetStats[] {
+        gridIndexed(4, 100 * MB), gridIndexed(4, 100 * MB)}, 1.2, 32 * MB);
+    assertEquals(JoinPlanner.Strategy.DistributedJoin, plan.strategy);
+    assertEquals(16 * 200.0 * MB, plan.getCost(), 1.0);
+  }
+
+  public void testPlanNoneIndexed() {
+    JoinPlanner.Plan plan = JoinPlanner.plan(new JoinPlanner.DatasetStats[] {
+        notIndexed(100, 64 * MB), notIndexed(100, 64 * MB)}, 1.2, 32 * MB);
+    assertEquals(JoinPlanner.Strategy.SJMR, plan.strategy);
+    assertTrue(Double.isInfinite(plan.costs[JoinPlanner.Strategy.RepartitionJoin.ordinal()]));
+  }
+
+  public void testPlanOneIndexed() {
+    JoinPlanner.Plan plan = JoinPlanner.plan(new JoinPlanner.DatasetStats[] {
+        gridIndexed(4, 100 * MB), notIndexed(50, 64 * MB)}, 1.2, 32 * MB);
+    assertEquals(JoinPlanner.Strategy.RepartitionJoin, plan.strategy);
+    assertEquals(1, plan.fileToRepartition);
+  }
+
+  public void testPlanBroadcast() {
+    JoinPlanner.Plan plan = JoinPlanner.plan(new JoinPlanner.DatasetStats[] {
+        notIndexed(2, 10 * MB), notIndexed(100, 64 * MB)}, 1.2, 32 * MB);
+    assertEquals(JoinPlanner.Strategy.Broadcast, plan.strategy);
+    assertEquals(0, plan.fileToBroadcast);
+    // Nothing is broadcast if the small file is too large
+    plan = JoinPlanner.plan(new JoinPlanner.DatasetStats[] {
+        notIndexed(2, 10 * MB), notIndexed(100, 64 * MB)}, 1.2, 1 * MB);
+    assertEquals(JoinPlanner.Strategy.DistributedJoin, plan.strategy);
+  }
+
+  public void testPlanIndexNestedLoop() {
+    JoinPlanner.DatasetStats small = notIndexed(1, 10 * MB);
+    small.mbr = new Rectangle(1, 1, 5, 5);
+    JoinPlanner.Plan plan = JoinPlanner.plan(new JoinPlanner.DatasetStats[] {
+        gridIndexed(4, 100 * MB), small}, 1.2, 32 * MB);
+    assertEquals(JoinPlanner.Strategy.IndexNestedLoop, plan.strategy);
+    assertEquals(1, plan.fileToBroadcast);
+    assertEquals(110.0 * MB, plan.getCost(), 1.0);
+    // A locally indexed large file cannot be read by the broadcast join
+    JoinPlanner.DatasetStats large = gridIndexed(4, 100 * MB);
+    large.locallyIndexed = true;
+    plan = JoinPlanner.plan(new JoinPlanner.DatasetStats[] {large, small},
+        1.2, 32 * MB);
+    assertTrue(Double.isInfinite(plan.costs[JoinPlanner.Strategy.IndexNestedLoop.ordinal()]));
+  }
+
+  public void testFractionInWithHistogram() {
+    JoinPlanner.DatasetStats stats = gridIndexed(2, 100);
+    // Without a histogram, the data is assumed to be uniform in partitions
+    assertEquals(0.25, stats.fractionIn(new Rectangle(0, 0, 10, 10)), 1E-6);
+    // All the data is in the upper right quarter
+    stats.histogram = new GridHistogram(2, 2);
+    stats.histogram.set(1, 1, 400);
+    assertEquals(0.0, stats.fractionIn(new Rectangle(0, 0, 9, 9)), 1E-6);
+    assertEquals(1.0, stats.fractionIn(new Rectangle(11, 11, 20, 20)), 1E-6);
+    assertEquals(0.0, stats.fractionIn(new Rectangle(30, 30, 40, 40)), 1E-6);
+  }
+
+  public void testDistributedJoinSmart() throws IOException, InterruptedException,
+      ClassNotFoundException {
+    Path inFile = new Path("src/test/resources/test.rect");
+    Path inFile1 = new Path(scratchPath, "file1");
+    Path inFile2 = new Path(scratchPath, "file2");
+    Path outFile = new Path(scratchPath, "djout");
+
+    OperationsParams params = new OperationsParams();
+    FileSystem fs = inFile.getFileSystem(params);
+    fs.copyToLocalFile(inFile, inFile1);
+    fs.copyToLocalFile(inFile, inFile2);
+    params.setClass("shape", Rectangle.class, Shape.class);
+    long resultSize = DistributedJoin.distributedJoinSmart(
+        new Path[] {inFile1, inFile2}, outFile, params);
+    assertEquals(14, resultSize);
+  }
+}
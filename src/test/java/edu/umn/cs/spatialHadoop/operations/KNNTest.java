@@ -6,10 +6,16 @@ import edu.umn.cs.spatialHadoop.indexing.Indexer;
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
+import edu.umn.cs.spatialHadoop.core.CellInfo;
+import edu.umn.cs.spatialHadoop.indexing.Partition;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
 
 import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
 
 /**
  * Unit test for {@link LocalSampler} class.
@@ -54,4 +60,54 @@ public class KNNTest extends BaseTest {
       fail("Error while indexing");
     }
   }
+
+  public void testKNNMapReduceWithGlobalIndex() {
+    try {
+      // Create a fake index of four partitions over a 10x10 grid of points
+      Path indexPath = new Path(scratchPath, "index");
+      OperationsParams params = new OperationsParams();
+      FileSystem fs = indexPath.getFileSystem(params);
+      fs.mkdirs(indexPath);
+      PrintStream masterOut = new PrintStream(fs.create(new Path(indexPath, "_master.rstar")));
+      for (int cellId = 0; cellId < 4; cellId++) {
+        int cx = cellId % 2, cy = cellId / 2;
+        Partition p = new Partition("data"+cellId,
+            new CellInfo(cellId + 1, cx * 50, cy * 50, cx * 50 + 50, cy * 50 + 50));
+        PrintStream dataOut = new PrintStream(fs.create(new Path(indexPath, p.filename)));
+        for (int x = cx * 5; x < cx * 5 + 5; x++)
+          for (int y = cy * 5; y < cy * 5 + 5; y++)
+            dataOut.println((x * 10 + 5) + "," + (y * 10 + 5));
+        dataOut.close();
+        p.recordCount = 25;
+        masterOut.println(p.toText(new Text()));
+      }
+      masterOut.close();
+
+      double qx = 42, qy = 47;
+      int k = 7;
+      double[] allDistances = new double[100];
+      for (int i = 0; i < 100; i++) {
+        double dx = (i / 10) * 10 + 5 - qx, dy = (i % 10) * 10 + 5 - qy;
+        allDistances[i] = Math.sqrt(dx * dx + dy * dy);
+      }
+      Arrays.sort(allDistances);
+
+      Path outPath = new Path(scratchPath, "knnout");
+      params.set("shape", "point");
+      params.set("point", qx + "," + qy);
+      params.setInt("k", k);
+      params.setBoolean("local", false);
+      KNN.knn(indexPath, outPath, params);
+
+      String[] results = readTextFile(outPath.toString());
+      assertEquals(k, results.length);
+      for (int i = 0; i < k; i++) {
+        double distance = Double.parseDouble(results[i].split(",")[0]);
+        assertEquals(allDistances[i], distance, 1E-6);
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+      fail("Error running kNN in MapReduce");
+    }
+  }
 }
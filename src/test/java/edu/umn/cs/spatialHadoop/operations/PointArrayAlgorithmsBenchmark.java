@@ -0,0 +1,103 @@
+package edu.umn.cs.spatialHadoop.operations;
+
+import java.util.Random;
+
+import edu.umn.cs.spatialHadoop.OperationsParams.Direction;
+import edu.umn.cs.spatialHadoop.core.Point;
+import edu.umn.cs.spatialHadoop.util.PointArray;
+
+/**
+ * Compares the skyline, convex hull, closest pair, and farthest pair
+ * algorithms that work on {@link Point} arrays to the ones that work on a
+ * {@link PointArray}. This is not a unit test. Run it from the command line
+ * with the number of points and the number of threads as optional arguments.
+ */
+public class PointArrayAlgorithmsBenchmark {
+
+  /**Number of rounds to run before measuring to warm up the JIT*/
+  private static final int WarmupRounds = 2;
+
+  /**Number of measured rounds*/
+  private static final int MeasuredRounds = 3;
+
+  public static void main(String[] args) {
+    int numPoints = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+    int parallelism = args.length > 1 ? Integer.parseInt(args[1]) :
+        Runtime.getRuntime().availableProcessors();
+    Random random = new Random(0);
+    double[] xs = new double[numPoints];
+    double[] ys = new double[numPoints];
+    for (int i = 0; i < numPoints; i++) {
+      xs[i] = random.nextDouble() * 1000000;
+      ys[i] = random.nextDouble() * 1000000;
+    }
+
+    for (int round = 0; round < WarmupRounds + MeasuredRounds; round++) {
+      long[] objectTimes = new long[4];
+      long[] arrayTimes = new long[4];
+      double checksum = 0;
+
+      long t1 = System.nanoTime();
+      checksum += Skyline.skylineInMemory(toPoints(xs, ys), Direction.MaxMax).length;
+      long t2 = System.nanoTime();
+      PointArray points = toPointArray(xs, ys);
+      Skyline.skylineInMemory(points, Direction.MaxMax, parallelism);
+      checksum += points.size();
+      long t3 = System.nanoTime();
+      objectTimes[0] = t2 - t1;
+      arrayTimes[0] = t3 - t2;
+
+      t1 = System.nanoTime();
+      checksum += ConvexHull.convexHullInMemory(toPoints(xs, ys)).length;
+      t2 = System.nanoTime();
+      points = toPointArray(xs, ys);
+      ConvexHull.convexHullInMemory(points, parallelism);
+      checksum += points.size();
+      t3 = System.nanoTime();
+      objectTimes[1] = t2 - t1;
+      arrayTimes[1] = t3 - t2;
+
+      t1 = System.nanoTime();
+      checksum += ClosestPair.closestPairInMemory(toPoints(xs, ys), 100).getDistance();
+      t2 = System.nanoTime();
+      checksum += ClosestPair.closestPairInMemory(toPointArray(xs, ys), 100, parallelism).getDistance();
+      t3 = System.nanoTime();
+      objectTimes[2] = t2 - t1;
+      arrayTimes[2] = t3 - t2;
+
+      t1 = System.nanoTime();
+      checksum += FarthestPair.rotatingCallipers(
+          ConvexHull.convexHullInMemory(toPoints(xs, ys))).distance;
+      t2 = System.nanoTime();
+      points = toPointArray(xs, ys);
+      ConvexHull.convexHullInMemory(points, parallelism);
+      checksum += FarthestPair.rotatingCallipers(points).distance;
+      t3 = System.nanoTime();
+      objectTimes[3] = t2 - t1;
+      arrayTimes[3] = t3 - t2;
+
+      if (round >= WarmupRounds) {
+        String[] names = {"Skyline", "ConvexHull", "ClosestPair", "FarthestPair"};
+        for (int i = 0; i < names.length; i++) {
+          System.out.printf("%s: Point[] %.1f ms, PointArray %.1f ms\n", names[i],
+              objectTimes[i] / 1E6, arrayTimes[i] / 1E6);
+        }
+        System.out.println("Checksum " + checksum);
+      }
+    }
+  }
+
+  private static Point[] toPoints(double[] xs, double[] ys) {
+    Point[] points = new Point[xs.length];
+    for (int i = 0; i < xs.length; i++)
+      points[i] = new Point(xs[i], ys[i]);
+    return points;
+  }
+
+  private static PointArray toPointArray(double[] xs, double[] ys) {
+    PointArray points = new PointArray(xs.length);
+    for (int i = 0; i < xs.length; i++)
+      points.add(xs[i], ys[i]);
+    return points;
+  }
+}
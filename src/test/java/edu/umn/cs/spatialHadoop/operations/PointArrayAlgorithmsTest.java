@@ -0,0 +1,197 @@
+package edu.umn.cs.spatialHadoop.operations;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import edu.umn.cs.spatialHadoop.OperationsParams.Direction;
+import edu.umn.cs.spatialHadoop.core.Point;
+import edu.umn.cs.spatialHadoop.nasa.NASAPoint;
+import edu.umn.cs.spatialHadoop.operations.FarthestPair.PairDistance;
+import edu.umn.cs.spatialHadoop.util.PointArray;
+
+/**
+ * Tests the skyline, convex hull, closest pair, and farthest pair algorithms
+ * that work on a {@link PointArray}.
+ */
+public class PointArrayAlgorithmsTest extends TestCase {
+
+  /**
+   * Generates random points with integer coordinates in a small range to
+   * produce duplicates and points with the same x or y.
+   */
+  private static PointArray randomPoints(int size, int range, long seed) {
+    Random random = new Random(seed);
+    PointArray points = new PointArray();
+    for (int i = 0; i < size; i++)
+      points.add(random.nextInt(range), random.nextInt(range));
+    return points;
+  }
+
+  private static boolean dominates(double x1, double y1, double x2, double y2, Direction dir) {
+    switch (dir) {
+    case MaxMax: return x1 >= x2 && y1 >= y2;
+    case MaxMin: return x1 >= x2 && y1 <= y2;
+    case MinMax: return x1 <= x2 && y1 >= y2;
+    default: return x1 <= x2 && y1 <= y2;
+    }
+  }
+
+  public void testSkyline() {
+    for (Direction dir : Direction.values()) {
+      PointArray input = randomPoints(2000, 300, 1);
+      PointArray skyline = new PointArray();
+      skyline.add(input);
+      Skyline.skylineInMemory(skyline, dir, 1);
+      // A point is in the skyline iff no other distinct point dominates it
+      int expectedSize = 0;
+      input.sort(1);
+      for (int i = 0; i < input.size(); i++) {
+        if (i > 0 && input.getX(i) == input.getX(i - 1) && input.getY(i) == input.getY(i - 1))
+          continue;
+        boolean dominated = false;
+        for (int j = 0; j < input.size() && !dominated; j++) {
+          dominated = (input.getX(i) != input.getX(j) || input.getY(i) != input.getY(j)) &&
+              dominates(input.getX(j), input.getY(j), input.getX(i), input.getY(i), dir);
+        }
+        if (!dominated) {
+          assertEquals(input.getX(i), skyline.getX(expectedSize));
+          assertEquals(input.getY(i), skyline.getY(expectedSize));
+          expectedSize++;
+        }
+      }
+      assertEquals(expectedSize, skyline.size());
+    }
+  }
+
+  /**
+   * The skyline of a {@link PointArray} is exact in all directions while the
+   * skyline of a Point[] keeps dominated points in directions other than
+   * MaxMax. The operation uses the former, so these results have changed.
+   */
+  public void testSkylineNonMaxMaxDirections() {
+    // (2, 2) is dominated by (1, 1) in the MinMin direction
+    Point[] objects = {new Point(1, 1), new Point(2, 2), new Point(3, 0)};
+    Point[] oldSkyline = Skyline.skylineInMemory(objects.clone(), Direction.MinMin);
+    assertEquals(3, oldSkyline.length);
+    PointArray points = new PointArray();
+    for (Point p : objects)
+      points.add(p);
+    Skyline.skylineInMemory(points, Direction.MinMin, 1);
+    assertEquals(2, points.size());
+    assertEquals(new Point(1, 1), points.getPoint(0));
+    assertEquals(new Point(3, 0), points.getPoint(1));
+
+    // Both methods agree in the MaxMax direction for distinct points
+    Random random = new Random(5);
+    objects = new Point[1000];
+    points = new PointArray();
+    for (int i = 0; i < objects.length; i++) {
+      objects[i] = new Point(random.nextDouble(), random.nextDouble());
+      points.add(objects[i]);
+    }
+    oldSkyline = Skyline.skylineInMemory(objects, Direction.MaxMax);
+    Skyline.skylineInMemory(points, Direction.MaxMax, 1);
+    assertEquals(oldSkyline.length, points.size());
+    for (int i = 0; i < oldSkyline.length; i++)
+      assertEquals(oldSkyline[i], points.getPoint(i));
+  }
+
+  /**
+   * Creates points of a subclass of {@link Point} whose value is their index
+   */
+  private static PointArray randomNASAPoints(int size, long seed, double[] xs, double[] ys) {
+    Random random = new Random(seed);
+    PointArray points = new PointArray();
+    for (int i = 0; i < size; i++) {
+      xs[i] = random.nextDouble() * 1000;
+      ys[i] = random.nextDouble() * 1000;
+      points.add(new NASAPoint(xs[i], ys[i], i, 0));
+    }
+    return points;
+  }
+
+  /**
+   * Asserts that the point is the original input point with its attributes
+   */
+  private static void assertOriginalPoint(Point p, double[] xs, double[] ys) {
+    assertTrue(p instanceof NASAPoint);
+    int value = ((NASAPoint) p).value;
+    assertEquals(xs[value], p.x);
+    assertEquals(ys[value], p.y);
+  }
+
+  public void testAlgorithmsKeepShapes() {
+    // Above the parallel threshold to move the shapes in the parallel sort
+    int size = PointArray.ParallelSortThreshold * 2;
+    double[] xs = new double[size], ys = new double[size];
+    for (Direction dir : Direction.values()) {
+      PointArray points = randomNASAPoints(size, 6, xs, ys);
+      Skyline.skylineInMemory(points, dir, 4);
+      assertTrue(points.size() > 0);
+      for (int i = 0; i < points.size(); i++)
+        assertOriginalPoint(points.getPoint(i), xs, ys);
+    }
+
+    PointArray points = randomNASAPoints(size, 7, xs, ys);
+    ConvexHull.convexHullInMemory(points, 4);
+    assertTrue(points.size() > 2);
+    for (int i = 0; i < points.size(); i++)
+      assertOriginalPoint(points.getPoint(i), xs, ys);
+
+    points = randomNASAPoints(3000, 8, xs, ys);
+    ClosestPair.Pair pair = ClosestPair.closestPairInMemory(points, 10, 4);
+    assertOriginalPoint(pair.p1, xs, ys);
+    assertOriginalPoint(pair.p2, xs, ys);
+  }
+
+  public void testConvexHull() {
+    PointArray points = randomPoints(PointArray.ParallelSortThreshold * 2, 10000, 2);
+    Point[] objects = new Point[points.size()];
+    for (int i = 0; i < objects.length; i++)
+      objects[i] = new Point(points.getX(i), points.getY(i));
+    Point[] expected = ConvexHull.convexHullInMemory(objects);
+    ConvexHull.convexHullInMemory(points, 4);
+    assertEquals(expected.length, points.size());
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i].x, points.getX(i));
+      assertEquals(expected[i].y, points.getY(i));
+    }
+  }
+
+  public void testClosestPair() {
+    Random random = new Random(3);
+    PointArray points = new PointArray();
+    for (int i = 0; i < 3000; i++)
+      points.add(random.nextDouble() * 1000, random.nextDouble() * 1000);
+    double expected = Double.POSITIVE_INFINITY;
+    for (int i = 0; i < points.size(); i++) {
+      for (int j = i + 1; j < points.size(); j++) {
+        double dx = points.getX(i) - points.getX(j);
+        double dy = points.getY(i) - points.getY(j);
+        expected = Math.min(expected, Math.sqrt(dx * dx + dy * dy));
+      }
+    }
+    // A small threshold to test merging many sublists in parallel
+    ClosestPair.Pair pair = ClosestPair.closestPairInMemory(points, 10, 4);
+    assertEquals(expected, pair.getDistance(), 1E-9);
+    pair = ClosestPair.closestPairInMemory(points, 100, 1);
+    assertEquals(expected, pair.getDistance(), 1E-9);
+  }
+
+  public void testFarthestPair() {
+    PointArray points = randomPoints(2000, 100000, 4);
+    double expected = 0;
+    for (int i = 0; i < points.size(); i++) {
+      for (int j = i + 1; j < points.size(); j++) {
+        double dx = points.getX(i) - points.getX(j);
+        double dy = points.getY(i) - points.getY(j);
+        expected = Math.max(expected, Math.sqrt(dx * dx + dy * dy));
+      }
+    }
+    ConvexHull.convexHullInMemory(points, 1);
+    PairDistance farthestPair = FarthestPair.rotatingCallipers(points);
+    assertEquals(expected, farthestPair.distance, 1E-9);
+    assertEquals(expected, farthestPair.first.distanceTo(farthestPair.second), 1E-9);
+  }
+}
@@ -11,6 +11,8 @@ import edu.umn.cs.spatialHadoop.util.FileUtil;
 import junit.framework.TestCase;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
 
 import java.io.IOException;
 
@@ -49,4 +51,23 @@ public class SJMRTest extends BaseTest {
     String[] results = readTextFile(outFile.toString());
     assertEquals(14, results.length);
   }
-}
\ No newline at end of file
+
+  public void testShapePayload() throws IOException {
+    Rectangle shape = new Rectangle(1, 2, 5, 7);
+    SJMR.ShapePayload payload = new SJMR.ShapePayload();
+    payload.set((byte) 1, shape, shape.getMBR());
+    DataOutputBuffer out = new DataOutputBuffer();
+    payload.write(out);
+
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    SJMR.ShapePayload read = new SJMR.ShapePayload();
+    read.readFields(in);
+    assertEquals(1, read.index);
+    assertEquals(shape, new Rectangle(read.x1, read.y1, read.x2, read.y2));
+
+    SJMR.ShapeList list = new SJMR.ShapeList();
+    list.add(read);
+    assertEquals(shape, list.get(0, new Rectangle(), new DataInputBuffer()));
+  }
+}
@@ -7,6 +7,11 @@ import edu.umn.cs.spatialHadoop.core.Shape;
 import junit.framework.TestCase;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
 public class SamplerTest extends TestCase {
 
@@ -48,6 +53,32 @@ public class SamplerTest extends TestCase {
     }
   }
 
+  public void testTakeSamplePoints() {
+    Path input = new Path("src/test/resources/test.rect");
+    OperationsParams params = new OperationsParams();
+    params.setClass("shape", Rectangle.class, Shape.class);
+    params.setFloat("ratio", 1.0f); // Read all records
+    try {
+      double[][] points = Sampler.takeSamplePoints(new Path[]{input}, params);
+      assertEquals(14, points[0].length);
+      assertEquals(14, points[1].length);
+      // Each point should be the center of one of the rectangles
+      String[] lines = Sampler.takeSample(new Path[]{input}, withOutShape(params));
+      Set<String> expected = new HashSet<String>(Arrays.asList(lines));
+      for (int i = 0; i < points[0].length; i++)
+        assertTrue(expected.contains(new Point(points[0][i], points[1][i]).toText(new Text()).toString()));
+    } catch (Exception e) {
+      e.printStackTrace();
+      fail("Error in test");
+    }
+  }
+
+  private OperationsParams withOutShape(OperationsParams params) {
+    OperationsParams newParams = new OperationsParams(params);
+    newParams.setClass("outshape", Point.class, Shape.class);
+    return newParams;
+  }
+
   public void testSampleConvert() {
     Path input = new Path("src/test/resources/test.rect");
     Path output = new Path(scratchPath, "sampled");
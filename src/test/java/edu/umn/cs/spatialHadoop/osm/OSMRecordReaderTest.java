@@ -0,0 +1,138 @@
+package edu.umn.cs.spatialHadoop.osm;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+import edu.umn.cs.spatialHadoop.BaseTest;
+import edu.umn.cs.spatialHadoop.OperationsParams;
+
+/**
+ * Unit test for {@link OSMRecordReader}
+ */
+public class OSMRecordReaderTest extends BaseTest {
+
+  static final int NumNodes = 20;
+  static final int NumWays = 5;
+
+  /**
+   * Writes an OSM file with {@link #NumNodes} nodes where node i is at
+   * (-(i+0.25), i+0.5) and {@link #NumWays} ways where way 100+i refers to
+   * the nodes i to 2i and has the tag highway="road i".
+   */
+  static Path writeOSMFile() throws IOException {
+    Path file = new Path(scratchPath, "test.osm");
+    FileSystem fs = file.getFileSystem(new OperationsParams());
+    PrintStream ps = new PrintStream(fs.create(file), false, "UTF-8");
+    ps.println("<?xml version='1.0' encoding='UTF-8'?>");
+    ps.println("<osm version=\"0.6\" generator=\"test\">");
+    ps.println(" <bounds minlat=\"0\" minlon=\"0\" maxlat=\"10\" maxlon=\"10\"/>");
+    for (int i = 1; i <= NumNodes; i++) {
+      if (i % 3 == 0) {
+        ps.printf(" <node id=\"%d\" lat=\"%d.5\" lon=\"%d.25\" version=\"1\">\n", i, i, -i);
+        ps.printf("  <tag k=\"name\" v=\"&lt;node %d&gt;, \u00e9\"/>\n", i);
+        ps.println("  <tag k=\"amenity\" v=\"cafe\"/>");
+        ps.println(" </node>");
+      } else {
+        ps.printf(" <node id=\"%d\" lat=\"%d.5\" lon=\"%d.25\" version=\"1\"/>\n", i, i, -i);
+      }
+    }
+    for (int i = 1; i <= NumWays; i++) {
+      ps.printf(" <way id=\"%d\" version=\"2\">\n", 100 + i);
+      for (int j = 0; j < i + 1; j++)
+        ps.printf("  <nd ref=\"%d\"/>\n", i + j);
+      ps.printf("  <tag k=\"highway\" v=\"road %d\"/>\n", i);
+      ps.println(" </way>");
+    }
+    ps.println(" <relation id=\"1000\">");
+    ps.println("  <member type=\"way\" ref=\"101\" role=\"outer\"/>");
+    ps.println("  <tag k=\"type\" v=\"multipolygon\"/>");
+    ps.println(" </relation>");
+    ps.println("</osm>");
+    ps.close();
+    return file;
+  }
+
+  /**
+   * Reads all records of the given file in splits that start at the given
+   * offsets and checks that each element is read once and parsed correctly
+   */
+  private void readAndCheck(Path file, long[] splitStarts) throws IOException,
+      InterruptedException {
+    OperationsParams params = new OperationsParams();
+    Map<Long, Integer> nodeCounts = new HashMap<Long, Integer>();
+    Map<Long, Integer> wayCounts = new HashMap<Long, Integer>();
+    for (int i = 0; i < splitStarts.length - 1; i++) {
+      OSMRecordReader reader = new OSMRecordReader();
+      reader.initialize(new FileSplit(file, splitStarts[i],
+          splitStarts[i + 1] - splitStarts[i], new String[0]), params);
+      while (reader.nextKeyValue()) {
+        long id = reader.getCurrentKey().get();
+        Writable value = reader.getCurrentValue();
+        if (value instanceof OSMPoint) {
+          OSMPoint node = (OSMPoint) value;
+          assertEquals(id, node.id);
+          assertEquals(id + 0.5, node.y);
+          assertEquals(-(id + 0.25), node.x);
+          if (id % 3 == 0) {
+            assertEquals("<node " + id + ">_ \u00e9", node.tags.get("name"));
+            assertEquals("cafe", node.tags.get("amenity"));
+          } else {
+            assertTrue(node.tags.isEmpty());
+          }
+          Integer count = nodeCounts.get(id);
+          nodeCounts.put(id, count == null ? 1 : count + 1);
+        } else {
+          OSMWayRecord way = (OSMWayRecord) value;
+          assertEquals(id, way.id);
+          int i2 = (int) (id - 100);
+          assertEquals(i2 + 1, way.numNodes);
+          for (int j = 0; j < way.numNodes; j++)
+            assertEquals(i2 + j, way.nodeIds[j]);
+          assertEquals("road " + i2, way.tags.get("highway"));
+          Integer count = wayCounts.get(id);
+          wayCounts.put(id, count == null ? 1 : count + 1);
+        }
+      }
+      reader.close();
+    }
+    assertEquals(NumNodes, nodeCounts.size());
+    for (int count : nodeCounts.values())
+      assertEquals(1, count);
+    assertEquals(NumWays, wayCounts.size());
+    for (int count : wayCounts.values())
+      assertEquals(1, count);
+  }
+
+  public void testReadWholeFile() throws IOException, InterruptedException {
+    Path file = writeOSMFile();
+    long length = file.getFileSystem(new OperationsParams()).getFileStatus(file).getLen();
+    readAndCheck(file, new long[] {0, length});
+  }
+
+  public void testSplitAtEveryOffset() throws IOException, InterruptedException {
+    Path file = writeOSMFile();
+    long length = file.getFileSystem(new OperationsParams()).getFileStatus(file).getLen();
+    // Two splits separated at every possible offset
+    for (long offset = 1; offset < length; offset++)
+      readAndCheck(file, new long[] {0, offset, length});
+    // Many small splits
+    int numSplits = 37;
+    long[] splitStarts = new long[numSplits + 1];
+    for (int i = 0; i <= numSplits; i++)
+      splitStarts[i] = length * i / numSplits;
+    readAndCheck(file, splitStarts);
+  }
+
+  public void testSanitizeTags() {
+    assertEquals("a b_c_d_e_", OSMRecordReader.sanitize("a\tb'c\"d#e,"));
+    String clean = "no change";
+    assertSame(clean, OSMRecordReader.sanitize(clean));
+  }
+}
@@ -0,0 +1,84 @@
+package edu.umn.cs.spatialHadoop.osm;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+
+import edu.umn.cs.spatialHadoop.BaseTest;
+import edu.umn.cs.spatialHadoop.OperationsParams;
+
+/**
+ * Unit test for {@link OSMWayAssembler} on the file of
+ * {@link OSMRecordReaderTest}
+ */
+public class OSMWayAssemblerTest extends BaseTest {
+
+  public void testAssembleWays() throws IOException, InterruptedException,
+      ClassNotFoundException {
+    Path inFile = OSMRecordReaderTest.writeOSMFile();
+    Path outFile = new Path(scratchPath, "ways");
+    OSMWayAssembler.assembleWays(new Path[] {inFile}, outFile,
+        new OperationsParams());
+
+    String[] lines = readTextFile(outFile.toString());
+    assertEquals(OSMRecordReaderTest.NumWays, lines.length);
+    Set<Long> wayIds = new HashSet<Long>();
+    for (String line : lines) {
+      OSMPolygon way = new OSMPolygon();
+      way.fromText(new Text(line));
+      assertTrue(wayIds.add(way.id));
+      int i = (int) (way.id - 100);
+      assertEquals("road " + i, way.tags.get("highway"));
+      // None of the ways is closed
+      assertTrue(way.geom instanceof LineString);
+      Coordinate[] coords = way.geom.getCoordinates();
+      assertEquals(i + 1, coords.length);
+      for (int j = 0; j < coords.length; j++) {
+        assertEquals(-(i + j + 0.25), coords[j].x);
+        assertEquals(i + j + 0.5, coords[j].y);
+      }
+    }
+  }
+
+  public void testAssembleEdges() throws IOException, InterruptedException,
+      ClassNotFoundException {
+    Path inFile = OSMRecordReaderTest.writeOSMFile();
+    Path outFile = new Path(scratchPath, "edges");
+    OperationsParams params = new OperationsParams();
+    params.setBoolean("edges", true);
+    OSMWayAssembler.assembleWays(new Path[] {inFile}, outFile, params);
+
+    String[] lines = readTextFile(outFile.toString());
+    // Way 100+i has i+1 nodes and i edges
+    int numEdges = 0;
+    for (int i = 1; i <= OSMRecordReaderTest.NumWays; i++)
+      numEdges += i;
+    assertEquals(numEdges, lines.length);
+    Set<Long> edgeIds = new HashSet<Long>();
+    for (String line : lines) {
+      OSMEdge edge = new OSMEdge();
+      edge.fromText(new Text(line));
+      assertTrue(edgeIds.add(edge.edgeId));
+      int i = (int) (edge.wayId - 100);
+      // The edge IDs are the way ID followed by the position of the edge
+      String edgeId = Long.toString(edge.edgeId);
+      String wayId = Long.toString(edge.wayId);
+      assertTrue(edgeId.startsWith(wayId));
+      int j = Integer.parseInt(edgeId.substring(wayId.length()));
+      assertTrue(j >= 1 && j <= i);
+      assertEquals(i + j - 1, edge.nodeId1);
+      assertEquals(i + j, edge.nodeId2);
+      assertEquals(-(i + j - 1 + 0.25), edge.lon1);
+      assertEquals(i + j - 1 + 0.5, edge.lat1);
+      assertEquals(-(i + j + 0.25), edge.lon2);
+      assertEquals(i + j + 0.5, edge.lat2);
+      assertTrue(edge.tags.contains("road " + i));
+    }
+  }
+}
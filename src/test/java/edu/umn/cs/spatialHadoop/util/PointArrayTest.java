@@ -0,0 +1,83 @@
+package edu.umn.cs.spatialHadoop.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import edu.umn.cs.spatialHadoop.core.Point;
+import edu.umn.cs.spatialHadoop.nasa.NASAPoint;
+
+/**
+ * Unit test for the utility class {@link PointArray}.
+ */
+public class PointArrayTest extends TestCase {
+
+  public void testSortLikePoints() {
+    Random random = new Random(0);
+    // Above the parallel threshold with many duplicate x-coordinates
+    int size = PointArray.ParallelSortThreshold * 3;
+    PointArray points = new PointArray();
+    Point[] expected = new Point[size];
+    for (int i = 0; i < size; i++) {
+      expected[i] = new Point(random.nextInt(1000), random.nextInt(1000));
+      points.add(expected[i]);
+    }
+    Arrays.sort(expected);
+    // An odd number of threads to test merging an odd number of runs
+    points.sort(3);
+    assertEquals(size, points.size());
+    for (int i = 0; i < size; i++) {
+      assertEquals(expected[i].x, points.getX(i));
+      assertEquals(expected[i].y, points.getY(i));
+    }
+  }
+
+  public void testSortKeepsShapes() {
+    Random random = new Random(1);
+    int size = PointArray.ParallelSortThreshold * 3;
+    PointArray points = new PointArray();
+    double[] xs = new double[size], ys = new double[size];
+    for (int i = 0; i < size; i++) {
+      xs[i] = random.nextInt(1000);
+      ys[i] = random.nextInt(1000);
+      // Mix plain points with points of a subclass that carry their index
+      if (i % 3 == 0)
+        points.add(xs[i], ys[i]);
+      else
+        points.add(new NASAPoint(xs[i], ys[i], i, 0));
+    }
+    points.sort(3);
+    int numShapes = 0;
+    for (int i = 0; i < size; i++) {
+      Point p = points.getPoint(i);
+      assertEquals(points.getX(i), p.x);
+      assertEquals(points.getY(i), p.y);
+      if (p instanceof NASAPoint) {
+        int value = ((NASAPoint) p).value;
+        assertEquals(xs[value], p.x);
+        assertEquals(ys[value], p.y);
+        numShapes++;
+      } else {
+        assertEquals(Point.class, p.getClass());
+      }
+    }
+    assertEquals(size - (size + 2) / 3, numShapes);
+  }
+
+  public void testAddAndResize() {
+    PointArray points = new PointArray(1);
+    for (int i = 0; i < 100; i++)
+      points.add(i, -i);
+    PointArray another = new PointArray();
+    another.add(points);
+    another.add(points);
+    assertEquals(200, another.size());
+    assertEquals(5.0, another.getX(105));
+    assertEquals(-5.0, another.getY(105));
+    another.resize(10);
+    assertEquals(10, another.size());
+    another.clear();
+    assertTrue(another.isEmpty());
+  }
+}
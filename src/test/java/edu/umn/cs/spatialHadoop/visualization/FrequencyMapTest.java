@@ -0,0 +1,85 @@
+package edu.umn.cs.spatialHadoop.visualization;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import edu.umn.cs.spatialHadoop.core.Rectangle;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for {@link FrequencyMap}
+ */
+public class FrequencyMapTest extends TestCase {
+
+  /**
+   * Create the test case
+   *
+   * @param testName
+   *          name of the test case
+   */
+  public FrequencyMapTest(String testName) {
+    super(testName);
+  }
+
+  /**
+   * @return the suite of tests being tested
+   */
+  public static Test suite() {
+    return new TestSuite(FrequencyMapTest.class);
+  }
+
+  private FrequencyMap writeAndRead(FrequencyMap map) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(baos);
+    map.write(out);
+    out.close();
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(baos.toByteArray()));
+    FrequencyMap read = new FrequencyMap();
+    read.readFields(in);
+    assertEquals("Some bytes were not read", 0, in.available());
+    in.close();
+    return read;
+  }
+
+  public void testDeferredSmoothing() throws IOException {
+    Random random = new Random(0);
+    int width = 60, height = 40;
+    Rectangle mbr = new Rectangle(0, 0, width, height);
+    Rectangle leftHalf = new Rectangle(0, 0, width / 2, height);
+    for (FrequencyMap.SmoothType smoothType : FrequencyMap.SmoothType.values()) {
+      for (int radius : new int[] {1, 5, 12}) {
+        FrequencyMap immediate = new FrequencyMap(mbr, width, height, radius, smoothType);
+        FrequencyMap deferred = new FrequencyMap(mbr, width, height, radius, smoothType, true);
+        // Build the deferred map from two partial maps through serialization
+        FrequencyMap part = new FrequencyMap(leftHalf, width / 2, height, radius, smoothType, true);
+        for (int i = 0; i < 500; i++) {
+          int x = random.nextInt(width + 10) - 5;
+          int y = random.nextInt(height + 10) - 5;
+          immediate.addPoint(x, y);
+          if (x < width / 2)
+            part.addPoint(x, y);
+          else
+            deferred.addPoint(x, y);
+        }
+        deferred.mergeWith(writeAndRead(part));
+        deferred = writeAndRead(deferred);
+        deferred.applyDeferredKernel();
+        assertEquals(width, deferred.getWidth());
+        assertEquals(height, deferred.getHeight());
+        for (int x = 0; x < width; x++) {
+          for (int y = 0; y < height; y++) {
+            assertEquals(String.format("%s radius %d at (%d, %d)", smoothType, radius, x, y),
+                immediate.frequencies[x][y], deferred.frequencies[x][y],
+                1E-3 * Math.max(1, immediate.frequencies[x][y]));
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package edu.umn.cs.spatialHadoop.visualization;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import edu.umn.cs.spatialHadoop.core.Point;
+import edu.umn.cs.spatialHadoop.core.Rectangle;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for {@link ImageCanvas}
+ */
+public class ImageCanvasTest extends TestCase {
+
+  /**
+   * Create the test case
+   *
+   * @param testName
+   *          name of the test case
+   */
+  public ImageCanvasTest(String testName) {
+    super(testName);
+  }
+
+  /**
+   * @return the suite of tests being tested
+   */
+  public static Test suite() {
+    return new TestSuite(ImageCanvasTest.class);
+  }
+
+  private ImageCanvas writeAndRead(ImageCanvas canvas, ImageCanvas target) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(baos);
+    canvas.write(out);
+    out.close();
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(baos.toByteArray()));
+    target.readFields(in);
+    assertEquals("Some bytes were not read", 0, in.available());
+    in.close();
+    return target;
+  }
+
+  private void assertSameImage(BufferedImage expected, BufferedImage actual) {
+    assertEquals(expected.getWidth(), actual.getWidth());
+    assertEquals(expected.getHeight(), actual.getHeight());
+    for (int x = 0; x < expected.getWidth(); x++) {
+      for (int y = 0; y < expected.getHeight(); y++) {
+        assertEquals("Different pixel at ("+x+","+y+")",
+            expected.getRGB(x, y), actual.getRGB(x, y));
+      }
+    }
+  }
+
+  public void testWriteReadAllFormats() throws IOException {
+    Rectangle mbr = new Rectangle(0, 0, 100, 100);
+    Random random = new Random(0);
+    for (ImageCanvas.WireFormat format : ImageCanvas.WireFormat.values()) {
+      ImageCanvas canvas = new ImageCanvas(mbr, 64, 48);
+      canvas.setColor(Color.BLUE);
+      canvas.setWireFormat(format);
+      // A few shapes over a mostly transparent image
+      for (int i = 0; i < 20; i++)
+        canvas.drawShape(new Point(random.nextDouble() * 100, random.nextDouble() * 100));
+      canvas.drawShape(new Rectangle(10, 10, 30, 40));
+      // A few pixels with distinct colors to exercise literal runs
+      BufferedImage image = canvas.getImage();
+      for (int x = 0; x < 10; x++)
+        image.setRGB(x, 47, random.nextInt());
+
+      ImageCanvas read = writeAndRead(canvas, new ImageCanvas());
+      assertEquals(format, read.getWireFormat());
+      assertEquals(canvas.getInputMBR(), read.getInputMBR());
+      assertSameImage(canvas.getImage(), read.getImage());
+    }
+  }
+
+  public void testReuseCanvasWhileReading() throws IOException {
+    Rectangle mbr = new Rectangle(0, 0, 10, 10);
+    ImageCanvas target = new ImageCanvas(new Rectangle(), 1, 1);
+    ImageCanvas full = new ImageCanvas(mbr, 20, 20);
+    for (int x = 0; x < 20; x++)
+      for (int y = 0; y < 20; y++)
+        full.getImage().setRGB(x, y, 0xff000000 | (x * 20 + y));
+    assertSameImage(full.getImage(), writeAndRead(full, target).getImage());
+
+    // An empty canvas of the same size should overwrite all pixels
+    ImageCanvas empty = new ImageCanvas(mbr, 20, 20);
+    assertSameImage(empty.getImage(), writeAndRead(empty, target).getImage());
+  }
+}
@@ -0,0 +1,114 @@
+package edu.umn.cs.spatialHadoop.visualization;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import edu.umn.cs.spatialHadoop.BaseTest;
+import edu.umn.cs.spatialHadoop.OperationsParams;
+
+public class TileArchiveTest extends BaseTest {
+
+  private static byte[] tileData(int z, int x, int y) {
+    return ("tile-" + z + "-" + x + "-" + y).getBytes();
+  }
+
+  public void testWriteMergeAndRead() throws IOException {
+    FileSystem fs = scratchPath.getFileSystem(new OperationsParams());
+    // Two reducers that write their tiles in a different order
+    TileArchive.Writer writer1 = new TileArchive.Writer(fs, new Path(scratchPath, "part-r-00000"));
+    TileArchive.Writer writer2 = new TileArchive.Writer(fs, new Path(scratchPath, "part-r-00001"));
+    for (int z = 0; z < 4; z++) {
+      for (int x = (1 << z) - 1; x >= 0; x--) {
+        for (int y = 0; y < (1 << z); y++) {
+          byte[] data = tileData(z, x, y);
+          TileArchive.Writer writer = (x + y) % 2 == 0 ? writer1 : writer2;
+          writer.append(TileIndex.encode(z, x, y), TileArchive.ImageTile, data, 0, data.length);
+        }
+      }
+    }
+    byte[] data = "1,2\n3,4\n".getBytes();
+    writer2.append(TileIndex.encode(2, 1, 1), TileArchive.DataTile, data, 0, data.length);
+    writer1.close();
+    writer2.close();
+
+    assertFalse(TileArchive.exists(fs, scratchPath));
+    assertEquals(1 + 4 + 16 + 64 + 1, TileArchive.mergeDirectories(fs, scratchPath));
+    assertTrue(TileArchive.exists(fs, scratchPath));
+
+    TileArchive archive = new TileArchive(fs, scratchPath);
+    assertEquals(86, archive.getNumTiles());
+    for (int z = 0; z < 4; z++) {
+      for (int x = 0; x < (1 << z); x++) {
+        for (int y = 0; y < (1 << z); y++) {
+          assertTrue(Arrays.equals(tileData(z, x, y),
+              archive.getTile(z, x, y, TileArchive.ImageTile)));
+        }
+      }
+    }
+    assertTrue(Arrays.equals(data, archive.getTile("tile-2-1-1.txt")));
+    assertTrue(Arrays.equals(tileData(3, 5, 2), archive.getTile("tile-3-5-2.png")));
+    assertNull(archive.getTile("tile-5-0-0.png"));
+    assertNull(archive.getTile("tile-2-1-2.txt"));
+    archive.close();
+  }
+
+  public void testDataTileFragments() throws IOException {
+    FileSystem fs = scratchPath.getFileSystem(new OperationsParams());
+    TileArchive.Writer writer = new TileArchive.Writer(fs, new Path(scratchPath, "part-r-00000"));
+    long tile1 = TileIndex.encode(1, 0, 1);
+    long tile2 = TileIndex.encode(1, 1, 1);
+    // Fragments of two tiles are interleaved with an image of the same tile
+    writer.append(tile2, TileArchive.DataTile, "c\n".getBytes(), 0, 2);
+    writer.append(tile1, TileArchive.DataTile, "a\n".getBytes(), 0, 2);
+    writer.append(tile1, TileArchive.ImageTile, "image".getBytes(), 0, 5);
+    writer.append(tile2, TileArchive.DataTile, "d\n".getBytes(), 0, 2);
+    writer.append(tile1, TileArchive.DataTile, "b\n".getBytes(), 0, 2);
+    writer.close();
+    TileArchive.mergeDirectories(fs, scratchPath);
+
+    TileArchive archive = new TileArchive(fs, scratchPath);
+    assertEquals("a\nb\n", new String(archive.getTile("tile-1-0-1.txt")));
+    assertEquals("c\nd\n", new String(archive.getTile("tile-1-1-1.txt")));
+    assertEquals("image", new String(archive.getTile("tile-1-0-1.png")));
+    archive.close();
+  }
+
+  public void testReplacedCachedArchiveStaysOpenForItsUsers() throws IOException {
+    FileSystem fs = scratchPath.getFileSystem(new OperationsParams());
+    TileArchive.Writer writer = new TileArchive.Writer(fs, new Path(scratchPath, "part-r-00000"));
+    byte[] data = tileData(3, 5, 2);
+    writer.append(TileIndex.encode(3, 5, 2), TileArchive.ImageTile, data, 0, data.length);
+    writer.close();
+    TileArchive.mergeDirectories(fs, scratchPath);
+
+    TileArchive archive1 = TileArchive.openCached(fs, scratchPath);
+    TileArchive archive2 = TileArchive.openCached(fs, scratchPath);
+    assertSame(archive1, archive2);
+    assertTrue(Arrays.equals(data, archive2.getTile("tile-3-5-2.png")));
+    archive2.close();
+
+    // A newer index is not checked until the check interval passes
+    Path indexPath = new Path(scratchPath, TileArchive.IndexFileName);
+    fs.setTimes(indexPath, fs.getFileStatus(indexPath).getModificationTime() + 1000, -1);
+    TileArchive archive3 = TileArchive.openCached(fs, scratchPath);
+    assertSame(archive1, archive3);
+    archive3.close();
+
+    // A newer index replaces the cached archive while it is still in use
+    long checkInterval = TileArchive.indexCheckInterval;
+    TileArchive.indexCheckInterval = 0;
+    try {
+      archive3 = TileArchive.openCached(fs, scratchPath);
+    } finally {
+      TileArchive.indexCheckInterval = checkInterval;
+    }
+    assertNotSame(archive1, archive3);
+    assertTrue(Arrays.equals(data, archive1.getTile("tile-3-5-2.png")));
+    archive1.close();
+    assertTrue(Arrays.equals(data, archive3.getTile("tile-3-5-2.png")));
+    archive3.close();
+  }
+}